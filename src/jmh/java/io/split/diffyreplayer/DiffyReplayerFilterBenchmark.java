@@ -0,0 +1,81 @@
+package io.split.diffyreplayer;
+
+import io.split.diffyreplayer.benchmark.BenchmarkRequests;
+import io.split.diffyreplayer.condition.FastSampler;
+import io.split.diffyreplayer.condition.PercentageCondition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost added to every request of an annotated endpoint, from the filter up to handing the snapshot
+ * to the replayer. The replay itself is not sent.
+ *
+ * It lives in this package because the filter is bound to its condition by package private constructors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DiffyReplayerFilterBenchmark {
+
+    // Unsampled, the shipped low rate, and every request.
+    @Param({"0", "0.01", "1"})
+    public double rate;
+
+    @Param({"16"})
+    public int headers;
+
+    private BenchmarkReplayer replayer;
+    private DiffyReplayerFilter filter;
+    private ContainerRequestContext request;
+
+    @Setup
+    public void setUp() {
+        replayer = new BenchmarkReplayer();
+        filter = new DiffyReplayerFilter(replayer, new PercentageCondition(new FastSampler(rate)) { }, null);
+        request = BenchmarkRequests.request(
+                "https://sdk.split.io/api/segmentChanges/employees?since=1506703262916", headers);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        replayer.close();
+    }
+
+    @Benchmark
+    public ReplaySnapshot filter() {
+        filter.filter(request);
+        return replayer.last;
+    }
+
+    /**
+     * Keeps the snapshot instead of sending it, so only the request path is measured.
+     */
+    private static final class BenchmarkReplayer extends DiffyReplayer {
+        private volatile ReplaySnapshot last;
+
+        private BenchmarkReplayer() {
+            super(DiffyReplayerProperties.getInstance());
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean replay(ReplaySnapshot original, String group) {
+            last = original;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package io.split.diffyreplayer.benchmark;
+
+import com.google.common.collect.Maps;
+import io.split.diffyreplayer.DiffyIdParser;
+import io.split.diffyreplayer.DiffyReplayerProperties;
+import io.split.diffyreplayer.template.PathTemplateTrie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Cost of building the Canonical-Resource of a replayed path.
+ *
+ * SHIPPED uses the diffyreplayer.patterns of this repository, SYNTHETIC_REGEX and SYNTHETIC_TEMPLATES
+ * a service with {@link #RESOURCES} endpoints, described with regular expressions or with path templates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DiffyIdParserBenchmark {
+
+    private static final int RESOURCES = 1000;
+    // Power of two, so the next path is picked with a mask.
+    private static final int PATHS = 4096;
+
+    @Param({"SHIPPED", "SYNTHETIC_REGEX", "SYNTHETIC_TEMPLATES"})
+    public String patterns;
+
+    // 0 disables the cache, 10000 is the default.
+    @Param({"0", "10000"})
+    public long cacheSize;
+
+    private DiffyIdParser parser;
+    private String[] paths;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Map<Pattern, String> regexes = Maps.newLinkedHashMap();
+        PathTemplateTrie templates = new PathTemplateTrie();
+        switch (patterns) {
+            case "SHIPPED":
+                regexes = DiffyReplayerProperties.getInstance().getPatterns();
+                templates = DiffyReplayerProperties.getInstance().getTemplates();
+                break;
+            case "SYNTHETIC_REGEX":
+                for (int i = 0; i < RESOURCES; i++) {
+                    regexes.put(Pattern.compile("^api/resource" + i + "/[0-9]+"), "resource" + i + "/ID");
+                }
+                break;
+            default:
+                for (int i = 0; i < RESOURCES; i++) {
+                    templates.add("api/resource" + i + "/{ID:int}");
+                }
+                break;
+        }
+        parser = new DiffyIdParser(regexes, templates, cacheSize);
+
+        // Mostly repeated hot paths with a tail of ids, like real traffic.
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        paths = new String[PATHS];
+        for (int i = 0; i < PATHS; i++) {
+            switch (i % 4) {
+                case 0:
+                    paths[i] = "/api/segmentChanges/segment" + random.nextInt(50);
+                    break;
+                case 1:
+                    paths[i] = "/api/splitChanges/" + UUID.randomUUID();
+                    break;
+                default:
+                    paths[i] = "/api/resource" + random.nextInt(RESOURCES) + "/" + random.nextInt(2000);
+                    break;
+            }
+        }
+    }
+
+    @Benchmark
+    public String convert() {
+        return parser.convert(paths[next++ & (PATHS - 1)]);
+    }
+}
@@ -0,0 +1,47 @@
+package io.split.diffyreplayer.benchmark;
+
+import io.split.diffyreplayer.DiffyIdParser;
+import io.split.diffyreplayer.DiffyReplayerProperties;
+import io.split.diffyreplayer.DiffyReplayerRequestBuilder;
+import io.split.diffyreplayer.ReplaySnapshot;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a snapshot into the request sent to Diffy, with the shipped patterns and a warm cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DiffyReplayerRequestBuilderBenchmark {
+
+    // A bare SDK call, a browser call, and a call behind several proxies with tracing headers.
+    @Param({"4", "16", "48"})
+    public int headers;
+
+    private DiffyReplayerRequestBuilder builder;
+    private ReplaySnapshot snapshot;
+
+    @Setup
+    public void setUp() {
+        DiffyReplayerProperties properties = DiffyReplayerProperties.getInstance();
+        builder = new DiffyReplayerRequestBuilder("http://diffy.local:8880",
+                new DiffyIdParser(properties.getPatterns(), properties.getTemplates(), 10000));
+        snapshot = ReplaySnapshot.of("GET", "/api/segmentChanges/employees", "since=1506703262916",
+                BenchmarkRequests.headerNames(headers), BenchmarkRequests.headerValues(headers));
+    }
+
+    @Benchmark
+    public HttpRequestBase build() {
+        return builder.build(snapshot);
+    }
+}
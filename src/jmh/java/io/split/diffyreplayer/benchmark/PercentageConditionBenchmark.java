@@ -0,0 +1,95 @@
+package io.split.diffyreplayer.benchmark;
+
+import io.split.diffyreplayer.condition.FastSampler;
+import io.split.diffyreplayer.condition.PercentageCondition;
+import io.split.diffyreplayer.condition.SecureSampler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of PercentageCondition.replay() when many request threads sample at the same time.
+ *
+ * LEGACY is the implementation before the Sampler abstraction: nextDouble() on a shared SecureRandom.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PercentageConditionBenchmark {
+
+    @Param({"LEGACY", "SECURE", "FAST"})
+    public String sampler;
+
+    @Param({"0.2"})
+    public double rate;
+
+    private PercentageCondition condition;
+
+    @Setup
+    public void setUp() {
+        switch (sampler) {
+            case "LEGACY":
+                condition = new LegacyCondition(rate);
+                break;
+            case "SECURE":
+                condition = new PercentageCondition(new SecureSampler(rate)) { };
+                break;
+            default:
+                condition = new PercentageCondition(new FastSampler(rate)) { };
+                break;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean threads01() {
+        return condition.replay();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean threads04() {
+        return condition.replay();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean threads16() {
+        return condition.replay();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean threads64() {
+        return condition.replay();
+    }
+
+    /**
+     * Copy of the PercentageCondition before the Sampler abstraction.
+     */
+    private static class LegacyCondition extends PercentageCondition {
+        private final static Random secureRandom = new SecureRandom();
+        private final double expected;
+
+        LegacyCondition(double expected) {
+            super(() -> false);
+            this.expected = expected;
+        }
+
+        @Override
+        public boolean replay() {
+            double actual = secureRandom.nextDouble();
+            return actual < expected;
+        }
+    }
+}
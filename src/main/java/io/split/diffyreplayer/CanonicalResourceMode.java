@@ -0,0 +1,16 @@
+package io.split.diffyreplayer;
+
+/**
+ * How the Canonical-Resource header sent to Diffy is built, configured with DIFFY_CANONICAL_MODE.
+ */
+public enum CanonicalResourceMode {
+    /**
+     * The raw path of each replay is rewritten with the patterns and templates of the pattern file.
+     */
+    PATTERN,
+    /**
+     * The @Path templates of the matched resource class and method are used, computed once per resource method.
+     * The pattern file still applies to the template, so it can be used to override the name of an endpoint.
+     */
+    PATH_TEMPLATE
+}
@@ -1,24 +1,66 @@
 package io.split.diffyreplayer;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import io.split.diffyreplayer.template.PathTemplateTrie;
 
 import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
  * In charge of parsing the endpoint URI and transforming it if it matches a pattern defined in the patterns file.
+ *
+ * Path templates are tried first, in a single pass over the URI. If none matches, the regular expressions
+ * are applied one after the other.
+ *
+ * Optionally keeps the results in a size bounded cache keyed by the raw URI, since most of the traffic
+ * goes to a few thousand hot URIs.
  */
 public class DiffyIdParser {
 
     private final Map<Pattern, String> patterns;
+    private final PathTemplateTrie templates;
+    // Null when caching is disabled.
+    private final Cache<String, String> cache;
 
     /**
-     * Default Constructor
+     * Default Constructor, without cache.
      *
      * @param patterns the map of patterns that are going to be used to replace the URIS
      */
     public DiffyIdParser(Map<Pattern, String> patterns) {
+        this(patterns, 0);
+    }
+
+    /**
+     * Constructor with a cache of converted URIs.
+     *
+     * @param patterns the map of patterns that are going to be used to replace the URIS
+     * @param cacheSize max amount of URIs kept in the cache, 0 disables the cache.
+     */
+    public DiffyIdParser(Map<Pattern, String> patterns, long cacheSize) {
+        this(patterns, new PathTemplateTrie(), cacheSize);
+    }
+
+    /**
+     * Constructor with path templates and a cache of converted URIs.
+     *
+     * @param patterns the map of patterns that are going to be used when no template matches.
+     * @param templates the path templates, tried before the patterns.
+     * @param cacheSize max amount of URIs kept in the cache, 0 disables the cache.
+     */
+    public DiffyIdParser(Map<Pattern, String> patterns, PathTemplateTrie templates, long cacheSize) {
+        Preconditions.checkArgument(cacheSize >= 0, "cacheSize can not be negative");
         this.patterns = Preconditions.checkNotNull(patterns);
+        this.templates = Preconditions.checkNotNull(templates);
+        this.cache = cacheSize > 0 ?
+                CacheBuilder.newBuilder()
+                        .maximumSize(cacheSize)
+                        .recordStats()
+                        .build() :
+                null;
     }
 
     /**
@@ -28,6 +70,25 @@ public class DiffyIdParser {
      * @return the parsed and converted response.
      */
     public String convert(String uri) {
+        if (cache == null) {
+            return parse(uri);
+        }
+        String converted = cache.getIfPresent(uri);
+        if (converted == null) {
+            converted = parse(uri);
+            cache.put(uri, converted);
+        }
+        return converted;
+    }
+
+    /**
+     * @return hits, misses and evictions of the cache, all zeroes if the cache is disabled.
+     */
+    public CacheStats getCacheStats() {
+        return cache != null ? cache.stats() : new CacheStats(0, 0, 0, 0, 0, 0);
+    }
+
+    private String parse(String uri) {
         // First we remove starting and trailing "/", to homogenize the Diffy dashboard
         if (uri.endsWith("/")) {
             uri = uri.substring(0, uri.length()-1);
@@ -36,6 +97,13 @@ public class DiffyIdParser {
             uri = uri.substring(1);
         }
 
+        if (templates.size() > 0) {
+            String canonical = templates.match(uri);
+            if (canonical != null) {
+                return canonical;
+            }
+        }
+
         //Simply check if a patter applies.
         for(Map.Entry<Pattern, String> entry : patterns.entrySet()) {
             uri = entry.getKey().matcher(uri).replaceAll(entry.getValue());
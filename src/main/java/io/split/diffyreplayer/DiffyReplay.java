@@ -19,12 +19,18 @@ import java.lang.annotation.Target;
 @NameBinding
 @Retention(RetentionPolicy.RUNTIME)
 @Inherited
-@Target({ElementType.TYPE})
+@Target({ElementType.TYPE, ElementType.METHOD})
 public @interface DiffyReplay {
     // Header used so we do not replay a query that is already a replay query.
     String HEADER = "replayer";
 
     // Condition for replaying or not a request.
     // By default it will accept what is defined in low rate.
+    // A single instance of the condition is shared by all the endpoints that use it.
     Class<? extends DiffyReplayerCondition> condition() default LowRateCondition.class;
+
+    // Group the endpoint is scheduled with by the FAIR executor.
+    // By default each endpoint is its own group, named after its Canonical-Resource if known,
+    // otherwise after its resource method as Class#method.
+    String group() default "";
 }
@@ -0,0 +1,90 @@
+package io.split.diffyreplayer;
+
+import com.google.common.base.Preconditions;
+import io.split.diffyreplayer.condition.DiffyReplayerCondition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves which DiffyReplay annotation applies to an endpoint and keeps one shared instance per condition.
+ */
+final class DiffyReplayConditions {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiffyReplayConditions.class);
+
+    // Conditions are created once by reflection and shared by every endpoint that uses them.
+    private static final ConcurrentMap<Class<? extends DiffyReplayerCondition>, DiffyReplayerCondition> INSTANCES =
+            new ConcurrentHashMap<>();
+
+    private DiffyReplayConditions() {
+    }
+
+    /**
+     * Annotations on Methods take precedence over annotations on Classes.
+     *
+     * @param resourceClass the class of the resource, can be null.
+     * @param resourceMethod the method of the resource, can be null.
+     * @return the annotation that applies or null if the endpoint is not annotated.
+     */
+    static DiffyReplay resolve(Class<?> resourceClass, Method resourceMethod) {
+        if (resourceMethod != null) {
+            DiffyReplay onMethod = resourceMethod.getAnnotation(DiffyReplay.class);
+            if (onMethod != null) {
+                return onMethod;
+            }
+        }
+        return resourceClass != null ? resourceClass.getAnnotation(DiffyReplay.class) : null;
+    }
+
+    /**
+     * The endpoint conditions sample by, see {@link DiffyReplayerCondition#replay(String)}.
+     *
+     * @param resourceMethod the method of the resource, can be null.
+     * @param canonicalResource the Canonical-Resource of the endpoint, null if it is derived from each path.
+     * @return the Canonical-Resource if known, otherwise the resource method, null if neither is known.
+     */
+    static String endpoint(Method resourceMethod, String canonicalResource) {
+        if (canonicalResource != null) {
+            return canonicalResource;
+        }
+        return resourceMethod != null
+                ? resourceMethod.getDeclaringClass().getName() + "#" + resourceMethod.getName()
+                : null;
+    }
+
+    /**
+     * The group the FAIR executor schedules an endpoint with, see {@link DiffyReplay#group()}.
+     *
+     * @param diffyReplay the annotation of the endpoint, can be null.
+     * @param endpoint the endpoint, see {@link #endpoint(Method, String)}.
+     * @return the group in the annotation if any, otherwise the endpoint.
+     */
+    static String group(DiffyReplay diffyReplay, String endpoint) {
+        return diffyReplay != null && !diffyReplay.group().isEmpty() ? diffyReplay.group() : endpoint;
+    }
+
+    /**
+     * @param conditionClass the condition defined in the annotation.
+     * @return the shared instance of the condition, or null if it could not be instantiated.
+     */
+    static DiffyReplayerCondition instance(Class<? extends DiffyReplayerCondition> conditionClass) {
+        Preconditions.checkNotNull(conditionClass);
+
+        DiffyReplayerCondition condition = INSTANCES.get(conditionClass);
+        if (condition != null) {
+            return condition;
+        }
+        try {
+            condition = conditionClass.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            LOG.warn("Failed to instantiate the condition " + conditionClass.getName(), e);
+            return null;
+        }
+        DiffyReplayerCondition existing = INSTANCES.putIfAbsent(conditionClass, condition);
+        return existing != null ? existing : condition;
+    }
+}
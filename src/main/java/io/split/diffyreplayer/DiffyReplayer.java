@@ -1,25 +1,77 @@
 package io.split.diffyreplayer;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.split.diffyreplayer.condition.DiffyReplayerCondition;
-import io.split.diffyreplayer.util.ContainerRequestUtil;
-import org.apache.http.client.methods.CloseableHttpResponse;
+import io.split.diffyreplayer.dedup.ReplayDeduplicator;
+import io.split.diffyreplayer.diff.DiffAggregator;
+import io.split.diffyreplayer.diff.LocalDiffer;
+import io.split.diffyreplayer.diff.ResourceDiffs;
+import io.split.diffyreplayer.executor.DropReason;
+import io.split.diffyreplayer.executor.DroppableReplay;
+import io.split.diffyreplayer.executor.ReplayDropCounter;
+import io.split.diffyreplayer.executor.ReplayExecutor;
+import io.split.diffyreplayer.executor.ReplayExecutors;
+import io.split.diffyreplayer.headers.HeaderPolicy;
+import io.split.diffyreplayer.health.AimdConcurrencyLimit;
+import io.split.diffyreplayer.health.CircuitBreaker;
+import io.split.diffyreplayer.health.CircuitState;
+import io.split.diffyreplayer.health.JvmPressureThrottle;
+import io.split.diffyreplayer.health.ReplayGuard;
+import io.split.diffyreplayer.journal.CaptureJournal;
+import io.split.diffyreplayer.metrics.LatencyComparison;
+import io.split.diffyreplayer.metrics.ReplayMetrics;
+import io.split.diffyreplayer.metrics.ReplayMetricsJmx;
+import io.split.diffyreplayer.metrics.ReplayMetricsSnapshot;
+import io.split.diffyreplayer.metrics.ReplayTimeout;
+import io.split.diffyreplayer.shard.ConsistentHashRing;
+import io.split.diffyreplayer.shard.DiffyTarget;
+import io.split.diffyreplayer.transport.AsyncHttpTransport;
+import io.split.diffyreplayer.transport.PooledHttpTransport;
+import io.split.diffyreplayer.transport.ReplayCallback;
+import io.split.diffyreplayer.transport.ReplayTransport;
+import io.split.diffyreplayer.transport.ReplayWatchdog;
+import io.split.diffyreplayer.transport.TransportType;
+import io.split.diffyreplayer.util.ResourcePathUtil;
+import org.apache.http.Header;
+import org.apache.http.StatusLine;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.pool.PoolStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.core.Response;
+import java.io.Closeable;
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.lang.reflect.Method;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 /**
- * In charge of asynchronously checking if the conditions are met to replay a query.
+ * In charge of asynchronously replaying the sampled queries to Diffy.
  */
 public class DiffyReplayer implements AutoCloseable {
     // Simple Singleton Instance. Since it is only an executor that will sit idle
@@ -29,11 +81,49 @@ public class DiffyReplayer implements AutoCloseable {
     private static DiffyReplayer INSTANCE = null;
 
     private static final Logger LOG = LoggerFactory.getLogger(DiffyReplayer.class);
+    private static final Joiner URLS = Joiner.on(", ");
+    // The key of the single target of LOCAL_DIFF mode.
+    private static final String LOCAL_DIFF_TARGET = "local-diff";
+    // Max wait for the replays in flight to a removed Diffy URL, its connections are closed anyway after that.
+    private static final long RETIRE_TIMEOUT_MS = 60000;
+    private static final long RETIRE_POLL_MS = 100;
+    private static final ThreadFactory RETIRE_THREADS = new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("diffy-replayer-retire-%d")
+            .build();
 
-    private final ExecutorService executor;
-    private final String diffyUrl;
+    private final ReplayExecutor executor;
+    private final int maxConcurrency;
+    // One per Diffy URL, each with its own connection pool and health.
+    private final ConcurrentMap<String, DiffyTarget> targets = new ConcurrentHashMap<>();
+    // Of the Diffy URLs removed at runtime, until their replays in flight complete and they are closed.
+    private final Set<DiffyTarget> retired = ConcurrentHashMap.newKeySet();
+    private final int virtualNodes;
+    // Null when DIFFY_DEDUP_WINDOW_MS is 0.
+    private final ReplayDeduplicator deduplicator;
+    // Null when DIFFY_THROTTLE_INTERVAL_MS is 0.
+    private final JvmPressureThrottle throttle;
+    // How long after sampling a replay is discarded or aborted, 0 when DIFFY_REPLAY_DEADLINE_MS is 0.
+    private final long deadlineNanos;
+    // Null when DIFFY_REPLAY_DEADLINE_MS is 0.
+    private final ReplayWatchdog watchdog;
+    private final ReplayMetrics metrics;
+    private final ReplayMetricsJmx metricsJmx;
+    private final CanonicalResourceMode canonicalResourceMode;
+    private final long idCacheSize;
+    private final HeaderPolicy headerPolicy;
+    // Swapped at once when the Diffy URL or the patterns change.
+    private volatile Destination destination;
+    private final DiffyReplayerProperties properties;
+    private final Consumer<DiffyReplayerConfig> configListener = this::onConfigChange;
+    private final ReplayerMode mode;
+    // Only in LOCAL_DIFF mode.
+    private final DiffAggregator diffAggregator;
+    private final LocalDiffer localDiffer;
+    // Only in CAPTURE mode, null if the journal could not be created.
+    private final CaptureJournal journal;
 
-    public static DiffyReplayer getInstance(){
+    public static synchronized DiffyReplayer getInstance(){
         if(INSTANCE == null){
             INSTANCE= new DiffyReplayer();
         }
@@ -41,7 +131,7 @@ public class DiffyReplayer implements AutoCloseable {
         return INSTANCE;
     }
 
-    public static DiffyReplayer getInstance(String environment){
+    public static synchronized DiffyReplayer getInstance(String environment){
         if(INSTANCE == null){
             INSTANCE= new DiffyReplayer(DiffyReplayerProperties.getInstance(environment));
         }
@@ -57,9 +147,212 @@ public class DiffyReplayer implements AutoCloseable {
     }
 
     public DiffyReplayer(DiffyReplayerProperties diffyReplayerProperties) {
-        this.executor = Executors.newFixedThreadPool(diffyReplayerProperties.getDiffyThreadPool());
-        this.diffyUrl = diffyReplayerProperties.getDiffyUrl();
-        ((ThreadPoolExecutor) executor).setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+        ReplayDropCounter dropCounter = new ReplayDropCounter();
+        this.mode = diffyReplayerProperties.getMode();
+        this.executor = ReplayExecutors.create(diffyReplayerProperties, dropCounter);
+        this.maxConcurrency = executor.getMaxConcurrency();
+        this.virtualNodes = diffyReplayerProperties.getShardVirtualNodes();
+        this.properties = diffyReplayerProperties;
+        if (mode == ReplayerMode.LOCAL_DIFF) {
+            this.diffAggregator = new DiffAggregator(diffyReplayerProperties.getMetricsMaxResources(),
+                    diffyReplayerProperties.getDiffMaxPaths(),
+                    diffyReplayerProperties.getDiffMaxSamples());
+            // The transport comes with each replay, the target is replaced when the URLs are removed and added back.
+            this.localDiffer = new LocalDiffer(diffAggregator,
+                    diffyReplayerProperties.getDiffMaxBodyBytes(),
+                    diffyReplayerProperties.getDiffMaxDifferences());
+        } else {
+            this.diffAggregator = null;
+            this.localDiffer = null;
+        }
+        this.deduplicator = diffyReplayerProperties.getDedupWindowMs() > 0
+                ? new ReplayDeduplicator(diffyReplayerProperties.getDedupWindowMs(),
+                        diffyReplayerProperties.getDedupSlots(),
+                        diffyReplayerProperties.getDedupHeaders(),
+                        Ticker.systemTicker())
+                : null;
+        this.throttle = createThrottle(diffyReplayerProperties);
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(
+                Math.max(0, diffyReplayerProperties.getDiffyReplayDeadlineMs()));
+        this.watchdog = deadlineNanos > 0 ? new ReplayWatchdog() : null;
+        this.metrics = new ReplayMetrics(dropCounter, diffyReplayerProperties.getMetricsMaxResources());
+        this.metrics.registerGauge("queueDepth", executor::getQueueDepth);
+        this.metrics.registerGauge("concurrencyLimit", () -> sum(ReplayGuard::getConcurrencyLimit));
+        this.metrics.registerGauge("inFlight", () -> sum(ReplayGuard::getInFlight));
+        this.metrics.registerGauge("throttleFactor", this::getThrottleFactor);
+        this.metrics.registerGauge("circuitOpen",
+                () -> sum(guard -> guard.getCircuitState() == CircuitState.CLOSED ? 0 : 1));
+        this.metricsJmx = new ReplayMetricsJmx(metrics);
+        this.metricsJmx.register();
+        this.canonicalResourceMode = diffyReplayerProperties.getCanonicalResourceMode();
+        this.idCacheSize = diffyReplayerProperties.getDiffyIdCacheSize();
+        this.headerPolicy = diffyReplayerProperties.getHeaderPolicy();
+        this.metrics.registerGauge("cappedHeaders", headerPolicy::getCappedHeaders);
+        this.destination = createDestination(diffyReplayerProperties.getConfig());
+        this.properties.addListener(configListener);
+        this.journal = mode == ReplayerMode.CAPTURE ? createJournal(diffyReplayerProperties) : null;
+        if (journal != null) {
+            this.metrics.registerGauge("captured", journal::getWritten);
+        }
+    }
+
+    private static JvmPressureThrottle createThrottle(DiffyReplayerProperties diffyReplayerProperties) {
+        long interval = diffyReplayerProperties.getThrottleIntervalMs();
+        if (interval <= 0) {
+            return null;
+        }
+        JvmPressureThrottle throttle = new JvmPressureThrottle(
+                diffyReplayerProperties.getThrottleGcTime(),
+                diffyReplayerProperties.getThrottleHeap(),
+                diffyReplayerProperties.getThrottleCpu(),
+                diffyReplayerProperties.getThrottleRecoveryStep());
+        throttle.start(interval);
+        return throttle;
+    }
+
+    private static CaptureJournal createJournal(DiffyReplayerProperties diffyReplayerProperties) {
+        try {
+            return new CaptureJournal(diffyReplayerProperties.getCaptureDir(),
+                    diffyReplayerProperties.getCaptureSegmentBytes(),
+                    diffyReplayerProperties.getCaptureMaxSegments());
+        } catch (IOException | RuntimeException e) {
+            LOG.error(String.format("Could not create the capture journal in %s, requests will not be captured",
+                    diffyReplayerProperties.getCaptureDir()), e);
+            return null;
+        }
+    }
+
+    /**
+     * Swaps in a new destination when the Diffy URL or the patterns change, the replays already
+     * queued finish with the destination they started with, unless their Diffy URL was removed.
+     */
+    private synchronized void onConfigChange(DiffyReplayerConfig config) {
+        Destination current = destination;
+        if (current.urls.equals(Destination.urls(config, mode))
+                && current.config.getPatterns() == config.getPatterns()
+                && current.config.getTemplates() == config.getTemplates()) {
+            return;
+        }
+        destination = createDestination(config);
+        retireUnused(destination);
+        LOG.info(String.format("Replaying requests to url %s", URLS.join(destination.urls)));
+    }
+
+    /**
+     * Removes the targets the destination does not use, they are closed in the background once their
+     * replays in flight complete. A URL added back later gets a new target.
+     */
+    private void retireUnused(Destination current) {
+        Set<DiffyTarget> used = new HashSet<>();
+        for (Shard shard : current.shards) {
+            used.add(shard.target);
+        }
+        for (DiffyTarget target : targets.values()) {
+            if (!used.contains(target) && targets.remove(target.getUrl(), target)) {
+                target.retire();
+                retired.add(target);
+                RETIRE_THREADS.newThread(() -> closeWhenIdle(target)).start();
+            }
+        }
+    }
+
+    private void closeWhenIdle(DiffyTarget target) {
+        long deadline = System.currentTimeMillis() + RETIRE_TIMEOUT_MS;
+        try {
+            while (target.getGuard().getInFlight() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(RETIRE_POLL_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeRetired(target);
+    }
+
+    private void closeRetired(DiffyTarget target) {
+        if (!retired.remove(target)) {
+            return;
+        }
+        try {
+            target.close();
+        } catch (IOException e) {
+            LOG.warn(String.format("Could not close the connections to %s", target), e);
+        }
+    }
+
+    private Destination createDestination(DiffyReplayerConfig config) {
+        return new Destination(config, idCacheSize, headerPolicy, mode, virtualNodes, this::target);
+    }
+
+    /**
+     * @param url the Diffy URL, or LOCAL_DIFF_TARGET.
+     * @return the target of the URL, created the first time it is used.
+     */
+    private DiffyTarget target(String url) {
+        return targets.computeIfAbsent(url, key -> new DiffyTarget(key,
+                createTransport(properties, maxConcurrency, mode),
+                createGuard(properties, maxConcurrency, mode)));
+    }
+
+    private int sum(ToIntFunction<ReplayGuard> value) {
+        int sum = 0;
+        for (Shard shard : destination.shards) {
+            sum += value.applyAsInt(shard.target.getGuard());
+        }
+        return sum;
+    }
+
+    private static ReplayTransport createTransport(DiffyReplayerProperties diffyReplayerProperties,
+                                                   int maxConcurrency, ReplayerMode mode) {
+        if (mode == ReplayerMode.LOCAL_DIFF) {
+            // The three responses of a replay are read side by side, so three connections per concurrent replay,
+            // one per target.
+            return new PooledHttpTransport(
+                    3 * maxConcurrency,
+                    maxConcurrency,
+                    diffyReplayerProperties.getDiffyIdleConnectionTimeoutMs(),
+                    diffyReplayerProperties.getDiffyRequestConfig());
+        }
+        switch (diffyReplayerProperties.getDiffyTransport()) {
+            case ASYNC:
+                return new AsyncHttpTransport(
+                        diffyReplayerProperties.getDiffyAsyncIoThreads(),
+                        diffyReplayerProperties.getDiffyAsyncMaxInFlight(),
+                        diffyReplayerProperties.getDiffyIdleConnectionTimeoutMs(),
+                        diffyReplayerProperties.getDiffyRequestConfig());
+            case BLOCKING:
+            default:
+                // One shared pool of keep-alive connections, at most one connection per concurrent replay.
+                return new PooledHttpTransport(
+                        maxConcurrency,
+                        diffyReplayerProperties.getDiffyMaxConnectionsPerRoute(),
+                        diffyReplayerProperties.getDiffyIdleConnectionTimeoutMs(),
+                        diffyReplayerProperties.getDiffyRequestConfig());
+        }
+    }
+
+    private static ReplayGuard createGuard(DiffyReplayerProperties diffyReplayerProperties, int maxConcurrency,
+                                           ReplayerMode mode) {
+        Ticker ticker = Ticker.systemTicker();
+        CircuitBreaker breaker = new CircuitBreaker(
+                diffyReplayerProperties.getBreakerFailureThreshold(),
+                diffyReplayerProperties.getBreakerErrorRate(),
+                diffyReplayerProperties.getBreakerMinRequests(),
+                diffyReplayerProperties.getBreakerWindowMs(),
+                diffyReplayerProperties.getBreakerOpenMs(),
+                diffyReplayerProperties.getBreakerProbes(),
+                ticker);
+        // The limit starts at, and never goes over, what the executor or the async transport can handle.
+        int maxLimit = diffyReplayerProperties.getDiffyTransport() == TransportType.ASYNC
+                && mode != ReplayerMode.LOCAL_DIFF
+                ? diffyReplayerProperties.getDiffyAsyncMaxInFlight()
+                : maxConcurrency;
+        AimdConcurrencyLimit concurrencyLimit = new AimdConcurrencyLimit(
+                1,
+                maxLimit,
+                diffyReplayerProperties.getConcurrencyBackoff(),
+                diffyReplayerProperties.getLatencyTargetMs(),
+                ticker);
+        return new ReplayGuard(breaker, concurrencyLimit, ticker);
     }
 
     /**
@@ -68,46 +361,618 @@ public class DiffyReplayer implements AutoCloseable {
      *
      * @param original the original request that might be replayed.
      * @param condition DiffCondition that decides whether to replay or not replay a diffy request.
+     * @deprecated the condition should be evaluated on the request thread, use {@link #replay(ReplaySnapshot)}.
      */
+    @Deprecated
     public void replay(ContainerRequestContext original, DiffyReplayerCondition condition) {
         Preconditions.checkNotNull(original);
+        Preconditions.checkNotNull(condition);
+
+        if (isEnabled() && condition.replay() && !throttle() && admit()) {
+            replay(ReplaySnapshot.of(original));
+        }
+    }
+
+    /**
+     * Asynchronously sends an already sampled request to Diffy, in LOCAL_DIFF mode to the primary, secondary and
+     * candidate, or in CAPTURE mode appends it to the journal.
+     *
+     * @param original the snapshot of the original request, taken on the request thread.
+     * @return whether the replay was queued, or written to the journal in CAPTURE mode.
+     */
+    public boolean replay(ReplaySnapshot original) {
+        return replay(original, original.getCanonicalResource());
+    }
+
+    /**
+     * Same as {@link #replay(ReplaySnapshot)}, for a request of an endpoint group.
+     *
+     * @param original the snapshot of the original request, taken on the request thread.
+     * @param group the group the FAIR executor schedules the replay with, null for the default one.
+     * @return whether the replay was queued, or written to the journal in CAPTURE mode.
+     */
+    public boolean replay(ReplaySnapshot original, String group) {
+        Preconditions.checkNotNull(original);
+
+        // Only after admit(), a replay that was never sent does not suppress the identical ones, see forget().
+        if (!isEnabled() || isDuplicate(original)) {
+            return false;
+        }
+        if (journal != null) {
+            // Only a copy to the mapped segment, cheap enough for the request thread.
+            if (!journal.append(System.currentTimeMillis(), original)) {
+                forget(original);
+                executor.getDropCounter().record(DropReason.CAPTURE_FAILED);
+                return false;
+            }
+            return true;
+        }
+        Destination current = destination;
+        if (current.shards.isEmpty()) {
+            // The Diffy URL was just removed.
+            forget(original);
+            return false;
+        }
+        long enqueuedAt = System.nanoTime();
+        Runnable send = () -> {
+            long startedAt = System.nanoTime();
+            metrics.recordQueueWait(startedAt - enqueuedAt);
+            long deadline = original.getCapturedAt() + deadlineNanos;
+            if (deadlineNanos > 0 && startedAt - deadline >= 0) {
+                // Too old to tell Diffy anything about the current traffic, don't even build the request.
+                forget(original);
+                executor.getDropCounter().record(DropReason.DEADLINE_EXPIRED);
+                return;
+            }
+            Shard shard = acquire(current, original);
+            if (shard == null) {
+                return;
+            }
+            ReplayGuard guard = shard.target.getGuard();
+            boolean sent = false;
+            try {
+                LOG.info(String.format("Replaying request %s to url %s", original.getPathWithQueryParams(),
+                        shard.name));
+                HttpRequestBase[] requests = new HttpRequestBase[shard.requestBuilders.size()];
+                for (int i = 0; i < requests.length; i++) {
+                    requests[i] = shard.requestBuilders.get(i).build(original);
+                }
+                HttpRequestBase request = requests[0];
+                long builtAt = System.nanoTime();
+                metrics.recordBuild(builtAt - startedAt);
+                Header canonicalResource = request.getFirstHeader(DiffyReplayerRequestBuilder.CANONICAL_RESOURCE);
+                String resource = canonicalResource != null ? canonicalResource.getValue() : null;
+                metrics.recordSent(resource);
+                ReplayWatchdog.Watch watch = watchdog != null ? watchdog.watch(deadline, requests) : null;
+                OutcomeCallback outcome = new OutcomeCallback(request, resource, builtAt, watch);
+                ReplayCallback callback = guard.track(outcome);
+                if (localDiffer != null) {
+                    compare((PooledHttpTransport) shard.target.getTransport(), resource, original, requests,
+                            outcome, callback);
+                } else {
+                    shard.target.getTransport().send(request, callback);
+                }
+                sent = true;
+            } catch (RuntimeException e) {
+                LOG.warn(String.format("Failed to replay request %s", original), e);
+            } finally {
+                if (!sent) {
+                    guard.release();
+                }
+            }
+        };
+        QueuedReplay queued = new QueuedReplay(original, send);
+        executor.execute(group, queued);
+        // Discarded right away when the queue is full, later ones were queued for a while at least.
+        if (queued.dropped) {
+            return false;
+        }
+        metrics.recordEnqueued();
+        return true;
+    }
+
+    /**
+     * Routes the replay and acquires its target, see {@link ReplayGuard#tryAcquire()}. A target whose URL was
+     * removed while the replay was queued is skipped, and the replay goes where the current destination says.
+     *
+     * @return the shard to send the replay through, null if the replay was discarded.
+     */
+    private Shard acquire(Destination routed, ReplaySnapshot original) {
+        while (!routed.shards.isEmpty()) {
+            Shard shard = routed.route(original);
+            ReplayGuard guard = shard.target.getGuard();
+            DropReason rejected = guard.tryAcquire();
+            if (rejected != null) {
+                forget(original);
+                executor.getDropCounter().record(rejected);
+                return null;
+            }
+            // Checked once acquired, so a target that is not retired yet is only closed after this replay.
+            if (!shard.target.isRetired()) {
+                return shard;
+            }
+            guard.release();
+            routed = destination;
+        }
+        // The Diffy URL was removed while the replay was queued.
+        forget(original);
+        return null;
+    }
+
+    /**
+     * Records how long the server took to answer a request that was replayed, under the same Canonical-Resource
+     * as its replay, see {@link #getLatencyReport(long)}.
+     *
+     * @param original the snapshot that was replayed.
+     * @param latencyNanos how long the server took to answer it.
+     */
+    public void recordOriginalLatency(ReplaySnapshot original, long latencyNanos) {
+        Preconditions.checkNotNull(original);
+        String resource = original.getCanonicalResource();
+        metrics.recordOriginal(resource != null ? resource : destination.idParser.convert(original.getRawPath()),
+                latencyNanos);
+    }
+
+    /**
+     * Sends the replay to the primary, secondary and candidate, and compares the responses on this thread.
+     * The round trip recorded is the candidate's own, see {@link LocalDiffer.Result#getCandidateNanos()}.
+     */
+    private void compare(PooledHttpTransport transport, String resource, ReplaySnapshot original,
+                         HttpRequestBase[] requests, OutcomeCallback outcome, ReplayCallback callback) {
+        LocalDiffer.Result result;
+        try {
+            result = localDiffer.compare(transport, resource, original.getPathWithQueryParams(),
+                    requests[0], requests[1], requests[2]);
+        } catch (IOException | RuntimeException e) {
+            callback.failed(e);
+            return;
+        }
+        outcome.roundTripNanos = result.getCandidateNanos();
+        callback.completed(result.getStatusLine());
+    }
+
+    private boolean isDuplicate(ReplaySnapshot original) {
+        if (deduplicator != null && deduplicator.isDuplicate(original)) {
+            executor.getDropCounter().record(DropReason.DUPLICATE);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The replay was discarded before being sent, so it no longer counts for the dedup window.
+     */
+    private void forget(ReplaySnapshot original) {
+        if (deduplicator != null) {
+            deduplicator.forget(original);
+        }
+    }
+
+    /**
+     * Scales the sampling rate down while the JVM is under pressure, meant to be called right after
+     * the condition sampled the request and before copying it.
+     *
+     * The replay is counted as discarded when the answer is true.
+     *
+     * @return true when the sampled request should not be replayed.
+     */
+    public boolean throttle() {
+        if (throttle != null && !throttle.tryPass()) {
+            executor.getDropCounter().record(DropReason.THROTTLED);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Cheap check of whether Diffy can take one more replay, meant to be called before copying the request.
+     *
+     * The replay is counted as discarded when the answer is false.
+     *
+     * The concurrency limit is not checked here, replays wait in the queue of the executor for a free thread,
+     * and the ones taken from the queue while the limit is reached are discarded then, as CONCURRENCY_LIMIT,
+     * see {@link ReplayGuard#tryAcquire()}.
+     *
+     * @return false while the circuit breaker is open, with many Diffy Servers only when it is open for
+     * all of them.
+     */
+    public boolean admit() {
+        DropReason rejected = null;
+        for (Shard shard : destination.shards) {
+            rejected = shard.target.getGuard().admit();
+            if (rejected == null) {
+                return true;
+            }
+        }
+        if (rejected != null) {
+            executor.getDropCounter().record(rejected);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Resolves the Canonical-Resource of an endpoint from its @Path templates, when DIFFY_CANONICAL_MODE
+     * is PATH_TEMPLATE. The template still goes through the pattern file, so it can override the name.
+     *
+     * Meant to be called once per endpoint, when it is deployed.
+     *
+     * @param resourceClass the class of the endpoint.
+     * @param resourceMethod the method of the endpoint.
+     * @return the Canonical-Resource, null if it has to be derived from the path of each replay.
+     */
+    public String getCanonicalResource(Class<?> resourceClass, Method resourceMethod) {
+        if (canonicalResourceMode != CanonicalResourceMode.PATH_TEMPLATE) {
+            return null;
+        }
+        String template = ResourcePathUtil.getPathTemplate(resourceClass, resourceMethod);
+        return template != null ? destination.idParser.convert(template) : null;
+    }
+
+    /**
+     * @return whether there is a Diffy Server configured to send the replays to, in LOCAL_DIFF mode whether
+     * the three targets are, or in CAPTURE mode whether there is a journal to write them to.
+     */
+    public boolean isEnabled() {
+        return mode == ReplayerMode.CAPTURE ? journal != null : !destination.shards.isEmpty();
+    }
+
+    /**
+     * @return how many replays were discarded so far, by reason.
+     */
+    public Map<DropReason, Long> getDroppedReplays() {
+        return executor.getDropCounter().snapshot();
+    }
+
+    /**
+     * @return how many replays are waiting for a free thread.
+     */
+    public int getQueueDepth() {
+        return executor.getQueueDepth();
+    }
+
+    /**
+     * @return the state of the circuit breaker in front of Diffy. With many Diffy Servers, CLOSED if all of
+     * them are, OPEN if all of them are, and HALF_OPEN otherwise, see {@link #getCircuitStates()}.
+     */
+    public CircuitState getCircuitState() {
+        Collection<CircuitState> states = getCircuitStates().values();
+        if (states.isEmpty() || states.stream().allMatch(state -> state == CircuitState.CLOSED)) {
+            return CircuitState.CLOSED;
+        }
+        if (states.stream().allMatch(state -> state == CircuitState.OPEN)) {
+            return CircuitState.OPEN;
+        }
+        return CircuitState.HALF_OPEN;
+    }
+
+    /**
+     * @return the state of the circuit breaker in front of each Diffy Server, by URL.
+     */
+    public Map<String, CircuitState> getCircuitStates() {
+        Map<String, CircuitState> states = new LinkedHashMap<>();
+        destination.shards.forEach(shard -> states.put(shard.name, shard.target.getGuard().getCircuitState()));
+        return states;
+    }
+
+    /**
+     * @return how many replays can currently be in flight, adapted to how Diffy is doing. With many Diffy
+     * Servers, the sum of their limits.
+     */
+    public int getConcurrencyLimit() {
+        return sum(ReplayGuard::getConcurrencyLimit);
+    }
+
+    /**
+     * @return the share of the sampled requests that are replayed given the pressure on the JVM, between 0 and 1.
+     */
+    public double getThrottleFactor() {
+        return throttle != null ? throttle.getFactor() : 1;
+    }
+
+    /**
+     * @return the metrics of the replay pipeline, also exposed through JMX.
+     */
+    public ReplayMetrics getMetrics() {
+        return metrics;
+    }
 
-        executor.submit(() -> {
-            if (condition.replay() && !Strings.isNullOrEmpty(diffyUrl)) {
-                String pathWithQueryParams = ContainerRequestUtil.getPathWithQueryParams(original);
-                LOG.info(String.format("Replaying request %s to url %s", pathWithQueryParams, diffyUrl));
-                DiffyReplayerRequestBuilder builder = new DiffyReplayerRequestBuilder(diffyUrl);
-                HttpRequestBase request = builder.build(original);
-                try (CloseableHttpClient client = HttpClientBuilder.create().build()) {
-                    CloseableHttpResponse response = client.execute(request);
-                    int statusCode = response.getStatusLine().getStatusCode();
-                    if (statusCode != Response.Status.OK.getStatusCode()) {
-                        // Just in Case for some reason getURI is null, don't think it can happen.
-                        if (request.getURI() != null) {
-                            LOG.warn(
-                                    String.format("Failed to execute request %s, status code %s, reason %s",
-                                            request.getURI().toString(),
-                                            statusCode,
-                                            response.getStatusLine().getReasonPhrase()));
-                        }
-                    }
-                } catch (IOException e) {
-                    // Just in Case for some reason getURI is null, don't think it can happen.
-                    if (request.getURI() != null) {
-                        // Only printing the exception message since if there is a problem do not
-                        // want to clutter the logs.
-                        LOG.warn(String.format("Failed to execute request %s, reason %s, is Diffy Server up and running?",
-                                request.getURI().toString(), e.getMessage()));
-                    }
+    /**
+     * @return a point in time copy of the metrics of the replay pipeline.
+     */
+    public ReplayMetricsSnapshot getMetricsSnapshot() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * Compares the latency of the replays against the latency of the original requests, so a slower candidate
+     * shows up before it is rolled out. In REPLAY mode the replays go through Diffy, which sends them to the
+     * primary, secondary and candidate before answering, so only the trend between builds of the candidate is
+     * meaningful, not the absolute delta. In LOCAL_DIFF mode the candidate is timed on its own.
+     *
+     * @param minSamples resources with fewer originals or replays than this are left out.
+     * @return the comparisons by Canonical-Resource, the biggest p99 regression first.
+     */
+    public List<LatencyComparison> getLatencyReport(long minSamples) {
+        return metrics.snapshot().getLatencyComparisons(minSamples);
+    }
+
+    /**
+     * @return in LOCAL_DIFF mode, the differences found by Canonical-Resource, empty in the other modes.
+     */
+    public Map<String, ResourceDiffs.Snapshot> getDiffReport() {
+        return diffAggregator != null ? diffAggregator.snapshot() : ImmutableMap.of();
+    }
+
+    /**
+     * @return hits, misses and evictions of the cache of canonical resource names.
+     */
+    public CacheStats getIdParserCacheStats() {
+        return destination.idParser.getCacheStats();
+    }
+
+    /**
+     * @return the stats of the connection pools used to send the replays to Diffy, added up.
+     */
+    public PoolStats getPoolStats() {
+        int leased = 0;
+        int pending = 0;
+        int available = 0;
+        int max = 0;
+        for (DiffyTarget target : targets.values()) {
+            PoolStats stats = target.getTransport().getPoolStats();
+            leased += stats.getLeased();
+            pending += stats.getPending();
+            available += stats.getAvailable();
+            max += stats.getMax();
+        }
+        return new PoolStats(leased, pending, available, max);
+    }
+
+    /**
+     * Where replays are sent, built from a single configuration so the URLs and the patterns always match.
+     */
+    private static final class Destination {
+        private final DiffyReplayerConfig config;
+        private final DiffyIdParser idParser;
+        // The Diffy URLs, or in LOCAL_DIFF mode the primary, secondary and candidate URLs.
+        private final List<String> urls;
+        // Empty when a URL is missing or not valid.
+        private final List<Shard> shards;
+        // Null unless there are many shards.
+        private final ConsistentHashRing<Shard> ring;
+
+        private Destination(DiffyReplayerConfig config, long idCacheSize, HeaderPolicy headerPolicy,
+                            ReplayerMode mode, int virtualNodes, Function<String, DiffyTarget> targets) {
+            this.config = config;
+            // A single parser (and its cache) is shared by all the replays.
+            this.idParser = new DiffyIdParser(config.getPatterns(), config.getTemplates(), idCacheSize);
+            this.urls = urls(config, mode);
+            this.shards = createShards(urls, mode, idParser, headerPolicy, targets);
+            this.ring = shards.size() > 1 ? new ConsistentHashRing<>(shards, shard -> shard.name, virtualNodes) : null;
+        }
+
+        private static List<String> urls(DiffyReplayerConfig config, ReplayerMode mode) {
+            if (mode != ReplayerMode.LOCAL_DIFF) {
+                return config.getDiffyUrls();
+            }
+            return ImmutableList.of(
+                    config.getProperty(DiffyReplayerProperties.DIFFY_PRIMARY_URL, "").trim(),
+                    config.getProperty(DiffyReplayerProperties.DIFFY_SECONDARY_URL, "").trim(),
+                    config.getProperty(DiffyReplayerProperties.DIFFY_CANDIDATE_URL, "").trim());
+        }
+
+        private static List<Shard> createShards(List<String> urls, ReplayerMode mode, DiffyIdParser idParser,
+                                                HeaderPolicy headerPolicy, Function<String, DiffyTarget> targets) {
+            ImmutableList.Builder<DiffyReplayerRequestBuilder> builders = ImmutableList.builder();
+            for (String url : urls) {
+                if (Strings.isNullOrEmpty(url)) {
+                    return ImmutableList.of();
+                }
+                try {
+                    builders.add(new DiffyReplayerRequestBuilder(url, idParser, headerPolicy));
+                } catch (IllegalArgumentException e) {
+                    LOG.error(String.format("URL %s is not valid, requests will not be replayed", url), e);
+                    return ImmutableList.of();
                 }
             }
-        });
+            List<DiffyReplayerRequestBuilder> requestBuilders = builders.build();
+            if (mode == ReplayerMode.LOCAL_DIFF) {
+                // The three targets are compared together, as a single shard.
+                return ImmutableList.of(new Shard(URLS.join(urls), requestBuilders,
+                        targets.apply(LOCAL_DIFF_TARGET)));
+            }
+            ImmutableList.Builder<Shard> shards = ImmutableList.builder();
+            for (int i = 0; i < urls.size(); i++) {
+                shards.add(new Shard(urls.get(i), ImmutableList.of(requestBuilders.get(i)),
+                        targets.apply(urls.get(i))));
+            }
+            return shards.build();
+        }
+
+        /**
+         * Picks the Diffy Server by the Canonical-Resource, so each endpoint always lands on the same one
+         * and its dashboard stays coherent. Only while that Diffy is down, its endpoints go to the next one.
+         */
+        private Shard route(ReplaySnapshot original) {
+            if (ring == null) {
+                return shards.get(0);
+            }
+            String resource = original.getCanonicalResource();
+            return ring.route(resource != null ? resource : idParser.convert(original.getRawPath()),
+                    shard -> shard.target.getGuard().isAvailable());
+        }
+    }
+
+    /**
+     * The requests a replay turns into, and the target they are sent through.
+     */
+    private static final class Shard {
+        // The Diffy URL, or the three URLs in LOCAL_DIFF mode.
+        private final String name;
+        private final List<DiffyReplayerRequestBuilder> requestBuilders;
+        private final DiffyTarget target;
+
+        private Shard(String name, List<DiffyReplayerRequestBuilder> requestBuilders, DiffyTarget target) {
+            this.name = name;
+            this.requestBuilders = requestBuilders;
+            this.target = target;
+        }
     }
 
+    /**
+     * A replay handed to the executor, remembers whether it was discarded instead of run.
+     */
+    private final class QueuedReplay implements DroppableReplay {
+        private final ReplaySnapshot original;
+        private final Runnable send;
+        private volatile boolean dropped;
+
+        private QueuedReplay(ReplaySnapshot original, Runnable send) {
+            this.original = original;
+            this.send = send;
+        }
+
+        @Override
+        public void run() {
+            send.run();
+        }
+
+        @Override
+        public void dropped(DropReason reason) {
+            dropped = true;
+            forget(original);
+        }
+    }
+
+    /**
+     * Measures the replays and logs the ones that failed.
+     *
+     * Failures to reach Diffy are only logged at debug level, the circuit breaker logs when Diffy goes down.
+     */
+    private final class OutcomeCallback implements ReplayCallback {
+        private final HttpRequestBase request;
+        private final String canonicalResource;
+        private final long sentAt;
+        // Null when there is no deadline.
+        private final ReplayWatchdog.Watch watch;
+        // Set in LOCAL_DIFF mode before completing, the time since sentAt covers the three round trips.
+        private long roundTripNanos = -1;
+
+        private OutcomeCallback(HttpRequestBase request, String canonicalResource, long sentAt,
+                                ReplayWatchdog.Watch watch) {
+            this.request = request;
+            this.canonicalResource = canonicalResource;
+            this.sentAt = sentAt;
+            this.watch = watch;
+        }
+
+        @Override
+        public void completed(StatusLine statusLine) {
+            if (watch != null) {
+                watch.done();
+            }
+            int statusCode = statusLine.getStatusCode();
+            metrics.recordResponse(canonicalResource, statusCode,
+                    roundTripNanos >= 0 ? roundTripNanos : System.nanoTime() - sentAt);
+            if (statusCode != Response.Status.OK.getStatusCode()) {
+                // Just in Case for some reason getURI is null, don't think it can happen.
+                if (request.getURI() != null) {
+                    LOG.warn(
+                            String.format("Failed to execute request %s, status code %s, reason %s",
+                                    request.getURI().toString(),
+                                    statusCode,
+                                    statusLine.getReasonPhrase()));
+                }
+            }
+        }
+
+        @Override
+        public void failed(Exception e) {
+            if (watch != null) {
+                watch.done();
+            }
+            metrics.recordFailure(canonicalResource, System.nanoTime() - sentAt);
+            ReplayTimeout timeout = watch != null && watch.isExpired() ? ReplayTimeout.DEADLINE : timeoutOf(e);
+            if (timeout != null) {
+                metrics.recordTimeout(timeout);
+            }
+            // Just in Case for some reason getURI is null, don't think it can happen.
+            if (LOG.isDebugEnabled() && request.getURI() != null) {
+                // Only printing the exception message since if there is a problem do not
+                // want to clutter the logs.
+                LOG.debug(String.format("Failed to execute request %s, reason %s, is Diffy Server up and running?",
+                        request.getURI().toString(), e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * @param e why a replay failed.
+     * @return the stage that timed out, null if the failure was not a timeout.
+     */
+    private static ReplayTimeout timeoutOf(Exception e) {
+        // ConnectionPoolTimeoutException is a ConnectTimeoutException, so it goes first.
+        if (e instanceof ConnectionPoolTimeoutException || e instanceof TimeoutException) {
+            return ReplayTimeout.CONNECTION_REQUEST;
+        }
+        if (e instanceof ConnectTimeoutException) {
+            return ReplayTimeout.CONNECT;
+        }
+        if (e instanceof SocketTimeoutException) {
+            return ReplayTimeout.SOCKET;
+        }
+        return null;
+    }
+
+    /**
+     * Closes every resource, even if one of them fails.
+     *
+     * @throws IOException the first failure, with the later ones suppressed.
+     */
     @Override
-    public void close() throws Exception {
+    public void close() throws IOException {
+        List<Exception> failures = new ArrayList<>();
+        if (properties != null) {
+            closeQuietly(() -> properties.removeListener(configListener), failures);
+        }
         if (executor != null) {
-            executor.shutdown();
+            closeQuietly(executor::shutdown, failures);
+        }
+        for (DiffyTarget target : targets.values()) {
+            closeQuietly(target::close, failures);
+        }
+        for (DiffyTarget target : retired) {
+            closeQuietly(() -> closeRetired(target), failures);
+        }
+        if (metricsJmx != null) {
+            closeQuietly(metricsJmx::close, failures);
+        }
+        if (journal != null) {
+            closeQuietly(journal::close, failures);
+        }
+        if (throttle != null) {
+            closeQuietly(throttle::close, failures);
+        }
+        if (watchdog != null) {
+            closeQuietly(watchdog::close, failures);
+        }
+        if (failures.isEmpty()) {
+            return;
+        }
+        Exception first = failures.get(0);
+        failures.subList(1, failures.size()).forEach(first::addSuppressed);
+        if (first instanceof IOException) {
+            throw (IOException) first;
+        }
+        throw (RuntimeException) first;
+    }
+
+    private static void closeQuietly(Closeable resource, List<Exception> failures) {
+        try {
+            resource.close();
+        } catch (IOException | RuntimeException e) {
+            failures.add(e);
         }
     }
 }
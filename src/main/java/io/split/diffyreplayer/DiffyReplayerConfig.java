@@ -0,0 +1,147 @@
+package io.split.diffyreplayer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import io.split.diffyreplayer.condition.SamplerType;
+import io.split.diffyreplayer.template.PathTemplateTrie;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable snapshot of the Diffy Replayer configuration, published by DiffyReplayerProperties.
+ *
+ * What is read on every request (the rates, the sampler, the Diffy URLs and the patterns) is parsed
+ * once when the snapshot is created, and a snapshot that can't be parsed is never published.
+ * Everything else is only read when the replayer starts, and is parsed from {@link #getProperty(String, String)}.
+ */
+public final class DiffyReplayerConfig {
+
+    private final String environment;
+    private final Properties properties;
+    private final double lowRate;
+    private final double mediumRate;
+    private final double highRate;
+    private final SamplerType samplerType;
+    private final String diffyUrl;
+    private final List<String> diffyUrls;
+    private final int diffyThreadPool;
+    private final Map<Pattern, String> patterns;
+    private final PathTemplateTrie templates;
+
+    /**
+     * @param environment the environment running.
+     * @param properties the properties, copied.
+     * @param patterns the patterns read from PATTERN_FILE, unmodifiable so configurations can share them.
+     * @param templates the path templates read from PATTERN_FILE, must not be modified afterwards.
+     * @throws IllegalArgumentException if a property can not be parsed.
+     */
+    DiffyReplayerConfig(String environment, Properties properties, Map<Pattern, String> patterns,
+                        PathTemplateTrie templates) {
+        this.environment = !Strings.isNullOrEmpty(environment) ? environment : DiffyReplayerProperties.LOCAL_ENVIRONMENT;
+        this.properties = new Properties();
+        this.properties.putAll(properties);
+        this.lowRate = rate(DiffyReplayerProperties.DIFFY_LOW_RATE, "0.01");
+        this.mediumRate = rate(DiffyReplayerProperties.DIFFY_MEDIUM_RATE, "0.2");
+        this.highRate = rate(DiffyReplayerProperties.DIFFY_HIGH_RATE, "0.5");
+        this.samplerType = SamplerType.valueOf(
+                getProperty(DiffyReplayerProperties.DIFFY_SAMPLER, SamplerType.FAST.name()).trim());
+        this.diffyUrl = getProperty(DiffyReplayerProperties.DIFFY_URL, "").trim();
+        this.diffyUrls = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(diffyUrl);
+        for (String url : diffyUrls) {
+            try {
+                new URL(url);
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException(String.format("Diffy URL %s is not valid", url), e);
+            }
+        }
+        Preconditions.checkArgument(ImmutableSet.copyOf(diffyUrls).size() == diffyUrls.size(),
+                "Diffy URLs %s are repeated", diffyUrl);
+        this.diffyThreadPool = Integer.valueOf(getProperty(DiffyReplayerProperties.DIFFY_THREAD_POOL, "10").trim());
+        Preconditions.checkArgument(diffyThreadPool > 0, "%s must be positive", DiffyReplayerProperties.DIFFY_THREAD_POOL);
+        this.patterns = Preconditions.checkNotNull(patterns);
+        this.templates = Preconditions.checkNotNull(templates);
+    }
+
+    private double rate(String key, String defaultValue) {
+        double rate = Double.valueOf(getProperty(key, defaultValue).trim());
+        Preconditions.checkArgument(rate >= 0 && rate <= 1, "%s must be between 0 and 1, got %s", key, rate);
+        return rate;
+    }
+
+    public String getEnvironment() {
+        return environment;
+    }
+
+    public double getLowRate() {
+        return lowRate;
+    }
+
+    public double getMediumRate() {
+        return mediumRate;
+    }
+
+    public double getHighRate() {
+        return highRate;
+    }
+
+    public SamplerType getSamplerType() {
+        return samplerType;
+    }
+
+    /**
+     * @return where the Diffy Server resides, or the comma separated Diffy Servers. Empty if replays are disabled.
+     */
+    public String getDiffyUrl() {
+        return diffyUrl;
+    }
+
+    /**
+     * @return the Diffy Servers the replays are sharded across, empty if replays are disabled.
+     */
+    public List<String> getDiffyUrls() {
+        return diffyUrls;
+    }
+
+    public int getDiffyThreadPool() {
+        return diffyThreadPool;
+    }
+
+    /**
+     * @return the patterns for parsing the URIs, in the order of the pattern file.
+     */
+    public Map<Pattern, String> getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * @return the path templates for parsing the URIs.
+     */
+    public PathTemplateTrie getTemplates() {
+        return templates;
+    }
+
+    /**
+     * @param key the name of the property.
+     * @param defaultValue returned when the property is not set.
+     * @return the raw value of the property.
+     */
+    public String getProperty(String key, String defaultValue) {
+        return properties.getProperty(key, defaultValue);
+    }
+
+    /**
+     * @return a copy of the raw properties.
+     */
+    public Properties getProperties() {
+        Properties copy = new Properties();
+        copy.putAll(properties);
+        return copy;
+    }
+}
@@ -0,0 +1,80 @@
+package io.split.diffyreplayer;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import io.split.diffyreplayer.condition.DiffyReplayerCondition;
+
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Binds a DiffyReplayerFilter, and its DiffyReplayerLatencyFilter, to every endpoint annotated with DiffyReplay.
+ *
+ * The annotation and its condition are resolved once when the application is deployed, so
+ * endpoints that are not annotated do not pay anything per request, and annotated endpoints
+ * don't need any reflection per request. The same goes for the Canonical-Resource when
+ * DIFFY_CANONICAL_MODE is PATH_TEMPLATE.
+ *
+ * <p>
+ *     Add this DynamicFeature to your server instead of the DiffyReplayerFilter, for example
+ *     http://blog.dejavu.sk/2013/11/19/registering-resources-and-providers-in-jersey-2/
+ *
+ *     If you use Guice, simply load DiffyReplayerModule.
+ * </p>
+ */
+@Provider
+public class DiffyReplayerFeature implements DynamicFeature {
+
+    private final DiffyReplayer diffyReplayer;
+
+    /**
+     * Default Constructor.
+     */
+    public DiffyReplayerFeature() {
+        this(DiffyReplayer.getInstance());
+    }
+
+    /**
+     * Constructor to force environment by parameter instead of env var.
+     * @param environment
+     */
+    public DiffyReplayerFeature(String environment) {
+        this(DiffyReplayer.getInstance(environment));
+    }
+
+    /**
+     * Constructor only visible for unit tests, so they can inject the diffyreplayer instance.
+     *
+     * @param diffyReplayer DiffyReplayer used to replay calls.
+     */
+    @VisibleForTesting
+    DiffyReplayerFeature(DiffyReplayer diffyReplayer) {
+        this.diffyReplayer = Preconditions.checkNotNull(diffyReplayer);
+    }
+
+    /**
+     * Registers a filter for the endpoint if it is annotated, directly or through its class, with DiffyReplay.
+     *
+     * @param resourceInfo the endpoint being deployed.
+     * @param context where the filter is registered.
+     */
+    @Override
+    public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+        DiffyReplay diffyReplay = DiffyReplayConditions.resolve(resourceInfo.getResourceClass(),
+                resourceInfo.getResourceMethod());
+        if (diffyReplay == null) {
+            return;
+        }
+        DiffyReplayerCondition condition = DiffyReplayConditions.instance(diffyReplay.condition());
+        if (condition != null) {
+            String canonicalResource = diffyReplayer.getCanonicalResource(resourceInfo.getResourceClass(),
+                    resourceInfo.getResourceMethod());
+            String endpoint = DiffyReplayConditions.endpoint(resourceInfo.getResourceMethod(), canonicalResource);
+            context.register(new DiffyReplayerFilter(diffyReplayer, condition, canonicalResource, endpoint,
+                    DiffyReplayConditions.group(diffyReplay, endpoint)));
+            context.register(new DiffyReplayerLatencyFilter(diffyReplayer));
+        }
+    }
+}
@@ -2,14 +2,17 @@ package io.split.diffyreplayer;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import io.split.diffyreplayer.condition.DiffyReplayerCondition;
+import io.split.diffyreplayer.metrics.ReplayMetrics;
 
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.ContainerRequestFilter;
 import javax.ws.rs.container.ResourceInfo;
 import javax.ws.rs.core.Context;
-import javax.ws.rs.ext.Provider;
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This is where it starts.
@@ -21,27 +24,54 @@ import javax.ws.rs.ext.Provider;
  * replay the requests that have been already replayed.
  *
  * <p>
- *     Add this ContainerRequestFilter to your server, for example
- *     http://blog.dejavu.sk/2013/11/19/registering-resources-and-providers-in-jersey-2/
+ *     The preferred way is to add DiffyReplayerFeature to your server, which registers one instance
+ *     of this filter per annotated endpoint with the condition already resolved.
  *
- *     If you use Guice, simply load DiffyReplayerModule.
+ *     This ContainerRequestFilter can still be added directly to your server, in that case the
+ *     condition is looked up from the ResourceInfo on every request.
  * </p>
  */
 @DiffyReplay
-@Provider
 public class DiffyReplayerFilter implements ContainerRequestFilter {
 
-    private static final Logger LOG = LoggerFactory.getLogger(DiffyReplayerFilter.class);
+    /**
+     * Request property with the System.nanoTime() at which a replayed request was sampled,
+     * read by DiffyReplayerLatencyFilter.
+     */
+    public static final String SAMPLED_AT = "io.split.diffyreplayer.sampledAt";
+
+    /**
+     * Request property with the ReplaySnapshot of a replayed request, read by DiffyReplayerLatencyFilter.
+     */
+    public static final String SNAPSHOT = "io.split.diffyreplayer.snapshot";
 
     @Context
     private ResourceInfo resourceInfo;
     private final DiffyReplayer diffyReplayer;
+    // Resolved when the endpoint is deployed, null if it has to be looked up on every request.
+    private final DiffyReplayerCondition condition;
+    // Resolved when the endpoint is deployed, null if it has to be derived from the path of each replay.
+    private final String canonicalResource;
+    // Resolved when the endpoint is deployed, what the condition samples by.
+    private final String endpoint;
+    // Resolved when the endpoint is deployed, the group the FAIR executor schedules it with.
+    private final String group;
+    // Without DiffyReplayerFeature, the Canonical-Resource is resolved once per resource method and kept here.
+    private final ConcurrentMap<Method, Optional<String>> canonicalResources = new ConcurrentHashMap<>();
+    // Same for the endpoint the condition samples by.
+    private final ConcurrentMap<Method, String> endpoints = new ConcurrentHashMap<>();
+    // Same for the group of the endpoint.
+    private final ConcurrentMap<Method, String> groups = new ConcurrentHashMap<>();
 
     /**
      * Default Constructor.
      */
     public DiffyReplayerFilter() {
         this.diffyReplayer = DiffyReplayer.getInstance();
+        this.condition = null;
+        this.canonicalResource = null;
+        this.endpoint = null;
+        this.group = null;
     }
 
     /**
@@ -50,6 +80,52 @@ public class DiffyReplayerFilter implements ContainerRequestFilter {
      */
     public DiffyReplayerFilter(String environment) {
         this.diffyReplayer = DiffyReplayer.getInstance(environment);
+        this.condition = null;
+        this.canonicalResource = null;
+        this.endpoint = null;
+        this.group = null;
+    }
+
+    /**
+     * Constructor used by DiffyReplayerFeature, for an endpoint which condition is already known.
+     *
+     * @param diffyReplayer DiffyReplayer used to replay calls.
+     * @param condition the condition of the endpoint this filter is bound to.
+     * @param canonicalResource the Canonical-Resource of the endpoint, null to derive it from the path.
+     */
+    DiffyReplayerFilter(DiffyReplayer diffyReplayer, DiffyReplayerCondition condition, String canonicalResource) {
+        this(diffyReplayer, condition, canonicalResource, canonicalResource);
+    }
+
+    /**
+     * Constructor used by DiffyReplayerFeature, for an endpoint which condition is already known.
+     *
+     * @param diffyReplayer DiffyReplayer used to replay calls.
+     * @param condition the condition of the endpoint this filter is bound to.
+     * @param canonicalResource the Canonical-Resource of the endpoint, null to derive it from the path.
+     * @param endpoint what the condition samples by, see {@link DiffyReplayerCondition#replay(String)}.
+     */
+    DiffyReplayerFilter(DiffyReplayer diffyReplayer, DiffyReplayerCondition condition, String canonicalResource,
+                        String endpoint) {
+        this(diffyReplayer, condition, canonicalResource, endpoint, endpoint);
+    }
+
+    /**
+     * Constructor used by DiffyReplayerFeature, for an endpoint which condition is already known.
+     *
+     * @param diffyReplayer DiffyReplayer used to replay calls.
+     * @param condition the condition of the endpoint this filter is bound to.
+     * @param canonicalResource the Canonical-Resource of the endpoint, null to derive it from the path.
+     * @param endpoint what the condition samples by, see {@link DiffyReplayerCondition#replay(String)}.
+     * @param group the group the FAIR executor schedules the endpoint with, see {@link DiffyReplay#group()}.
+     */
+    DiffyReplayerFilter(DiffyReplayer diffyReplayer, DiffyReplayerCondition condition, String canonicalResource,
+                        String endpoint, String group) {
+        this.diffyReplayer = Preconditions.checkNotNull(diffyReplayer);
+        this.condition = Preconditions.checkNotNull(condition);
+        this.canonicalResource = canonicalResource;
+        this.endpoint = endpoint;
+        this.group = group;
     }
 
     /**
@@ -62,6 +138,10 @@ public class DiffyReplayerFilter implements ContainerRequestFilter {
     DiffyReplayerFilter(ResourceInfo resourceInfo, DiffyReplayer diffyReplayer) {
         this.resourceInfo = resourceInfo;
         this.diffyReplayer = diffyReplayer;
+        this.condition = null;
+        this.canonicalResource = null;
+        this.endpoint = null;
+        this.group = null;
     }
 
     /**
@@ -74,22 +154,89 @@ public class DiffyReplayerFilter implements ContainerRequestFilter {
     @Override
     public void filter(ContainerRequestContext original) {
         Preconditions.checkNotNull(original);
-        Preconditions.checkNotNull(resourceInfo);
         // We add that header to the original request and check here so we don't end up
         // doing an infinite loop.
         if (!original.getHeaders().containsKey(DiffyReplay.HEADER)) {
             // We only allow GETS, since we dont want to replay POSTS or PUTS, etc.
             if ("GET".equals(original.getMethod())) {
-                try {
-                    Class<?> diffyClass = resourceInfo.getResourceClass();
-                    DiffyReplay diffyReplayClass = diffyClass.getAnnotation(DiffyReplay.class);
-                    if (diffyReplayClass != null) {
-                        diffyReplayer.replay(original, diffyReplayClass.condition().newInstance());
+                DiffyReplayerCondition endpointCondition = condition != null ? condition : lookupCondition();
+                if (endpointCondition == null || !diffyReplayer.isEnabled()) {
+                    return;
+                }
+                ReplayMetrics metrics = diffyReplayer.getMetrics();
+                metrics.recordSeen();
+                // Sampling happens here, so only the sampled requests are copied and queued.
+                if (!endpointCondition.replay(condition != null ? endpoint : lookupEndpoint())) {
+                    return;
+                }
+                metrics.recordSampled();
+                long sampledAt = System.nanoTime();
+                // While the JVM is under pressure or Diffy can't keep up, sampled requests are
+                // discarded before being copied.
+                if (!diffyReplayer.throttle() && diffyReplayer.admit()) {
+                    ReplaySnapshot snapshot = ReplaySnapshot.of(original,
+                            condition != null ? canonicalResource : lookupCanonicalResource());
+                    // So the latency of the original can be compared against the replay, if there is one.
+                    if (diffyReplayer.replay(snapshot, condition != null ? group : lookupGroup())) {
+                        original.setProperty(SAMPLED_AT, sampledAt);
+                        original.setProperty(SNAPSHOT, snapshot);
                     }
-                } catch (InstantiationException | IllegalAccessException e) {
-                    LOG.warn("Failed to instantiate the condition", e);
                 }
             }
         }
     }
+
+    @VisibleForTesting
+    DiffyReplayerCondition getCondition() {
+        return condition;
+    }
+
+    @VisibleForTesting
+    String getCanonicalResource() {
+        return canonicalResource;
+    }
+
+    @VisibleForTesting
+    String getEndpoint() {
+        return endpoint;
+    }
+
+    @VisibleForTesting
+    String getGroup() {
+        return group;
+    }
+
+    private String lookupCanonicalResource() {
+        Method resourceMethod = resourceInfo.getResourceMethod();
+        if (resourceMethod == null) {
+            return null;
+        }
+        return canonicalResources.computeIfAbsent(resourceMethod, method -> Optional.ofNullable(
+                diffyReplayer.getCanonicalResource(resourceInfo.getResourceClass(), method))).orElse(null);
+    }
+
+    private String lookupEndpoint() {
+        Method resourceMethod = resourceInfo.getResourceMethod();
+        if (resourceMethod == null) {
+            return null;
+        }
+        return endpoints.computeIfAbsent(resourceMethod,
+                method -> DiffyReplayConditions.endpoint(method, lookupCanonicalResource()));
+    }
+
+    private String lookupGroup() {
+        Method resourceMethod = resourceInfo.getResourceMethod();
+        if (resourceMethod == null) {
+            return null;
+        }
+        return groups.computeIfAbsent(resourceMethod, method -> DiffyReplayConditions.group(
+                DiffyReplayConditions.resolve(resourceInfo.getResourceClass(), method), lookupEndpoint()));
+    }
+
+    private DiffyReplayerCondition lookupCondition() {
+        Preconditions.checkNotNull(resourceInfo);
+        DiffyReplay diffyReplay = DiffyReplayConditions.resolve(resourceInfo.getResourceClass(),
+                resourceInfo.getResourceMethod());
+        return diffyReplay != null ? DiffyReplayConditions.instance(diffyReplay.condition()) : null;
+    }
 }
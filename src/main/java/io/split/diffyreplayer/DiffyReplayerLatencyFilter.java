@@ -0,0 +1,65 @@
+package io.split.diffyreplayer;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Response;
+
+/**
+ * Companion of the DiffyReplayerFilter, measures how long the server took to answer the requests that
+ * were replayed, so their latency can be compared against the replays per Canonical-Resource.
+ *
+ * Only successful responses are measured, errors usually fail fast and would hide a slower candidate.
+ *
+ * <p>
+ *     DiffyReplayerFeature registers it along with the DiffyReplayerFilter. If the DiffyReplayerFilter is
+ *     added directly to your server, add this filter too.
+ * </p>
+ */
+@DiffyReplay
+public class DiffyReplayerLatencyFilter implements ContainerResponseFilter {
+
+    private final DiffyReplayer diffyReplayer;
+
+    /**
+     * Default Constructor.
+     */
+    public DiffyReplayerLatencyFilter() {
+        this(DiffyReplayer.getInstance());
+    }
+
+    /**
+     * Constructor to force environment by parameter instead of env var.
+     * @param environment
+     */
+    public DiffyReplayerLatencyFilter(String environment) {
+        this(DiffyReplayer.getInstance(environment));
+    }
+
+    /**
+     * Constructor used by DiffyReplayerFeature and unit tests.
+     *
+     * @param diffyReplayer DiffyReplayer where the latency is recorded.
+     */
+    @VisibleForTesting
+    DiffyReplayerLatencyFilter(DiffyReplayer diffyReplayer) {
+        this.diffyReplayer = Preconditions.checkNotNull(diffyReplayer);
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        Object sampledAt = request.getProperty(DiffyReplayerFilter.SAMPLED_AT);
+        if (!(sampledAt instanceof Long)) {
+            // Not replayed.
+            return;
+        }
+        Object snapshot = request.getProperty(DiffyReplayerFilter.SNAPSHOT);
+        if (snapshot instanceof ReplaySnapshot
+                && response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL) {
+            diffyReplayer.recordOriginalLatency((ReplaySnapshot) snapshot, System.nanoTime() - (Long) sampledAt);
+        }
+    }
+}
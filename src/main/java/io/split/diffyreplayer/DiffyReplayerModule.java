@@ -11,6 +11,6 @@ public class DiffyReplayerModule extends AbstractModule {
 
     @Override
     protected void configure() {
-        bind(DiffyReplayerFilter.class);
+        bind(DiffyReplayerFeature.class);
     }
 }
@@ -1,7 +1,18 @@
 package io.split.diffyreplayer;
 
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.split.diffyreplayer.condition.SamplerType;
+import io.split.diffyreplayer.executor.ExecutorType;
+import io.split.diffyreplayer.executor.ShedPolicy;
+import io.split.diffyreplayer.headers.HeaderPolicy;
+import io.split.diffyreplayer.health.PressureThreshold;
+import io.split.diffyreplayer.template.PathTemplateTrie;
+import io.split.diffyreplayer.transport.TransportType;
+import org.apache.http.client.config.RequestConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -9,9 +20,21 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 /**
@@ -20,12 +43,19 @@ import java.util.regex.Pattern;
  * It loads the property file based on the environment variable "ENVIRONMENT"
  * The file should be in the resources file.
  * If no environment variable is defined, by default it will load the properties diffyreplayer.properties.dev
+ *
+ * <p>
+ *     The parsed properties are kept in an immutable DiffyReplayerConfig behind a single volatile
+ *     reference, so reading them is lock free. The rates, the Diffy URL and the patterns can be changed
+ *     at runtime with {@link #update(Map)}, {@link #reload()} or by watching DIFFY_CONFIG_FILE,
+ *     and the new snapshot is swapped in at once.
+ * </p>
  */
 public class DiffyReplayerProperties {
 
     private static DiffyReplayerProperties INSTANCE = null;
 
-    private final Logger LOG = LoggerFactory.getLogger(DiffyReplayerProperties.class);
+    private static final Logger LOG = LoggerFactory.getLogger(DiffyReplayerProperties.class);
 
     public static final String LOCAL_ENVIRONMENT = "dev";
 
@@ -36,22 +66,151 @@ public class DiffyReplayerProperties {
 
     // At most how many request will be processed by Diffy.
     public static final String DIFFY_THREAD_POOL = "DIFFY_THREAD_POOL";
-    // Where Diffy Server is residing.
+    // Where Diffy Server is residing, or a comma separated list of Diffy Servers to shard the replays across.
     public static final String DIFFY_URL = "DIFFY_URL";
+    // Times each Diffy Server is placed on the consistent hash ring. 128 by Default.
+    public static final String DIFFY_SHARD_VIRTUAL_NODES = "DIFFY_SHARD_VIRTUAL_NODES";
     // Percentage between 0 and 1 for Queries that the frequency is LOW, 0.01 by Default.
     public static final String DIFFY_LOW_RATE = "DIFFY_LOW_RATE";
     // Percentage between 0 and 1 for Queries that the frequency is LOW, 0.2 by Default.
     public static final String DIFFY_MEDIUM_RATE = "DIFFY_MEDIUM_RATE";
     // Percentage between 0 and 1 for Queries that the frequency is LOW, 0.5 by Default.
     public static final String DIFFY_HIGH_RATE = "DIFFY_HIGH_RATE";
-    // Where the patterns for parsing URIS are defined. Empty by Default.
-    private static final String PATTERN_FILE = "PATTERN_FILE";
+    // Max connections kept alive to the same Diffy host, one per concurrent replay by Default.
+    public static final String DIFFY_MAX_CONNECTIONS_PER_ROUTE = "DIFFY_MAX_CONNECTIONS_PER_ROUTE";
+    // Milliseconds a pooled connection to Diffy can be idle before being closed, 30000 by Default.
+    public static final String DIFFY_IDLE_CONNECTION_TIMEOUT_MS = "DIFFY_IDLE_CONNECTION_TIMEOUT_MS";
+    // Milliseconds a replay waits for a free pooled connection, 1000 by Default.
+    public static final String DIFFY_CONNECTION_REQUEST_TIMEOUT_MS = "DIFFY_CONNECTION_REQUEST_TIMEOUT_MS";
+    // Milliseconds a replay waits for the connection to Diffy to be established, 1000 by Default.
+    public static final String DIFFY_CONNECT_TIMEOUT_MS = "DIFFY_CONNECT_TIMEOUT_MS";
+    // Milliseconds a replay waits for the next packet of the response, 5000 by Default.
+    public static final String DIFFY_SOCKET_TIMEOUT_MS = "DIFFY_SOCKET_TIMEOUT_MS";
+    // Milliseconds from sampling after which a replay is discarded or aborted, 0 disables it. 10000 by Default.
+    public static final String DIFFY_REPLAY_DEADLINE_MS = "DIFFY_REPLAY_DEADLINE_MS";
+    // How many replays can wait for a free thread, more replays than this get discarded. 100 by Default.
+    public static final String DIFFY_QUEUE_CAPACITY = "DIFFY_QUEUE_CAPACITY";
+    // Which replay is discarded when the queue is full, see ShedPolicy. DROP_NEWEST by Default.
+    public static final String DIFFY_SHED_POLICY = "DIFFY_SHED_POLICY";
+    // Milliseconds a replay can wait in the queue when using DROP_IF_OLDER_THAN, 5000 by Default.
+    public static final String DIFFY_SHED_MAX_AGE_MS = "DIFFY_SHED_MAX_AGE_MS";
+    // Which threads run the replays, PLATFORM, VIRTUAL or FAIR. PLATFORM by Default.
+    public static final String DIFFY_EXECUTOR = "DIFFY_EXECUTOR";
+    // With the VIRTUAL executor, how many replays can happen concurrently. 1000 by Default.
+    public static final String DIFFY_MAX_CONCURRENT_REPLAYS = "DIFFY_MAX_CONCURRENT_REPLAYS";
+    // With the FAIR executor, replays per turn of each group as group:weight pairs, the rest get 1. None by Default.
+    public static final String DIFFY_FAIR_WEIGHTS = "DIFFY_FAIR_WEIGHTS";
+    // With the FAIR executor, how many replays of a group can happen concurrently. Half the pool by Default.
+    public static final String DIFFY_FAIR_GROUP_MAX_CONCURRENCY = "DIFFY_FAIR_GROUP_MAX_CONCURRENCY";
+    // With the FAIR executor, group:limit pairs overriding DIFFY_FAIR_GROUP_MAX_CONCURRENCY. None by Default.
+    public static final String DIFFY_FAIR_GROUP_LIMITS = "DIFFY_FAIR_GROUP_LIMITS";
+    // With the FAIR executor, how many groups have their own queue. 100 by Default.
+    public static final String DIFFY_FAIR_MAX_GROUPS = "DIFFY_FAIR_MAX_GROUPS";
+    // How replays are sent to Diffy, BLOCKING or ASYNC. BLOCKING by Default.
+    public static final String DIFFY_TRANSPORT = "DIFFY_TRANSPORT";
+    // With the ASYNC transport, max replays waiting for a response from Diffy. 200 by Default.
+    public static final String DIFFY_ASYNC_MAX_IN_FLIGHT = "DIFFY_ASYNC_MAX_IN_FLIGHT";
+    // With the ASYNC transport, how many threads do the network I/O. 1 by Default.
+    public static final String DIFFY_ASYNC_IO_THREADS = "DIFFY_ASYNC_IO_THREADS";
+    // Random generator used by the percentage conditions, FAST or SECURE. FAST by Default.
+    public static final String DIFFY_SAMPLER = "DIFFY_SAMPLER";
+    // How many converted URIs are cached, 0 disables the cache. 10000 by Default.
+    public static final String DIFFY_ID_CACHE_SIZE = "DIFFY_ID_CACHE_SIZE";
+    // How the Canonical-Resource is built, PATTERN or PATH_TEMPLATE. PATTERN by Default.
+    public static final String DIFFY_CANONICAL_MODE = "DIFFY_CANONICAL_MODE";
+    // Consecutive failed replays that open the circuit breaker, 5 by Default.
+    public static final String DIFFY_BREAKER_FAILURE_THRESHOLD = "DIFFY_BREAKER_FAILURE_THRESHOLD";
+    // Error rate between 0 and 1 within a window that opens the circuit breaker, 0.5 by Default.
+    public static final String DIFFY_BREAKER_ERROR_RATE = "DIFFY_BREAKER_ERROR_RATE";
+    // Replays needed within a window before the error rate is considered, 20 by Default.
+    public static final String DIFFY_BREAKER_MIN_REQUESTS = "DIFFY_BREAKER_MIN_REQUESTS";
+    // Milliseconds of the window used for the error rate, 10000 by Default.
+    public static final String DIFFY_BREAKER_WINDOW_MS = "DIFFY_BREAKER_WINDOW_MS";
+    // Milliseconds the circuit breaker stays open before probing Diffy, 5000 by Default.
+    public static final String DIFFY_BREAKER_OPEN_MS = "DIFFY_BREAKER_OPEN_MS";
+    // Consecutive successful probes needed to close the circuit breaker, 3 by Default.
+    public static final String DIFFY_BREAKER_PROBES = "DIFFY_BREAKER_PROBES";
+    // Replays slower than this many milliseconds reduce the concurrency limit, 1000 by Default.
+    public static final String DIFFY_LATENCY_TARGET_MS = "DIFFY_LATENCY_TARGET_MS";
+    // What the concurrency limit is multiplied by when Diffy can't keep up, 0.5 by Default.
+    public static final String DIFFY_CONCURRENCY_BACKOFF = "DIFFY_CONCURRENCY_BACKOFF";
+    // Max Canonical-Resources broken down in the metrics, the rest are counted together. 100 by Default.
+    public static final String DIFFY_METRICS_MAX_RESOURCES = "DIFFY_METRICS_MAX_RESOURCES";
+    // What is done with the sampled requests, REPLAY, LOCAL_DIFF or CAPTURE. REPLAY by Default.
+    public static final String DIFFY_MODE = "DIFFY_MODE";
+    // In CAPTURE mode, where the journal is written. diffy-journal in the temp directory by Default.
+    public static final String DIFFY_CAPTURE_DIR = "DIFFY_CAPTURE_DIR";
+    // In CAPTURE mode, size in bytes of each journal segment. 67108864 (64 MB) by Default.
+    public static final String DIFFY_CAPTURE_SEGMENT_BYTES = "DIFFY_CAPTURE_SEGMENT_BYTES";
+    // In CAPTURE mode, max journal segments kept, the oldest are deleted. 16 by Default.
+    public static final String DIFFY_CAPTURE_MAX_SEGMENTS = "DIFFY_CAPTURE_MAX_SEGMENTS";
+    // How long a replay suppresses the identical ones, 0 disables it. 0 by Default.
+    public static final String DIFFY_DEDUP_WINDOW_MS = "DIFFY_DEDUP_WINDOW_MS";
+    // How many replays are remembered to find the identical ones. 65536 by Default.
+    public static final String DIFFY_DEDUP_SLOTS = "DIFFY_DEDUP_SLOTS";
+    // Comma separated headers that make two replays different. Empty by Default.
+    public static final String DIFFY_DEDUP_HEADERS = "DIFFY_DEDUP_HEADERS";
+    // StratifiedCondition, how many requests of each endpoint are always replayed per interval. 10 by Default.
+    public static final String DIFFY_STRATIFIED_MIN_PER_INTERVAL = "DIFFY_STRATIFIED_MIN_PER_INTERVAL";
+    // StratifiedCondition, the interval of DIFFY_STRATIFIED_MIN_PER_INTERVAL. 60000 by Default.
+    public static final String DIFFY_STRATIFIED_INTERVAL_MS = "DIFFY_STRATIFIED_INTERVAL_MS";
+    // StratifiedCondition, max replays per second of each endpoint after the first ones. 1 by Default.
+    public static final String DIFFY_STRATIFIED_MAX_PER_SECOND = "DIFFY_STRATIFIED_MAX_PER_SECOND";
+    // StratifiedCondition, how many endpoints are tracked. 1024 by Default.
+    public static final String DIFFY_STRATIFIED_MAX_ENDPOINTS = "DIFFY_STRATIFIED_MAX_ENDPOINTS";
+    // How often the JVM pressure throttle is updated, 0 disables it. 1000 by Default.
+    public static final String DIFFY_THROTTLE_INTERVAL_MS = "DIFFY_THROTTLE_INTERVAL_MS";
+    // Share of time in GC pauses at which replays start being throttled and stop. 0.05 and 0.25 by Default.
+    public static final String DIFFY_THROTTLE_GC_TIME_LOW = "DIFFY_THROTTLE_GC_TIME_LOW";
+    public static final String DIFFY_THROTTLE_GC_TIME_HIGH = "DIFFY_THROTTLE_GC_TIME_HIGH";
+    // Heap occupancy after GC at which replays start being throttled and stop. 0.75 and 0.95 by Default.
+    public static final String DIFFY_THROTTLE_HEAP_LOW = "DIFFY_THROTTLE_HEAP_LOW";
+    public static final String DIFFY_THROTTLE_HEAP_HIGH = "DIFFY_THROTTLE_HEAP_HIGH";
+    // CPU load of the process at which replays start being throttled and stop. 0.8 and 0.95 by Default.
+    public static final String DIFFY_THROTTLE_CPU_LOW = "DIFFY_THROTTLE_CPU_LOW";
+    public static final String DIFFY_THROTTLE_CPU_HIGH = "DIFFY_THROTTLE_CPU_HIGH";
+    // How much the throttle factor can recover per interval. 0.1 by Default.
+    public static final String DIFFY_THROTTLE_RECOVERY_STEP = "DIFFY_THROTTLE_RECOVERY_STEP";
+    // Comma separated headers, only these are sent to Diffy. Empty by Default, meaning all of them.
+    public static final String DIFFY_HEADER_ALLOW = "DIFFY_HEADER_ALLOW";
+    // Comma separated headers that are not sent to Diffy. Empty by Default.
+    public static final String DIFFY_HEADER_DENY = "DIFFY_HEADER_DENY";
+    // Comma separated Name:value pairs, headers sent to Diffy with that value instead of the original one. Empty by Default.
+    public static final String DIFFY_HEADER_REWRITES = "DIFFY_HEADER_REWRITES";
+    // Header values longer than this are not sent to Diffy. 8192 by Default.
+    public static final String DIFFY_HEADER_MAX_LENGTH = "DIFFY_HEADER_MAX_LENGTH";
+    // Max size of all the headers sent to Diffy, the rest are dropped. 32768 by Default.
+    public static final String DIFFY_HEADER_MAX_TOTAL_LENGTH = "DIFFY_HEADER_MAX_TOTAL_LENGTH";
+    // In LOCAL_DIFF mode, where the current code runs. Reloaded at runtime like DIFFY_URL.
+    public static final String DIFFY_PRIMARY_URL = "DIFFY_PRIMARY_URL";
+    // In LOCAL_DIFF mode, another instance of the current code, to tell noise apart.
+    public static final String DIFFY_SECONDARY_URL = "DIFFY_SECONDARY_URL";
+    // In LOCAL_DIFF mode, where the code being tested runs.
+    public static final String DIFFY_CANDIDATE_URL = "DIFFY_CANDIDATE_URL";
+    // In LOCAL_DIFF mode, max bytes of the three bodies of a replay kept to diff them. 262144 by Default.
+    public static final String DIFFY_DIFF_MAX_BODY_BYTES = "DIFFY_DIFF_MAX_BODY_BYTES";
+    // In LOCAL_DIFF mode, max differences reported per replay. 20 by Default.
+    public static final String DIFFY_DIFF_MAX_DIFFERENCES = "DIFFY_DIFF_MAX_DIFFERENCES";
+    // In LOCAL_DIFF mode, max paths counted per Canonical-Resource. 100 by Default.
+    public static final String DIFFY_DIFF_MAX_PATHS = "DIFFY_DIFF_MAX_PATHS";
+    // In LOCAL_DIFF mode, how many replays that differed are kept per Canonical-Resource. 10 by Default.
+    public static final String DIFFY_DIFF_MAX_SAMPLES = "DIFFY_DIFF_MAX_SAMPLES";
+    // Properties file in the file system that overrides the one in the resources folder. Empty by Default.
+    public static final String DIFFY_CONFIG_FILE = "DIFFY_CONFIG_FILE";
+    // How often DIFFY_CONFIG_FILE is checked for changes, 0 disables it. 5000 by Default.
+    public static final String DIFFY_CONFIG_POLL_MS = "DIFFY_CONFIG_POLL_MS";
+    // Where the patterns for parsing URIS are defined, in the resources folder or the file system. Empty by Default.
+    public static final String PATTERN_FILE = "PATTERN_FILE";
 
-    private final Properties properties = new Properties();
-    private String environment;
-    private final Map<Pattern, String> patterns = Maps.newLinkedHashMap();
+    private final String environment;
+    // The properties given to the constructor, null when they are read from the resources folder.
+    private final Properties base;
+    private volatile DiffyReplayerConfig config;
+    private final List<Consumer<DiffyReplayerConfig>> listeners = new CopyOnWriteArrayList<>();
+    // Only when DIFFY_CONFIG_FILE is watched.
+    private ScheduledExecutorService watcher;
 
-    public static DiffyReplayerProperties getInstance(String environment){
+    public static synchronized DiffyReplayerProperties getInstance(String environment){
         if(INSTANCE == null) {
             INSTANCE  = new DiffyReplayerProperties(environment);
         }
@@ -59,7 +218,7 @@ public class DiffyReplayerProperties {
         return INSTANCE;
     }
 
-    public static DiffyReplayerProperties getInstance(){
+    public static synchronized DiffyReplayerProperties getInstance(){
         if(INSTANCE == null) {
             INSTANCE  = new DiffyReplayerProperties();
         }
@@ -75,15 +234,126 @@ public class DiffyReplayerProperties {
      * Default Constructor that loads the properties file.
      */
     private DiffyReplayerProperties(String env) {
+        this.environment = env;
+        this.base = null;
         try {
-            environment = env;
-            String envFile = String.format(DIFFY_FILE, environment);
-            LOG.info("diffyreplayer.properties file to be load: " + envFile);
-            InputStream diffyProperties = getClass().getResourceAsStream(envFile);
+            this.config = load();
+        } catch (IllegalArgumentException e) {
+            LOG.error("Failed to parse the properties for diffy replayer, requests will not be replayed", e);
+            this.config = new DiffyReplayerConfig(environment, new Properties(), Collections.emptyMap(),
+                    new PathTemplateTrie());
+        }
+        watch();
+    }
+
+    /**
+     * Constructor for properties that do not come from the resources folder. PATTERN_FILE and
+     * DIFFY_CONFIG_FILE are still read.
+     *
+     * @param environment the environment running.
+     * @param properties the properties, copied.
+     * @throws IllegalArgumentException if a property can not be parsed.
+     */
+    public DiffyReplayerProperties(String environment, Properties properties) {
+        this.environment = environment;
+        this.base = new Properties();
+        this.base.putAll(properties);
+        this.config = load();
+        watch();
+    }
+
+    /**
+     * @return the current configuration, a lock free read.
+     */
+    public DiffyReplayerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Atomically swaps in a configuration with some properties changed, the rest stay as they are.
+     *
+     * The patterns are only read again if PATTERN_FILE changes. Changes are lost on the next {@link #reload()}.
+     *
+     * @param changes the properties to change, a null value removes the property.
+     * @return the new configuration.
+     * @throws IllegalArgumentException if a property can not be parsed, the configuration is not changed.
+     */
+    public synchronized DiffyReplayerConfig update(Map<String, String> changes) {
+        Preconditions.checkNotNull(changes);
+
+        DiffyReplayerConfig current = config;
+        Properties properties = current.getProperties();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() != null) {
+                properties.setProperty(change.getKey(), change.getValue());
+            } else {
+                properties.remove(change.getKey());
+            }
+        }
+        return publish(build(properties, current));
+    }
+
+    /**
+     * Reads the properties file, DIFFY_CONFIG_FILE and the pattern file again, and atomically swaps in the result.
+     * Properties given to the constructor are used instead of the properties file.
+     *
+     * @return the new configuration.
+     * @throws IllegalArgumentException if a property can not be parsed, the configuration is not changed.
+     */
+    public synchronized DiffyReplayerConfig reload() {
+        return publish(load());
+    }
+
+    /**
+     * @param listener called with the new configuration every time it changes, from the thread that changed it.
+     */
+    public void addListener(Consumer<DiffyReplayerConfig> listener) {
+        listeners.add(Preconditions.checkNotNull(listener));
+    }
+
+    public void removeListener(Consumer<DiffyReplayerConfig> listener) {
+        listeners.remove(listener);
+    }
+
+    private DiffyReplayerConfig publish(DiffyReplayerConfig updated) {
+        config = updated;
+        LOG.info("Diffy Replayer configuration updated: " + updated.getProperties().entrySet());
+        for (Consumer<DiffyReplayerConfig> listener : listeners) {
+            try {
+                listener.accept(updated);
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to apply the new diffy replayer configuration", e);
+            }
+        }
+        return updated;
+    }
+
+    private DiffyReplayerConfig load() {
+        Properties properties = new Properties();
+        if (base != null) {
+            properties.putAll(base);
+        } else {
+            loadResource(properties);
+        }
+        Path overrides = configFile(properties);
+        if (overrides != null) {
+            try (BufferedReader reader = Files.newBufferedReader(overrides, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+                LOG.info("Loaded Diffy Replayer properties from " + overrides);
+            } catch (IOException e) {
+                LOG.warn("Could not load diffy replayer properties from " + overrides, e);
+            }
+        }
+        return build(properties, null);
+    }
+
+    private void loadResource(Properties properties) {
+        String envFile = String.format(DIFFY_FILE, environment);
+        LOG.info("diffyreplayer.properties file to be load: " + envFile);
+        try (InputStream diffyProperties = getClass().getResourceAsStream(envFile)) {
             if (diffyProperties != null) {
                 properties.load(diffyProperties);
                 LOG.info("Loaded Diffy Replayer properties: " + properties.entrySet());
-                populatePatterns();
             } else {
                 LOG.warn("Could not find diffyreplayer.properties file");
             }
@@ -92,12 +362,77 @@ public class DiffyReplayerProperties {
         }
     }
 
+    /**
+     * @param previous its patterns are reused if PATTERN_FILE did not change, null to always read them.
+     */
+    private DiffyReplayerConfig build(Properties properties, DiffyReplayerConfig previous) {
+        String patternFile = properties.getProperty(PATTERN_FILE, "");
+        if (previous != null && patternFile.equals(previous.getProperty(PATTERN_FILE, ""))) {
+            return new DiffyReplayerConfig(environment, properties, previous.getPatterns(), previous.getTemplates());
+        }
+        Map<Pattern, String> patterns = Maps.newLinkedHashMap();
+        PathTemplateTrie templates = new PathTemplateTrie();
+        populatePatterns(patternFile, patterns, templates);
+        return new DiffyReplayerConfig(environment, properties, Collections.unmodifiableMap(patterns), templates);
+    }
+
+    private static Path configFile(Properties properties) {
+        String file = properties.getProperty(DIFFY_CONFIG_FILE, "").trim();
+        return file.isEmpty() ? null : Paths.get(file);
+    }
+
+    /**
+     * Polls DIFFY_CONFIG_FILE from a background daemon thread and reloads when it changes.
+     */
+    private void watch() {
+        Path file = configFile(config.getProperties());
+        long pollMillis = getConfigPollMs();
+        if (file == null || pollMillis <= 0) {
+            return;
+        }
+        watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("diffy-replayer-config-%d")
+                .build());
+        AtomicLong lastModified = new AtomicLong(lastModified(file));
+        watcher.scheduleWithFixedDelay(() -> {
+            long modified = lastModified(file);
+            if (modified == lastModified.getAndSet(modified)) {
+                return;
+            }
+            try {
+                reload();
+            } catch (RuntimeException e) {
+                // Keep the current configuration and keep watching, the file might be fixed.
+                LOG.error(String.format("Could not reload the diffy replayer properties from %s", file), e);
+            }
+        }, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops watching DIFFY_CONFIG_FILE, if it was watched.
+     */
+    public synchronized void stopWatching() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
     /**
      * Percentage between 0 and 1 for the queries with low rate.
      * 0.01 If not set
      */
     public double getLowRate() {
-        return Double.valueOf(properties.getProperty(DIFFY_LOW_RATE, "0.01"));
+        return config.getLowRate();
     }
 
     /**
@@ -105,7 +440,7 @@ public class DiffyReplayerProperties {
      * 0.2 If not set
      */
     public double getMediumRate() {
-        return Double.valueOf(properties.getProperty(DIFFY_MEDIUM_RATE, "0.2"));
+        return config.getMediumRate();
     }
 
     /**
@@ -113,15 +448,121 @@ public class DiffyReplayerProperties {
      * 0.5 If not set
      */
     public double getHighRate() {
-        return Double.valueOf(properties.getProperty(DIFFY_HIGH_RATE, "0.5"));
+        return config.getHighRate();
+    }
+
+    /**
+     * Which threads run the replays.
+     * PLATFORM by default, VIRTUAL uses one virtual thread per replay on runtimes that support it.
+     */
+    public ExecutorType getDiffyExecutor() {
+        return ExecutorType.valueOf(config.getProperty(DIFFY_EXECUTOR, ExecutorType.PLATFORM.name()).trim());
+    }
+
+    /**
+     * With the VIRTUAL executor, how many replays can happen concurrently.
+     * 1000 by default.
+     */
+    public int getDiffyMaxConcurrentReplays() {
+        return Integer.valueOf(config.getProperty(DIFFY_MAX_CONCURRENT_REPLAYS, "1000"));
+    }
+
+    /**
+     * With the FAIR executor, how many replays each group runs per turn, the groups not listed run 1.
+     * None by default.
+     */
+    public Map<String, Integer> getFairWeights() {
+        return groupValues(DIFFY_FAIR_WEIGHTS);
+    }
+
+    /**
+     * With the FAIR executor, how many replays of the same group can happen concurrently.
+     * Half of DIFFY_THREAD_POOL by default.
+     */
+    public int getFairGroupMaxConcurrency() {
+        return Integer.valueOf(config.getProperty(DIFFY_FAIR_GROUP_MAX_CONCURRENCY,
+                String.valueOf(Math.max(1, getDiffyThreadPool() / 2))));
+    }
+
+    /**
+     * With the FAIR executor, the groups that can run more, or less, replays concurrently than the rest.
+     * None by default.
+     */
+    public Map<String, Integer> getFairGroupLimits() {
+        return groupValues(DIFFY_FAIR_GROUP_LIMITS);
+    }
+
+    /**
+     * With the FAIR executor, how many groups have their own queue, the rest share one.
+     * 100 by default.
+     */
+    public int getFairMaxGroups() {
+        return Integer.valueOf(config.getProperty(DIFFY_FAIR_MAX_GROUPS, "100"));
+    }
+
+    private Map<String, Integer> groupValues(String property) {
+        Map<String, Integer> values = Maps.newLinkedHashMap();
+        Splitter.on(',').trimResults().omitEmptyStrings()
+                .withKeyValueSeparator(Splitter.on(':').trimResults().limit(2))
+                .split(config.getProperty(property, ""))
+                .forEach((group, value) -> values.put(group, Integer.valueOf(value)));
+        return values;
+    }
+
+    /**
+     * How replays are sent to Diffy.
+     * BLOCKING by default, ASYNC uses non blocking I/O.
+     */
+    public TransportType getDiffyTransport() {
+        return TransportType.valueOf(config.getProperty(DIFFY_TRANSPORT, TransportType.BLOCKING.name()).trim());
     }
 
     /**
-     * Where the Diffy Server resides.
+     * With the ASYNC transport, max replays waiting for a response from Diffy.
+     * 200 by default.
+     */
+    public int getDiffyAsyncMaxInFlight() {
+        return Integer.valueOf(config.getProperty(DIFFY_ASYNC_MAX_IN_FLIGHT, "200"));
+    }
+
+    /**
+     * With the ASYNC transport, how many threads do the network I/O.
+     * 1 by default.
+     */
+    public int getDiffyAsyncIoThreads() {
+        return Integer.valueOf(config.getProperty(DIFFY_ASYNC_IO_THREADS, "1"));
+    }
+
+    /**
+     * Random generator used by the percentage conditions.
+     * FAST by default, SECURE uses a shared SecureRandom.
+     */
+    public SamplerType getSamplerType() {
+        return config.getSamplerType();
+    }
+
+    /**
+     * Where the Diffy Server resides, or the comma separated Diffy Servers.
      * Empty String if not set, meaning a request will never be replayed.
      */
     public String getDiffyUrl() {
-        return properties.getProperty(DIFFY_URL, "");
+        return config.getDiffyUrl();
+    }
+
+    /**
+     * The Diffy Servers the replays are sharded across by Canonical-Resource.
+     * Empty if not set, meaning a request will never be replayed.
+     */
+    public List<String> getDiffyUrls() {
+        return config.getDiffyUrls();
+    }
+
+    /**
+     * Times each Diffy Server is placed on the consistent hash ring, the more the evener the shards.
+     * 128 by default.
+     */
+    public int getShardVirtualNodes() {
+        return Integer.valueOf(config.getProperty(DIFFY_SHARD_VIRTUAL_NODES, "128"));
     }
 
     /**
@@ -129,7 +570,71 @@ public class DiffyReplayerProperties {
      * 10 by default.
      */
     public int getDiffyThreadPool() {
-        return Integer.valueOf(properties.getProperty(DIFFY_THREAD_POOL, "10"));
+        return config.getDiffyThreadPool();
+    }
+
+    /**
+     * Max connections kept alive to the same Diffy host.
+     * Not limited by default, so there is one connection per concurrent replay.
+     */
+    public int getDiffyMaxConnectionsPerRoute() {
+        return Integer.valueOf(config.getProperty(DIFFY_MAX_CONNECTIONS_PER_ROUTE,
+                String.valueOf(Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Milliseconds a pooled connection to Diffy can be idle before being closed.
+     * 30000 by default.
+     */
+    public long getDiffyIdleConnectionTimeoutMs() {
+        return Long.valueOf(config.getProperty(DIFFY_IDLE_CONNECTION_TIMEOUT_MS, "30000"));
+    }
+
+    /**
+     * Timeouts of every replay, built from DIFFY_CONNECTION_REQUEST_TIMEOUT_MS, DIFFY_CONNECT_TIMEOUT_MS and
+     * DIFFY_SOCKET_TIMEOUT_MS.
+     * 1000, 1000 and 5000 by default.
+     */
+    public RequestConfig getDiffyRequestConfig() {
+        return RequestConfig.custom()
+                .setConnectionRequestTimeout(Integer.valueOf(
+                        config.getProperty(DIFFY_CONNECTION_REQUEST_TIMEOUT_MS, "1000")))
+                .setConnectTimeout(Integer.valueOf(config.getProperty(DIFFY_CONNECT_TIMEOUT_MS, "1000")))
+                .setSocketTimeout(Integer.valueOf(config.getProperty(DIFFY_SOCKET_TIMEOUT_MS, "5000")))
+                .build();
+    }
+
+    /**
+     * Milliseconds from the moment a request is sampled after which its replay is discarded if it is still
+     * queued, or aborted if it is still in flight.
+     * 10000 by default, 0 disables the deadline.
+     */
+    public long getDiffyReplayDeadlineMs() {
+        return Long.valueOf(config.getProperty(DIFFY_REPLAY_DEADLINE_MS, "10000"));
+    }
+
+    /**
+     * How many replays can wait for a free thread, more replays than this get discarded.
+     * 100 by default.
+     */
+    public int getDiffyQueueCapacity() {
+        return Integer.valueOf(config.getProperty(DIFFY_QUEUE_CAPACITY, "100"));
+    }
+
+    /**
+     * Which replay is discarded when the queue is full.
+     * DROP_NEWEST by default.
+     */
+    public ShedPolicy getDiffyShedPolicy() {
+        return ShedPolicy.valueOf(config.getProperty(DIFFY_SHED_POLICY, ShedPolicy.DROP_NEWEST.name()).trim());
+    }
+
+    /**
+     * Milliseconds a replay can wait in the queue when using DROP_IF_OLDER_THAN.
+     * 5000 by default.
+     */
+    public long getDiffyShedMaxAgeMs() {
+        return Long.valueOf(config.getProperty(DIFFY_SHED_MAX_AGE_MS, "5000"));
     }
 
     /**
@@ -138,37 +643,327 @@ public class DiffyReplayerProperties {
      * In case you need to define a DiffyReplayerCondition that can return a different % depending the environment.
      */
     public String getEnvironment() {
-        return !Strings.isNullOrEmpty(environment) ? environment : LOCAL_ENVIRONMENT;
+        return config.getEnvironment();
+    }
+
+    /**
+     * How many converted URIs are cached, 0 disables the cache.
+     * 10000 by default.
+     */
+    public long getDiffyIdCacheSize() {
+        return Long.valueOf(config.getProperty(DIFFY_ID_CACHE_SIZE, "10000"));
+    }
+
+    /**
+     * How the Canonical-Resource is built, see CanonicalResourceMode.
+     * PATTERN by default.
+     */
+    public CanonicalResourceMode getCanonicalResourceMode() {
+        return CanonicalResourceMode.valueOf(
+                config.getProperty(DIFFY_CANONICAL_MODE, CanonicalResourceMode.PATTERN.name()).trim());
+    }
+
+    /**
+     * Consecutive failed replays that open the circuit breaker.
+     * 5 by default.
+     */
+    public int getBreakerFailureThreshold() {
+        return Integer.valueOf(config.getProperty(DIFFY_BREAKER_FAILURE_THRESHOLD, "5"));
+    }
+
+    /**
+     * Error rate between 0 and 1 within a window that opens the circuit breaker.
+     * 0.5 by default.
+     */
+    public double getBreakerErrorRate() {
+        return Double.valueOf(config.getProperty(DIFFY_BREAKER_ERROR_RATE, "0.5"));
+    }
+
+    /**
+     * Replays needed within a window before the error rate is considered.
+     * 20 by default.
+     */
+    public int getBreakerMinRequests() {
+        return Integer.valueOf(config.getProperty(DIFFY_BREAKER_MIN_REQUESTS, "20"));
+    }
+
+    /**
+     * Milliseconds of the window used for the error rate.
+     * 10000 by default.
+     */
+    public long getBreakerWindowMs() {
+        return Long.valueOf(config.getProperty(DIFFY_BREAKER_WINDOW_MS, "10000"));
+    }
+
+    /**
+     * Milliseconds the circuit breaker stays open before probing Diffy.
+     * 5000 by default.
+     */
+    public long getBreakerOpenMs() {
+        return Long.valueOf(config.getProperty(DIFFY_BREAKER_OPEN_MS, "5000"));
+    }
+
+    /**
+     * Consecutive successful probes needed to close the circuit breaker.
+     * 3 by default.
+     */
+    public int getBreakerProbes() {
+        return Integer.valueOf(config.getProperty(DIFFY_BREAKER_PROBES, "3"));
+    }
+
+    /**
+     * Replays slower than this many milliseconds reduce the concurrency limit.
+     * 1000 by default.
+     */
+    public long getLatencyTargetMs() {
+        return Long.valueOf(config.getProperty(DIFFY_LATENCY_TARGET_MS, "1000"));
+    }
+
+    /**
+     * What the concurrency limit is multiplied by when Diffy can't keep up, between 0 and 1.
+     * 0.5 by default.
+     */
+    public double getConcurrencyBackoff() {
+        return Double.valueOf(config.getProperty(DIFFY_CONCURRENCY_BACKOFF, "0.5"));
+    }
+
+    /**
+     * Max Canonical-Resources broken down in the metrics, the rest are counted together.
+     * 100 by default.
+     */
+    public int getMetricsMaxResources() {
+        return Integer.valueOf(config.getProperty(DIFFY_METRICS_MAX_RESOURCES, "100"));
+    }
+
+    /**
+     * What is done with the sampled requests.
+     * REPLAY by default, LOCAL_DIFF compares the responses without Diffy, CAPTURE writes them to a journal instead.
+     */
+    public ReplayerMode getMode() {
+        return ReplayerMode.valueOf(config.getProperty(DIFFY_MODE, ReplayerMode.REPLAY.name()).trim());
+    }
+
+    /**
+     * In CAPTURE mode, where the journal is written.
+     * diffy-journal in the temp directory by default.
+     */
+    public Path getCaptureDir() {
+        String dir = config.getProperty(DIFFY_CAPTURE_DIR, "");
+        return Strings.isNullOrEmpty(dir)
+                ? Paths.get(System.getProperty("java.io.tmpdir"), "diffy-journal")
+                : Paths.get(dir.trim());
+    }
+
+    /**
+     * In CAPTURE mode, size in bytes of each journal segment.
+     * 64 MB by default.
+     */
+    public int getCaptureSegmentBytes() {
+        return Integer.valueOf(config.getProperty(DIFFY_CAPTURE_SEGMENT_BYTES, String.valueOf(64 * 1024 * 1024)));
+    }
+
+    /**
+     * In CAPTURE mode, max journal segments kept, the oldest are deleted.
+     * 16 by default.
+     */
+    public int getCaptureMaxSegments() {
+        return Integer.valueOf(config.getProperty(DIFFY_CAPTURE_MAX_SEGMENTS, "16"));
+    }
+
+    /**
+     * How long a replay suppresses the identical ones.
+     * 0 by default, no replay is suppressed.
+     */
+    public long getDedupWindowMs() {
+        return Long.valueOf(config.getProperty(DIFFY_DEDUP_WINDOW_MS, "0"));
+    }
+
+    /**
+     * How many replays are remembered to find the identical ones.
+     * 65536 by default.
+     */
+    public int getDedupSlots() {
+        return Integer.valueOf(config.getProperty(DIFFY_DEDUP_SLOTS, "65536"));
+    }
+
+    /**
+     * Headers that make two replays different, besides the method, the path and the query.
+     * None by default.
+     */
+    public List<String> getDedupHeaders() {
+        return Splitter.on(',').trimResults().omitEmptyStrings()
+                .splitToList(config.getProperty(DIFFY_DEDUP_HEADERS, ""));
+    }
+
+    /**
+     * StratifiedCondition, how many requests of each endpoint are always replayed per interval.
+     * 10 by default.
+     */
+    public int getStratifiedMinPerInterval() {
+        return Integer.valueOf(config.getProperty(DIFFY_STRATIFIED_MIN_PER_INTERVAL, "10"));
+    }
+
+    /**
+     * StratifiedCondition, the interval of the min replays per endpoint.
+     * 60000 by default.
+     */
+    public long getStratifiedIntervalMs() {
+        return Long.valueOf(config.getProperty(DIFFY_STRATIFIED_INTERVAL_MS, "60000"));
+    }
+
+    /**
+     * StratifiedCondition, max replays per second of each endpoint once the min replays are done.
+     * 1 by default.
+     */
+    public double getStratifiedMaxPerSecond() {
+        return Double.valueOf(config.getProperty(DIFFY_STRATIFIED_MAX_PER_SECOND, "1"));
+    }
+
+    /**
+     * StratifiedCondition, how many endpoints are tracked, the least recently seen are forgotten.
+     * 1024 by default.
+     */
+    public int getStratifiedMaxEndpoints() {
+        return Integer.valueOf(config.getProperty(DIFFY_STRATIFIED_MAX_ENDPOINTS, "1024"));
+    }
+
+    /**
+     * How often the JVM pressure throttle is updated.
+     * 1000 by default, 0 disables the throttle.
+     */
+    public long getThrottleIntervalMs() {
+        return Long.valueOf(config.getProperty(DIFFY_THROTTLE_INTERVAL_MS, "1000"));
+    }
+
+    /**
+     * Share of time in GC pauses at which replays start being throttled, and at which they stop.
+     * 0.05 and 0.25 by default.
+     */
+    public PressureThreshold getThrottleGcTime() {
+        return new PressureThreshold(
+                Double.valueOf(config.getProperty(DIFFY_THROTTLE_GC_TIME_LOW, "0.05")),
+                Double.valueOf(config.getProperty(DIFFY_THROTTLE_GC_TIME_HIGH, "0.25")));
+    }
+
+    /**
+     * Heap occupancy after GC at which replays start being throttled, and at which they stop.
+     * 0.75 and 0.95 by default.
+     */
+    public PressureThreshold getThrottleHeap() {
+        return new PressureThreshold(
+                Double.valueOf(config.getProperty(DIFFY_THROTTLE_HEAP_LOW, "0.75")),
+                Double.valueOf(config.getProperty(DIFFY_THROTTLE_HEAP_HIGH, "0.95")));
+    }
+
+    /**
+     * CPU load of the process at which replays start being throttled, and at which they stop.
+     * 0.8 and 0.95 by default.
+     */
+    public PressureThreshold getThrottleCpu() {
+        return new PressureThreshold(
+                Double.valueOf(config.getProperty(DIFFY_THROTTLE_CPU_LOW, "0.8")),
+                Double.valueOf(config.getProperty(DIFFY_THROTTLE_CPU_HIGH, "0.95")));
+    }
+
+    /**
+     * How much the throttle factor can recover per interval, once the pressure is gone.
+     * 0.1 by default.
+     */
+    public double getThrottleRecoveryStep() {
+        return Double.valueOf(config.getProperty(DIFFY_THROTTLE_RECOVERY_STEP, "0.1"));
+    }
+
+    /**
+     * Which headers of the original requests are sent to Diffy, compiled from DIFFY_HEADER_ALLOW,
+     * DIFFY_HEADER_DENY, DIFFY_HEADER_REWRITES and the length caps.
+     * By default every header but the hop-by-hop ones, values up to 8192 and up to 32768 in total.
+     */
+    public HeaderPolicy getHeaderPolicy() {
+        Splitter list = Splitter.on(',').trimResults().omitEmptyStrings();
+        return new HeaderPolicy(
+                list.splitToList(config.getProperty(DIFFY_HEADER_ALLOW, "")),
+                list.splitToList(config.getProperty(DIFFY_HEADER_DENY, "")),
+                list.withKeyValueSeparator(Splitter.on(':').trimResults().limit(2))
+                        .split(config.getProperty(DIFFY_HEADER_REWRITES, "")),
+                Integer.valueOf(config.getProperty(DIFFY_HEADER_MAX_LENGTH, "8192")),
+                Integer.valueOf(config.getProperty(DIFFY_HEADER_MAX_TOTAL_LENGTH, "32768")));
+    }
+
+    /**
+     * In LOCAL_DIFF mode, max bytes of the three bodies of a replay kept to diff them, bigger bodies are only
+     * compared by their hash.
+     * 262144 by default.
+     */
+    public int getDiffMaxBodyBytes() {
+        return Integer.valueOf(config.getProperty(DIFFY_DIFF_MAX_BODY_BYTES, "262144"));
+    }
+
+    /**
+     * In LOCAL_DIFF mode, max differences reported per replay.
+     * 20 by default.
+     */
+    public int getDiffMaxDifferences() {
+        return Integer.valueOf(config.getProperty(DIFFY_DIFF_MAX_DIFFERENCES, "20"));
+    }
+
+    /**
+     * In LOCAL_DIFF mode, max paths counted per Canonical-Resource, the rest are counted together.
+     * 100 by default.
+     */
+    public int getDiffMaxPaths() {
+        return Integer.valueOf(config.getProperty(DIFFY_DIFF_MAX_PATHS, "100"));
+    }
+
+    /**
+     * In LOCAL_DIFF mode, how many of the latest replays that differed are kept per Canonical-Resource.
+     * 10 by default.
+     */
+    public int getDiffMaxSamples() {
+        return Integer.valueOf(config.getProperty(DIFFY_DIFF_MAX_SAMPLES, "10"));
+    }
+
+    /**
+     * How often DIFFY_CONFIG_FILE is checked for changes.
+     * 5000 by default, 0 disables it.
+     */
+    public long getConfigPollMs() {
+        return Long.valueOf(config.getProperty(DIFFY_CONFIG_POLL_MS, "5000"));
     }
 
     /**
      * Patterns for parsing the URIs
      */
     public Map<Pattern, String> getPatterns() {
-        return patterns;
+        return config.getPatterns();
     }
-    
-    private void populatePatterns() {
-        String file = properties.getProperty(PATTERN_FILE, "");
+
+    /**
+     * Path templates for parsing the URIs, the lines of the pattern file without a comma.
+     */
+    public PathTemplateTrie getTemplates() {
+        return config.getTemplates();
+    }
+
+    /**
+     * @throws IllegalArgumentException if a line of the file is not well formatted.
+     */
+    private void populatePatterns(String file, Map<Pattern, String> patterns, PathTemplateTrie templates) {
         if (Strings.isNullOrEmpty(file)) {
             return;
         }
         try {
+            Path path = Paths.get(file);
+            if (path.isAbsolute() && Files.isRegularFile(path)) {
+                try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                    readPatterns(reader, patterns, templates);
+                }
+                return;
+            }
             file = file.startsWith("/") ? file : "/" + file;
             InputStream resource = getClass().getResourceAsStream(file);
             if (resource != null) {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(resource));
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    //Skip comments '#'
-                    if (!line.startsWith("#") && !line.isEmpty()) {
-                        String[] splitted = line.split(",");
-                        if (splitted.length > 2 || (splitted.length == 1 && !line.endsWith(","))) {
-                            throw new IllegalArgumentException(String.format("Line %s is not well formatted", line));
-                        }
-                        Pattern compile = Pattern.compile(splitted[0]);
-                        patterns.put(compile, !line.endsWith(",") ? splitted[1] : "");
-                    }
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource))) {
+                    readPatterns(reader, patterns, templates);
                 }
             } else {
                 LOG.warn("Could not find diffyreplayer patterns file " + file);
@@ -176,7 +971,38 @@ public class DiffyReplayerProperties {
         } catch (IOException e) {
             LOG.warn("Could not load pattern file " + file, e);
         } catch (IllegalArgumentException e) {
-            LOG.warn("Could not parse pattern file " + file, e);
+            // The patterns read so far would change the Canonical-Resources, the previous configuration is kept.
+            throw new IllegalArgumentException("Could not parse pattern file " + file, e);
+        }
+    }
+
+    /**
+     * Reads a pattern file, see diffyreplayer.patterns for the format.
+     *
+     * @param reader the content of the pattern file.
+     * @param patterns where the regular expressions are added, in the order of the file.
+     * @param templates where the path templates are added.
+     * @throws IOException if the file can not be read.
+     * @throws IllegalArgumentException if a line is not well formatted.
+     */
+    public static void readPatterns(BufferedReader reader, Map<Pattern, String> patterns, PathTemplateTrie templates)
+            throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            //Skip comments '#'
+            if (!line.startsWith("#") && !line.isEmpty()) {
+                //Lines without a comma are path templates
+                if (!line.contains(",")) {
+                    templates.add(line);
+                    continue;
+                }
+                String[] splitted = line.split(",");
+                if (splitted.length > 2) {
+                    throw new IllegalArgumentException(String.format("Line %s is not well formatted", line));
+                }
+                Pattern compile = Pattern.compile(splitted[0]);
+                patterns.put(compile, !line.endsWith(",") ? splitted[1] : "");
+            }
         }
     }
 }
@@ -2,11 +2,10 @@ package io.split.diffyreplayer;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import io.split.diffyreplayer.util.ContainerRequestUtil;
+import io.split.diffyreplayer.headers.HeaderPolicy;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpRequestBase;
 
-import javax.ws.rs.container.ContainerRequestContext;
 import java.net.MalformedURLException;
 import java.net.URL;
 
@@ -16,10 +15,11 @@ import java.net.URL;
 public class DiffyReplayerRequestBuilder {
 
     // Used so the Diffy UI displays the right name on the list.
-    private static final String CANONICAL_RESOURCE = "Canonical-Resource";
+    public static final String CANONICAL_RESOURCE = "Canonical-Resource";
 
     private final URL destinationURL;
     private final DiffyIdParser idParser;
+    private final HeaderPolicy headerPolicy;
 
     /**
      * Default Constructor.
@@ -27,8 +27,31 @@ public class DiffyReplayerRequestBuilder {
      * @param destinationURL Where the Diffy Server resides.
      */
     public DiffyReplayerRequestBuilder(String destinationURL) {
+        this(destinationURL, new DiffyIdParser(DiffyReplayerProperties.getInstance().getPatterns(),
+                DiffyReplayerProperties.getInstance().getTemplates(), 0));
+    }
+
+    /**
+     * Constructor that reuses an existing parser.
+     *
+     * @param destinationURL Where the Diffy Server resides.
+     * @param idParser used to build the canonical name of the resource.
+     */
+    public DiffyReplayerRequestBuilder(String destinationURL, DiffyIdParser idParser) {
+        this(destinationURL, idParser, HeaderPolicy.DEFAULT);
+    }
+
+    /**
+     * Constructor that reuses an existing parser and decides which headers are sent.
+     *
+     * @param destinationURL Where the Diffy Server resides.
+     * @param idParser used to build the canonical name of the resource.
+     * @param headerPolicy which headers of the original request are sent.
+     */
+    public DiffyReplayerRequestBuilder(String destinationURL, DiffyIdParser idParser, HeaderPolicy headerPolicy) {
         Preconditions.checkArgument(!Strings.isNullOrEmpty(destinationURL));
-        this.idParser = new DiffyIdParser(DiffyReplayerProperties.getInstance().getPatterns());
+        this.idParser = Preconditions.checkNotNull(idParser);
+        this.headerPolicy = Preconditions.checkNotNull(headerPolicy);
         this.destinationURL = getURLOrBlow(destinationURL);
     }
 
@@ -40,10 +63,10 @@ public class DiffyReplayerRequestBuilder {
      * @param original the Original request to be replayed.
      * @return a Copy of the original request that points to Diffy Server.
      */
-    public HttpRequestBase build(ContainerRequestContext original) {
+    public HttpRequestBase build(ReplaySnapshot original) {
         Preconditions.checkNotNull(original);
 
-        String pathWithQueryParams = ContainerRequestUtil.getPathWithQueryParams(original);
+        String pathWithQueryParams = original.getPathWithQueryParams();
         if (!"GET".equals(original.getMethod())) {
             throw new IllegalArgumentException(String.format("Only GETS are allowed, method %s is is %s",
                     pathWithQueryParams, original.getMethod()));
@@ -55,7 +78,7 @@ public class DiffyReplayerRequestBuilder {
     }
 
     /**
-     * Adds the headers of the original request to the destination requests.
+     * Adds the headers of the original request allowed by the HeaderPolicy to the destination requests.
      *
      * Also adds the DiffyReplay header so it is not replayed.
      * Also adds a header so the Diffy UI shows the right name.
@@ -63,15 +86,15 @@ public class DiffyReplayerRequestBuilder {
      * @param original the original request to be replayed.
      * @param destination the get request where the new headers are going to be.
      */
-    private void addHeaders(ContainerRequestContext original, HttpGet destination) {
+    private void addHeaders(ReplaySnapshot original, HttpGet destination) {
         Preconditions.checkNotNull(original);
         Preconditions.checkNotNull(destination);
 
-        destination.addHeader(CANONICAL_RESOURCE, idParser.convert(original.getUriInfo().getRequestUri().getRawPath()));
+        String canonicalResource = original.getCanonicalResource();
+        destination.addHeader(CANONICAL_RESOURCE,
+                canonicalResource != null ? canonicalResource : idParser.convert(original.getRawPath()));
         destination.addHeader(DiffyReplay.HEADER, "true");
-        original.getHeaders()
-                .forEach((header, list) ->
-                        list.forEach(value -> destination.addHeader(header, value)));
+        headerPolicy.apply(original, destination::addHeader);
     }
 
     private URL getURLOrBlow(String url) {
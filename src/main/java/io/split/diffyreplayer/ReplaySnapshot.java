@@ -0,0 +1,186 @@
+package io.split.diffyreplayer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable copy of the parts of a request that are needed to replay it.
+ *
+ * It is captured on the request thread, so the replay never touches the ContainerRequestContext,
+ * that might be recycled by the container once the request is done.
+ */
+public final class ReplaySnapshot {
+
+    private static final String[] NO_HEADERS = new String[0];
+
+    private final String method;
+    private final String rawPath;
+    private final String query;
+    // Header names and values are flattened in two parallel arrays, one entry per value.
+    private final String[] headerNames;
+    private final String[] headerValues;
+    // Known when the endpoint was resolved at deploy time, null if it has to be derived from the path.
+    private final String canonicalResource;
+    // System.nanoTime() when the request was captured, the deadline of the replay counts from here.
+    private final long capturedAt;
+
+    private ReplaySnapshot(String method, String rawPath, String query, String[] headerNames, String[] headerValues,
+                           String canonicalResource) {
+        Preconditions.checkArgument(headerNames.length == headerValues.length,
+                "There should be one header name per value");
+        this.method = Preconditions.checkNotNull(method);
+        this.rawPath = Preconditions.checkNotNull(rawPath);
+        this.query = query;
+        this.headerNames = headerNames;
+        this.headerValues = headerValues;
+        this.canonicalResource = canonicalResource;
+        this.capturedAt = System.nanoTime();
+    }
+
+    /**
+     * Creates a snapshot from its parts, the header arrays are copied.
+     *
+     * @param method the HTTP method of the request.
+     * @param rawPath the raw (not decoded) path of the request.
+     * @param query the raw query of the request, null if there is none.
+     * @param headerNames the names of the headers, one entry per value.
+     * @param headerValues the values of the headers, same length as headerNames.
+     * @return an immutable snapshot.
+     */
+    public static ReplaySnapshot of(String method, String rawPath, String query,
+                                    String[] headerNames, String[] headerValues) {
+        return of(method, rawPath, query, headerNames, headerValues, null);
+    }
+
+    /**
+     * Creates a snapshot from its parts, the header arrays are copied.
+     *
+     * @param method the HTTP method of the request.
+     * @param rawPath the raw (not decoded) path of the request.
+     * @param query the raw query of the request, null if there is none.
+     * @param headerNames the names of the headers, one entry per value.
+     * @param headerValues the values of the headers, same length as headerNames.
+     * @param canonicalResource the name Diffy groups the replay under, null to derive it from the path.
+     * @return an immutable snapshot.
+     */
+    public static ReplaySnapshot of(String method, String rawPath, String query,
+                                    String[] headerNames, String[] headerValues, String canonicalResource) {
+        return new ReplaySnapshot(method, rawPath, query, headerNames.clone(), headerValues.clone(),
+                canonicalResource);
+    }
+
+    /**
+     * Captures the request.
+     *
+     * @param original the request to be replayed.
+     * @return an immutable copy of the request.
+     */
+    public static ReplaySnapshot of(ContainerRequestContext original) {
+        return of(original, null);
+    }
+
+    /**
+     * Captures the request of an endpoint which Canonical-Resource is already known.
+     *
+     * @param original the request to be replayed.
+     * @param canonicalResource the name Diffy groups the replay under, null to derive it from the path.
+     * @return an immutable copy of the request.
+     */
+    public static ReplaySnapshot of(ContainerRequestContext original, String canonicalResource) {
+        Preconditions.checkNotNull(original);
+
+        URI uri = original.getUriInfo().getRequestUri();
+        Map<String, List<String>> headers = original.getHeaders();
+        if (headers == null || headers.isEmpty()) {
+            return new ReplaySnapshot(original.getMethod(), uri.getRawPath(), uri.getRawQuery(),
+                    NO_HEADERS, NO_HEADERS, canonicalResource);
+        }
+
+        int count = 0;
+        for (List<String> values : headers.values()) {
+            count += values.size();
+        }
+        String[] names = new String[count];
+        String[] values = new String[count];
+        int i = 0;
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            for (String value : entry.getValue()) {
+                names[i] = entry.getKey();
+                values[i] = value;
+                i++;
+            }
+        }
+        return new ReplaySnapshot(original.getMethod(), uri.getRawPath(), uri.getRawQuery(), names, values,
+                canonicalResource);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getRawPath() {
+        return rawPath;
+    }
+
+    /**
+     * @return the raw query, null if the request has no query.
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @return the Canonical-Resource resolved for the endpoint, null if it has to be derived from the path.
+     */
+    public String getCanonicalResource() {
+        return canonicalResource;
+    }
+
+    /**
+     * @return the System.nanoTime() at which the request was captured, right after it was sampled.
+     */
+    public long getCapturedAt() {
+        return capturedAt;
+    }
+
+    public String getPathWithQueryParams() {
+        return Strings.isNullOrEmpty(query) ? rawPath : rawPath + "?" + query;
+    }
+
+    /**
+     * @return how many header values the request has.
+     */
+    public int getHeaderCount() {
+        return headerNames.length;
+    }
+
+    public String getHeaderName(int index) {
+        return headerNames[index];
+    }
+
+    public String getHeaderValue(int index) {
+        return headerValues[index];
+    }
+
+    /**
+     * Iterates the headers in the same order they were captured, once per value.
+     *
+     * @param consumer receives the name and the value of each header.
+     */
+    public void forEachHeader(BiConsumer<String, String> consumer) {
+        for (int i = 0; i < headerNames.length; i++) {
+            consumer.accept(headerNames[i], headerValues[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + getPathWithQueryParams();
+    }
+}
@@ -0,0 +1,20 @@
+package io.split.diffyreplayer;
+
+/**
+ * What is done with the sampled requests, configured with DIFFY_MODE.
+ */
+public enum ReplayerMode {
+    /**
+     * Sampled requests are sent to Diffy right away.
+     */
+    REPLAY,
+    /**
+     * Sampled requests are sent to the primary, secondary and candidate by the replayer itself, and the
+     * responses are compared locally, no Diffy Server needed. See {@link io.split.diffyreplayer.diff.LocalDiffer}.
+     */
+    LOCAL_DIFF,
+    /**
+     * Sampled requests are appended to a CaptureJournal, to be replayed later, maybe somewhere else.
+     */
+    CAPTURE
+}
@@ -0,0 +1,79 @@
+package io.split.diffyreplayer.cli;
+
+import io.split.diffyreplayer.ReplaySnapshot;
+
+/**
+ * A request read from an access log.
+ */
+public final class AccessLogEntry {
+
+    private static final String[] NO_HEADERS = new String[0];
+
+    private final long timestampMillis;
+    private final String method;
+    private final String rawPath;
+    private final String query;
+    // Only in the combined format, null otherwise.
+    private final String referer;
+    private final String userAgent;
+
+    AccessLogEntry(long timestampMillis, String method, String rawPath, String query, String referer, String userAgent) {
+        this.timestampMillis = timestampMillis;
+        this.method = method;
+        this.rawPath = rawPath;
+        this.query = query;
+        this.referer = referer;
+        this.userAgent = userAgent;
+    }
+
+    /**
+     * @return when the request was received, second resolution.
+     */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getRawPath() {
+        return rawPath;
+    }
+
+    /**
+     * @return the raw query, null if the request had none.
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    public String getReferer() {
+        return referer;
+    }
+
+    public String getUserAgent() {
+        return userAgent;
+    }
+
+    /**
+     * @return the request as if it had been sampled by the filter, with the headers the log has.
+     */
+    public ReplaySnapshot toSnapshot() {
+        if (referer == null && userAgent == null) {
+            return ReplaySnapshot.of(method, rawPath, query, NO_HEADERS, NO_HEADERS);
+        }
+        if (referer == null || userAgent == null) {
+            return ReplaySnapshot.of(method, rawPath, query,
+                    new String[]{referer != null ? "Referer" : "User-Agent"},
+                    new String[]{referer != null ? referer : userAgent});
+        }
+        return ReplaySnapshot.of(method, rawPath, query,
+                new String[]{"Referer", "User-Agent"}, new String[]{referer, userAgent});
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + (query == null ? rawPath : rawPath + "?" + query);
+    }
+}
@@ -0,0 +1,67 @@
+package io.split.diffyreplayer.cli;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses lines in the Common and Combined Log Formats, as written by Apache, nginx and most load balancers.
+ *
+ * <pre>
+ * 127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] "GET /apache_pb.gif?a=1 HTTP/1.0" 200 2326 "http://ref/" "Mozilla/4.08"
+ * </pre>
+ */
+public final class AccessLogParser {
+
+    private static final Pattern LINE = Pattern.compile(
+            "^\\S+ \\S+ .*?\\[([^\\]]+)\\] \"(\\S+) (\\S+)(?: [^\"]*)?\" \\S+ \\S+(?: \"((?:[^\"\\\\]|\\\\.)*)\" \"((?:[^\"\\\\]|\\\\.)*)\")?.*$");
+    private static final DateTimeFormatter TIMESTAMP =
+            DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH);
+    private static final String EMPTY_FIELD = "-";
+
+    private AccessLogParser() {
+    }
+
+    /**
+     * @param line a line of the access log.
+     * @return the request, or null if the line is not in the common or combined format.
+     */
+    public static AccessLogEntry parse(String line) {
+        if (line == null) {
+            return null;
+        }
+        Matcher matcher = LINE.matcher(line);
+        if (!matcher.matches()) {
+            return null;
+        }
+        long timestamp;
+        try {
+            timestamp = OffsetDateTime.parse(matcher.group(1), TIMESTAMP).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+        String target = matcher.group(3);
+        // Absolute targets are sent to proxies, only the path and query are replayed.
+        if (target.startsWith("http://") || target.startsWith("https://")) {
+            int pathStart = target.indexOf('/', target.indexOf("//") + 2);
+            target = pathStart < 0 ? "/" : target.substring(pathStart);
+        }
+        if (!target.startsWith("/")) {
+            return null;
+        }
+        int queryStart = target.indexOf('?');
+        String rawPath = queryStart < 0 ? target : target.substring(0, queryStart);
+        String query = queryStart < 0 ? null : target.substring(queryStart + 1);
+        return new AccessLogEntry(timestamp, matcher.group(2), rawPath, query,
+                field(matcher.group(4)), field(matcher.group(5)));
+    }
+
+    private static String field(String value) {
+        return value == null || value.isEmpty() || EMPTY_FIELD.equals(value)
+                ? null
+                : value.replace("\\\"", "\"").replace("\\\\", "\\");
+    }
+}
@@ -0,0 +1,297 @@
+package io.split.diffyreplayer.cli;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.RateLimiter;
+import io.split.diffyreplayer.DiffyIdParser;
+import io.split.diffyreplayer.DiffyReplayerProperties;
+import io.split.diffyreplayer.DiffyReplayerRequestBuilder;
+import io.split.diffyreplayer.template.PathTemplateTrie;
+import io.split.diffyreplayer.transport.AsyncHttpTransport;
+import io.split.diffyreplayer.transport.ReplayCallback;
+import io.split.diffyreplayer.transport.ReplayTransport;
+import org.apache.http.StatusLine;
+import org.apache.http.client.config.RequestConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Replays the GET requests of access logs to Diffy, from the command line.
+ *
+ * Requests go through the same DiffyIdParser and DiffyReplayerRequestBuilder than the live replays,
+ * and are sent with the AsyncHttpTransport. The pace is controlled with a max QPS, a max amount of
+ * requests in flight, the original timing of the log (optionally sped up) and a max duration.
+ *
+ * <pre>
+ *     java -cp diffyreplayer.jar:... io.split.diffyreplayer.cli.AccessLogReplayer \
+ *         --diffy-url http://diffy:8880 --qps 200 --concurrency 50 access.log.1.gz access.log
+ * </pre>
+ */
+public class AccessLogReplayer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AccessLogReplayer.class);
+
+    private static final String STANDARD_INPUT = "-";
+    private static final long IDLE_CONNECTION_TIMEOUT_MS = 30000;
+    // How many timeouts to wait for the last responses: one for a connection, one to connect and one to read.
+    private static final int DRAIN_TIMEOUTS = 3;
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+    // The I/O reactor only checks the timeouts once per select interval, a second by default.
+    private static final long SELECT_INTERVAL_MS = 1000;
+
+    private final ReplayOptions options;
+    private final DiffyReplayerRequestBuilder requestBuilder;
+    private final ReplayTransport transport;
+    private final Semaphore inFlight;
+    private final RateLimiter rateLimiter;
+
+    private final LongAdder read = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder non200 = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    // Original timing, the timestamp of the first request and when it was sent.
+    private long firstTimestamp = -1;
+    private long firstSentNanos;
+
+    /**
+     * @param options how to replay.
+     * @param idParser builds the Canonical-Resource.
+     * @param transport where the requests are sent, at least options.getConcurrency() requests can be in flight.
+     */
+    public AccessLogReplayer(ReplayOptions options, DiffyIdParser idParser, ReplayTransport transport) {
+        this.options = Preconditions.checkNotNull(options);
+        this.requestBuilder = new DiffyReplayerRequestBuilder(options.getDiffyUrl(), idParser);
+        this.transport = Preconditions.checkNotNull(transport);
+        this.inFlight = new Semaphore(options.getConcurrency());
+        this.rateLimiter = options.getQps() > 0 ? RateLimiter.create(options.getQps()) : null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ReplayOptions options;
+        try {
+            options = ReplayOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(ReplayOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        try (AsyncHttpTransport transport = createTransport(options)) {
+            AccessLogReplayer replayer = new AccessLogReplayer(options, createIdParser(options), transport);
+            replayer.run();
+            System.out.println(replayer.summary());
+        }
+    }
+
+    /**
+     * @param options how to replay.
+     * @return a transport for options.getConcurrency() requests in flight, with the timeouts of the options.
+     */
+    public static AsyncHttpTransport createTransport(ReplayOptions options) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(options.getTimeoutMillis())
+                .setConnectTimeout(options.getTimeoutMillis())
+                .setSocketTimeout(options.getTimeoutMillis())
+                .build();
+        return new AsyncHttpTransport(
+                Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 4)),
+                options.getConcurrency(),
+                IDLE_CONNECTION_TIMEOUT_MS,
+                requestConfig);
+    }
+
+    /**
+     * Replays every file of the options, in order, and waits for the responses. The responses that do not arrive
+     * in time, see {@link #DRAIN_TIMEOUTS}, are left behind and reported as still in flight.
+     *
+     * @throws IOException if a file can not be read.
+     * @throws InterruptedException if interrupted while pacing or waiting for responses.
+     */
+    public void run() throws IOException, InterruptedException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        long deadline = options.getDurationSeconds() > 0
+                ? System.nanoTime() + TimeUnit.SECONDS.toNanos(options.getDurationSeconds())
+                : NO_DEADLINE;
+        try {
+            for (String file : options.getFiles()) {
+                try (BufferedReader reader = open(file)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!replay(line, deadline)) {
+                            LOG.info(String.format("Stopping after %s seconds", options.getDurationSeconds()));
+                            return;
+                        }
+                    }
+                }
+            }
+        } finally {
+            // Waits for the requests in flight.
+            if (inFlight.tryAcquire(options.getConcurrency(),
+                    DRAIN_TIMEOUTS * options.getTimeoutMillis() + SELECT_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                inFlight.release(options.getConcurrency());
+            } else {
+                LOG.warn(String.format("Stopped waiting for the responses, %s replays still in flight",
+                        getInFlight()));
+            }
+            LOG.info(String.format("Replayed access logs in %s, %s", stopwatch, summary()));
+        }
+    }
+
+    /**
+     * @return how many lines were read, skipped and replayed, and how the replays went.
+     */
+    public String summary() {
+        return String.format("read=%s skipped=%s sent=%s non200=%s failed=%s inFlight=%s",
+                read.sum(), skipped.sum(), sent.sum(), non200.sum(), failed.sum(), getInFlight());
+    }
+
+    /**
+     * @return the replays sent that did not complete yet.
+     */
+    public int getInFlight() {
+        return options.getConcurrency() - inFlight.availablePermits();
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Every wait, for the original timing, the max QPS or a request in flight to complete, ends at the deadline.
+     *
+     * @return false when the deadline passed before the line could be replayed.
+     */
+    private boolean replay(String line, long deadline) throws InterruptedException {
+        if (remainingNanos(deadline) <= 0) {
+            return false;
+        }
+        read.increment();
+        AccessLogEntry entry = AccessLogParser.parse(line);
+        // Same as the filter, only GETs are replayed.
+        if (entry == null || !"GET".equals(entry.getMethod())) {
+            skipped.increment();
+            return true;
+        }
+        if (!pace(entry, deadline)) {
+            return false;
+        }
+        if (rateLimiter != null && !rateLimiter.tryAcquire(1, remainingNanos(deadline), TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        if (!inFlight.tryAcquire(remainingNanos(deadline), TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        try {
+            transport.send(requestBuilder.build(entry.toSnapshot()), new ReplayCallback() {
+                @Override
+                public void completed(StatusLine statusLine) {
+                    if (statusLine.getStatusCode() != 200) {
+                        non200.increment();
+                    }
+                    inFlight.release();
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    failed.increment();
+                    LOG.debug(String.format("Failed to replay %s, reason %s", entry, e.getMessage()));
+                    inFlight.release();
+                }
+            });
+            sent.increment();
+        } catch (RuntimeException e) {
+            inFlight.release();
+            skipped.increment();
+            LOG.warn(String.format("Could not replay %s", entry), e);
+        }
+        return true;
+    }
+
+    /**
+     * With a speedup, waits until the request is due according to the original timing.
+     *
+     * @return false when the request is only due after the deadline.
+     */
+    private boolean pace(AccessLogEntry entry, long deadline) throws InterruptedException {
+        if (options.getSpeedup() <= 0) {
+            return true;
+        }
+        if (firstTimestamp < 0) {
+            firstTimestamp = entry.getTimestampMillis();
+            firstSentNanos = System.nanoTime();
+            return true;
+        }
+        long offsetNanos = (long) (TimeUnit.MILLISECONDS.toNanos(entry.getTimestampMillis() - firstTimestamp)
+                / options.getSpeedup());
+        long waitNanos = firstSentNanos + offsetNanos - System.nanoTime();
+        long remainingNanos = remainingNanos(deadline);
+        if (waitNanos >= remainingNanos) {
+            TimeUnit.NANOSECONDS.sleep(remainingNanos);
+            return false;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return true;
+    }
+
+    /**
+     * @return how long until the deadline, Long.MAX_VALUE when there is none.
+     */
+    private static long remainingNanos(long deadline) {
+        return deadline == NO_DEADLINE ? Long.MAX_VALUE : deadline - System.nanoTime();
+    }
+
+    private static BufferedReader open(String file) throws IOException {
+        InputStream in = STANDARD_INPUT.equals(file) ? System.in : Files.newInputStream(Paths.get(file));
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        // Gzipped files are detected by their magic number, whatever their name is.
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        InputStream content = first == 0x1f && second == 0x8b ? new GZIPInputStream(buffered) : buffered;
+        return new BufferedReader(new InputStreamReader(content, StandardCharsets.UTF_8));
+    }
+
+    private static DiffyIdParser createIdParser(ReplayOptions options) throws IOException {
+        if (options.getPatternFile() == null) {
+            DiffyReplayerProperties properties = DiffyReplayerProperties.getInstance();
+            return new DiffyIdParser(properties.getPatterns(), properties.getTemplates(),
+                    properties.getDiffyIdCacheSize());
+        }
+        Map<Pattern, String> patterns = Maps.newLinkedHashMap();
+        PathTemplateTrie templates = new PathTemplateTrie();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(options.getPatternFile()),
+                StandardCharsets.UTF_8)) {
+            DiffyReplayerProperties.readPatterns(reader, patterns, templates);
+        }
+        return new DiffyIdParser(patterns, templates, DiffyReplayerProperties.getInstance().getDiffyIdCacheSize());
+    }
+}
@@ -0,0 +1,162 @@
+package io.split.diffyreplayer.cli;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Command line options of the AccessLogReplayer.
+ */
+public final class ReplayOptions {
+
+    static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: AccessLogReplayer --diffy-url URL [options] [file ...]",
+            "",
+            "Replays the GET requests of access logs (common or combined format, optionally gzipped) to Diffy.",
+            "Reads the standard input when there are no files or a file is '-'.",
+            "",
+            "  --diffy-url URL         where the Diffy Server resides, required",
+            "  --qps N                 max requests per second, 0 for no limit (default 0)",
+            "  --concurrency N         max requests in flight (default 10)",
+            "  --speedup N             keep the original timing, N times faster, 0 to ignore it (default 0)",
+            "  --duration-seconds N    stop after N seconds, 0 for no limit (default 0)",
+            "  --timeout-ms N          max wait for a connection, to connect and between two packets of a response,",
+            "                          also bounds the wait for the last responses (default 5000)",
+            "  --patterns FILE         pattern file for the Canonical-Resource (default the one in the classpath)");
+
+    private final String diffyUrl;
+    private final double qps;
+    private final int concurrency;
+    private final double speedup;
+    private final long durationSeconds;
+    private final int timeoutMillis;
+    private final String patternFile;
+    private final List<String> files;
+
+    public ReplayOptions(String diffyUrl, double qps, int concurrency, double speedup, long durationSeconds,
+                         int timeoutMillis, String patternFile, List<String> files) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(diffyUrl), "--diffy-url is required");
+        Preconditions.checkArgument(qps >= 0, "--qps can not be negative");
+        Preconditions.checkArgument(concurrency > 0, "--concurrency must be positive");
+        Preconditions.checkArgument(speedup >= 0, "--speedup can not be negative");
+        Preconditions.checkArgument(durationSeconds >= 0, "--duration-seconds can not be negative");
+        Preconditions.checkArgument(timeoutMillis > 0, "--timeout-ms must be positive");
+        this.diffyUrl = diffyUrl;
+        this.qps = qps;
+        this.concurrency = concurrency;
+        this.speedup = speedup;
+        this.durationSeconds = durationSeconds;
+        this.timeoutMillis = timeoutMillis;
+        this.patternFile = patternFile;
+        this.files = files.isEmpty() ? ImmutableList.of("-") : ImmutableList.copyOf(files);
+    }
+
+    /**
+     * @param args the command line.
+     * @return the options.
+     * @throws IllegalArgumentException if an option is unknown, misses its value or is not valid.
+     */
+    public static ReplayOptions parse(String... args) {
+        String diffyUrl = null;
+        double qps = 0;
+        int concurrency = 10;
+        double speedup = 0;
+        long durationSeconds = 0;
+        int timeoutMillis = 5000;
+        String patternFile = null;
+        ImmutableList.Builder<String> files = ImmutableList.builder();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                files.add(arg);
+                continue;
+            }
+            Preconditions.checkArgument(i + 1 < args.length, "%s needs a value", arg);
+            String value = args[++i];
+            try {
+                switch (arg) {
+                    case "--diffy-url":
+                        diffyUrl = value;
+                        break;
+                    case "--qps":
+                        qps = Double.parseDouble(value);
+                        break;
+                    case "--concurrency":
+                        concurrency = Integer.parseInt(value);
+                        break;
+                    case "--speedup":
+                        speedup = Double.parseDouble(value);
+                        break;
+                    case "--duration-seconds":
+                        durationSeconds = Long.parseLong(value);
+                        break;
+                    case "--timeout-ms":
+                        timeoutMillis = Integer.parseInt(value);
+                        break;
+                    case "--patterns":
+                        patternFile = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException(String.format("Unknown option %s", arg));
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("%s is not a number: %s", arg, value), e);
+            }
+        }
+        return new ReplayOptions(diffyUrl, qps, concurrency, speedup, durationSeconds, timeoutMillis, patternFile,
+                files.build());
+    }
+
+    public String getDiffyUrl() {
+        return diffyUrl;
+    }
+
+    /**
+     * @return max requests per second, 0 means no limit.
+     */
+    public double getQps() {
+        return qps;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @return how many times faster than the original timing, 0 means the original timing is ignored.
+     */
+    public double getSpeedup() {
+        return speedup;
+    }
+
+    /**
+     * @return seconds after which the replay stops, 0 means no limit.
+     */
+    public long getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    /**
+     * @return max milliseconds to wait for a connection, to connect and between two packets of a response.
+     */
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @return the pattern file, null to use the one of the diffyreplayer properties.
+     */
+    public String getPatternFile() {
+        return patternFile;
+    }
+
+    /**
+     * @return the access logs to replay, "-" is the standard input.
+     */
+    public List<String> getFiles() {
+        return files;
+    }
+}
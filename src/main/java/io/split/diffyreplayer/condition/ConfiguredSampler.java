@@ -0,0 +1,62 @@
+package io.split.diffyreplayer.condition;
+
+import com.google.common.base.Preconditions;
+import io.split.diffyreplayer.DiffyReplayerConfig;
+import io.split.diffyreplayer.DiffyReplayerProperties;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Sampler which rate comes from the current DiffyReplayerConfig, so rate changes apply right away.
+ *
+ * The RateSampler is only created again when the configuration changes, otherwise sampling costs
+ * a volatile read and a reference comparison on top of the RateSampler.
+ */
+public class ConfiguredSampler implements Sampler {
+
+    private final DiffyReplayerProperties properties;
+    private final ToDoubleFunction<DiffyReplayerConfig> rate;
+    private volatile Current current;
+
+    /**
+     * @param properties where the current configuration is read from.
+     * @param rate picks the rate out of the configuration.
+     */
+    public ConfiguredSampler(DiffyReplayerProperties properties, ToDoubleFunction<DiffyReplayerConfig> rate) {
+        this.properties = Preconditions.checkNotNull(properties);
+        this.rate = Preconditions.checkNotNull(rate);
+    }
+
+    @Override
+    public boolean sample() {
+        return sampler().sample();
+    }
+
+    /**
+     * @return the rate of the current configuration.
+     */
+    public double getRate() {
+        return sampler().getRate();
+    }
+
+    private RateSampler sampler() {
+        DiffyReplayerConfig config = properties.getConfig();
+        Current sampler = current;
+        if (sampler == null || sampler.config != config) {
+            // Racing threads might both create one, any of them is right.
+            sampler = new Current(config, config.getSamplerType().create(rate.applyAsDouble(config)));
+            current = sampler;
+        }
+        return sampler.sampler;
+    }
+
+    private static final class Current {
+        private final DiffyReplayerConfig config;
+        private final RateSampler sampler;
+
+        private Current(DiffyReplayerConfig config, RateSampler sampler) {
+            this.config = config;
+            this.sampler = sampler;
+        }
+    }
+}
@@ -6,6 +6,8 @@ package io.split.diffyreplayer.condition;
  * <p>
  *     IMPORTANT: If you define your own Condition, since we use reflection,
  *     the condition should have a Constructor with no parameters.
+ *
+ *     A single instance of each condition is shared by all the requests, so it has to be thread safe.
  * </p>
  */
 public interface DiffyReplayerCondition {
@@ -13,4 +15,15 @@ public interface DiffyReplayerCondition {
      * @return whether to replay or not a request.
      */
     boolean replay();
+
+    /**
+     * Called with the endpoint of the request, for conditions that sample each endpoint differently.
+     *
+     * @param endpoint the Canonical-Resource of the endpoint, or its resource method when the
+     *                 Canonical-Resource is derived from each path. Null if it is not known.
+     * @return whether to replay or not a request.
+     */
+    default boolean replay(String endpoint) {
+        return replay();
+    }
 }
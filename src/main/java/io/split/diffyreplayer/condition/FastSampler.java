@@ -0,0 +1,20 @@
+package io.split.diffyreplayer.condition;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sampler that uses the random generator of the calling thread, so request threads never contend.
+ *
+ * This is the default sampler.
+ */
+public class FastSampler extends RateSampler {
+
+    public FastSampler(double rate) {
+        super(rate);
+    }
+
+    @Override
+    protected long nextLong() {
+        return ThreadLocalRandom.current().nextLong();
+    }
+}
@@ -1,7 +1,6 @@
 package io.split.diffyreplayer.condition;
 
-
-import io.split.diffyreplayer.DiffyReplayerProperties;
+import io.split.diffyreplayer.DiffyReplayerConfig;
 
 /**
  * DiffyReplayerCondition that loads from the properties file the DIFFY_HIGH_RATE and use
@@ -10,6 +9,6 @@ import io.split.diffyreplayer.DiffyReplayerProperties;
 public class HighRateCondition extends PercentageCondition {
 
     public HighRateCondition() {
-        super(DiffyReplayerProperties.getInstance().getMediumRate());
+        super(DiffyReplayerConfig::getHighRate);
     }
 }
@@ -1,6 +1,6 @@
 package io.split.diffyreplayer.condition;
 
-import io.split.diffyreplayer.DiffyReplayerProperties;
+import io.split.diffyreplayer.DiffyReplayerConfig;
 
 /**
  * DiffyReplayerCondition that loads from the properties file the DIFFY_LOW_RATE and use
@@ -9,6 +9,6 @@ import io.split.diffyreplayer.DiffyReplayerProperties;
 public class LowRateCondition extends PercentageCondition {
 
     public LowRateCondition() {
-        super(DiffyReplayerProperties.getInstance().getLowRate());
+        super(DiffyReplayerConfig::getLowRate);
     }
 }
@@ -1,23 +1,41 @@
 package io.split.diffyreplayer.condition;
 
-import java.security.SecureRandom;
-import java.util.Random;
+import com.google.common.base.Preconditions;
+import io.split.diffyreplayer.DiffyReplayerConfig;
+import io.split.diffyreplayer.DiffyReplayerProperties;
+
+import java.util.function.ToDoubleFunction;
 
 /**
  * Base Definition for all % based conditions, simply send a double between 0 and 1.
+ *
+ * The sampling is delegated to a Sampler, by default the one configured with DIFFY_SAMPLER.
+ * Conditions which rate comes from the configuration use a ConfiguredSampler, so rate changes
+ * apply without a redeploy.
  */
 public abstract class PercentageCondition implements DiffyReplayerCondition {
 
-    private final double expected;
-    private final static Random secureRandom = new SecureRandom();
+    private final Sampler sampler;
 
     public PercentageCondition(double expected) {
-        this.expected = expected;
+        this(DiffyReplayerProperties.getInstance().getSamplerType().create(expected));
+    }
+
+    public PercentageCondition(Sampler sampler) {
+        this.sampler = Preconditions.checkNotNull(sampler);
+    }
+
+    /**
+     * For rates that come from the configuration, so they follow its changes.
+     *
+     * @param rate picks the rate out of the current configuration.
+     */
+    public PercentageCondition(ToDoubleFunction<DiffyReplayerConfig> rate) {
+        this(new ConfiguredSampler(DiffyReplayerProperties.getInstance(), rate));
     }
 
     @Override
     public boolean replay() {
-        double actual = secureRandom.nextDouble();
-        return actual < expected;
+        return sampler.sample();
     }
 }
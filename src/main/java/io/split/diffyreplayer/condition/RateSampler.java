@@ -0,0 +1,56 @@
+package io.split.diffyreplayer.condition;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Base Definition for samplers that accept a fixed rate of the requests.
+ *
+ * The rate is converted once into an integer threshold, so sampling is a single comparison
+ * of a 53 bit random number against it, without any floating point operation.
+ */
+public abstract class RateSampler implements Sampler {
+
+    private static final int BITS = 53;
+    private static final long ALL = 1L << BITS;
+
+    private final double rate;
+    private final long threshold;
+
+    /**
+     * @param rate percentage between 0 and 1 of the requests that are sampled.
+     */
+    protected RateSampler(double rate) {
+        Preconditions.checkArgument(!Double.isNaN(rate), "rate must be a number");
+        this.rate = rate;
+        if (rate <= 0) {
+            this.threshold = 0;
+        } else if (rate >= 1) {
+            this.threshold = ALL;
+        } else {
+            this.threshold = (long) (rate * ALL);
+        }
+    }
+
+    @Override
+    public boolean sample() {
+        if (threshold == 0) {
+            return false;
+        }
+        if (threshold == ALL) {
+            return true;
+        }
+        return (nextLong() >>> (Long.SIZE - BITS)) < threshold;
+    }
+
+    /**
+     * @return the rate this sampler was created with.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return 64 uniformly distributed random bits.
+     */
+    protected abstract long nextLong();
+}
@@ -0,0 +1,13 @@
+package io.split.diffyreplayer.condition;
+
+/**
+ * Decides, at random, whether a request is sampled for replay.
+ *
+ * Samplers are called from the request threads, so they have to be thread safe and cheap.
+ */
+public interface Sampler {
+    /**
+     * @return whether the request is sampled.
+     */
+    boolean sample();
+}
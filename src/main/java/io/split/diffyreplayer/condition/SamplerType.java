@@ -0,0 +1,25 @@
+package io.split.diffyreplayer.condition;
+
+/**
+ * Which Sampler the percentage based conditions use, configured with DIFFY_SAMPLER.
+ */
+public enum SamplerType {
+    FAST {
+        @Override
+        public RateSampler create(double rate) {
+            return new FastSampler(rate);
+        }
+    },
+    SECURE {
+        @Override
+        public RateSampler create(double rate) {
+            return new SecureSampler(rate);
+        }
+    };
+
+    /**
+     * @param rate percentage between 0 and 1 of the requests that are sampled.
+     * @return a new sampler of this type.
+     */
+    public abstract RateSampler create(double rate);
+}
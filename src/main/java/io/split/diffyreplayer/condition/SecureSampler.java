@@ -0,0 +1,23 @@
+package io.split.diffyreplayer.condition;
+
+import java.security.SecureRandom;
+import java.util.Random;
+
+/**
+ * Sampler backed by a shared SecureRandom.
+ *
+ * SecureRandom is synchronized and slower, so only use this one if the sampling must not be predictable.
+ */
+public class SecureSampler extends RateSampler {
+
+    private final static Random secureRandom = new SecureRandom();
+
+    public SecureSampler(double rate) {
+        super(rate);
+    }
+
+    @Override
+    protected long nextLong() {
+        return secureRandom.nextLong();
+    }
+}
@@ -0,0 +1,183 @@
+package io.split.diffyreplayer.condition;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import io.split.diffyreplayer.DiffyReplayerProperties;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DiffyReplayerCondition that samples each endpoint on its own, so busy endpoints do not take the
+ * whole replay budget and rare endpoints are still replayed.
+ *
+ * The first DIFFY_STRATIFIED_MIN_PER_INTERVAL requests of each endpoint within DIFFY_STRATIFIED_INTERVAL_MS
+ * are always replayed, after those at most DIFFY_STRATIFIED_MAX_PER_SECOND per endpoint are.
+ *
+ * <p>
+ *     The state of each endpoint is kept in a table split in stripes, each with its own lock, so
+ *     requests of different endpoints rarely wait for each other. The table keeps at most
+ *     DIFFY_STRATIFIED_MAX_ENDPOINTS endpoints, the least recently seen are forgotten.
+ * </p>
+ */
+public class StratifiedCondition implements DiffyReplayerCondition {
+
+    // Used when the endpoint of the request is not known.
+    private static final String UNKNOWN_ENDPOINT = "";
+    private static final int STRIPES = 16;
+
+    private final int minPerInterval;
+    private final long intervalNanos;
+    private final double maxPerNano;
+    private final Ticker ticker;
+    private final Stripe[] stripes;
+
+    public StratifiedCondition() {
+        this(DiffyReplayerProperties.getInstance());
+    }
+
+    private StratifiedCondition(DiffyReplayerProperties properties) {
+        this(properties.getStratifiedMinPerInterval(),
+                properties.getStratifiedIntervalMs(),
+                properties.getStratifiedMaxPerSecond(),
+                properties.getStratifiedMaxEndpoints(),
+                Ticker.systemTicker());
+    }
+
+    /**
+     * Default Constructor.
+     *
+     * @param minPerInterval how many requests of each endpoint are always replayed per interval.
+     * @param intervalMillis the interval of minPerInterval.
+     * @param maxPerSecond max replays per second of each endpoint once minPerInterval is reached.
+     * @param maxEndpoints how many endpoints are tracked, the least recently seen are forgotten.
+     * @param ticker source of time.
+     */
+    @VisibleForTesting
+    StratifiedCondition(int minPerInterval, long intervalMillis, double maxPerSecond, int maxEndpoints,
+                        Ticker ticker) {
+        Preconditions.checkArgument(minPerInterval >= 0, "minPerInterval must not be negative");
+        Preconditions.checkArgument(intervalMillis > 0, "intervalMillis must be positive");
+        Preconditions.checkArgument(maxPerSecond >= 0, "maxPerSecond must not be negative");
+        Preconditions.checkArgument(maxEndpoints >= STRIPES, "maxEndpoints must be at least %s", STRIPES);
+        this.minPerInterval = minPerInterval;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.maxPerNano = maxPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.ticker = Preconditions.checkNotNull(ticker);
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(maxEndpoints / STRIPES);
+        }
+    }
+
+    /**
+     * Without an endpoint, all the requests are sampled as a single endpoint.
+     */
+    @Override
+    public boolean replay() {
+        return replay(UNKNOWN_ENDPOINT);
+    }
+
+    @Override
+    public boolean replay(String endpoint) {
+        String key = endpoint != null ? endpoint : UNKNOWN_ENDPOINT;
+        int hash = key.hashCode();
+        // Spreads the high bits, Strings that only differ at the end would land in the same stripe.
+        hash ^= hash >>> 16;
+        return stripes[hash & (STRIPES - 1)].replay(key, ticker.read());
+    }
+
+    /**
+     * @return how many endpoints are tracked.
+     */
+    @VisibleForTesting
+    int getTrackedEndpoints() {
+        int tracked = 0;
+        for (Stripe stripe : stripes) {
+            tracked += stripe.size();
+        }
+        return tracked;
+    }
+
+    /**
+     * One lock and a bounded map of endpoints.
+     */
+    private final class Stripe {
+        private final Map<String, EndpointState> endpoints;
+
+        private Stripe(int capacity) {
+            this.endpoints = new LeastRecentlySeenMap<>(capacity);
+        }
+
+        private synchronized boolean replay(String endpoint, long now) {
+            EndpointState state = endpoints.get(endpoint);
+            if (state == null) {
+                state = new EndpointState(now);
+                endpoints.put(endpoint, state);
+            }
+            return state.replay(now);
+        }
+
+        private synchronized int size() {
+            return endpoints.size();
+        }
+    }
+
+    /**
+     * Access ordered, so the least recently seen endpoint is the one removed.
+     */
+    private static final class LeastRecentlySeenMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private LeastRecentlySeenMap(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /**
+     * Quota of the current interval plus a token bucket that holds at most one second of replays.
+     *
+     * Only accessed while holding the lock of its Stripe.
+     */
+    private final class EndpointState {
+        private long intervalStart;
+        private int replayedInInterval;
+        private double tokens;
+        private long refilledAt;
+
+        private EndpointState(long now) {
+            this.intervalStart = now;
+            this.refilledAt = now;
+        }
+
+        private boolean replay(long now) {
+            if (now - intervalStart >= intervalNanos) {
+                intervalStart = now;
+                replayedInInterval = 0;
+            }
+            tokens = Math.min(Math.max(1, maxPerNano * TimeUnit.SECONDS.toNanos(1)),
+                    tokens + (now - refilledAt) * maxPerNano);
+            refilledAt = now;
+            if (replayedInInterval < minPerInterval) {
+                replayedInInterval++;
+                return true;
+            }
+            if (tokens >= 1) {
+                tokens -= 1;
+                replayedInInterval++;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package io.split.diffyreplayer.dedup;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.split.diffyreplayer.ReplaySnapshot;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Suppresses replays identical to one already replayed within a time window.
+ *
+ * Two requests are identical when they have the same method, path (ignoring repeated and trailing
+ * slashes), query params (in any order) and values of the configured headers.
+ *
+ * Each request is reduced to a 64 bit key, and the last time a key was seen is kept in a fixed
+ * table of slots, so memory stays flat whatever the traffic. Keys that share a slot overwrite each
+ * other, which only lets a duplicate through; telling two keys apart by their fingerprint lets a
+ * different request be suppressed once every 16 million collisions.
+ */
+public class ReplayDeduplicator {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    // Each slot packs a fingerprint of the key in the high bits and when it was seen in the low bits.
+    private static final int TIME_BITS = 40;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final long windowMillis;
+    private final ImmutableSet<String> headers;
+    private final Ticker ticker;
+    private final long origin;
+
+    /**
+     * Default Constructor.
+     *
+     * @param windowMillis how long a replay suppresses the identical ones.
+     * @param slots how many keys are remembered, rounded up to a power of two.
+     * @param headers the headers that are part of the key, case insensitive.
+     * @param ticker source of time.
+     */
+    public ReplayDeduplicator(long windowMillis, int slots, Collection<String> headers, Ticker ticker) {
+        Preconditions.checkArgument(windowMillis > 0, "windowMillis must be positive");
+        Preconditions.checkArgument(slots > 0 && slots <= 1 << 30, "slots must be between 1 and 2^30");
+        int size = Integer.highestOneBit(slots) == slots ? slots : Integer.highestOneBit(slots) << 1;
+        this.slots = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.windowMillis = windowMillis;
+        ImmutableSet.Builder<String> names = ImmutableSet.builder();
+        for (String header : headers) {
+            names.add(header.trim().toLowerCase(Locale.ENGLISH));
+        }
+        this.headers = names.build();
+        this.ticker = Preconditions.checkNotNull(ticker);
+        this.origin = ticker.read();
+    }
+
+    /**
+     * Remembers the request, unless an identical one was already seen within the window.
+     *
+     * @param snapshot the sampled request.
+     * @return true when the request should not be replayed.
+     */
+    public boolean isDuplicate(ReplaySnapshot snapshot) {
+        return isDuplicate(key(snapshot));
+    }
+
+    @VisibleForTesting
+    boolean isDuplicate(long key) {
+        // Time starts at 1, an empty slot is never mistaken for a key seen at time 0.
+        long now = (TimeUnit.NANOSECONDS.toMillis(ticker.read() - origin) + 1) & TIME_MASK;
+        long fingerprint = key >>> TIME_BITS;
+        int index = (int) key & mask;
+        long seen = pack(fingerprint, now);
+        while (true) {
+            long current = slots.get(index);
+            if (current != 0 && (current >>> TIME_BITS) == fingerprint
+                    && ((now - (current & TIME_MASK)) & TIME_MASK) < windowMillis) {
+                return true;
+            }
+            if (slots.compareAndSet(index, current, seen)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Forgets a request that was remembered but never replayed, so an identical one is not suppressed.
+     *
+     * @param snapshot the request, as passed to {@link #isDuplicate(ReplaySnapshot)}.
+     */
+    public void forget(ReplaySnapshot snapshot) {
+        forget(key(snapshot));
+    }
+
+    @VisibleForTesting
+    void forget(long key) {
+        long fingerprint = key >>> TIME_BITS;
+        int index = (int) key & mask;
+        long current = slots.get(index);
+        // Unless another key took the slot since.
+        if (current != 0 && (current >>> TIME_BITS) == fingerprint) {
+            slots.compareAndSet(index, current, 0);
+        }
+    }
+
+    /**
+     * @return the key of the request, equal for identical requests.
+     */
+    @VisibleForTesting
+    long key(ReplaySnapshot snapshot) {
+        Hasher hasher = HASH.newHasher()
+                .putUnencodedChars(snapshot.getMethod())
+                .putChar(' ');
+        putNormalizedPath(hasher, snapshot.getRawPath());
+        hasher.putLong(unordered(snapshot.getQuery()));
+        if (!headers.isEmpty()) {
+            long headerKey = 0;
+            for (int i = 0; i < snapshot.getHeaderCount(); i++) {
+                String name = snapshot.getHeaderName(i).toLowerCase(Locale.ENGLISH);
+                if (headers.contains(name)) {
+                    headerKey += HASH.newHasher()
+                            .putUnencodedChars(name)
+                            .putChar(':')
+                            .putUnencodedChars(snapshot.getHeaderValue(i))
+                            .hash().asLong();
+                }
+            }
+            hasher.putLong(headerKey);
+        }
+        return hasher.hash().asLong();
+    }
+
+    private static void putNormalizedPath(Hasher hasher, String path) {
+        char previous = 0;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '/' && (previous == '/' || i == path.length() - 1)) {
+                continue;
+            }
+            hasher.putChar(c);
+            previous = c;
+        }
+    }
+
+    /**
+     * Combines the params of the query so their order does not matter, without sorting them.
+     */
+    private static long unordered(String query) {
+        if (query == null || query.isEmpty()) {
+            return 0;
+        }
+        long key = 0;
+        int start = 0;
+        while (start <= query.length()) {
+            int end = query.indexOf('&', start);
+            if (end < 0) {
+                end = query.length();
+            }
+            if (end > start) {
+                key += HASH.hashUnencodedChars(query.subSequence(start, end)).asLong();
+            }
+            start = end + 1;
+        }
+        return key;
+    }
+
+    private static long pack(long fingerprint, long time) {
+        return fingerprint << TIME_BITS | time;
+    }
+}
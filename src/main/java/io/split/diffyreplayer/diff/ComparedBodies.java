@@ -0,0 +1,173 @@
+package io.split.diffyreplayer.diff;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the bodies of the responses of the same replay side by side, one chunk of each at a time, and hashes them.
+ *
+ * Only what is needed to diff the bodies afterwards is kept: while the chunks of all the bodies are equal a single
+ * copy is kept, and once they diverge each body keeps its own rest. Nothing is kept past maxRetainedBytes, bodies
+ * that big are only compared by their hash. So memory depends on how many replays are in flight and on
+ * maxRetainedBytes, not on the size of the responses.
+ *
+ * The responses can only be read once, so the common copy has to be kept while reading, in case the bodies
+ * diverge later. It is dropped at the end when they did not, and a body equal to all the others is never
+ * copied out, since it is never diffed.
+ */
+final class ComparedBodies {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final HashCode[] hashes;
+    // Null when the body was too big to be kept.
+    private final byte[][] retained;
+
+    private ComparedBodies(HashCode[] hashes, byte[][] retained) {
+        this.hashes = hashes;
+        this.retained = retained;
+    }
+
+    /**
+     * Reads all the bodies to the end, the streams are not closed.
+     *
+     * @param bodies the bodies, a null stream is an empty body.
+     * @param maxRetainedBytes max bytes kept of all the bodies together.
+     * @return the hashes of the bodies, and the bodies themselves unless they were too big.
+     * @throws IOException if a body could not be read.
+     */
+    static ComparedBodies read(InputStream[] bodies, int maxRetainedBytes) throws IOException {
+        Preconditions.checkArgument(bodies.length > 0, "There should be at least one body");
+        Preconditions.checkArgument(maxRetainedBytes >= 0, "maxRetainedBytes must not be negative");
+
+        int count = bodies.length;
+        Hasher[] hashers = new Hasher[count];
+        byte[][] chunks = new byte[count][];
+        int[] lengths = new int[count];
+        boolean[] ended = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            hashers[i] = Hashing.murmur3_128().newHasher();
+            chunks[i] = new byte[CHUNK_SIZE];
+            ended[i] = bodies[i] == null;
+        }
+        ByteArrayOutputStream common = new ByteArrayOutputStream();
+        ByteArrayOutputStream[] own = null;
+        boolean retaining = true;
+        long kept = 0;
+
+        while (!allEnded(ended)) {
+            for (int i = 0; i < count; i++) {
+                lengths[i] = ended[i] ? 0 : ByteStreams.read(bodies[i], chunks[i], 0, CHUNK_SIZE);
+                if (lengths[i] < CHUNK_SIZE) {
+                    ended[i] = true;
+                }
+                hashers[i].putBytes(chunks[i], 0, lengths[i]);
+            }
+            if (!retaining) {
+                continue;
+            }
+            if (own == null && !sameChunks(chunks, lengths)) {
+                own = new ByteArrayOutputStream[count];
+                for (int i = 0; i < count; i++) {
+                    own[i] = new ByteArrayOutputStream();
+                }
+            }
+            kept += own == null ? lengths[0] : sum(lengths);
+            if (kept > maxRetainedBytes) {
+                // Too big to be diffed, only the hashes are compared.
+                retaining = false;
+                common = null;
+                own = null;
+            } else if (own == null) {
+                common.write(chunks[0], 0, lengths[0]);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    own[i].write(chunks[i], 0, lengths[i]);
+                }
+            }
+        }
+
+        HashCode[] hashes = new HashCode[count];
+        for (int i = 0; i < count; i++) {
+            hashes[i] = hashers[i].hash();
+        }
+        byte[][] retained = new byte[count][];
+        // Without own copies every chunk was equal, so are the bodies.
+        byte[] prefix = retaining && own != null ? common.toByteArray() : null;
+        for (int i = 0; i < count; i++) {
+            if (prefix != null && !sameAsAll(hashes, i)) {
+                byte[] rest = own != null ? own[i].toByteArray() : new byte[0];
+                retained[i] = new byte[prefix.length + rest.length];
+                System.arraycopy(prefix, 0, retained[i], 0, prefix.length);
+                System.arraycopy(rest, 0, retained[i], prefix.length, rest.length);
+            }
+        }
+        return new ComparedBodies(hashes, retained);
+    }
+
+    private static boolean sameAsAll(HashCode[] hashes, int body) {
+        for (HashCode hash : hashes) {
+            if (!hash.equals(hashes[body])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean allEnded(boolean[] ended) {
+        for (boolean bodyEnded : ended) {
+            if (!bodyEnded) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameChunks(byte[][] chunks, int[] lengths) {
+        for (int i = 1; i < chunks.length; i++) {
+            if (lengths[i] != lengths[0]) {
+                return false;
+            }
+            for (int j = 0; j < lengths[0]; j++) {
+                if (chunks[i][j] != chunks[0][j]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static long sum(int[] lengths) {
+        long sum = 0;
+        for (int length : lengths) {
+            sum += length;
+        }
+        return sum;
+    }
+
+    /**
+     * @return true if both bodies have the same hash.
+     */
+    boolean same(int first, int second) {
+        return hashes[first].equals(hashes[second]);
+    }
+
+    HashCode getHash(int body) {
+        return hashes[body];
+    }
+
+    /**
+     * @return the body decoded as UTF-8, null if it was too big to be kept or has the same hash as all the others.
+     */
+    String getText(int body) {
+        return retained[body] != null ? new String(retained[body], StandardCharsets.UTF_8) : null;
+    }
+}
@@ -0,0 +1,88 @@
+package io.split.diffyreplayer.diff;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Differences found by the LocalDiffer, broken down by Canonical-Resource.
+ *
+ * Like the ReplayMetrics, up to a max amount of resources are broken down and the rest are counted together
+ * under {@link #OTHER_RESOURCES}. Paths and samples are bounded per resource too, so memory stays flat no
+ * matter how many replays differ.
+ */
+public class DiffAggregator {
+
+    /**
+     * Where differences are counted once the max amount of resources is reached.
+     */
+    public static final String OTHER_RESOURCES = "_other";
+
+    private final int maxResources;
+    private final int maxPaths;
+    private final int maxSamples;
+    private final ConcurrentMap<String, ResourceDiffs> resources = new ConcurrentHashMap<>();
+    private final ResourceDiffs otherResources;
+
+    /**
+     * Default Constructor.
+     *
+     * @param maxResources max amount of Canonical-Resources broken down.
+     * @param maxPaths max amount of paths counted per resource, the rest are counted together.
+     * @param maxSamples how many of the latest replays that differed are kept per resource.
+     */
+    public DiffAggregator(int maxResources, int maxPaths, int maxSamples) {
+        Preconditions.checkArgument(maxResources >= 0, "maxResources must not be negative");
+        Preconditions.checkArgument(maxPaths > 0, "maxPaths must be positive");
+        Preconditions.checkArgument(maxSamples >= 0, "maxSamples must not be negative");
+        this.maxResources = maxResources;
+        this.maxPaths = maxPaths;
+        this.maxSamples = maxSamples;
+        this.otherResources = new ResourceDiffs(maxPaths, maxSamples);
+    }
+
+    /**
+     * Records the outcome of comparing the responses of a replay.
+     *
+     * @param canonicalResource the Canonical-Resource of the replay.
+     * @param request the path and query of the replay, kept in the samples.
+     * @param differences between the primary and the candidate, noise excluded. Empty if they matched.
+     * @param noise the paths that differed between the primary and the secondary.
+     */
+    public void record(String canonicalResource, String request, Collection<Difference> differences,
+                       Collection<String> noise) {
+        resource(canonicalResource).record(request, differences, noise);
+    }
+
+    /**
+     * @return a point in time copy of the differences, by Canonical-Resource.
+     */
+    public Map<String, ResourceDiffs.Snapshot> snapshot() {
+        ImmutableMap.Builder<String, ResourceDiffs.Snapshot> snapshots = ImmutableMap.builder();
+        resources.forEach((name, diffs) -> snapshots.put(name, diffs.snapshot()));
+        ResourceDiffs.Snapshot other = otherResources.snapshot();
+        if (other.getCompared() > 0) {
+            snapshots.put(OTHER_RESOURCES, other);
+        }
+        return snapshots.build();
+    }
+
+    private ResourceDiffs resource(String canonicalResource) {
+        if (canonicalResource == null) {
+            return otherResources;
+        }
+        ResourceDiffs diffs = resources.get(canonicalResource);
+        if (diffs != null) {
+            return diffs;
+        }
+        // The size check is racy, a few resources over the max might be kept, which is fine.
+        if (resources.size() >= maxResources) {
+            return otherResources;
+        }
+        return resources.computeIfAbsent(canonicalResource, key -> new ResourceDiffs(maxPaths, maxSamples));
+    }
+}
@@ -0,0 +1,40 @@
+package io.split.diffyreplayer.diff;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A replay whose candidate response differed from the primary one, kept as an example.
+ */
+public final class DiffSample {
+
+    private final String request;
+    private final List<Difference> differences;
+
+    DiffSample(String request, Collection<Difference> differences) {
+        this.request = Preconditions.checkNotNull(request);
+        this.differences = ImmutableList.copyOf(differences);
+    }
+
+    /**
+     * @return the path and query of the replayed request.
+     */
+    public String getRequest() {
+        return request;
+    }
+
+    /**
+     * @return the differences, noise excluded.
+     */
+    public List<Difference> getDifferences() {
+        return differences;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s", request, differences);
+    }
+}
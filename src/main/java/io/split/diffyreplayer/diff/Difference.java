@@ -0,0 +1,60 @@
+package io.split.diffyreplayer.diff;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A field whose value differs between the primary and the candidate responses.
+ */
+public final class Difference {
+
+    /**
+     * Path of a difference in the status code.
+     */
+    public static final String STATUS = "status";
+
+    /**
+     * Path of a difference in a body that is not JSON, or too big to be diffed.
+     */
+    public static final String BODY = "body";
+
+    private static final int MAX_VALUE_LENGTH = 256;
+
+    private final String path;
+    private final String primary;
+    private final String candidate;
+
+    /**
+     * @param path where the values differ, for example $.splits[].name.
+     * @param primary the value in the primary response, truncated.
+     * @param candidate the value in the candidate response, truncated.
+     */
+    public Difference(String path, String primary, String candidate) {
+        this.path = Preconditions.checkNotNull(path);
+        this.primary = truncate(primary);
+        this.candidate = truncate(candidate);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getPrimary() {
+        return primary;
+    }
+
+    public String getCandidate() {
+        return candidate;
+    }
+
+    private static String truncate(String value) {
+        if (value == null || value.length() <= MAX_VALUE_LENGTH) {
+            return value;
+        }
+        return value.substring(0, MAX_VALUE_LENGTH) + "...";
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s != %s", path, primary, candidate);
+    }
+}
@@ -0,0 +1,64 @@
+package io.split.diffyreplayer.diff;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Structural diff of two parsed JSON documents.
+ *
+ * Objects are compared key by key, regardless of their order, and arrays element by element. Array indexes
+ * are left out of the paths ($.splits[].name), so the same field of every element is counted together and
+ * noise found in one element applies to all of them. Arrays of different sizes are reported as a whole.
+ */
+final class JsonDiff {
+
+    static final String ROOT = "$";
+
+    private JsonDiff() {
+    }
+
+    /**
+     * @param primary the primary document.
+     * @param candidate the candidate document.
+     * @param differences where the differences are added, the first one of each path is kept.
+     * @param maxDifferences once this many paths differ the rest of the documents are not compared.
+     */
+    static void diff(Object primary, Object candidate, Map<String, Difference> differences, int maxDifferences) {
+        diff(ROOT, primary, candidate, differences, maxDifferences);
+    }
+
+    private static void diff(String path, Object primary, Object candidate, Map<String, Difference> differences,
+                             int maxDifferences) {
+        if (differences.size() >= maxDifferences) {
+            return;
+        }
+        if (primary instanceof Map && candidate instanceof Map) {
+            Map<?, ?> primaryObject = (Map<?, ?>) primary;
+            Map<?, ?> candidateObject = (Map<?, ?>) candidate;
+            Set<Object> keys = new LinkedHashSet<>(primaryObject.keySet());
+            keys.addAll(candidateObject.keySet());
+            for (Object key : keys) {
+                diff(path + "." + key, primaryObject.get(key), candidateObject.get(key), differences,
+                        maxDifferences);
+            }
+            return;
+        }
+        if (primary instanceof List && candidate instanceof List
+                && ((List<?>) primary).size() == ((List<?>) candidate).size()) {
+            List<?> primaryArray = (List<?>) primary;
+            List<?> candidateArray = (List<?>) candidate;
+            for (int i = 0; i < primaryArray.size(); i++) {
+                diff(path + "[]", primaryArray.get(i), candidateArray.get(i), differences, maxDifferences);
+            }
+            return;
+        }
+        if (!Objects.equals(primary, candidate) && !differences.containsKey(path)) {
+            // A missing key is null, a JSON null is JsonValue.NULL.
+            differences.put(path, new Difference(path, Objects.toString(primary, null),
+                    Objects.toString(candidate, null)));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package io.split.diffyreplayer.diff;
+
+import com.google.common.base.Preconditions;
+import io.split.diffyreplayer.transport.PooledHttpTransport;
+import org.apache.http.HttpEntity;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Does what Diffy does, without Diffy: sends a replay to the primary, the secondary and the candidate,
+ * and compares their responses.
+ *
+ * The bodies are streamed and hashed side by side (see {@link ComparedBodies}), and only when the primary and
+ * the candidate hashes differ the bodies are parsed and diffed field by field. What also differs between the
+ * primary and the secondary, that run the same code, is noise (timestamps, random ids) and is not reported.
+ * Bodies that are not JSON, or too big to be kept, are compared by their hash alone.
+ */
+public class LocalDiffer {
+
+    private static final int PRIMARY = 0;
+    private static final int SECONDARY = 1;
+    private static final int CANDIDATE = 2;
+
+    private final DiffAggregator aggregator;
+    private final int maxBodyBytes;
+    private final int maxDifferences;
+
+    /**
+     * Default Constructor.
+     *
+     * @param aggregator where the differences are recorded.
+     * @param maxBodyBytes max bytes of the three bodies of a replay kept to diff them.
+     * @param maxDifferences max differences reported per replay.
+     */
+    public LocalDiffer(DiffAggregator aggregator, int maxBodyBytes, int maxDifferences) {
+        Preconditions.checkArgument(maxBodyBytes >= 0, "maxBodyBytes must not be negative");
+        Preconditions.checkArgument(maxDifferences > 0, "maxDifferences must be positive");
+        this.aggregator = Preconditions.checkNotNull(aggregator);
+        this.maxBodyBytes = maxBodyBytes;
+        this.maxDifferences = maxDifferences;
+    }
+
+    /**
+     * Sends the replay to the three targets on the calling thread and records the differences.
+     *
+     * @param transport sends the requests, its pool must allow three connections per concurrent replay.
+     * @param canonicalResource the Canonical-Resource of the replay.
+     * @param request the path and query of the replay, kept in the samples.
+     * @param primary the request to the primary.
+     * @param secondary the request to the secondary, same code as the primary.
+     * @param candidate the request to the candidate.
+     * @return the status of the candidate response, and how long the candidate took to answer.
+     * @throws IOException if a target could not be reached or a response could not be read.
+     */
+    public Result compare(PooledHttpTransport transport, String canonicalResource, String request,
+                          HttpRequestBase primary, HttpRequestBase secondary, HttpRequestBase candidate)
+            throws IOException {
+        Preconditions.checkNotNull(transport);
+        // All the responses are open at once, so their bodies can be read side by side.
+        try (CloseableHttpResponse primaryResponse = transport.open(primary);
+             CloseableHttpResponse secondaryResponse = transport.open(secondary)) {
+            // Timed on its own, the round trips to the primary and secondary are not the candidate's.
+            long candidateSentAt = System.nanoTime();
+            try (CloseableHttpResponse candidateResponse = transport.open(candidate)) {
+                long candidateNanos = System.nanoTime() - candidateSentAt;
+                record(canonicalResource, request, primaryResponse, secondaryResponse, candidateResponse);
+                return new Result(candidateResponse.getStatusLine(), candidateNanos);
+            }
+        }
+    }
+
+    private void record(String canonicalResource, String request, CloseableHttpResponse primaryResponse,
+                        CloseableHttpResponse secondaryResponse, CloseableHttpResponse candidateResponse)
+            throws IOException {
+        CloseableHttpResponse[] responses = {primaryResponse, secondaryResponse, candidateResponse};
+        InputStream[] bodies = new InputStream[responses.length];
+        for (int i = 0; i < responses.length; i++) {
+            HttpEntity entity = responses[i].getEntity();
+            bodies[i] = entity != null ? entity.getContent() : null;
+        }
+        ComparedBodies compared = ComparedBodies.read(bodies, maxBodyBytes);
+
+        Map<String, Difference> differences = new LinkedHashMap<>();
+        Map<String, Difference> noise = new LinkedHashMap<>();
+        int primaryStatus = primaryResponse.getStatusLine().getStatusCode();
+        int secondaryStatus = secondaryResponse.getStatusLine().getStatusCode();
+        int candidateStatus = candidateResponse.getStatusLine().getStatusCode();
+        if (primaryStatus != candidateStatus) {
+            differences.put(Difference.STATUS, new Difference(Difference.STATUS,
+                    String.valueOf(primaryStatus), String.valueOf(candidateStatus)));
+        }
+        if (primaryStatus != secondaryStatus) {
+            noise.put(Difference.STATUS, new Difference(Difference.STATUS,
+                    String.valueOf(primaryStatus), String.valueOf(secondaryStatus)));
+        }
+        if (!compared.same(PRIMARY, CANDIDATE)) {
+            diffBodies(compared, CANDIDATE, differences);
+            if (!compared.same(PRIMARY, SECONDARY)) {
+                diffBodies(compared, SECONDARY, noise);
+            }
+        }
+        Set<String> noisyPaths = noise.keySet();
+        differences.keySet().removeAll(noisyPaths);
+        aggregator.record(canonicalResource, request, differences.values(),
+                noisyPaths.isEmpty() ? Collections.emptySet() : noisyPaths);
+    }
+
+    private void diffBodies(ComparedBodies compared, int other, Map<String, Difference> differences) {
+        String primaryText = compared.getText(PRIMARY);
+        String otherText = compared.getText(other);
+        if (primaryText != null && otherText != null) {
+            try {
+                JsonDiff.diff(JsonValue.parse(primaryText), JsonValue.parse(otherText), differences,
+                        maxDifferences + differences.size());
+                return;
+            } catch (IllegalArgumentException e) {
+                // Not JSON, compared by the hashes.
+            }
+        }
+        differences.put(Difference.BODY, new Difference(Difference.BODY,
+                compared.getHash(PRIMARY).toString(), compared.getHash(other).toString()));
+    }
+
+    /**
+     * The outcome of a comparison.
+     */
+    public static final class Result {
+        private final StatusLine statusLine;
+        private final long candidateNanos;
+
+        private Result(StatusLine statusLine, long candidateNanos) {
+            this.statusLine = statusLine;
+            this.candidateNanos = candidateNanos;
+        }
+
+        /**
+         * @return the status of the candidate response.
+         */
+        public StatusLine getStatusLine() {
+            return statusLine;
+        }
+
+        /**
+         * @return how long the candidate took to answer, until its response headers arrived. The bodies are read
+         *         side by side, so reading them is not counted.
+         */
+        public long getCandidateNanos() {
+            return candidateNanos;
+        }
+    }
+}
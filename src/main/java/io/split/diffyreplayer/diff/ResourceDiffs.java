@@ -0,0 +1,141 @@
+package io.split.diffyreplayer.diff;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The differences found in the replays of a single Canonical-Resource.
+ */
+public class ResourceDiffs {
+
+    // Where the paths over the max are counted.
+    static final String OTHER_PATHS = "_other";
+
+    private final int maxPaths;
+    private final int maxSamples;
+    private final LongAdder compared = new LongAdder();
+    private final LongAdder different = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> differencesByPath = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> noiseByPath = new ConcurrentHashMap<>();
+    // The latest samples, guarded by itself.
+    private final Deque<DiffSample> samples = new ArrayDeque<>();
+
+    ResourceDiffs(int maxPaths, int maxSamples) {
+        this.maxPaths = maxPaths;
+        this.maxSamples = maxSamples;
+    }
+
+    void record(String request, Collection<Difference> differences, Collection<String> noise) {
+        compared.increment();
+        noise.forEach(path -> count(noiseByPath, path));
+        if (differences.isEmpty()) {
+            return;
+        }
+        different.increment();
+        differences.forEach(difference -> count(differencesByPath, difference.getPath()));
+        if (maxSamples > 0) {
+            DiffSample sample = new DiffSample(request, differences);
+            synchronized (samples) {
+                if (samples.size() >= maxSamples) {
+                    samples.removeFirst();
+                }
+                samples.addLast(sample);
+            }
+        }
+    }
+
+    private void count(ConcurrentMap<String, LongAdder> byPath, String path) {
+        LongAdder counter = byPath.get(path);
+        if (counter == null) {
+            // The size check is racy, a few paths over the max might be kept, which is fine.
+            counter = byPath.size() >= maxPaths
+                    ? byPath.computeIfAbsent(OTHER_PATHS, key -> new LongAdder())
+                    : byPath.computeIfAbsent(path, key -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    public Snapshot snapshot() {
+        List<DiffSample> samplesCopy;
+        synchronized (samples) {
+            samplesCopy = ImmutableList.copyOf(samples);
+        }
+        return new Snapshot(compared.sum(), different.sum(), sums(differencesByPath), sums(noiseByPath), samplesCopy);
+    }
+
+    private static Map<String, Long> sums(ConcurrentMap<String, LongAdder> byPath) {
+        ImmutableMap.Builder<String, Long> sums = ImmutableMap.builder();
+        byPath.forEach((path, counter) -> sums.put(path, counter.sum()));
+        return sums.build();
+    }
+
+    /**
+     * Immutable copy of the differences of a Canonical-Resource.
+     */
+    public static final class Snapshot {
+        private final long compared;
+        private final long different;
+        private final Map<String, Long> differencesByPath;
+        private final Map<String, Long> noiseByPath;
+        private final List<DiffSample> samples;
+
+        private Snapshot(long compared, long different, Map<String, Long> differencesByPath,
+                         Map<String, Long> noiseByPath, List<DiffSample> samples) {
+            this.compared = compared;
+            this.different = different;
+            this.differencesByPath = differencesByPath;
+            this.noiseByPath = noiseByPath;
+            this.samples = samples;
+        }
+
+        /**
+         * @return replays whose responses were compared.
+         */
+        public long getCompared() {
+            return compared;
+        }
+
+        /**
+         * @return replays where the candidate differed from the primary, noise excluded.
+         */
+        public long getDifferent() {
+            return different;
+        }
+
+        /**
+         * @return how many replays differed in each path, noise excluded.
+         */
+        public Map<String, Long> getDifferencesByPath() {
+            return differencesByPath;
+        }
+
+        /**
+         * @return how many replays had each path differ between the primary and the secondary.
+         */
+        public Map<String, Long> getNoiseByPath() {
+            return noiseByPath;
+        }
+
+        /**
+         * @return the latest replays that differed, oldest first.
+         */
+        public List<DiffSample> getSamples() {
+            return samples;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("compared=%s different=%s differences=%s noise=%s",
+                    compared, different, differencesByPath, noiseByPath);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package io.split.diffyreplayer.executor;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed size thread pool with a bounded queue, so replays do not pile up when Diffy slows down.
+ *
+ * When the queue is full, replays are discarded according to the {@link ShedPolicy}, and every
+ * discarded replay is counted by {@link DropReason}.
+ */
+public class BoundedReplayExecutor extends ThreadPoolExecutor implements ReplayExecutor {
+
+    private final ShedPolicy shedPolicy;
+    private final long maxAgeNanos;
+    private final ReplayDropCounter dropCounter;
+
+    /**
+     * Default Constructor.
+     *
+     * @param threads how many replays can happen concurrently.
+     * @param queueCapacity how many replays can wait for a thread, more replays than this get discarded.
+     * @param shedPolicy which replay to discard when the queue is full.
+     * @param maxAgeMillis only used with DROP_IF_OLDER_THAN, max time a replay can wait in the queue.
+     * @param dropCounter where discarded replays are counted.
+     */
+    public BoundedReplayExecutor(int threads,
+                                 int queueCapacity,
+                                 ShedPolicy shedPolicy,
+                                 long maxAgeMillis,
+                                 ReplayDropCounter dropCounter) {
+        super(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("diffy-replayer-%d")
+                        .build());
+        Preconditions.checkArgument(maxAgeMillis > 0, "maxAgeMillis must be positive");
+        this.shedPolicy = Preconditions.checkNotNull(shedPolicy);
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        this.dropCounter = Preconditions.checkNotNull(dropCounter);
+        setRejectedExecutionHandler(new ShedHandler());
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        Preconditions.checkNotNull(command);
+        super.execute(command instanceof QueuedReplay ? command : new QueuedReplay(command));
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return getMaximumPoolSize();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    @Override
+    public ReplayDropCounter getDropCounter() {
+        return dropCounter;
+    }
+
+    private boolean isExpired(Runnable runnable, long now) {
+        return shedPolicy == ShedPolicy.DROP_IF_OLDER_THAN
+                && runnable instanceof QueuedReplay
+                && now - ((QueuedReplay) runnable).enqueuedAt > maxAgeNanos;
+    }
+
+    /**
+     * Remembers when the replay entered the queue.
+     */
+    private final class QueuedReplay implements Runnable {
+        private final Runnable delegate;
+        private final long enqueuedAt;
+
+        private QueuedReplay(Runnable delegate) {
+            this.delegate = delegate;
+            this.enqueuedAt = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            if (isExpired(this, System.nanoTime())) {
+                drop(DropReason.EXPIRED_IN_QUEUE);
+                return;
+            }
+            delegate.run();
+        }
+
+        private void drop(DropReason reason) {
+            dropCounter.record(reason, delegate);
+        }
+    }
+
+    /**
+     * Called when the queue is full, applies the ShedPolicy.
+     */
+    private final class ShedHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            QueuedReplay replay = (QueuedReplay) runnable;
+            if (executor.isShutdown()) {
+                replay.drop(DropReason.SHUTDOWN);
+                return;
+            }
+            BlockingQueue<Runnable> queue = executor.getQueue();
+            switch (shedPolicy) {
+                case DROP_OLDEST:
+                    Runnable oldest = queue.poll();
+                    if (oldest != null) {
+                        ((QueuedReplay) oldest).drop(DropReason.EVICTED_OLDEST);
+                    }
+                    break;
+                case DROP_IF_OLDER_THAN:
+                    long now = System.nanoTime();
+                    Runnable head;
+                    // The queue is FIFO, so once the head is not expired the rest are not either.
+                    while ((head = queue.peek()) != null && isExpired(head, now)) {
+                        if (queue.remove(head)) {
+                            ((QueuedReplay) head).drop(DropReason.EXPIRED_IN_QUEUE);
+                        }
+                    }
+                    break;
+                case DROP_NEWEST:
+                default:
+                    break;
+            }
+            if (!queue.offer(replay)) {
+                replay.drop(DropReason.QUEUE_FULL);
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package io.split.diffyreplayer.executor;
+
+/**
+ * Why a replay was discarded before being sent to Diffy.
+ */
+public enum DropReason {
+    // The queue was full and the new replay was discarded.
+    QUEUE_FULL,
+    // The replay was the oldest in a full queue and was discarded to make room for a new one.
+    EVICTED_OLDEST,
+    // The queue was full and the replay was discarded from the group with the most queued replays.
+    FAIR_SHARE,
+    // The replay waited in the queue for longer than the max age.
+    EXPIRED_IN_QUEUE,
+    // The replay was taken from the queue after its deadline, counted from the moment it was sampled.
+    DEADLINE_EXPIRED,
+    // The replayer was already shut down.
+    SHUTDOWN,
+    // Diffy was failing and the circuit breaker was open.
+    CIRCUIT_OPEN,
+    // There were already as many replays in flight as Diffy can currently handle.
+    CONCURRENCY_LIMIT,
+    // In CAPTURE mode, the request could not be written to the journal.
+    CAPTURE_FAILED,
+    // An identical request was replayed within the dedup window.
+    DUPLICATE,
+    // The JVM was under pressure and the replay was throttled.
+    THROTTLED
+}
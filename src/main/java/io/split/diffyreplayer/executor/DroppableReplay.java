@@ -0,0 +1,14 @@
+package io.split.diffyreplayer.executor;
+
+/**
+ * A replay that has to know when the executor discards it instead of running it.
+ */
+public interface DroppableReplay extends Runnable {
+
+    /**
+     * Called once, instead of {@link #run()}, from the thread that discarded the replay.
+     *
+     * @param reason why the replay was discarded.
+     */
+    void dropped(DropReason reason);
+}
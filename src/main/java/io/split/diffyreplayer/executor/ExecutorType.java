@@ -0,0 +1,21 @@
+package io.split.diffyreplayer.executor;
+
+/**
+ * Which ReplayExecutor is used, configured with DIFFY_EXECUTOR.
+ */
+public enum ExecutorType {
+    /**
+     * Fixed pool of DIFFY_THREAD_POOL platform threads.
+     */
+    PLATFORM,
+    /**
+     * One virtual thread per replay, at most DIFFY_MAX_CONCURRENT_REPLAYS running at the same time.
+     * Falls back to PLATFORM on runtimes without virtual threads.
+     */
+    VIRTUAL,
+    /**
+     * Fixed pool of DIFFY_THREAD_POOL platform threads, serving one queue per endpoint group with
+     * weighted round robin and capping how many replays of each group run at the same time.
+     */
+    FAIR
+}
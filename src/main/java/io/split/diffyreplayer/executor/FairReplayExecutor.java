@@ -0,0 +1,448 @@
+package io.split.diffyreplayer.executor;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed size thread pool that keeps one queue per group of endpoints, so a chatty endpoint can not starve
+ * the rest of the replays.
+ *
+ * <ul>
+ *     <li>The queues are served with deficit round robin: every turn a group can run as many replays as
+ *     its weight, then the next group with queued replays gets its turn.</li>
+ *     <li>Every group has a bulkhead, at most that many of its replays run at the same time, so a slow
+ *     endpoint can not take every thread.</li>
+ *     <li>The queue capacity is shared by all the groups. When it is full, the replay is discarded from the
+ *     group with the most queued replays, according to the {@link ShedPolicy} if that is the group of the
+ *     new replay, or its newest replay otherwise.</li>
+ * </ul>
+ *
+ * Groups beyond the max are all served as {@link #OTHER_GROUP}, so the memory used does not depend on
+ * how many endpoints there are.
+ */
+public class FairReplayExecutor implements ReplayExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FairReplayExecutor.class);
+
+    /**
+     * Group of the replays executed without one.
+     */
+    public static final String DEFAULT_GROUP = "_default";
+
+    /**
+     * Group of the replays once there are max groups.
+     */
+    public static final String OTHER_GROUP = "_other";
+
+    private final int threads;
+    private final int queueCapacity;
+    private final ShedPolicy shedPolicy;
+    private final long maxAgeNanos;
+    private final int maxGroups;
+    private final int defaultWeight;
+    private final int defaultMaxConcurrency;
+    private final Map<String, Integer> weights;
+    private final Map<String, Integer> maxConcurrencies;
+    private final ReplayDropCounter dropCounter;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition runnable = lock.newCondition();
+    // Guarded by lock.
+    private final Map<String, Group> groups = new HashMap<>();
+    // Guarded by lock, the groups with queued replays in the order they are served.
+    private final Deque<Group> active = new ArrayDeque<>();
+    // Guarded by lock.
+    private int queued;
+    // Guarded by lock.
+    private boolean shutdown;
+
+    /**
+     * Default Constructor.
+     *
+     * @param threads how many replays can happen concurrently.
+     * @param queueCapacity how many replays, of all the groups, can wait for a thread.
+     * @param shedPolicy which replay of the group with the most queued replays is discarded when the queue is full.
+     * @param maxAgeMillis only used with DROP_IF_OLDER_THAN, max time a replay can wait in the queue.
+     * @param maxGroups how many groups have their own queue.
+     * @param weights replays per turn of the groups that do not get the default of 1.
+     * @param defaultMaxConcurrency how many replays of the same group can happen concurrently.
+     * @param maxConcurrencies the bulkhead of the groups that do not get the default.
+     * @param dropCounter where discarded replays are counted.
+     */
+    public FairReplayExecutor(int threads,
+                              int queueCapacity,
+                              ShedPolicy shedPolicy,
+                              long maxAgeMillis,
+                              int maxGroups,
+                              Map<String, Integer> weights,
+                              int defaultMaxConcurrency,
+                              Map<String, Integer> maxConcurrencies,
+                              ReplayDropCounter dropCounter) {
+        Preconditions.checkArgument(threads > 0, "threads must be positive");
+        Preconditions.checkArgument(queueCapacity > 0, "queueCapacity must be positive");
+        Preconditions.checkArgument(maxAgeMillis > 0, "maxAgeMillis must be positive");
+        Preconditions.checkArgument(maxGroups > 0, "maxGroups must be positive");
+        Preconditions.checkArgument(defaultMaxConcurrency > 0, "defaultMaxConcurrency must be positive");
+        for (Map.Entry<String, Integer> weight : weights.entrySet()) {
+            Preconditions.checkArgument(weight.getValue() > 0, "Weight of %s must be positive", weight.getKey());
+        }
+        for (Map.Entry<String, Integer> limit : maxConcurrencies.entrySet()) {
+            Preconditions.checkArgument(limit.getValue() > 0, "Max concurrency of %s must be positive",
+                    limit.getKey());
+        }
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.shedPolicy = Preconditions.checkNotNull(shedPolicy);
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        this.maxGroups = maxGroups;
+        this.defaultWeight = 1;
+        this.defaultMaxConcurrency = defaultMaxConcurrency;
+        this.weights = ImmutableMap.copyOf(weights);
+        this.maxConcurrencies = ImmutableMap.copyOf(maxConcurrencies);
+        this.dropCounter = Preconditions.checkNotNull(dropCounter);
+
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("diffy-replayer-%d")
+                .build();
+        for (int i = 0; i < threads; i++) {
+            threadFactory.newThread(this::work).start();
+        }
+    }
+
+    /**
+     * Runs the replay as part of the DEFAULT_GROUP.
+     */
+    @Override
+    public void execute(Runnable command) {
+        execute(DEFAULT_GROUP, command);
+    }
+
+    @Override
+    public void execute(String group, Runnable command) {
+        Preconditions.checkNotNull(command);
+        long now = System.nanoTime();
+        List<Drop> drops = new ArrayList<>();
+        lock.lock();
+        try {
+            if (shutdown) {
+                drops.add(new Drop(DropReason.SHUTDOWN, command));
+                return;
+            }
+            Group target = group(group != null ? group : DEFAULT_GROUP);
+            if (queued >= queueCapacity && !shed(target, now, drops)) {
+                drops.add(new Drop(DropReason.QUEUE_FULL, command));
+                return;
+            }
+            target.queue.addLast(new Replay(command, now, target));
+            queued++;
+            if (!target.active) {
+                target.active = true;
+                active.addLast(target);
+            }
+            runnable.signal();
+        } finally {
+            lock.unlock();
+            record(drops);
+        }
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return threads;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ReplayDropCounter getDropCounter() {
+        return dropCounter;
+    }
+
+    /**
+     * Stops accepting replays and discards the queued ones, the ones already running still run.
+     */
+    @Override
+    public void shutdown() {
+        List<Drop> drops = new ArrayList<>();
+        lock.lock();
+        try {
+            shutdown = true;
+            for (Group group : active) {
+                for (Replay replay : group.queue) {
+                    drops.add(new Drop(DropReason.SHUTDOWN, replay.delegate));
+                }
+                group.queue.clear();
+                group.active = false;
+                group.deficit = 0;
+            }
+            active.clear();
+            queued = 0;
+            runnable.signalAll();
+        } finally {
+            lock.unlock();
+            record(drops);
+        }
+    }
+
+    /**
+     * @return how many replays are waiting to run, by group.
+     */
+    public Map<String, Integer> getQueueDepthByGroup() {
+        lock.lock();
+        try {
+            ImmutableMap.Builder<String, Integer> depths = ImmutableMap.builder();
+            for (Group group : groups.values()) {
+                depths.put(group.name, group.queue.size());
+            }
+            return depths.build();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @VisibleForTesting
+    int getRunning(String group) {
+        lock.lock();
+        try {
+            Group found = groups.get(group);
+            return found != null ? found.running : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Group group(String name) {
+        Group group = groups.get(name);
+        if (group != null) {
+            return group;
+        }
+        if (groups.size() >= maxGroups) {
+            if (groups.size() == maxGroups) {
+                LOG.warn(String.format("More than %s replay groups, the rest are served as %s", maxGroups,
+                        OTHER_GROUP));
+            }
+            name = OTHER_GROUP;
+            group = groups.get(name);
+            if (group != null) {
+                return group;
+            }
+        }
+        group = new Group(name, weights.getOrDefault(name, defaultWeight),
+                maxConcurrencies.getOrDefault(name, defaultMaxConcurrency));
+        groups.put(name, group);
+        return group;
+    }
+
+    /**
+     * Makes room in a full queue, discarding from the group with the most queued replays.
+     *
+     * @param drops where the discarded replays are added, to be recorded once the lock is released.
+     * @return whether there is room for the new replay.
+     */
+    private boolean shed(Group target, long now, List<Drop> drops) {
+        Group longest = target;
+        for (Group group : active) {
+            if (group.queue.size() > longest.queue.size()) {
+                longest = group;
+            }
+        }
+        if (longest != target) {
+            // The newest, since it waited the least.
+            Replay newest = longest.queue.pollLast();
+            queued--;
+            drops.add(new Drop(DropReason.FAIR_SHARE, newest.delegate));
+            return true;
+        }
+        switch (shedPolicy) {
+            case DROP_OLDEST:
+                Replay oldest = target.queue.pollFirst();
+                if (oldest != null) {
+                    queued--;
+                    drops.add(new Drop(DropReason.EVICTED_OLDEST, oldest.delegate));
+                }
+                break;
+            case DROP_IF_OLDER_THAN:
+                // The queue is FIFO, so once the head is not expired the rest are not either.
+                while (!target.queue.isEmpty() && isExpired(target.queue.peekFirst(), now)) {
+                    Replay expired = target.queue.pollFirst();
+                    queued--;
+                    drops.add(new Drop(DropReason.EXPIRED_IN_QUEUE, expired.delegate));
+                }
+                break;
+            case DROP_NEWEST:
+            default:
+                break;
+        }
+        return queued < queueCapacity;
+    }
+
+    private boolean isExpired(Replay replay, long now) {
+        return shedPolicy == ShedPolicy.DROP_IF_OLDER_THAN && now - replay.enqueuedAt > maxAgeNanos;
+    }
+
+    private void work() {
+        List<Drop> drops = new ArrayList<>();
+        while (true) {
+            Replay replay;
+            lock.lock();
+            try {
+                while ((replay = next(drops)) == null) {
+                    if (shutdown && queued == 0) {
+                        return;
+                    }
+                    runnable.awaitUninterruptibly();
+                }
+            } finally {
+                lock.unlock();
+                record(drops);
+                drops.clear();
+            }
+            try {
+                replay.delegate.run();
+            } catch (Throwable e) {
+                // Unlike a ThreadPoolExecutor nothing replaces a thread that dies, so it survives even an Error.
+                LOG.error("Replay failed", e);
+            } finally {
+                lock.lock();
+                try {
+                    replay.group.running--;
+                    // The group may have been waiting for its bulkhead, after a shutdown every idle thread
+                    // has to check whether it is done.
+                    if (shutdown) {
+                        runnable.signalAll();
+                    } else {
+                        runnable.signal();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Deficit round robin with unit cost: the group at the head gets its weight added to its deficit when
+     * its turn starts, and keeps the turn while it has deficit left, queued replays and room in its bulkhead.
+     * Groups whose bulkhead is full are skipped without losing their deficit.
+     *
+     * @param drops where the expired replays are added, to be recorded once the lock is released.
+     * @return the next replay to run, already counted as running, or null if none can run now.
+     */
+    private Replay next(List<Drop> drops) {
+        long now = System.nanoTime();
+        for (int skipped = 0; skipped < active.size(); ) {
+            Group group = active.peekFirst();
+            if (group.queue.isEmpty()) {
+                active.pollFirst();
+                group.active = false;
+                group.deficit = 0;
+                continue;
+            }
+            if (group.running >= group.maxConcurrency) {
+                active.addLast(active.pollFirst());
+                skipped++;
+                continue;
+            }
+            if (group.deficit == 0) {
+                group.deficit = group.weight;
+            }
+            Replay replay = group.queue.pollFirst();
+            queued--;
+            if (isExpired(replay, now)) {
+                drops.add(new Drop(DropReason.EXPIRED_IN_QUEUE, replay.delegate));
+                continue;
+            }
+            group.deficit--;
+            group.running++;
+            if (group.queue.isEmpty()) {
+                active.pollFirst();
+                group.active = false;
+                group.deficit = 0;
+            } else if (group.deficit == 0) {
+                active.addLast(active.pollFirst());
+            }
+            return replay;
+        }
+        return null;
+    }
+
+    /**
+     * Counts the discarded replays and lets them know, outside of the lock since that runs their code.
+     */
+    private void record(List<Drop> drops) {
+        for (Drop drop : drops) {
+            dropCounter.record(drop.reason, drop.replay);
+        }
+    }
+
+    /**
+     * A replay discarded while holding the lock.
+     */
+    private static final class Drop {
+        private final DropReason reason;
+        private final Runnable replay;
+
+        private Drop(DropReason reason, Runnable replay) {
+            this.reason = reason;
+            this.replay = replay;
+        }
+    }
+
+    /**
+     * A queued replay, remembers when it entered the queue.
+     */
+    private static final class Replay {
+        private final Runnable delegate;
+        private final long enqueuedAt;
+        private final Group group;
+
+        private Replay(Runnable delegate, long enqueuedAt, Group group) {
+            this.delegate = delegate;
+            this.enqueuedAt = enqueuedAt;
+            this.group = group;
+        }
+    }
+
+    /**
+     * The queue, turn and bulkhead of a group, guarded by the lock of the executor.
+     */
+    private static final class Group {
+        private final String name;
+        private final int weight;
+        private final int maxConcurrency;
+        private final Deque<Replay> queue = new ArrayDeque<>();
+        private int deficit;
+        private int running;
+        private boolean active;
+
+        private Group(String name, int weight, int maxConcurrency) {
+            this.name = name;
+            this.weight = weight;
+            this.maxConcurrency = maxConcurrency;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package io.split.diffyreplayer.executor;
+
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the replays that were discarded, by reason.
+ *
+ * Counting is contention free, so it is safe to call it from the request threads.
+ */
+public class ReplayDropCounter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplayDropCounter.class);
+
+    private final Map<DropReason, LongAdder> counters = new EnumMap<>(DropReason.class);
+
+    public ReplayDropCounter() {
+        for (DropReason reason : DropReason.values()) {
+            counters.put(reason, new LongAdder());
+        }
+    }
+
+    /**
+     * Records that a replay was discarded.
+     *
+     * Logs a warning the 1st, 2nd, 4th, 8th, etc. time a reason is recorded, so drops are visible
+     * without cluttering the logs.
+     *
+     * @param reason why the replay was discarded.
+     */
+    public void record(DropReason reason) {
+        LongAdder counter = counters.get(reason);
+        counter.increment();
+        long count = counter.sum();
+        if (Long.bitCount(count) == 1) {
+            LOG.warn(String.format("Diffy Replayer discarded %s replays so far, reason %s", count, reason));
+        }
+    }
+
+    /**
+     * Records that the executor discarded a replay without running it, and lets the replay know.
+     *
+     * @param reason why the replay was discarded.
+     * @param replay the replay, notified if it is a {@link DroppableReplay}.
+     */
+    public void record(DropReason reason, Runnable replay) {
+        record(reason);
+        if (replay instanceof DroppableReplay) {
+            ((DroppableReplay) replay).dropped(reason);
+        }
+    }
+
+    /**
+     * @param reason the reason to check.
+     * @return how many replays were discarded because of that reason.
+     */
+    public long get(DropReason reason) {
+        return counters.get(reason).sum();
+    }
+
+    /**
+     * @return how many replays were discarded, no matter the reason.
+     */
+    public long total() {
+        long total = 0;
+        for (LongAdder counter : counters.values()) {
+            total += counter.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @return a point in time copy of all the counters.
+     */
+    public Map<DropReason, Long> snapshot() {
+        ImmutableMap.Builder<DropReason, Long> builder = ImmutableMap.builder();
+        counters.forEach((reason, counter) -> builder.put(reason, counter.sum()));
+        return builder.build();
+    }
+}
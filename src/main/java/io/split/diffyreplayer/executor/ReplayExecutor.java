@@ -0,0 +1,40 @@
+package io.split.diffyreplayer.executor;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the replays, discarding (and counting) the ones that cannot be admitted.
+ */
+public interface ReplayExecutor extends Executor {
+
+    /**
+     * Runs a replay of an endpoint group, only the FAIR executor schedules by group.
+     *
+     * @param group the group of the endpoint, null for the default one.
+     * @param command the replay.
+     */
+    default void execute(String group, Runnable command) {
+        execute(command);
+    }
+
+    /**
+     * @return how many replays can run at the same time.
+     */
+    int getMaxConcurrency();
+
+    /**
+     * @return how many replays are waiting to run.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return where discarded replays are counted.
+     */
+    ReplayDropCounter getDropCounter();
+
+    /**
+     * Stops accepting replays, the ones already running still run. Depending on the executor the queued ones
+     * still run too, or are discarded as {@link DropReason#SHUTDOWN}.
+     */
+    void shutdown();
+}
@@ -0,0 +1,58 @@
+package io.split.diffyreplayer.executor;
+
+import com.google.common.base.Preconditions;
+import io.split.diffyreplayer.DiffyReplayerProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the ReplayExecutor defined in the properties.
+ */
+public final class ReplayExecutors {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplayExecutors.class);
+
+    private ReplayExecutors() {
+    }
+
+    /**
+     * @param properties the Diffy Replayer properties.
+     * @param dropCounter where discarded replays are counted.
+     * @return a virtual thread executor if it was configured and the runtime supports it, a fair one if it was
+     *         configured, a platform one otherwise.
+     */
+    public static ReplayExecutor create(DiffyReplayerProperties properties, ReplayDropCounter dropCounter) {
+        Preconditions.checkNotNull(properties);
+
+        if (properties.getDiffyExecutor() == ExecutorType.VIRTUAL) {
+            if (VirtualThreads.isSupported()) {
+                return new VirtualThreadReplayExecutor(
+                        VirtualThreads.factory("diffy-replayer-"),
+                        properties.getDiffyMaxConcurrentReplays(),
+                        properties.getDiffyQueueCapacity(),
+                        properties.getDiffyShedPolicy(),
+                        properties.getDiffyShedMaxAgeMs(),
+                        dropCounter);
+            }
+            LOG.info("Virtual threads are not supported by this runtime, using a pool of platform threads");
+        }
+        if (properties.getDiffyExecutor() == ExecutorType.FAIR) {
+            return new FairReplayExecutor(
+                    properties.getDiffyThreadPool(),
+                    properties.getDiffyQueueCapacity(),
+                    properties.getDiffyShedPolicy(),
+                    properties.getDiffyShedMaxAgeMs(),
+                    properties.getFairMaxGroups(),
+                    properties.getFairWeights(),
+                    properties.getFairGroupMaxConcurrency(),
+                    properties.getFairGroupLimits(),
+                    dropCounter);
+        }
+        return new BoundedReplayExecutor(
+                properties.getDiffyThreadPool(),
+                properties.getDiffyQueueCapacity(),
+                properties.getDiffyShedPolicy(),
+                properties.getDiffyShedMaxAgeMs(),
+                dropCounter);
+    }
+}
@@ -0,0 +1,21 @@
+package io.split.diffyreplayer.executor;
+
+/**
+ * What to do with a replay when the replay queue is full.
+ */
+public enum ShedPolicy {
+    /**
+     * The replay that just arrived is discarded.
+     */
+    DROP_NEWEST,
+    /**
+     * The replay that has been waiting the most is discarded to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Replays that have been waiting in the queue for more than the configured max age are discarded,
+     * either to make room for a new replay or when they are taken from the queue. If there is no
+     * expired replay to discard, the new one is discarded.
+     */
+    DROP_IF_OLDER_THAN
+}
@@ -0,0 +1,129 @@
+package io.split.diffyreplayer.executor;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts one thread per replay, meant to be used with virtual threads.
+ *
+ * Concurrency is capped by a semaphore instead of by the size of a pool. Replays that are waiting
+ * for a permit count as queued, and once maxConcurrency + queueCapacity replays are admitted the new
+ * ones get discarded.
+ *
+ * DROP_OLDEST is not supported, since waiting replays are not kept in a queue, DROP_NEWEST is used instead.
+ */
+public class VirtualThreadReplayExecutor implements ReplayExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualThreadReplayExecutor.class);
+
+    private final ThreadFactory threadFactory;
+    private final int maxConcurrency;
+    private final int maxAdmitted;
+    private final Semaphore permits;
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final ShedPolicy shedPolicy;
+    private final long maxAgeNanos;
+    private final ReplayDropCounter dropCounter;
+    private volatile boolean shutdown = false;
+
+    /**
+     * Default Constructor.
+     *
+     * @param threadFactory creates one thread per replay.
+     * @param maxConcurrency how many replays can happen concurrently.
+     * @param queueCapacity how many replays can wait for a permit, more replays than this get discarded.
+     * @param shedPolicy DROP_IF_OLDER_THAN discards the replays that waited too long, any other drops the newest.
+     * @param maxAgeMillis only used with DROP_IF_OLDER_THAN, max time a replay can wait for a permit.
+     * @param dropCounter where discarded replays are counted.
+     */
+    public VirtualThreadReplayExecutor(ThreadFactory threadFactory,
+                                       int maxConcurrency,
+                                       int queueCapacity,
+                                       ShedPolicy shedPolicy,
+                                       long maxAgeMillis,
+                                       ReplayDropCounter dropCounter) {
+        Preconditions.checkArgument(maxConcurrency > 0, "maxConcurrency must be positive");
+        Preconditions.checkArgument(queueCapacity >= 0, "queueCapacity can not be negative");
+        Preconditions.checkArgument(maxAgeMillis > 0, "maxAgeMillis must be positive");
+        this.threadFactory = Preconditions.checkNotNull(threadFactory);
+        this.maxConcurrency = maxConcurrency;
+        this.maxAdmitted = maxConcurrency + queueCapacity;
+        this.permits = new Semaphore(maxConcurrency);
+        this.shedPolicy = Preconditions.checkNotNull(shedPolicy);
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        this.dropCounter = Preconditions.checkNotNull(dropCounter);
+        if (shedPolicy == ShedPolicy.DROP_OLDEST) {
+            LOG.warn("DROP_OLDEST is not supported by the virtual thread executor, using DROP_NEWEST");
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        Preconditions.checkNotNull(command);
+
+        if (shutdown) {
+            dropCounter.record(DropReason.SHUTDOWN, command);
+            return;
+        }
+        if (admitted.incrementAndGet() > maxAdmitted) {
+            admitted.decrementAndGet();
+            dropCounter.record(DropReason.QUEUE_FULL, command);
+            return;
+        }
+        long enqueuedAt = System.nanoTime();
+        try {
+            threadFactory.newThread(() -> run(command, enqueuedAt)).start();
+        } catch (RuntimeException | OutOfMemoryError e) {
+            admitted.decrementAndGet();
+            dropCounter.record(DropReason.QUEUE_FULL, command);
+            LOG.warn("Could not start a thread for the replay", e);
+        }
+    }
+
+    private void run(Runnable command, long enqueuedAt) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            admitted.decrementAndGet();
+            dropCounter.record(DropReason.SHUTDOWN, command);
+            return;
+        }
+        try {
+            if (shedPolicy == ShedPolicy.DROP_IF_OLDER_THAN && System.nanoTime() - enqueuedAt > maxAgeNanos) {
+                dropCounter.record(DropReason.EXPIRED_IN_QUEUE, command);
+                return;
+            }
+            command.run();
+        } finally {
+            permits.release();
+            admitted.decrementAndGet();
+        }
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        int running = maxConcurrency - permits.availablePermits();
+        return Math.max(0, admitted.get() - running);
+    }
+
+    @Override
+    public ReplayDropCounter getDropCounter() {
+        return dropCounter;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+}
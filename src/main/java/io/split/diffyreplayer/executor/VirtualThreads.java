@@ -0,0 +1,30 @@
+package io.split.diffyreplayer.executor;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads.
+ *
+ * This is the Java 8 version, where there are no virtual threads. The jar is multi-release and
+ * runtimes that support virtual threads load the version in META-INF/versions/21 instead.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return whether this runtime supports virtual threads.
+     */
+    static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * @param prefix prefix for the name of the threads.
+     * @return a factory of virtual threads.
+     */
+    static ThreadFactory factory(String prefix) {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+    }
+}
@@ -0,0 +1,197 @@
+package io.split.diffyreplayer.headers;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.split.diffyreplayer.DiffyReplay;
+import io.split.diffyreplayer.DiffyReplayerRequestBuilder;
+import io.split.diffyreplayer.ReplaySnapshot;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Decides which headers of the original request are sent to Diffy, and with which value.
+ *
+ * <ul>
+ *     <li>Hop-by-hop headers, Host and Content-Length are never sent, they belong to the original connection.
+ *     So are the headers the Connection header lists as its options.</li>
+ *     <li>With an allow-list only the listed headers are sent, otherwise every header but the denied ones.</li>
+ *     <li>Rewritten headers are sent with a fixed value, for example to replace a user's token with a test one.</li>
+ *     <li>Values longer than the per-header cap are dropped, and once the total cap is reached no more
+ *     headers are sent, only the headers that would have been sent count as capped. Sizes are in characters,
+ *     which is what headers take on the wire.</li>
+ * </ul>
+ *
+ * The policy is compiled once into a case insensitive table of rules, and applying it is a single
+ * pass over the headers of the snapshot, without creating any collection.
+ */
+public class HeaderPolicy {
+
+    private static final String CONNECTION = "Connection";
+
+    // Never forwarded, see RFC 7230 section 6.1, plus the headers that describe the original connection.
+    private static final ImmutableList<String> HOP_BY_HOP = ImmutableList.of(
+            CONNECTION, "Keep-Alive", "Proxy-Authenticate", "Proxy-Authorization", "Proxy-Connection",
+            "TE", "Trailer", "Transfer-Encoding", "Upgrade", "Host", "Content-Length");
+
+    /**
+     * Only strips the hop-by-hop headers, without caps.
+     */
+    public static final HeaderPolicy DEFAULT = new HeaderPolicy(ImmutableList.of(), ImmutableList.of(),
+            ImmutableMap.of(), Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    private final Map<String, Rule> rules;
+    private final boolean allowListed;
+    private final int maxHeaderLength;
+    private final int maxTotalLength;
+    private final LongAdder capped = new LongAdder();
+
+    /**
+     * Default Constructor.
+     *
+     * @param allow only these headers are sent, if not empty.
+     * @param deny these headers are not sent.
+     * @param rewrites headers sent with a fixed value instead of the original one, implicitly allowed.
+     * @param maxHeaderLength values longer than this are dropped.
+     * @param maxTotalLength once the names and values sent add up to this, the rest of the headers are dropped.
+     */
+    public HeaderPolicy(Collection<String> allow, Collection<String> deny, Map<String, String> rewrites,
+                        int maxHeaderLength, int maxTotalLength) {
+        Preconditions.checkArgument(maxHeaderLength > 0, "maxHeaderLength must be positive");
+        Preconditions.checkArgument(maxTotalLength > 0, "maxTotalLength must be positive");
+
+        // Lookups compare ignoring case, so no lower case copy of the name is created per header.
+        TreeMap<String, Rule> compiled = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String header : allow) {
+            compiled.put(header.trim(), Rule.SEND);
+        }
+        for (Map.Entry<String, String> rewrite : rewrites.entrySet()) {
+            compiled.put(rewrite.getKey().trim(), new Rule(true, Preconditions.checkNotNull(rewrite.getValue())));
+        }
+        for (String header : deny) {
+            compiled.put(header.trim(), Rule.DROP);
+        }
+        for (String header : HOP_BY_HOP) {
+            compiled.put(header, Rule.DROP);
+        }
+        // Added by DiffyReplayerRequestBuilder, the originals would be duplicates.
+        compiled.put(DiffyReplayerRequestBuilder.CANONICAL_RESOURCE, Rule.DROP);
+        compiled.put(DiffyReplay.HEADER, Rule.DROP);
+
+        this.rules = compiled;
+        this.allowListed = !allow.isEmpty();
+        this.maxHeaderLength = maxHeaderLength;
+        this.maxTotalLength = maxTotalLength;
+    }
+
+    /**
+     * Passes the headers of the snapshot that are sent to Diffy, in their original order.
+     *
+     * @param snapshot the request being replayed.
+     * @param destination receives the name and the value of each header that is sent.
+     */
+    public void apply(ReplaySnapshot snapshot, BiConsumer<String, String> destination) {
+        String connectionOptions = connectionOptions(snapshot);
+        int total = 0;
+        boolean full = false;
+        for (int i = 0; i < snapshot.getHeaderCount(); i++) {
+            String name = snapshot.getHeaderName(i);
+            String value = snapshot.getHeaderValue(i);
+            Rule rule = rules.get(name);
+            if (rule != null) {
+                if (!rule.send) {
+                    continue;
+                }
+                if (rule.value != null) {
+                    value = rule.value;
+                }
+            } else if (allowListed) {
+                continue;
+            }
+            if (connectionOptions != null && isListed(connectionOptions, name)) {
+                continue;
+            }
+            if (value.length() > maxHeaderLength) {
+                capped.increment();
+                continue;
+            }
+            if (!full) {
+                total += name.length() + value.length();
+                full = total > maxTotalLength;
+            }
+            if (full) {
+                capped.increment();
+                continue;
+            }
+            destination.accept(name, value);
+        }
+    }
+
+    /**
+     * @return the values of the Connection headers joined by commas, or null if there is none.
+     */
+    private static String connectionOptions(ReplaySnapshot snapshot) {
+        String options = null;
+        for (int i = 0; i < snapshot.getHeaderCount(); i++) {
+            if (CONNECTION.equalsIgnoreCase(snapshot.getHeaderName(i))) {
+                String value = snapshot.getHeaderValue(i);
+                options = options == null ? value : options + "," + value;
+            }
+        }
+        return options;
+    }
+
+    /**
+     * @return whether the name is one of the comma separated tokens, ignoring case and whitespace.
+     */
+    private static boolean isListed(String tokens, String name) {
+        int start = 0;
+        while (start <= tokens.length()) {
+            int end = tokens.indexOf(',', start);
+            if (end < 0) {
+                end = tokens.length();
+            }
+            int from = start;
+            int to = end;
+            while (from < to && Character.isWhitespace(tokens.charAt(from))) {
+                from++;
+            }
+            while (to > from && Character.isWhitespace(tokens.charAt(to - 1))) {
+                to--;
+            }
+            if (to - from == name.length() && tokens.regionMatches(true, from, name, 0, name.length())) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * @return how many header values were dropped because of the caps.
+     */
+    public long getCappedHeaders() {
+        return capped.sum();
+    }
+
+    /**
+     * What is done with a header.
+     */
+    private static final class Rule {
+        private static final Rule SEND = new Rule(true, null);
+        private static final Rule DROP = new Rule(false, null);
+
+        private final boolean send;
+        // Null to send the original value.
+        private final String value;
+
+        private Rule(boolean send, String value) {
+            this.send = send;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package io.split.diffyreplayer.health;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how many replays are sent to Diffy at the same time, adapting the limit the same way TCP does.
+ *
+ * Additive increase: every replay answered on time adds 1/limit, so the limit grows by one per round.
+ * Multiplicative decrease: a slow answer, a failure or an overloaded status multiplies the limit by the
+ * backoff, at most once per latency target, so a burst of failures does not collapse it to the minimum.
+ */
+public class AimdConcurrencyLimit {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AimdConcurrencyLimit.class);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoff;
+    private final long latencyTargetNanos;
+    private final Ticker ticker;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // Written holding the lock, read without it.
+    private volatile double limit;
+    private long lastDecrease;
+
+    /**
+     * Default Constructor.
+     *
+     * @param minLimit the limit never goes below this.
+     * @param maxLimit the limit never goes over this, it is also the initial limit.
+     * @param backoff between 0 and 1, what the limit is multiplied by when Diffy can't keep up.
+     * @param latencyTargetMillis replays slower than this decrease the limit.
+     * @param ticker source of time.
+     */
+    public AimdConcurrencyLimit(int minLimit, int maxLimit, double backoff, long latencyTargetMillis, Ticker ticker) {
+        Preconditions.checkArgument(minLimit > 0, "minLimit must be positive");
+        Preconditions.checkArgument(maxLimit >= minLimit, "maxLimit must not be less than minLimit");
+        Preconditions.checkArgument(backoff > 0 && backoff < 1, "backoff must be between 0 and 1");
+        Preconditions.checkArgument(latencyTargetMillis > 0, "latencyTargetMillis must be positive");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoff = backoff;
+        this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMillis);
+        this.ticker = Preconditions.checkNotNull(ticker);
+        this.limit = maxLimit;
+        this.lastDecrease = ticker.read() - latencyTargetNanos;
+    }
+
+    /**
+     * @return whether the replay can be sent, if so it must be released exactly once.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= getLimit()) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Diffy answered properly.
+     *
+     * @param rttNanos how long the replay took.
+     */
+    public void onSuccess(long rttNanos) {
+        inFlight.decrementAndGet();
+        if (rttNanos > latencyTargetNanos) {
+            decrease("slow response");
+        } else if (limit < maxLimit) {
+            increase();
+        }
+    }
+
+    /**
+     * Diffy failed or could not keep up.
+     */
+    public void onOverload() {
+        inFlight.decrementAndGet();
+        decrease("failure");
+    }
+
+    /**
+     * The replay was acquired but never sent, nothing is learned from it.
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * @return how many replays can be in flight right now.
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private synchronized void increase() {
+        limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+
+    private synchronized void decrease(String reason) {
+        long now = ticker.read();
+        if (now - lastDecrease < latencyTargetNanos) {
+            return;
+        }
+        lastDecrease = now;
+        double previous = limit;
+        limit = Math.max(minLimit, limit * backoff);
+        if (LOG.isDebugEnabled() && (int) previous != (int) limit) {
+            LOG.debug(String.format("Diffy Replayer concurrency limit went from %s to %s, %s",
+                    (int) previous, (int) limit, reason));
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package io.split.diffyreplayer.health;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops sending replays to Diffy while it is failing.
+ *
+ * The circuit opens after too many consecutive failures, or when the error rate within a window
+ * goes over a threshold. Once the open period is over, the circuit is half open and lets a few
+ * probes through, one at a time. If all of them succeed the circuit closes, if any fails it opens again.
+ *
+ * Only the transitions are logged, not every failure.
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final int failureThreshold;
+    private final double errorRateThreshold;
+    private final int minRequests;
+    private final long windowNanos;
+    private final long openNanos;
+    private final int probes;
+    private final Ticker ticker;
+
+    // Written holding the lock, read without it by allowsRequests.
+    private volatile CircuitState state = CircuitState.CLOSED;
+    private volatile long stateSince;
+
+    private int consecutiveFailures;
+    private long windowStart;
+    private int windowRequests;
+    private int windowFailures;
+    private boolean probeInFlight;
+    private int probeSuccesses;
+
+    /**
+     * Default Constructor.
+     *
+     * @param failureThreshold consecutive failures that open the circuit.
+     * @param errorRateThreshold error rate, between 0 and 1, that opens the circuit.
+     * @param minRequests requests needed within a window before the error rate is considered.
+     * @param windowMillis length of the window used for the error rate.
+     * @param openMillis how long the circuit stays open before letting probes through.
+     * @param probes consecutive successful probes needed to close the circuit.
+     * @param ticker source of time.
+     */
+    public CircuitBreaker(int failureThreshold,
+                          double errorRateThreshold,
+                          int minRequests,
+                          long windowMillis,
+                          long openMillis,
+                          int probes,
+                          Ticker ticker) {
+        Preconditions.checkArgument(failureThreshold > 0, "failureThreshold must be positive");
+        Preconditions.checkArgument(errorRateThreshold > 0 && errorRateThreshold <= 1,
+                "errorRateThreshold must be between 0 and 1");
+        Preconditions.checkArgument(minRequests > 0, "minRequests must be positive");
+        Preconditions.checkArgument(windowMillis > 0, "windowMillis must be positive");
+        Preconditions.checkArgument(openMillis > 0, "openMillis must be positive");
+        Preconditions.checkArgument(probes > 0, "probes must be positive");
+        this.failureThreshold = failureThreshold;
+        this.errorRateThreshold = errorRateThreshold;
+        this.minRequests = minRequests;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.probes = probes;
+        this.ticker = Preconditions.checkNotNull(ticker);
+        this.stateSince = ticker.read();
+        this.windowStart = stateSince;
+    }
+
+    /**
+     * Cheap check, without reserving anything, used to discard replays before they are queued.
+     *
+     * @return false if the circuit is open and it is not time to probe yet.
+     */
+    public boolean allowsRequests() {
+        return state != CircuitState.OPEN || ticker.read() - stateSince >= openNanos;
+    }
+
+    /**
+     * Called right before sending a replay, every acquired replay must report its outcome.
+     *
+     * @return whether the replay can be sent.
+     */
+    public synchronized boolean tryAcquire() {
+        long now = ticker.read();
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - stateSince < openNanos) {
+                    return false;
+                }
+                transition(CircuitState.HALF_OPEN, now, "open period is over");
+                probeInFlight = true;
+                return true;
+            case HALF_OPEN:
+            default:
+                // A probe that never reports back (for example it was discarded) should not stall the circuit.
+                if (probeInFlight && now - stateSince < openNanos) {
+                    return false;
+                }
+                probeInFlight = true;
+                stateSince = now;
+                return true;
+        }
+    }
+
+    /**
+     * Diffy answered properly.
+     */
+    public synchronized void onSuccess() {
+        long now = ticker.read();
+        consecutiveFailures = 0;
+        if (state == CircuitState.HALF_OPEN) {
+            probeInFlight = false;
+            if (++probeSuccesses >= probes) {
+                transition(CircuitState.CLOSED, now, String.format("%s probes succeeded", probeSuccesses));
+            }
+            return;
+        }
+        record(now, false);
+    }
+
+    /**
+     * Diffy failed, or could not keep up.
+     */
+    public synchronized void onFailure() {
+        long now = ticker.read();
+        consecutiveFailures++;
+        switch (state) {
+            case HALF_OPEN:
+                transition(CircuitState.OPEN, now, "probe failed");
+                break;
+            case CLOSED:
+                record(now, true);
+                if (consecutiveFailures >= failureThreshold) {
+                    transition(CircuitState.OPEN, now,
+                            String.format("%s consecutive failures", consecutiveFailures));
+                } else if (windowRequests >= minRequests
+                        && windowFailures >= errorRateThreshold * windowRequests) {
+                    transition(CircuitState.OPEN, now,
+                            String.format("%s of %s requests failed", windowFailures, windowRequests));
+                }
+                break;
+            case OPEN:
+            default:
+                // Replays sent before the circuit opened.
+                break;
+        }
+    }
+
+    public CircuitState getState() {
+        return state;
+    }
+
+    private void record(long now, boolean failure) {
+        if (now - windowStart >= windowNanos) {
+            windowStart = now;
+            windowRequests = 0;
+            windowFailures = 0;
+        }
+        windowRequests++;
+        if (failure) {
+            windowFailures++;
+        }
+    }
+
+    private void transition(CircuitState to, long now, String reason) {
+        CircuitState from = state;
+        state = to;
+        stateSince = now;
+        probeInFlight = false;
+        probeSuccesses = 0;
+        consecutiveFailures = 0;
+        windowStart = now;
+        windowRequests = 0;
+        windowFailures = 0;
+        if (to == CircuitState.OPEN) {
+            LOG.warn(String.format("Diffy Replayer circuit went from %s to %s, %s. Is Diffy Server up and running?",
+                    from, to, reason));
+        } else {
+            LOG.info(String.format("Diffy Replayer circuit went from %s to %s, %s", from, to, reason));
+        }
+    }
+}
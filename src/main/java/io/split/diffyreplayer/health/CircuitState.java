@@ -0,0 +1,19 @@
+package io.split.diffyreplayer.health;
+
+/**
+ * State of the CircuitBreaker in front of Diffy.
+ */
+public enum CircuitState {
+    /**
+     * Diffy is healthy, replays are sent.
+     */
+    CLOSED,
+    /**
+     * Diffy is failing, replays are discarded without being sent.
+     */
+    OPEN,
+    /**
+     * Diffy was failing, a few probes are sent to find out if it recovered.
+     */
+    HALF_OPEN
+}
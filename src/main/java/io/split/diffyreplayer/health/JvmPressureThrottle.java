@@ -0,0 +1,220 @@
+package io.split.diffyreplayer.health;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scales the replays down while the JVM is under pressure, since they share it with the production traffic.
+ *
+ * Three signals are watched through the platform MXBeans: the share of time spent in GC pauses,
+ * the heap occupancy after the last GC and the CPU load of the process. Each one maps to a factor
+ * through its PressureThreshold, and the lowest one wins.
+ *
+ * <p>
+ *     The factor drops as soon as the pressure rises, but only recovers by a step per interval,
+ *     so replays do not flap while the JVM hovers around a threshold.
+ * </p>
+ */
+public class JvmPressureThrottle implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JvmPressureThrottle.class);
+
+    private final PressureThreshold gcTime;
+    private final PressureThreshold heapAfterGc;
+    private final PressureThreshold cpu;
+    private final double recoveryStep;
+
+    private final LongAdder gcPauseMillis = new LongAdder();
+    private volatile double lastHeapAfterGc;
+    private volatile double factor = 1;
+
+    private ScheduledExecutorService scheduler;
+    private NotificationListener gcListener;
+
+    /**
+     * Default Constructor, nothing is watched until {@link #start(long)}.
+     *
+     * @param gcTime threshold for the share of time spent in GC pauses.
+     * @param heapAfterGc threshold for the heap occupancy after a GC.
+     * @param cpu threshold for the CPU load of the process.
+     * @param recoveryStep how much the factor can grow per interval.
+     */
+    public JvmPressureThrottle(PressureThreshold gcTime, PressureThreshold heapAfterGc, PressureThreshold cpu,
+                               double recoveryStep) {
+        Preconditions.checkArgument(recoveryStep > 0 && recoveryStep <= 1, "recoveryStep must be in (0, 1]");
+        this.gcTime = Preconditions.checkNotNull(gcTime);
+        this.heapAfterGc = Preconditions.checkNotNull(heapAfterGc);
+        this.cpu = Preconditions.checkNotNull(cpu);
+        this.recoveryStep = recoveryStep;
+    }
+
+    /**
+     * Starts listening to the GC notifications and updating the factor from a background daemon thread.
+     *
+     * @param intervalMillis how often the factor is updated.
+     */
+    public synchronized void start(long intervalMillis) {
+        Preconditions.checkArgument(intervalMillis > 0, "intervalMillis must be positive");
+        Preconditions.checkState(scheduler == null, "Already started");
+
+        ImmutableSet.Builder<String> heapPools = ImmutableSet.builder();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool.getName());
+            }
+        }
+        gcListener = new GcListener(heapPools.build());
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(gcListener, null, null);
+            }
+        }
+
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("diffy-replayer-throttle-%d")
+                .build());
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                update((double) gcPauseMillis.sumThenReset() / intervalMillis, lastHeapAfterGc, processCpuLoad(os));
+            } catch (RuntimeException e) {
+                // Never let the updates stop, the factor would stay wherever it was.
+                LOG.warn("Failed to update the replay throttle", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Samples the replays by the current factor, free while the JVM is not under pressure.
+     *
+     * @return true when the replay can go on.
+     */
+    public boolean tryPass() {
+        double current = factor;
+        return current >= 1 || (current > 0 && ThreadLocalRandom.current().nextDouble() < current);
+    }
+
+    /**
+     * @return the share of the sampled replays that currently go through, between 0 and 1.
+     */
+    public double getFactor() {
+        return factor;
+    }
+
+    /**
+     * Recomputes the factor from the signals of the last interval.
+     *
+     * @param gcTimeShare share of the interval spent in GC pauses.
+     * @param heapOccupancy heap occupancy after the last GC.
+     * @param cpuLoad CPU load of the process.
+     */
+    @VisibleForTesting
+    void update(double gcTimeShare, double heapOccupancy, double cpuLoad) {
+        double target = Math.min(gcTime.factor(gcTimeShare),
+                Math.min(heapAfterGc.factor(heapOccupancy), cpu.factor(cpuLoad)));
+        double current = factor;
+        double next = target < current ? target : Math.min(target, current + recoveryStep);
+        if (next < 1 && current >= 1) {
+            LOG.warn(String.format("JVM under pressure (gc time %.2f, heap after gc %.2f, cpu %.2f), "
+                    + "throttling replays to %.2f", gcTimeShare, heapOccupancy, cpuLoad, next));
+        } else if (next >= 1 && current < 1) {
+            LOG.info("JVM pressure is back to normal, replays are no longer throttled");
+        }
+        factor = next;
+    }
+
+    private static double processCpuLoad(OperatingSystemMXBean os) {
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            // Negative when not available.
+            return Math.max(0, ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad());
+        }
+        return 0;
+    }
+
+    /**
+     * Adds up the GC pauses and remembers the heap occupancy after each GC.
+     */
+    private final class GcListener implements NotificationListener {
+        private final ImmutableSet<String> heapPools;
+
+        private GcListener(ImmutableSet<String> heapPools) {
+            this.heapPools = heapPools;
+        }
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            GcInfo gcInfo = info.getGcInfo();
+            // Concurrent cycles run next to the application, only the pauses stop it.
+            if (!isConcurrent(info.getGcName()) && !isConcurrent(info.getGcAction())) {
+                gcPauseMillis.add(gcInfo.getDuration());
+            }
+            long used = 0;
+            long max = 0;
+            for (Map.Entry<String, MemoryUsage> pool : gcInfo.getMemoryUsageAfterGc().entrySet()) {
+                if (heapPools.contains(pool.getKey())) {
+                    MemoryUsage usage = pool.getValue();
+                    used += usage.getUsed();
+                    max += usage.getMax() > 0 ? usage.getMax() : usage.getCommitted();
+                }
+            }
+            if (max > 0) {
+                lastHeapAfterGc = (double) used / max;
+            }
+        }
+
+        private boolean isConcurrent(String name) {
+            String lowerCase = name != null ? name.toLowerCase(Locale.ENGLISH) : "";
+            return lowerCase.contains("concurrent") || lowerCase.contains("cycles");
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        for (GarbageCollectorMXBean collector : collectors) {
+            if (collector instanceof NotificationEmitter) {
+                try {
+                    ((NotificationEmitter) collector).removeNotificationListener(gcListener);
+                } catch (ListenerNotFoundException e) {
+                    // Was never added to this collector.
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package io.split.diffyreplayer.health;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Maps a pressure signal, between 0 and 1, to how much of the replays can still go through.
+ *
+ * Below low everything goes through, above high nothing does, and in between it scales linearly.
+ */
+public final class PressureThreshold {
+
+    private final double low;
+    private final double high;
+
+    /**
+     * @param low the signal at which throttling starts.
+     * @param high the signal at which replays stop, greater than low.
+     */
+    public PressureThreshold(double low, double high) {
+        Preconditions.checkArgument(low >= 0 && high > low, "Expected 0 <= low < high, got %s and %s", low, high);
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * @param signal the current value of the signal.
+     * @return the share of the replays that can go through, between 0 and 1.
+     */
+    public double factor(double signal) {
+        if (signal <= low) {
+            return 1;
+        }
+        if (signal >= high) {
+            return 0;
+        }
+        return (high - signal) / (high - low);
+    }
+
+    @Override
+    public String toString() {
+        return low + "-" + high;
+    }
+}
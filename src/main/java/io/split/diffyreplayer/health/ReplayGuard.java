@@ -0,0 +1,123 @@
+package io.split.diffyreplayer.health;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import io.split.diffyreplayer.executor.DropReason;
+import io.split.diffyreplayer.transport.ReplayCallback;
+import org.apache.http.StatusLine;
+
+/**
+ * Protects Diffy, and the replayer itself, when Diffy is down or slow.
+ *
+ * Combines a CircuitBreaker, that stops replays while Diffy is failing, with an AimdConcurrencyLimit,
+ * that keeps the amount of concurrent replays at what Diffy can handle. While the circuit is open, replays
+ * are discarded at admission, before anything is copied or queued. The concurrency limit is only checked
+ * by the replayer thread right before sending, so replays queue while the threads are busy, and a replay
+ * taken from the queue while the limit is reached is discarded then, see {@link #tryAcquire()}.
+ */
+public class ReplayGuard {
+
+    // 429 Too Many Requests, not part of JAX-RS 2.0 Response.Status.
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final CircuitBreaker breaker;
+    private final AimdConcurrencyLimit concurrencyLimit;
+    private final Ticker ticker;
+
+    public ReplayGuard(CircuitBreaker breaker, AimdConcurrencyLimit concurrencyLimit, Ticker ticker) {
+        this.breaker = Preconditions.checkNotNull(breaker);
+        this.concurrencyLimit = Preconditions.checkNotNull(concurrencyLimit);
+        this.ticker = Preconditions.checkNotNull(ticker);
+    }
+
+    /**
+     * Cheap check done before a replay is queued, nothing is reserved.
+     *
+     * @return why the replay should be discarded, null if it can be queued.
+     */
+    public DropReason admit() {
+        return breaker.allowsRequests() ? null : DropReason.CIRCUIT_OPEN;
+    }
+
+    /**
+     * @return false while the circuit breaker is open and it is not time to probe yet, so replays
+     * can be sent somewhere else.
+     */
+    public boolean isAvailable() {
+        return breaker.allowsRequests();
+    }
+
+    /**
+     * Called right before sending a replay. When acquired, the replay must either be sent with a
+     * callback from {@link #track(ReplayCallback)} or be released with {@link #release()}.
+     *
+     * @return why the replay should be discarded, null if it can be sent.
+     */
+    public DropReason tryAcquire() {
+        if (!concurrencyLimit.tryAcquire()) {
+            return DropReason.CONCURRENCY_LIMIT;
+        }
+        if (!breaker.tryAcquire()) {
+            concurrencyLimit.release();
+            return DropReason.CIRCUIT_OPEN;
+        }
+        return null;
+    }
+
+    /**
+     * Gives back an acquired replay that was never sent.
+     */
+    public void release() {
+        concurrencyLimit.release();
+    }
+
+    /**
+     * Wraps the callback of an acquired replay, so its outcome and latency feed the breaker and the limit.
+     *
+     * @param delegate called after the outcome is recorded.
+     * @return the callback to send the replay with.
+     */
+    public ReplayCallback track(ReplayCallback delegate) {
+        Preconditions.checkNotNull(delegate);
+        long start = ticker.read();
+        return new ReplayCallback() {
+            @Override
+            public void completed(StatusLine statusLine) {
+                if (isOverloaded(statusLine.getStatusCode())) {
+                    breaker.onFailure();
+                    concurrencyLimit.onOverload();
+                } else {
+                    breaker.onSuccess();
+                    concurrencyLimit.onSuccess(ticker.read() - start);
+                }
+                delegate.completed(statusLine);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                breaker.onFailure();
+                concurrencyLimit.onOverload();
+                delegate.failed(e);
+            }
+        };
+    }
+
+    public CircuitState getCircuitState() {
+        return breaker.getState();
+    }
+
+    public int getConcurrencyLimit() {
+        return concurrencyLimit.getLimit();
+    }
+
+    public int getInFlight() {
+        return concurrencyLimit.getInFlight();
+    }
+
+    /**
+     * Other status codes are answers of the servers behind Diffy, and say nothing about Diffy itself.
+     */
+    private static boolean isOverloaded(int statusCode) {
+        return statusCode == TOO_MANY_REQUESTS || statusCode >= 500;
+    }
+}
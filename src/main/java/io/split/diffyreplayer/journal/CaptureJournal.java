@@ -0,0 +1,302 @@
+package io.split.diffyreplayer.journal;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.split.diffyreplayer.ReplaySnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Append only journal of sampled requests, so they can be replayed later somewhere else.
+ *
+ * Records are written to a memory mapped segment file, appending is only a copy to memory and the
+ * operating system writes the pages to disk in the background. When a segment is full a new one is
+ * created, and the oldest segments are deleted so the journal never has more than maxSegments.
+ * See {@link JournalFormat} for the layout, and {@link JournalReader} to read it back.
+ *
+ * Appends are serialized, a single lock held while copying a record of a few hundred bytes. The file
+ * work is done by a background daemon thread: the next segment is created and mapped ahead of time,
+ * and the oldest ones are deleted there. Segments are only forced to disk on close, the ones left
+ * behind by a roll are written back by the operating system like any other dirty page.
+ */
+public class CaptureJournal implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CaptureJournal.class);
+
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String SEGMENT_SUFFIX = ".journal";
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Deque<Path> segments = new ArrayDeque<>();
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final ExecutorService background;
+
+    private long nextSequence;
+    private MappedByteBuffer buffer;
+    // The segment being created in the background, used by the next roll.
+    private Path nextSegment;
+    private Future<MappedByteBuffer> nextBuffer;
+    private boolean closed;
+
+    /**
+     * Default Constructor, new segments are numbered after the ones already in the directory.
+     *
+     * @param directory where the segments are written, created if it does not exist.
+     * @param segmentSize size in bytes of each segment file.
+     * @param maxSegments max amount of segments kept, the oldest ones are deleted.
+     * @throws IOException if the directory or the first segment can not be created.
+     */
+    public CaptureJournal(Path directory, int segmentSize, int maxSegments) throws IOException {
+        Preconditions.checkArgument(segmentSize > JournalFormat.SEGMENT_HEADER_BYTES + JournalFormat.LENGTH_BYTES,
+                "segmentSize is too small");
+        Preconditions.checkArgument(maxSegments > 0, "maxSegments must be positive");
+        this.directory = Files.createDirectories(Preconditions.checkNotNull(directory));
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.background = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("diffy-replayer-journal-%d")
+                .build());
+
+        List<Path> existing = JournalReader.listSegments(directory);
+        segments.addAll(existing);
+        nextSequence = existing.isEmpty() ? 0 : sequence(existing.get(existing.size() - 1)) + 1;
+        prepareNextSegment();
+        try {
+            roll();
+        } catch (IOException e) {
+            background.shutdownNow();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the request to the journal.
+     *
+     * @param timestampMillis when the request was received.
+     * @param snapshot the request.
+     * @return false if the request was not written, because it does not fit in a segment or the journal is closed.
+     */
+    public synchronized boolean append(long timestampMillis, ReplaySnapshot snapshot) {
+        Preconditions.checkNotNull(snapshot);
+        if (closed) {
+            rejected.increment();
+            return false;
+        }
+        try {
+            if (!fits(snapshot, false)) {
+                // Checked first, rolling for a request that does not fit in a segment would waste the current one.
+                if (!fits(snapshot, true)) {
+                    rejected.increment();
+                    return false;
+                }
+                roll();
+            }
+            write(timestampMillis, snapshot);
+            written.increment();
+            return true;
+        } catch (IOException | UncheckedIOException e) {
+            LOG.warn(String.format("Could not write request %s to the capture journal in %s", snapshot, directory), e);
+            rejected.increment();
+            return false;
+        }
+    }
+
+    /**
+     * @return how many requests were written.
+     */
+    public long getWritten() {
+        return written.sum();
+    }
+
+    /**
+     * @return how many requests could not be written.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Flushes the current segment to disk and waits for the pending deletions, later appends are rejected.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.force();
+        // Runs after the segment being created, so it does not outlive the journal.
+        Path unused = nextSegment;
+        background.execute(() -> delete(unused));
+        background.shutdown();
+        try {
+            if (!background.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn(String.format("Timed out deleting the old capture journal segments in %s", directory));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param emptySegment true to check against a new segment, false against what is left of the current one.
+     */
+    private boolean fits(ReplaySnapshot snapshot, boolean emptySegment) {
+        int bytes = requestBytes(snapshot);
+        int newNames = 0;
+        for (int i = 0; i < snapshot.getHeaderCount(); i++) {
+            String name = snapshot.getHeaderName(i);
+            if (emptySegment || !dictionary.containsKey(name)) {
+                // Repeated new names are counted twice, only makes the estimate safer.
+                bytes += JournalFormat.LENGTH_BYTES + 1 + 2 + JournalFormat.stringBytes(name);
+                newNames++;
+            }
+        }
+        int dictionarySize = emptySegment ? 0 : dictionary.size();
+        int remaining = emptySegment ? segmentSize - JournalFormat.SEGMENT_HEADER_BYTES : buffer.remaining();
+        // Always leaves room for the zero length that marks the end of the segment.
+        return dictionarySize + newNames <= JournalFormat.MAX_DICTIONARY_SIZE
+                && snapshot.getHeaderCount() <= Short.MAX_VALUE
+                && bytes + JournalFormat.LENGTH_BYTES <= remaining;
+    }
+
+    private static int requestBytes(ReplaySnapshot snapshot) {
+        int bytes = JournalFormat.LENGTH_BYTES + 1 + 8
+                + JournalFormat.stringBytes(snapshot.getMethod())
+                + JournalFormat.stringBytes(snapshot.getRawPath())
+                + JournalFormat.stringBytes(snapshot.getQuery())
+                + JournalFormat.stringBytes(snapshot.getCanonicalResource())
+                + 2;
+        for (int i = 0; i < snapshot.getHeaderCount(); i++) {
+            bytes += 2 + JournalFormat.stringBytes(snapshot.getHeaderValue(i));
+        }
+        return bytes;
+    }
+
+    private void write(long timestampMillis, ReplaySnapshot snapshot) {
+        int count = snapshot.getHeaderCount();
+        for (int i = 0; i < count; i++) {
+            String name = snapshot.getHeaderName(i);
+            if (!dictionary.containsKey(name)) {
+                int id = dictionary.size();
+                dictionary.put(name, id);
+                int start = begin(JournalFormat.DICT);
+                buffer.putShort((short) id);
+                JournalFormat.putString(buffer, name);
+                end(start);
+            }
+        }
+
+        int start = begin(JournalFormat.REQUEST);
+        buffer.putLong(timestampMillis);
+        JournalFormat.putString(buffer, snapshot.getMethod());
+        JournalFormat.putString(buffer, snapshot.getRawPath());
+        JournalFormat.putString(buffer, snapshot.getQuery());
+        JournalFormat.putString(buffer, snapshot.getCanonicalResource());
+        buffer.putShort((short) count);
+        for (int i = 0; i < count; i++) {
+            buffer.putShort(dictionary.get(snapshot.getHeaderName(i)).shortValue());
+            JournalFormat.putString(buffer, snapshot.getHeaderValue(i));
+        }
+        end(start);
+    }
+
+    private int begin(byte type) {
+        int start = buffer.position();
+        buffer.position(start + JournalFormat.LENGTH_BYTES);
+        buffer.put(type);
+        return start;
+    }
+
+    // The length goes last, readers stop at a record which length is still 0.
+    private void end(int start) {
+        buffer.putInt(start, buffer.position() - start - JournalFormat.LENGTH_BYTES);
+    }
+
+    /**
+     * Switches to the segment created in the background, only waits for it when segments fill up faster
+     * than a file can be created.
+     */
+    private void roll() throws IOException {
+        Path segment = nextSegment;
+        try {
+            buffer = nextBuffer.get();
+        } catch (ExecutionException e) {
+            // The next roll tries again with another file.
+            prepareNextSegment();
+            throw new IOException(String.format("Could not create capture journal segment %s", segment),
+                    e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(String.format("Interrupted creating capture journal segment %s", segment), e);
+        }
+        dictionary.clear();
+        segments.addLast(segment);
+
+        while (segments.size() > maxSegments) {
+            Path oldest = segments.removeFirst();
+            background.execute(() -> delete(oldest));
+        }
+        prepareNextSegment();
+        LOG.info(String.format("Diffy Replayer capturing requests to %s", segment));
+    }
+
+    private void prepareNextSegment() {
+        Path segment = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, nextSequence++, SEGMENT_SUFFIX));
+        nextSegment = segment;
+        nextBuffer = background.submit(() -> {
+            MappedByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(segment,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // The mapping stays valid after the channel is closed.
+                mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+            mapped.putInt(JournalFormat.MAGIC);
+            mapped.putInt(JournalFormat.VERSION);
+            return mapped;
+        });
+    }
+
+    private static void delete(Path segment) {
+        try {
+            Files.deleteIfExists(segment);
+        } catch (IOException e) {
+            LOG.warn(String.format("Could not delete capture journal segment %s", segment), e);
+        }
+    }
+
+    static long sequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,141 @@
+package io.split.diffyreplayer.journal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary layout of the capture journal, shared by the writer and the reader.
+ *
+ * <pre>
+ * segment  := MAGIC:int VERSION:int record* 0:int
+ * record   := length:int type:byte body          (length counts the type and the body)
+ * DICT     := id:short name:string               (header name, valid until the end of the segment)
+ * REQUEST  := timestamp:long method:string rawPath:string query:string canonicalResource:string
+ *             headerCount:short (nameId:short value:string)*
+ * string   := length:int utf8:byte*              (length -1 means null)
+ * </pre>
+ *
+ * Every segment has its own dictionary, so segments can be shipped, read and deleted independently.
+ * The length of a record is written last, so a record that was not completely written reads as the end.
+ */
+final class JournalFormat {
+
+    static final int MAGIC = 0x44494659;
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_BYTES = 8;
+    static final int LENGTH_BYTES = 4;
+
+    static final byte DICT = 1;
+    static final byte REQUEST = 2;
+
+    // Dictionary ids are written as shorts.
+    static final int MAX_DICTIONARY_SIZE = Short.MAX_VALUE;
+
+    private JournalFormat() {
+    }
+
+    /**
+     * @return how many bytes the string takes in the journal, length included.
+     */
+    static int stringBytes(String value) {
+        return LENGTH_BYTES + (value == null ? 0 : utf8Length(value));
+    }
+
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes the string at the position of the buffer, without intermediate arrays.
+     * Unpaired surrogates are written as '?', like String.getBytes does.
+     */
+    static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(utf8Length(value));
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+                } else {
+                    // Keeps the length computed by utf8Length.
+                    buffer.put((byte) '?');
+                    buffer.put((byte) '?');
+                    buffer.put((byte) '?');
+                }
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Reads the string at the absolute offset.
+     *
+     * @return the string, null if it was written as null.
+     */
+    static String getString(ByteBuffer buffer, int offset) {
+        int length = buffer.getInt(offset);
+        if (length < 0) {
+            return null;
+        }
+        int start = offset + LENGTH_BYTES;
+        char[] chars = new char[length];
+        int count = 0;
+        int i = start;
+        int end = start + length;
+        while (i < end) {
+            int b = buffer.get(i++) & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if (b < 0xE0) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (buffer.get(i++) & 0x3F));
+            } else if (b < 0xF0) {
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((buffer.get(i++) & 0x3F) << 6)
+                        | (buffer.get(i++) & 0x3F));
+            } else {
+                int codePoint = ((b & 0x07) << 18) | ((buffer.get(i++) & 0x3F) << 12)
+                        | ((buffer.get(i++) & 0x3F) << 6) | (buffer.get(i++) & 0x3F);
+                count += Character.toChars(codePoint, chars, count);
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * @return the offset right after the string at the absolute offset.
+     */
+    static int skipString(ByteBuffer buffer, int offset) {
+        int length = buffer.getInt(offset);
+        return offset + LENGTH_BYTES + Math.max(0, length);
+    }
+}
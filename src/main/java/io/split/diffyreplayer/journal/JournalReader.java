@@ -0,0 +1,156 @@
+package io.split.diffyreplayer.journal;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads the requests of a capture journal, oldest segment first.
+ *
+ * Segments are memory mapped read only and records are read in place, see {@link JournalRecord}.
+ *
+ * <pre>
+ *     try (JournalReader reader = new JournalReader(directory)) {
+ *         JournalRecord record;
+ *         while ((record = reader.next()) != null) {
+ *             ...
+ *         }
+ *     }
+ * </pre>
+ */
+public class JournalReader implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JournalReader.class);
+
+    private final List<Path> segments;
+    private final JournalRecord record = new JournalRecord();
+
+    private int nextSegment;
+    private ByteBuffer buffer;
+    private String[] dictionary = new String[64];
+
+    /**
+     * @param directory the directory of the journal, as written by CaptureJournal.
+     * @throws IOException if the directory can not be listed.
+     */
+    public JournalReader(Path directory) throws IOException {
+        this.segments = listSegments(Preconditions.checkNotNull(directory));
+    }
+
+    /**
+     * @return the next request, or null when there are no more. The same instance is reused on every call.
+     * @throws IOException if a segment can not be read.
+     */
+    public JournalRecord next() throws IOException {
+        while (true) {
+            if (buffer == null && !openNextSegment()) {
+                return null;
+            }
+            if (buffer.remaining() < JournalFormat.LENGTH_BYTES) {
+                buffer = null;
+                continue;
+            }
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length <= 0 || length > buffer.remaining() - JournalFormat.LENGTH_BYTES) {
+                if (length != 0) {
+                    LOG.warn(String.format("Corrupted record in capture journal segment %s at %s",
+                            segments.get(nextSegment - 1), start));
+                }
+                buffer = null;
+                continue;
+            }
+            int body = start + JournalFormat.LENGTH_BYTES + 1;
+            buffer.position(start + JournalFormat.LENGTH_BYTES + length);
+            switch (buffer.get(start + JournalFormat.LENGTH_BYTES)) {
+                case JournalFormat.DICT:
+                    define(buffer.getShort(body), JournalFormat.getString(buffer, body + 2));
+                    break;
+                case JournalFormat.REQUEST:
+                    record.wrap(buffer, dictionary, body);
+                    return record;
+                default:
+                    // Unknown records are skipped, so newer writers can add them.
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Reads every remaining request.
+     *
+     * @param consumer receives each record, that is only valid during the call.
+     * @throws IOException if a segment can not be read.
+     */
+    public void forEach(Consumer<JournalRecord> consumer) throws IOException {
+        JournalRecord current;
+        while ((current = next()) != null) {
+            consumer.accept(current);
+        }
+    }
+
+    @Override
+    public void close() {
+        // Mappings are released when they are garbage collected, there is no portable way to unmap them.
+        buffer = null;
+        nextSegment = segments.size();
+    }
+
+    private boolean openNextSegment() throws IOException {
+        while (nextSegment < segments.size()) {
+            Path segment = segments.get(nextSegment++);
+            ByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (mapped.remaining() < JournalFormat.SEGMENT_HEADER_BYTES
+                    || mapped.getInt() != JournalFormat.MAGIC
+                    || mapped.getInt() != JournalFormat.VERSION) {
+                LOG.warn(String.format("Skipping %s, it is not a capture journal segment", segment));
+                continue;
+            }
+            buffer = mapped;
+            // A new dictionary per segment, the array is not shared with records of the previous segment.
+            dictionary = new String[dictionary.length];
+            return true;
+        }
+        return false;
+    }
+
+    private void define(int id, String name) {
+        if (id >= dictionary.length) {
+            dictionary = Arrays.copyOf(dictionary, Math.max(id + 1, dictionary.length * 2));
+        }
+        dictionary[id] = name;
+    }
+
+    /**
+     * @return the segments of the journal, oldest first.
+     */
+    static List<Path> listSegments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                CaptureJournal.SEGMENT_PREFIX + "*" + CaptureJournal.SEGMENT_SUFFIX)) {
+            stream.forEach(segments::add);
+        }
+        segments.sort(Comparator.comparingLong(CaptureJournal::sequence));
+        return segments;
+    }
+}
@@ -0,0 +1,122 @@
+package io.split.diffyreplayer.journal;
+
+import io.split.diffyreplayer.ReplaySnapshot;
+
+import java.nio.ByteBuffer;
+
+/**
+ * View of a request in the capture journal, read straight from the mapped segment.
+ *
+ * Nothing is copied until a field is read, and the same instance is reused by the JournalReader for the
+ * next record, so call {@link #toSnapshot()} to keep a request around.
+ */
+public final class JournalRecord {
+
+    private ByteBuffer buffer;
+    private String[] dictionary;
+    private long timestamp;
+    private int methodOffset;
+    private int rawPathOffset;
+    private int queryOffset;
+    private int canonicalResourceOffset;
+    private int headerCount;
+    // Offset of the name id of each header, the value follows it.
+    private int[] headerOffsets = new int[16];
+
+    JournalRecord() {
+    }
+
+    /**
+     * Points this view to the REQUEST record which body starts at the offset.
+     */
+    void wrap(ByteBuffer buffer, String[] dictionary, int offset) {
+        this.buffer = buffer;
+        this.dictionary = dictionary;
+        this.timestamp = buffer.getLong(offset);
+        this.methodOffset = offset + 8;
+        this.rawPathOffset = JournalFormat.skipString(buffer, methodOffset);
+        this.queryOffset = JournalFormat.skipString(buffer, rawPathOffset);
+        this.canonicalResourceOffset = JournalFormat.skipString(buffer, queryOffset);
+        int headersOffset = JournalFormat.skipString(buffer, canonicalResourceOffset);
+        this.headerCount = buffer.getShort(headersOffset);
+        if (headerOffsets.length < headerCount) {
+            headerOffsets = new int[Math.max(headerCount, headerOffsets.length * 2)];
+        }
+        int current = headersOffset + 2;
+        for (int i = 0; i < headerCount; i++) {
+            headerOffsets[i] = current;
+            current = JournalFormat.skipString(buffer, current + 2);
+        }
+    }
+
+    /**
+     * @return when the request was received, in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getMethod() {
+        return JournalFormat.getString(buffer, methodOffset);
+    }
+
+    public String getRawPath() {
+        return JournalFormat.getString(buffer, rawPathOffset);
+    }
+
+    /**
+     * @return the raw query, null if the request had none.
+     */
+    public String getQuery() {
+        return JournalFormat.getString(buffer, queryOffset);
+    }
+
+    /**
+     * @return the Canonical-Resource resolved when the request was captured, null if it has to be derived from the path.
+     */
+    public String getCanonicalResource() {
+        return JournalFormat.getString(buffer, canonicalResourceOffset);
+    }
+
+    public int getHeaderCount() {
+        return headerCount;
+    }
+
+    /**
+     * @return the name of the header, shared by every record of the segment.
+     */
+    public String getHeaderName(int index) {
+        checkHeader(index);
+        return dictionary[buffer.getShort(headerOffsets[index])];
+    }
+
+    public String getHeaderValue(int index) {
+        checkHeader(index);
+        return JournalFormat.getString(buffer, headerOffsets[index] + 2);
+    }
+
+    /**
+     * @return a copy of the request that can be replayed.
+     */
+    public ReplaySnapshot toSnapshot() {
+        String[] names = new String[headerCount];
+        String[] values = new String[headerCount];
+        for (int i = 0; i < headerCount; i++) {
+            names[i] = getHeaderName(i);
+            values[i] = getHeaderValue(i);
+        }
+        return ReplaySnapshot.of(getMethod(), getRawPath(), getQuery(), names, values, getCanonicalResource());
+    }
+
+    private void checkHeader(int index) {
+        if (index < 0 || index >= headerCount) {
+            throw new IndexOutOfBoundsException(String.format("Header %s of %s", index, headerCount));
+        }
+    }
+
+    @Override
+    public String toString() {
+        String query = getQuery();
+        return getMethod() + " " + (query == null || query.isEmpty() ? getRawPath() : getRawPath() + "?" + query);
+    }
+}
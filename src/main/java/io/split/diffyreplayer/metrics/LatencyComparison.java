@@ -0,0 +1,70 @@
+package io.split.diffyreplayer.metrics;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * How the replays of a Canonical-Resource compare, in latency, against the original requests they were copied from.
+ *
+ * The original latency is measured on the server, from the moment the request was sampled until the response
+ * left the resource. In REPLAY mode the replay latency is the round trip through Diffy, which includes Diffy
+ * sending the replay to the primary, secondary and candidate, and in LOCAL_DIFF mode it is the time the candidate
+ * alone took to answer. A positive delta means the replays are slower, and when it grows between two builds of
+ * the candidate it is worth a look before rolling it out.
+ * All the values are in microseconds.
+ */
+public final class LatencyComparison {
+
+    private final String canonicalResource;
+    private final HistogramSnapshot original;
+    private final HistogramSnapshot replay;
+
+    /**
+     * @param canonicalResource the resource being compared.
+     * @param original the latencies of the original requests.
+     * @param replay the round trips of the replays.
+     */
+    public LatencyComparison(String canonicalResource, HistogramSnapshot original, HistogramSnapshot replay) {
+        this.canonicalResource = Preconditions.checkNotNull(canonicalResource);
+        this.original = Preconditions.checkNotNull(original);
+        this.replay = Preconditions.checkNotNull(replay);
+    }
+
+    public String getCanonicalResource() {
+        return canonicalResource;
+    }
+
+    public HistogramSnapshot getOriginal() {
+        return original;
+    }
+
+    public HistogramSnapshot getReplay() {
+        return replay;
+    }
+
+    /**
+     * @return the p50 of the replays minus the p50 of the originals.
+     */
+    public long getP50Delta() {
+        return replay.getPercentile(50) - original.getPercentile(50);
+    }
+
+    /**
+     * @return the p99 of the replays minus the p99 of the originals.
+     */
+    public long getP99Delta() {
+        return replay.getPercentile(99) - original.getPercentile(99);
+    }
+
+    /**
+     * @return how many samples the smallest side of the comparison has.
+     */
+    public long getSamples() {
+        return Math.min(original.getCount(), replay.getCount());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s samples=%s p50Delta=%sus p99Delta=%sus original[%s] replay[%s]",
+                canonicalResource, getSamples(), getP50Delta(), getP99Delta(), original, replay);
+    }
+}
@@ -0,0 +1,201 @@
+package io.split.diffyreplayer.metrics;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import io.split.diffyreplayer.executor.ReplayDropCounter;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Counters and latency histograms of the whole replay pipeline, from the filter to the response of Diffy.
+ *
+ * Everything is recorded with LongAdders, so it is safe and cheap to record from the request threads.
+ * Replays are also broken down by Canonical-Resource, up to a max amount of resources; the rest are
+ * counted together under {@link #OTHER_RESOURCES}, so a badly configured pattern can't exhaust the memory.
+ */
+public class ReplayMetrics {
+
+    /**
+     * Where replays are counted once the max amount of resources is reached.
+     */
+    public static final String OTHER_RESOURCES = "_other";
+
+    private final LongAdder seen = new LongAdder();
+    private final LongAdder sampled = new LongAdder();
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder non200 = new LongAdder();
+    private final LongAdder ioFailures = new LongAdder();
+    private final Map<ReplayTimeout, LongAdder> timeouts = new EnumMap<>(ReplayTimeout.class);
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram build = new LatencyHistogram();
+    private final LatencyHistogram roundTrip = new LatencyHistogram();
+    private final ReplayDropCounter dropCounter;
+    private final int maxResources;
+    private final ConcurrentMap<String, ResourceMetrics> resources = new ConcurrentHashMap<>();
+    private final ResourceMetrics otherResources = new ResourceMetrics();
+    private final ConcurrentMap<String, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * Default Constructor.
+     *
+     * @param dropCounter where discarded replays are counted.
+     * @param maxResources max amount of Canonical-Resources broken down.
+     */
+    public ReplayMetrics(ReplayDropCounter dropCounter, int maxResources) {
+        Preconditions.checkArgument(maxResources >= 0, "maxResources must not be negative");
+        this.dropCounter = Preconditions.checkNotNull(dropCounter);
+        this.maxResources = maxResources;
+        for (ReplayTimeout timeout : ReplayTimeout.values()) {
+            timeouts.put(timeout, new LongAdder());
+        }
+    }
+
+    /**
+     * A GET request reached an annotated endpoint.
+     */
+    public void recordSeen() {
+        seen.increment();
+    }
+
+    /**
+     * The condition of the endpoint chose to replay the request.
+     */
+    public void recordSampled() {
+        sampled.increment();
+    }
+
+    /**
+     * The executor accepted the replay, it still might be discarded later, for example to make room for
+     * another group.
+     */
+    public void recordEnqueued() {
+        enqueued.increment();
+    }
+
+    /**
+     * @param nanos how long the replay waited for a thread.
+     */
+    public void recordQueueWait(long nanos) {
+        queueWait.record(nanos);
+    }
+
+    /**
+     * @param nanos how long it took to build the request to Diffy.
+     */
+    public void recordBuild(long nanos) {
+        build.record(nanos);
+    }
+
+    /**
+     * The replay was handed to the transport.
+     */
+    public void recordSent(String canonicalResource) {
+        sent.increment();
+        resource(canonicalResource).recordSent();
+    }
+
+    /**
+     * Diffy answered.
+     */
+    public void recordResponse(String canonicalResource, int statusCode, long roundTripNanos) {
+        if (statusCode != 200) {
+            non200.increment();
+        }
+        roundTrip.record(roundTripNanos);
+        resource(canonicalResource).recordResponse(statusCode, roundTripNanos);
+    }
+
+    /**
+     * Diffy could not be reached or the response could not be read.
+     */
+    public void recordFailure(String canonicalResource, long roundTripNanos) {
+        ioFailures.increment();
+        roundTrip.record(roundTripNanos);
+        resource(canonicalResource).recordFailure(roundTripNanos);
+    }
+
+    /**
+     * A replay that already counted as a failure timed out, or was aborted by the deadline.
+     *
+     * @param timeout the stage that timed out.
+     */
+    public void recordTimeout(ReplayTimeout timeout) {
+        timeouts.get(timeout).increment();
+    }
+
+    /**
+     * The server answered an original request that was sampled, so the replays can be compared against it.
+     *
+     * @param canonicalResource the Canonical-Resource the replay of the request is counted under.
+     * @param latencyNanos how long the server took to answer.
+     */
+    public void recordOriginal(String canonicalResource, long latencyNanos) {
+        resource(canonicalResource).recordOriginal(latencyNanos);
+    }
+
+    /**
+     * Registers a value that is read every time a snapshot is taken, for example the depth of the queue.
+     *
+     * @param name the name of the gauge, an existing gauge with the same name is replaced.
+     * @param gauge reads the current value.
+     */
+    public void registerGauge(String name, DoubleSupplier gauge) {
+        gauges.put(Preconditions.checkNotNull(name), Preconditions.checkNotNull(gauge));
+    }
+
+    public ReplayDropCounter getDropCounter() {
+        return dropCounter;
+    }
+
+    /**
+     * @return a point in time copy of all the metrics. Not atomic, values recorded while copying might be missed.
+     */
+    public ReplayMetricsSnapshot snapshot() {
+        ImmutableMap.Builder<String, ResourceMetrics.Snapshot> resourceSnapshots = ImmutableMap.builder();
+        resources.forEach((name, metrics) -> resourceSnapshots.put(name, metrics.snapshot()));
+        ResourceMetrics.Snapshot other = otherResources.snapshot();
+        if (other.getSent() > 0 || other.getRoundTrip().getCount() > 0 || other.getOriginal().getCount() > 0) {
+            resourceSnapshots.put(OTHER_RESOURCES, other);
+        }
+        ImmutableMap.Builder<ReplayTimeout, Long> timeoutCounts = ImmutableMap.builder();
+        timeouts.forEach((timeout, count) -> timeoutCounts.put(timeout, count.sum()));
+        ImmutableMap.Builder<String, Double> gaugeValues = ImmutableMap.builder();
+        gauges.forEach((name, gauge) -> gaugeValues.put(name, gauge.getAsDouble()));
+
+        return new ReplayMetricsSnapshot(
+                seen.sum(),
+                sampled.sum(),
+                enqueued.sum(),
+                dropCounter.snapshot(),
+                sent.sum(),
+                non200.sum(),
+                ioFailures.sum(),
+                timeoutCounts.build(),
+                queueWait.snapshot(),
+                build.snapshot(),
+                roundTrip.snapshot(),
+                resourceSnapshots.build(),
+                gaugeValues.build());
+    }
+
+    private ResourceMetrics resource(String canonicalResource) {
+        if (canonicalResource == null) {
+            return otherResources;
+        }
+        ResourceMetrics metrics = resources.get(canonicalResource);
+        if (metrics != null) {
+            return metrics;
+        }
+        // The size check is racy, a few resources over the max might be kept, which is fine.
+        if (resources.size() >= maxResources) {
+            return otherResources;
+        }
+        return resources.computeIfAbsent(canonicalResource, key -> new ResourceMetrics());
+    }
+}
@@ -0,0 +1,200 @@
+package io.split.diffyreplayer.metrics;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Exposes the ReplayMetrics through the platform MBeanServer.
+ *
+ * Every call takes a fresh snapshot, JMX clients poll rarely so it is not worth caching it.
+ */
+public class ReplayMetricsJmx implements ReplayMetricsMXBean, AutoCloseable {
+
+    public static final String OBJECT_NAME = "io.split.diffyreplayer:type=ReplayMetrics";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplayMetricsJmx.class);
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    // The instance currently registered under OBJECT_NAME by this class loader, guarded by the class.
+    private static ReplayMetricsJmx registered;
+
+    private final ReplayMetrics metrics;
+
+    public ReplayMetricsJmx(ReplayMetrics metrics) {
+        this.metrics = Preconditions.checkNotNull(metrics);
+    }
+
+    /**
+     * Registers the MBean, replacing the one of a previous DiffyReplayer (for example of a redeployed application).
+     * Failures are logged, metrics are still available through the snapshot API.
+     */
+    public void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        synchronized (ReplayMetricsJmx.class) {
+            try {
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(this, name);
+                registered = this;
+            } catch (JMException | RuntimeException e) {
+                LOG.warn(String.format("Could not register Diffy Replayer MBean %s", OBJECT_NAME), e);
+            }
+        }
+    }
+
+    /**
+     * Unregisters the MBean, unless another DiffyReplayer registered its own since.
+     */
+    @Override
+    public void close() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        synchronized (ReplayMetricsJmx.class) {
+            if (registered != this) {
+                return;
+            }
+            registered = null;
+            try {
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                // The one of a redeployed application is loaded by another class loader, and does not see this one.
+                if (server.isRegistered(name) && server.getClassLoaderFor(name) == getClass().getClassLoader()) {
+                    server.unregisterMBean(name);
+                }
+            } catch (JMException | RuntimeException e) {
+                LOG.debug(String.format("Could not unregister Diffy Replayer MBean %s", OBJECT_NAME), e);
+            }
+        }
+    }
+
+    @Override
+    public long getRequestsSeen() {
+        return metrics.snapshot().getSeen();
+    }
+
+    @Override
+    public long getRequestsSampled() {
+        return metrics.snapshot().getSampled();
+    }
+
+    @Override
+    public long getReplaysEnqueued() {
+        return metrics.snapshot().getEnqueued();
+    }
+
+    @Override
+    public long getReplaysDropped() {
+        return metrics.getDropCounter().total();
+    }
+
+    @Override
+    public Map<String, Long> getReplaysDroppedByReason() {
+        Map<String, Long> dropped = new LinkedHashMap<>();
+        metrics.getDropCounter().snapshot().forEach((reason, count) -> dropped.put(reason.name(), count));
+        return dropped;
+    }
+
+    @Override
+    public long getReplaysSent() {
+        return metrics.snapshot().getSent();
+    }
+
+    @Override
+    public long getNon200Responses() {
+        return metrics.snapshot().getNon200();
+    }
+
+    @Override
+    public long getIoFailures() {
+        return metrics.snapshot().getIoFailures();
+    }
+
+    @Override
+    public Map<String, Long> getTimeoutsByStage() {
+        Map<String, Long> timeouts = new LinkedHashMap<>();
+        metrics.snapshot().getTimeouts().forEach((timeout, count) -> timeouts.put(timeout.name(), count));
+        return timeouts;
+    }
+
+    @Override
+    public double getQueueWaitP50Millis() {
+        return millis(metrics.snapshot().getQueueWait().getPercentile(50));
+    }
+
+    @Override
+    public double getQueueWaitP99Millis() {
+        return millis(metrics.snapshot().getQueueWait().getPercentile(99));
+    }
+
+    @Override
+    public double getBuildP50Millis() {
+        return millis(metrics.snapshot().getBuild().getPercentile(50));
+    }
+
+    @Override
+    public double getBuildP99Millis() {
+        return millis(metrics.snapshot().getBuild().getPercentile(99));
+    }
+
+    @Override
+    public double getRoundTripP50Millis() {
+        return millis(metrics.snapshot().getRoundTrip().getPercentile(50));
+    }
+
+    @Override
+    public double getRoundTripP99Millis() {
+        return millis(metrics.snapshot().getRoundTrip().getPercentile(99));
+    }
+
+    @Override
+    public double getRoundTripMaxMillis() {
+        return millis(metrics.snapshot().getRoundTrip().getMax());
+    }
+
+    @Override
+    public Map<String, Long> getReplaysSentByResource() {
+        return byResource(resource -> resource.getSent());
+    }
+
+    @Override
+    public Map<String, Double> getRoundTripP99MillisByResource() {
+        return byResource(resource -> millis(resource.getRoundTrip().getPercentile(99)));
+    }
+
+    @Override
+    public Map<String, Double> getOriginalP99MillisByResource() {
+        return byResource(resource -> millis(resource.getOriginal().getPercentile(99)));
+    }
+
+    @Override
+    public Map<String, Double> getP99DeltaMillisByResource() {
+        Map<String, Double> result = new LinkedHashMap<>();
+        metrics.snapshot().getLatencyComparisons(1)
+                .forEach(comparison -> result.put(comparison.getCanonicalResource(), millis(comparison.getP99Delta())));
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getGauges() {
+        return metrics.snapshot().getGauges();
+    }
+
+    private <T> Map<String, T> byResource(Function<ResourceMetrics.Snapshot, T> value) {
+        Map<String, T> result = new LinkedHashMap<>();
+        metrics.snapshot().getResources().forEach((name, resource) -> result.put(name, value.apply(resource)));
+        return result;
+    }
+
+    private static double millis(long micros) {
+        return micros / MICROS_PER_MILLI;
+    }
+}
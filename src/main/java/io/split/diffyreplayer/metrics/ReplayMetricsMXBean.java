@@ -0,0 +1,65 @@
+package io.split.diffyreplayer.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the ReplayMetrics, registered as {@value ReplayMetricsJmx#OBJECT_NAME}.
+ *
+ * Latencies are in milliseconds.
+ */
+public interface ReplayMetricsMXBean {
+
+    long getRequestsSeen();
+
+    long getRequestsSampled();
+
+    long getReplaysEnqueued();
+
+    long getReplaysDropped();
+
+    Map<String, Long> getReplaysDroppedByReason();
+
+    long getReplaysSent();
+
+    long getNon200Responses();
+
+    long getIoFailures();
+
+    /**
+     * @return the failures that were timeouts, by the stage that timed out.
+     */
+    Map<String, Long> getTimeoutsByStage();
+
+    double getQueueWaitP50Millis();
+
+    double getQueueWaitP99Millis();
+
+    double getBuildP50Millis();
+
+    double getBuildP99Millis();
+
+    double getRoundTripP50Millis();
+
+    double getRoundTripP99Millis();
+
+    double getRoundTripMaxMillis();
+
+    Map<String, Long> getReplaysSentByResource();
+
+    Map<String, Double> getRoundTripP99MillisByResource();
+
+    /**
+     * @return the p99 of the sampled original requests, by Canonical-Resource.
+     */
+    Map<String, Double> getOriginalP99MillisByResource();
+
+    /**
+     * @return the p99 of the replays minus the p99 of the originals, by Canonical-Resource, biggest first.
+     */
+    Map<String, Double> getP99DeltaMillisByResource();
+
+    /**
+     * @return the current value of the gauges, for example queueDepth.
+     */
+    Map<String, Double> getGauges();
+}
@@ -0,0 +1,164 @@
+package io.split.diffyreplayer.metrics;
+
+import io.split.diffyreplayer.executor.DropReason;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable copy of the ReplayMetrics.
+ */
+public final class ReplayMetricsSnapshot {
+
+    private final long seen;
+    private final long sampled;
+    private final long enqueued;
+    private final Map<DropReason, Long> dropped;
+    private final long sent;
+    private final long non200;
+    private final long ioFailures;
+    private final Map<ReplayTimeout, Long> timeouts;
+    private final HistogramSnapshot queueWait;
+    private final HistogramSnapshot build;
+    private final HistogramSnapshot roundTrip;
+    private final Map<String, ResourceMetrics.Snapshot> resources;
+    private final Map<String, Double> gauges;
+
+    ReplayMetricsSnapshot(long seen,
+                          long sampled,
+                          long enqueued,
+                          Map<DropReason, Long> dropped,
+                          long sent,
+                          long non200,
+                          long ioFailures,
+                          Map<ReplayTimeout, Long> timeouts,
+                          HistogramSnapshot queueWait,
+                          HistogramSnapshot build,
+                          HistogramSnapshot roundTrip,
+                          Map<String, ResourceMetrics.Snapshot> resources,
+                          Map<String, Double> gauges) {
+        this.seen = seen;
+        this.sampled = sampled;
+        this.enqueued = enqueued;
+        this.dropped = dropped;
+        this.sent = sent;
+        this.non200 = non200;
+        this.ioFailures = ioFailures;
+        this.timeouts = timeouts;
+        this.queueWait = queueWait;
+        this.build = build;
+        this.roundTrip = roundTrip;
+        this.resources = resources;
+        this.gauges = gauges;
+    }
+
+    /**
+     * @return GET requests that reached an annotated endpoint.
+     */
+    public long getSeen() {
+        return seen;
+    }
+
+    /**
+     * @return requests that were chosen to be replayed by their condition.
+     */
+    public long getSampled() {
+        return sampled;
+    }
+
+    /**
+     * @return replays handed to the executor.
+     */
+    public long getEnqueued() {
+        return enqueued;
+    }
+
+    /**
+     * @return replays discarded before being sent, by reason.
+     */
+    public Map<DropReason, Long> getDropped() {
+        return dropped;
+    }
+
+    public long getSent() {
+        return sent;
+    }
+
+    public long getNon200() {
+        return non200;
+    }
+
+    public long getIoFailures() {
+        return ioFailures;
+    }
+
+    /**
+     * @return the failures that were timeouts, by the stage that timed out.
+     */
+    public Map<ReplayTimeout, Long> getTimeouts() {
+        return timeouts;
+    }
+
+    /**
+     * @return how long the replays waited for a thread, in microseconds.
+     */
+    public HistogramSnapshot getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * @return how long it took to build the requests to Diffy, in microseconds.
+     */
+    public HistogramSnapshot getBuild() {
+        return build;
+    }
+
+    /**
+     * @return the round trip to Diffy, failures included, in microseconds.
+     */
+    public HistogramSnapshot getRoundTrip() {
+        return roundTrip;
+    }
+
+    /**
+     * @return the replays broken down by Canonical-Resource.
+     */
+    public Map<String, ResourceMetrics.Snapshot> getResources() {
+        return resources;
+    }
+
+    /**
+     * Compares, per Canonical-Resource, the latency of the replays against the latency of the original requests.
+     *
+     * @param minSamples resources with fewer originals or replays than this are left out, their percentiles are noise.
+     * @return the comparisons, the biggest p99 regression first.
+     */
+    public List<LatencyComparison> getLatencyComparisons(long minSamples) {
+        List<LatencyComparison> comparisons = new ArrayList<>();
+        resources.forEach((name, resource) -> {
+            LatencyComparison comparison = new LatencyComparison(name, resource.getOriginal(), resource.getRoundTrip());
+            if (comparison.getSamples() > 0 && comparison.getSamples() >= minSamples) {
+                comparisons.add(comparison);
+            }
+        });
+        comparisons.sort(Comparator.comparingLong(LatencyComparison::getP99Delta).reversed());
+        return comparisons;
+    }
+
+    /**
+     * @return the value of every registered gauge, for example the depth of the queue.
+     */
+    public Map<String, Double> getGauges() {
+        return gauges;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("seen=%s sampled=%s enqueued=%s dropped=%s sent=%s non200=%s ioFailures=%s "
+                        + "timeouts=%s queueWait[%s] build[%s] roundTrip[%s] gauges=%s",
+                seen, sampled, enqueued, dropped, sent, non200, ioFailures, timeouts, queueWait, build, roundTrip,
+                gauges);
+    }
+}
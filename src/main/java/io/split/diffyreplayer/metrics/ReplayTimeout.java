@@ -0,0 +1,15 @@
+package io.split.diffyreplayer.metrics;
+
+/**
+ * Which stage of a replay timed out once it was handed to the transport.
+ */
+public enum ReplayTimeout {
+    // No connection of the pool was free within DIFFY_CONNECTION_REQUEST_TIMEOUT_MS.
+    CONNECTION_REQUEST,
+    // Diffy did not accept the connection within DIFFY_CONNECT_TIMEOUT_MS.
+    CONNECT,
+    // Diffy stopped sending data for DIFFY_SOCKET_TIMEOUT_MS.
+    SOCKET,
+    // The replay was still in flight DIFFY_REPLAY_DEADLINE_MS after the request was sampled, and was aborted.
+    DEADLINE
+}
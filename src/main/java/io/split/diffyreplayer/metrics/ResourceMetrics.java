@@ -0,0 +1,91 @@
+package io.split.diffyreplayer.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What happened to the replays of a single Canonical-Resource.
+ */
+public class ResourceMetrics {
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder non200 = new LongAdder();
+    private final LongAdder ioFailures = new LongAdder();
+    private final LatencyHistogram roundTrip = new LatencyHistogram();
+    private final LatencyHistogram original = new LatencyHistogram();
+
+    void recordSent() {
+        sent.increment();
+    }
+
+    void recordResponse(int statusCode, long roundTripNanos) {
+        if (statusCode != 200) {
+            non200.increment();
+        }
+        roundTrip.record(roundTripNanos);
+    }
+
+    void recordFailure(long roundTripNanos) {
+        ioFailures.increment();
+        roundTrip.record(roundTripNanos);
+    }
+
+    void recordOriginal(long latencyNanos) {
+        original.record(latencyNanos);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(sent.sum(), non200.sum(), ioFailures.sum(), roundTrip.snapshot(), original.snapshot());
+    }
+
+    /**
+     * Immutable copy of the metrics of a Canonical-Resource.
+     */
+    public static final class Snapshot {
+        private final long sent;
+        private final long non200;
+        private final long ioFailures;
+        private final HistogramSnapshot roundTrip;
+        private final HistogramSnapshot original;
+
+        private Snapshot(long sent, long non200, long ioFailures, HistogramSnapshot roundTrip,
+                         HistogramSnapshot original) {
+            this.sent = sent;
+            this.non200 = non200;
+            this.ioFailures = ioFailures;
+            this.roundTrip = roundTrip;
+            this.original = original;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public long getNon200() {
+            return non200;
+        }
+
+        public long getIoFailures() {
+            return ioFailures;
+        }
+
+        /**
+         * @return the round trip to Diffy, failures included.
+         */
+        public HistogramSnapshot getRoundTrip() {
+            return roundTrip;
+        }
+
+        /**
+         * @return how long the server took to answer the original requests that were sampled.
+         */
+        public HistogramSnapshot getOriginal() {
+            return original;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("sent=%s non200=%s ioFailures=%s roundTrip[%s] original[%s]",
+                    sent, non200, ioFailures, roundTrip, original);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package io.split.diffyreplayer.shard;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Consistent hash ring, so the same key always lands on the same node.
+ *
+ * Every node is placed on the ring many times (virtual nodes), so keys spread evenly. A key belongs to the
+ * first point clockwise from its hash. When that node is not available, the key goes to the next available
+ * node on the ring, so only the keys of the unavailable node move, and they move back once it recovers.
+ * Immutable, the ring is rebuilt when the nodes change.
+ *
+ * @param <T> the type of the nodes.
+ */
+public final class ConsistentHashRing<T> {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final List<T> nodes;
+    // Sorted points of the ring, and the index in nodes of the node placed on each of them.
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * @param nodes the nodes, at least one.
+     * @param name identifies each node, a node keeps its place on the ring as long as its name does not change.
+     * @param virtualNodes how many times each node is placed on the ring.
+     */
+    public ConsistentHashRing(List<T> nodes, Function<T, String> name, int virtualNodes) {
+        Preconditions.checkArgument(!nodes.isEmpty(), "There should be at least one node");
+        Preconditions.checkArgument(virtualNodes > 0, "virtualNodes must be positive");
+        this.nodes = ImmutableList.copyOf(nodes);
+
+        List<long[]> placed = new ArrayList<>(nodes.size() * virtualNodes);
+        for (int node = 0; node < nodes.size(); node++) {
+            String nodeName = name.apply(nodes.get(node));
+            for (int i = 0; i < virtualNodes; i++) {
+                placed.add(new long[]{hash(nodeName + "#" + i), node});
+            }
+        }
+        // Ties, only possible with colliding hashes, are broken by node so the ring does not depend on the order.
+        Collections.sort(placed, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        this.points = new long[placed.size()];
+        this.owners = new int[placed.size()];
+        for (int i = 0; i < placed.size(); i++) {
+            points[i] = placed.get(i)[0];
+            owners[i] = (int) placed.get(i)[1];
+        }
+    }
+
+    /**
+     * @param key the key being routed.
+     * @return the node the key belongs to, available or not.
+     */
+    public T owner(String key) {
+        return nodes.get(owners[firstPoint(key)]);
+    }
+
+    /**
+     * @param key the key being routed.
+     * @param available whether a node can take keys right now.
+     * @return the first available node clockwise from the key, or its owner if none is available.
+     */
+    public T route(String key, Predicate<T> available) {
+        int start = firstPoint(key);
+        T owner = nodes.get(owners[start]);
+        if (nodes.size() == 1 || available.test(owner)) {
+            return owner;
+        }
+        boolean[] checked = new boolean[nodes.size()];
+        checked[owners[start]] = true;
+        int remaining = nodes.size() - 1;
+        for (int i = 1; i < points.length && remaining > 0; i++) {
+            int node = owners[(start + i) % points.length];
+            if (checked[node]) {
+                continue;
+            }
+            if (available.test(nodes.get(node))) {
+                return nodes.get(node);
+            }
+            checked[node] = true;
+            remaining--;
+        }
+        return owner;
+    }
+
+    public List<T> getNodes() {
+        return nodes;
+    }
+
+    private int firstPoint(String key) {
+        int index = Arrays.binarySearch(points, hash(Preconditions.checkNotNull(key)));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index == points.length ? 0 : index;
+    }
+
+    private static long hash(String value) {
+        return HASH.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+}
@@ -0,0 +1,64 @@
+package io.split.diffyreplayer.shard;
+
+import com.google.common.base.Preconditions;
+import io.split.diffyreplayer.health.ReplayGuard;
+import io.split.diffyreplayer.transport.ReplayTransport;
+
+import java.io.IOException;
+
+/**
+ * A Diffy instance replays are sent to, with its own connection pool and its own health,
+ * so a Diffy that is down or slow does not hold back the others.
+ */
+public final class DiffyTarget implements AutoCloseable {
+
+    private final String url;
+    private final ReplayTransport transport;
+    private final ReplayGuard guard;
+    private volatile boolean retired;
+
+    /**
+     * @param url where the Diffy instance resides.
+     * @param transport sends the replays to this instance only.
+     * @param guard tracks the health of this instance only.
+     */
+    public DiffyTarget(String url, ReplayTransport transport, ReplayGuard guard) {
+        this.url = Preconditions.checkNotNull(url);
+        this.transport = Preconditions.checkNotNull(transport);
+        this.guard = Preconditions.checkNotNull(guard);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public ReplayTransport getTransport() {
+        return transport;
+    }
+
+    public ReplayGuard getGuard() {
+        return guard;
+    }
+
+    /**
+     * The URL was removed, replays still queued for this instance have to go somewhere else, and it is
+     * closed once the ones in flight complete.
+     */
+    public void retire() {
+        retired = true;
+    }
+
+    public boolean isRetired() {
+        return retired;
+    }
+
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+}
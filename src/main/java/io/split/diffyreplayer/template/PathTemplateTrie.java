@@ -0,0 +1,140 @@
+package io.split.diffyreplayer.template;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches paths against path templates, like "segmentChanges/{SEGMENT_NAME:ident}", and returns the
+ * canonical name of the template that matched, like "segmentChanges/SEGMENT_NAME".
+ *
+ * Templates are compiled into a trie of path segments, so a path is matched walking its segments
+ * from left to right. On each segment literals are tried first, then placeholders in the order of
+ * {@link SegmentType}. Placeholders are checked by character class, there are no regular expressions.
+ *
+ * Not thread safe while adding templates, it is safe to match concurrently once all are added.
+ */
+public class PathTemplateTrie {
+
+    private static final Splitter SEGMENTS = Splitter.on('/').omitEmptyStrings();
+    private static final Joiner JOINER = Joiner.on('/');
+
+    private final Node root = new Node();
+    private int size = 0;
+
+    /**
+     * Adds a template. If the same template was already added, the first one wins.
+     *
+     * @param template segments separated by '/', placeholders are {NAME:type} or {NAME} for any segment.
+     * @throws IllegalArgumentException if the template is not well formatted.
+     */
+    public void add(String template) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(template), "template can not be empty");
+
+        Node node = root;
+        List<String> canonical = new ArrayList<>();
+        for (String segment : SEGMENTS.split(template.trim())) {
+            if (segment.startsWith("{")) {
+                if (!segment.endsWith("}") || segment.length() < 3) {
+                    throw new IllegalArgumentException(String.format("Template %s is not well formatted", template));
+                }
+                String placeholder = segment.substring(1, segment.length() - 1);
+                int colon = placeholder.indexOf(':');
+                String name = colon < 0 ? placeholder : placeholder.substring(0, colon);
+                SegmentType type = colon < 0 ? SegmentType.ANY : SegmentType.fromKeyword(placeholder.substring(colon + 1));
+                if (name.isEmpty()) {
+                    throw new IllegalArgumentException(String.format("Template %s has a placeholder without name", template));
+                }
+                node = node.typedChild(type);
+                canonical.add(name);
+            } else {
+                node = node.literalChild(segment);
+                canonical.add(segment);
+            }
+        }
+        Preconditions.checkArgument(node != root, "Template %s has no segments", template);
+        if (node.canonical == null) {
+            node.canonical = JOINER.join(canonical);
+            size++;
+        }
+    }
+
+    /**
+     * @param path the path without leading or trailing '/'.
+     * @return the canonical name of the matching template, null if none matched.
+     */
+    public String match(String path) {
+        Preconditions.checkNotNull(path);
+        return match(root, path, 0);
+    }
+
+    /**
+     * @return how many templates were added.
+     */
+    public int size() {
+        return size;
+    }
+
+    private static String match(Node node, String path, int start) {
+        if (start >= path.length()) {
+            return node.canonical;
+        }
+        int end = path.indexOf('/', start);
+        if (end < 0) {
+            end = path.length();
+        }
+        int next = end + 1;
+
+        if (node.literals != null) {
+            Node literal = node.literals.get(path.substring(start, end));
+            if (literal != null) {
+                String found = match(literal, path, next);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        if (node.typed != null) {
+            for (SegmentType type : SegmentType.values()) {
+                Node typed = node.typed[type.ordinal()];
+                if (typed != null && type.matches(path, start, end)) {
+                    String found = match(typed, path, next);
+                    if (found != null) {
+                        return found;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static final class Node {
+        private Map<String, Node> literals;
+        private Node[] typed;
+        // Set when a template ends in this node.
+        private String canonical;
+
+        private Node literalChild(String segment) {
+            if (literals == null) {
+                literals = new HashMap<>();
+            }
+            return literals.computeIfAbsent(segment, key -> new Node());
+        }
+
+        private Node typedChild(SegmentType type) {
+            if (typed == null) {
+                typed = new Node[SegmentType.values().length];
+            }
+            if (typed[type.ordinal()] == null) {
+                typed[type.ordinal()] = new Node();
+            }
+            return typed[type.ordinal()];
+        }
+    }
+}
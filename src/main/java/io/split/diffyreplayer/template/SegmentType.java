@@ -0,0 +1,113 @@
+package io.split.diffyreplayer.template;
+
+/**
+ * Types of the placeholders of a path template, like {UUID:uuid}.
+ *
+ * Each type is checked with a single pass over the characters of the segment.
+ */
+public enum SegmentType {
+    /**
+     * A UUID, 8-4-4-4-12 hexadecimal digits.
+     */
+    UUID("uuid") {
+        @Override
+        boolean matches(String path, int start, int end) {
+            if (end - start != 36) {
+                return false;
+            }
+            for (int i = start; i < end; i++) {
+                int offset = i - start;
+                char c = path.charAt(i);
+                if (offset == 8 || offset == 13 || offset == 18 || offset == 23) {
+                    if (c != '-') {
+                        return false;
+                    }
+                } else if (!isHex(c)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    },
+    /**
+     * Only digits.
+     */
+    INT("int") {
+        @Override
+        boolean matches(String path, int start, int end) {
+            if (start == end) {
+                return false;
+            }
+            for (int i = start; i < end; i++) {
+                char c = path.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    },
+    /**
+     * A letter followed by letters, digits, '_' or '-'.
+     */
+    IDENT("ident") {
+        @Override
+        boolean matches(String path, int start, int end) {
+            if (start == end || !isLetter(path.charAt(start))) {
+                return false;
+            }
+            for (int i = start + 1; i < end; i++) {
+                char c = path.charAt(i);
+                if (!isLetter(c) && !(c >= '0' && c <= '9') && c != '_' && c != '-') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    },
+    /**
+     * Any non empty segment, used when the placeholder has no type.
+     */
+    ANY("any") {
+        @Override
+        boolean matches(String path, int start, int end) {
+            return start < end;
+        }
+    };
+
+    private final String keyword;
+
+    SegmentType(String keyword) {
+        this.keyword = keyword;
+    }
+
+    /**
+     * @param path the whole path.
+     * @param start index of the first character of the segment.
+     * @param end index after the last character of the segment.
+     * @return whether the segment is of this type.
+     */
+    abstract boolean matches(String path, int start, int end);
+
+    /**
+     * @param keyword the type as written in the template, like "uuid".
+     * @return the type.
+     * @throws IllegalArgumentException if there is no type for that keyword.
+     */
+    public static SegmentType fromKeyword(String keyword) {
+        for (SegmentType type : values()) {
+            if (type.keyword.equals(keyword)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown placeholder type %s", keyword));
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -0,0 +1,188 @@
+package io.split.diffyreplayer.transport;
+
+import com.google.common.base.Preconditions;
+import org.apache.http.StatusLine;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non blocking HTTP transport used to send the replays to Diffy.
+ *
+ * Requests are sent by a few I/O threads, so the replayer threads only build the request and hand it over.
+ * At most maxInFlight replays are in flight, once the limit is reached send blocks the calling thread until
+ * a replay completes, so the bounded replay queue fills up and sheds the excess.
+ *
+ * A kept alive connection can be closed by Diffy right when a replay is sent on it, so a replay that fails
+ * on the connection is sent once more on a new one, the same as the blocking client does for GETs.
+ */
+public class AsyncHttpTransport implements ReplayTransport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncHttpTransport.class);
+
+    private final PoolingNHttpClientConnectionManager connectionManager;
+    private final CloseableHttpAsyncClient client;
+    private final ConnectionEvictor evictor;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+
+    /**
+     * Default Constructor.
+     *
+     * @param ioThreads how many threads do the network I/O.
+     * @param maxInFlight max amount of replays waiting for a response from Diffy.
+     * @param idleTimeoutMillis connections idle for more than this are closed.
+     */
+    public AsyncHttpTransport(int ioThreads, int maxInFlight, long idleTimeoutMillis) {
+        this(ioThreads, maxInFlight, idleTimeoutMillis, RequestConfig.DEFAULT);
+    }
+
+    /**
+     * Constructor with timeouts.
+     *
+     * @param ioThreads how many threads do the network I/O.
+     * @param maxInFlight max amount of replays waiting for a response from Diffy.
+     * @param idleTimeoutMillis connections idle for more than this are closed.
+     * @param requestConfig the connection request, connect and socket timeouts of every replay.
+     */
+    public AsyncHttpTransport(int ioThreads, int maxInFlight, long idleTimeoutMillis, RequestConfig requestConfig) {
+        Preconditions.checkArgument(ioThreads > 0, "ioThreads must be positive");
+        Preconditions.checkArgument(maxInFlight > 0, "maxInFlight must be positive");
+
+        try {
+            this.connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(
+                    IOReactorConfig.custom()
+                            .setIoThreadCount(ioThreads)
+                            .build()));
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("Could not start the I/O reactor for the Diffy replays", e);
+        }
+        // HTTP/1.1 has one request per connection in flight, so allow one connection per in flight replay.
+        this.connectionManager.setMaxTotal(maxInFlight);
+        this.connectionManager.setDefaultMaxPerRoute(maxInFlight);
+        this.client = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(Preconditions.checkNotNull(requestConfig))
+                .build();
+        this.client.start();
+        this.inFlight = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+        this.evictor = new ConnectionEvictor(idleTimeoutMillis, () -> {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(String.format("Diffy Replayer async connection pool stats %s, in flight %s",
+                        getPoolStats(), getInFlight()));
+            }
+        });
+    }
+
+    /**
+     * Hands the request to the I/O threads, the callback is called from one of them.
+     *
+     * Blocks while there are already maxInFlight replays in flight.
+     */
+    @Override
+    public void send(HttpRequestBase request, ReplayCallback callback) {
+        Preconditions.checkNotNull(request);
+        Preconditions.checkNotNull(callback);
+
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            callback.failed(new InterruptedIOException("Interrupted while waiting to send the replay"));
+            return;
+        }
+        execute(request, callback, true);
+    }
+
+    /**
+     * Sends a request that already has an in flight permit, which is released once it completes or fails.
+     */
+    private void execute(HttpRequestBase request, ReplayCallback callback, boolean retry) {
+        try {
+            client.execute(HttpAsyncMethods.create(request), new DiscardingResponseConsumer(),
+                    new FutureCallback<StatusLine>() {
+                        @Override
+                        public void completed(StatusLine statusLine) {
+                            inFlight.release();
+                            callback.completed(statusLine);
+                        }
+
+                        @Override
+                        public void failed(Exception e) {
+                            if (retry && isRetryable(request, e)) {
+                                LOG.debug(String.format("Retrying replay %s on a new connection", request), e);
+                                execute(request, callback, false);
+                                return;
+                            }
+                            inFlight.release();
+                            callback.failed(e);
+                        }
+
+                        @Override
+                        public void cancelled() {
+                            inFlight.release();
+                            callback.failed(new CancellationException("Replay was cancelled"));
+                        }
+                    });
+        } catch (RuntimeException e) {
+            // The client was already closed.
+            inFlight.release();
+            callback.failed(e);
+        }
+    }
+
+    /**
+     * Same rules as the DefaultHttpRequestRetryHandler of the blocking client: timeouts, failed connects, TLS
+     * failures and aborted replays are not retried, any other I/O failure can be a connection closed by Diffy.
+     */
+    private static boolean isRetryable(HttpRequestBase request, Exception e) {
+        return HttpGet.METHOD_NAME.equals(request.getMethod())
+                && !request.isAborted()
+                && e instanceof IOException
+                && !(e instanceof InterruptedIOException)
+                && !(e instanceof ConnectException)
+                && !(e instanceof UnknownHostException)
+                && !(e instanceof SSLException);
+    }
+
+    /**
+     * @return how many replays are waiting for a response from Diffy.
+     */
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    @Override
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    @Override
+    public void close() throws IOException {
+        evictor.close();
+        client.close();
+    }
+}
@@ -0,0 +1,48 @@
+package io.split.diffyreplayer.transport;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically closes the idle and expired connections of a pool from a background daemon thread.
+ */
+class ConnectionEvictor implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionEvictor.class);
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param idleTimeoutMillis connections idle for more than this are closed.
+     * @param eviction closes the idle and expired connections of the pool.
+     */
+    ConnectionEvictor(long idleTimeoutMillis, Runnable eviction) {
+        Preconditions.checkArgument(idleTimeoutMillis > 0, "idleTimeoutMillis must be positive");
+        Preconditions.checkNotNull(eviction);
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("diffy-replayer-evictor-%d")
+                .build());
+        long period = Math.max(idleTimeoutMillis / 2, 1000L);
+        this.scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                eviction.run();
+            } catch (RuntimeException e) {
+                // Never let the evictor die, otherwise idle connections will pile up.
+                LOG.warn("Failed to evict idle connections", e);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
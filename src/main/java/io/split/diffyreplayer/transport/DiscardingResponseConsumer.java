@@ -0,0 +1,50 @@
+package io.split.diffyreplayer.transport;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the status of the response and drains the body without buffering it.
+ */
+class DiscardingResponseConsumer extends AbstractAsyncResponseConsumer<StatusLine> {
+
+    // Only I/O dispatcher threads read content, so one scratch buffer per thread is enough.
+    private static final ThreadLocal<ByteBuffer> SCRATCH = ThreadLocal.withInitial(() -> ByteBuffer.allocate(8192));
+
+    private StatusLine statusLine;
+
+    @Override
+    protected void onResponseReceived(HttpResponse response) {
+        this.statusLine = response.getStatusLine();
+    }
+
+    @Override
+    protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) {
+    }
+
+    @Override
+    protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+        ByteBuffer scratch = SCRATCH.get();
+        do {
+            scratch.clear();
+        } while (decoder.read(scratch) > 0);
+    }
+
+    @Override
+    protected StatusLine buildResult(HttpContext context) {
+        return statusLine;
+    }
+
+    @Override
+    protected void releaseResources() {
+    }
+}
@@ -0,0 +1,136 @@
+package io.split.diffyreplayer.transport;
+
+import com.google.common.base.Preconditions;
+import org.apache.http.StatusLine;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long lived HTTP transport used to send the replays to Diffy.
+ *
+ * Connections are kept alive and reused between replays, so we only pay the TCP (and TLS)
+ * handshake once per pooled connection instead of once per replayed request.
+ * Idle and expired connections are evicted periodically by a background daemon thread.
+ *
+ * The timeouts of the RequestConfig bound how long a replay waits for a pooled connection, for the
+ * connection to Diffy and between two packets of the response, so a hung Diffy can not pin a thread forever.
+ *
+ * Each replay blocks the calling thread until the response is drained.
+ */
+public class PooledHttpTransport implements ReplayTransport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PooledHttpTransport.class);
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+    private final ConnectionEvictor evictor;
+
+    /**
+     * Default Constructor.
+     *
+     * @param maxTotal max amount of connections kept by the pool.
+     * @param maxPerRoute max amount of connections kept by the pool to the same host.
+     * @param idleTimeoutMillis connections idle for more than this are closed.
+     */
+    public PooledHttpTransport(int maxTotal, int maxPerRoute, long idleTimeoutMillis) {
+        this(maxTotal, maxPerRoute, idleTimeoutMillis, RequestConfig.DEFAULT);
+    }
+
+    /**
+     * Constructor with timeouts.
+     *
+     * @param maxTotal max amount of connections kept by the pool.
+     * @param maxPerRoute max amount of connections kept by the pool to the same host.
+     * @param idleTimeoutMillis connections idle for more than this are closed.
+     * @param requestConfig the connection request, connect and socket timeouts of every replay.
+     */
+    public PooledHttpTransport(int maxTotal, int maxPerRoute, long idleTimeoutMillis, RequestConfig requestConfig) {
+        Preconditions.checkArgument(maxTotal > 0, "maxTotal must be positive");
+        Preconditions.checkArgument(maxPerRoute > 0, "maxPerRoute must be positive");
+
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        this.connectionManager.setMaxTotal(maxTotal);
+        this.connectionManager.setDefaultMaxPerRoute(Math.min(maxPerRoute, maxTotal));
+        this.client = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(Preconditions.checkNotNull(requestConfig))
+                .build();
+        this.evictor = new ConnectionEvictor(idleTimeoutMillis, () -> {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(String.format("Diffy Replayer connection pool stats %s", getPoolStats()));
+            }
+        });
+    }
+
+    /**
+     * Executes the request and drains the response, so the connection goes back to the pool.
+     *
+     * @param request the request to be sent.
+     * @return the status line of the response.
+     * @throws IOException if the request could not be executed.
+     */
+    public StatusLine execute(HttpRequestBase request) throws IOException {
+        Preconditions.checkNotNull(request);
+
+        try (CloseableHttpResponse response = client.execute(request)) {
+            // We don't care about the body, but it has to be consumed so the connection can be reused.
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine();
+        }
+    }
+
+    /**
+     * Executes the request and returns as soon as the headers of the response are read, so the body can be streamed.
+     *
+     * @param request the request to be sent.
+     * @return the response, it must be closed so the connection goes back to the pool.
+     * @throws IOException if the request could not be executed.
+     */
+    public CloseableHttpResponse open(HttpRequestBase request) throws IOException {
+        Preconditions.checkNotNull(request);
+
+        return client.execute(request);
+    }
+
+    /**
+     * Executes the request on the calling thread, the callback is called before returning.
+     */
+    @Override
+    public void send(HttpRequestBase request, ReplayCallback callback) {
+        Preconditions.checkNotNull(callback);
+
+        StatusLine statusLine;
+        try {
+            statusLine = execute(request);
+        } catch (IOException e) {
+            callback.failed(e);
+            return;
+        }
+        callback.completed(statusLine);
+    }
+
+    @Override
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    @Override
+    public void close() throws IOException {
+        evictor.close();
+        client.close();
+        connectionManager.shutdown();
+    }
+}
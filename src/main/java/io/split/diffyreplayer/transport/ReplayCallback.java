@@ -0,0 +1,23 @@
+package io.split.diffyreplayer.transport;
+
+import org.apache.http.StatusLine;
+
+/**
+ * Outcome of a replay sent through a ReplayTransport.
+ */
+public interface ReplayCallback {
+
+    /**
+     * Diffy answered, the response was already drained.
+     *
+     * @param statusLine the status of the response.
+     */
+    void completed(StatusLine statusLine);
+
+    /**
+     * The request could not be sent or the response could not be read.
+     *
+     * @param e what went wrong.
+     */
+    void failed(Exception e);
+}
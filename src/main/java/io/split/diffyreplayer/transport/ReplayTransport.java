@@ -0,0 +1,35 @@
+package io.split.diffyreplayer.transport;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.pool.PoolStats;
+
+import java.io.IOException;
+
+/**
+ * Sends the replays to Diffy.
+ */
+public interface ReplayTransport extends AutoCloseable {
+
+    /**
+     * Sends the request, the callback is always called exactly once.
+     *
+     * Implementations might call the callback before returning or later from another thread.
+     *
+     * @param request the request to be sent.
+     * @param callback notified with the outcome of the request.
+     */
+    void send(HttpRequestBase request, ReplayCallback callback);
+
+    /**
+     * @return the stats of the connection pool (leased, pending, available and max).
+     */
+    PoolStats getPoolStats();
+
+    /**
+     * Closes the connections, the replays in flight fail.
+     *
+     * @throws IOException if the connections could not be closed.
+     */
+    @Override
+    void close() throws IOException;
+}
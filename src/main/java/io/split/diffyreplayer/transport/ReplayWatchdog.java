@@ -0,0 +1,88 @@
+package io.split.diffyreplayer.transport;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.client.methods.HttpRequestBase;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aborts the replays that are still in flight when their deadline is reached, from a background daemon thread.
+ *
+ * The socket timeout only bounds the time between two packets, so a Diffy that trickles the response could
+ * still hold a replay for much longer, the deadline bounds the whole replay. Aborting the request makes the
+ * transport fail the replay, the blocking one by closing the connection and the async one by cancelling it.
+ */
+public class ReplayWatchdog implements AutoCloseable {
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    public ReplayWatchdog() {
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("diffy-replayer-watchdog-%d")
+                .build());
+        // Most replays finish way before their deadline, don't keep their cancelled aborts around.
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Watches the requests of a replay until {@link Watch#done()} is called.
+     *
+     * @param deadline the System.nanoTime() at which the requests are aborted.
+     * @param requests the requests of the replay, more than one in LOCAL_DIFF mode.
+     * @return the watch, that has to be done once the replay completes or fails.
+     */
+    public Watch watch(long deadline, HttpRequestBase... requests) {
+        Preconditions.checkNotNull(requests);
+
+        Watch watch = new Watch(requests);
+        watch.abort = scheduler.schedule(watch, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        return watch;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * The abort scheduled for a replay.
+     */
+    public static final class Watch implements Runnable {
+        private final HttpRequestBase[] requests;
+        private volatile ScheduledFuture<?> abort;
+        private volatile boolean expired;
+
+        private Watch(HttpRequestBase[] requests) {
+            this.requests = requests;
+        }
+
+        /**
+         * @return whether the deadline was reached and the requests were aborted.
+         */
+        public boolean isExpired() {
+            return expired;
+        }
+
+        /**
+         * The replay completed or failed, so there is nothing left to abort.
+         */
+        public void done() {
+            ScheduledFuture<?> scheduled = abort;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            expired = true;
+            for (HttpRequestBase request : requests) {
+                request.abort();
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package io.split.diffyreplayer.transport;
+
+/**
+ * Which ReplayTransport is used, configured with DIFFY_TRANSPORT.
+ */
+public enum TransportType {
+    /**
+     * Each replay blocks a replayer thread for the whole round trip to Diffy.
+     */
+    BLOCKING,
+    /**
+     * Replays are sent with non blocking I/O, a few threads can keep many replays in flight.
+     */
+    ASYNC
+}
@@ -0,0 +1,129 @@
+package io.split.diffyreplayer.util;
+
+import com.google.common.base.Strings;
+
+import javax.ws.rs.Path;
+import java.lang.reflect.Method;
+
+/**
+ * Builds the path template of a JAX-RS endpoint from the @Path annotations of its class and method.
+ */
+public class ResourcePathUtil {
+
+    /**
+     * Joins the @Path of the class with the @Path of the method, for example "api/segmentChanges/{name}".
+     *
+     * Regular expressions in the parameters are removed, so "{id: [0-9]+}" becomes "{id}".
+     * Annotations inherited from super classes and interfaces are taken into account.
+     *
+     * @param resourceClass the class of the resource, can be null.
+     * @param resourceMethod the method of the resource, can be null.
+     * @return the template without leading or trailing '/', null if neither has a @Path.
+     */
+    public static String getPathTemplate(Class<?> resourceClass, Method resourceMethod) {
+        Path classPath = resourceClass != null ? findPath(resourceClass) : null;
+        Path methodPath = resourceMethod != null ? findPath(resourceMethod) : null;
+        if (classPath == null && methodPath == null) {
+            return null;
+        }
+
+        StringBuilder template = new StringBuilder();
+        append(template, classPath);
+        append(template, methodPath);
+        return template.toString();
+    }
+
+    private static void append(StringBuilder template, Path path) {
+        if (path == null || Strings.isNullOrEmpty(path.value())) {
+            return;
+        }
+        for (String segment : withoutRegex(path.value()).split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            if (template.length() > 0) {
+                template.append('/');
+            }
+            template.append(segment);
+        }
+    }
+
+    /**
+     * Turns "{id: [0-9]{4}}" into "{id}", the regex can have braces of its own.
+     */
+    private static String withoutRegex(String value) {
+        StringBuilder result = new StringBuilder(value.length());
+        int i = 0;
+        while (i < value.length()) {
+            char c = value.charAt(i);
+            if (c != '{') {
+                result.append(c);
+                i++;
+                continue;
+            }
+            int depth = 1;
+            int nameEnd = -1;
+            int j = i + 1;
+            for (; j < value.length() && depth > 0; j++) {
+                char current = value.charAt(j);
+                if (current == '{') {
+                    depth++;
+                } else if (current == '}') {
+                    depth--;
+                } else if (current == ':' && depth == 1 && nameEnd < 0) {
+                    nameEnd = j;
+                }
+            }
+            String name = value.substring(i + 1, nameEnd >= 0 ? nameEnd : j - 1);
+            result.append('{').append(name.trim()).append('}');
+            i = j;
+        }
+        return result.toString();
+    }
+
+    private static Path findPath(Class<?> resourceClass) {
+        for (Class<?> current = resourceClass; current != null && current != Object.class; current = current.getSuperclass()) {
+            Path path = current.getAnnotation(Path.class);
+            if (path != null) {
+                return path;
+            }
+            for (Class<?> implemented : current.getInterfaces()) {
+                path = implemented.getAnnotation(Path.class);
+                if (path != null) {
+                    return path;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Path findPath(Method resourceMethod) {
+        Path path = resourceMethod.getAnnotation(Path.class);
+        if (path != null) {
+            return path;
+        }
+        Class<?> declaring = resourceMethod.getDeclaringClass();
+        for (Class<?> current = declaring; current != null && current != Object.class; current = current.getSuperclass()) {
+            path = findPath(current, resourceMethod);
+            if (path != null) {
+                return path;
+            }
+            for (Class<?> implemented : current.getInterfaces()) {
+                path = findPath(implemented, resourceMethod);
+                if (path != null) {
+                    return path;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Path findPath(Class<?> type, Method resourceMethod) {
+        try {
+            return type.getDeclaredMethod(resourceMethod.getName(), resourceMethod.getParameterTypes())
+                    .getAnnotation(Path.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
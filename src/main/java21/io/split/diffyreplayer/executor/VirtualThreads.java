@@ -0,0 +1,29 @@
+package io.split.diffyreplayer.executor;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads.
+ *
+ * This is the Java 21 version, packaged in META-INF/versions/21 of the multi-release jar.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return whether this runtime supports virtual threads.
+     */
+    static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * @param prefix prefix for the name of the threads.
+     * @return a factory of virtual threads.
+     */
+    static ThreadFactory factory(String prefix) {
+        return Thread.ofVirtual().name(prefix, 0).factory();
+    }
+}
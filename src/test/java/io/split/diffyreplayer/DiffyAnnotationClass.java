@@ -9,6 +9,6 @@ import io.split.diffyreplayer.condition.DiffyReplayerCondition;
 public class DiffyAnnotationClass implements DiffyReplayerCondition {
     @Override
     public boolean replay() {
-        return false;
+        return true;
     }
 }
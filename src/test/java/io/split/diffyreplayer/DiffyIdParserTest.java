@@ -1,6 +1,7 @@
 package io.split.diffyreplayer;
 
 import com.google.common.collect.Maps;
+import io.split.diffyreplayer.template.PathTemplateTrie;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -155,4 +156,40 @@ public class DiffyIdParserTest {
 
 
     }
+
+    @Test
+    public void testCache() {
+        Map<Pattern, String> patterns = Maps.newLinkedHashMap();
+        patterns.put(Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[1-5][0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}"), "ID");
+        DiffyIdParser parser = new DiffyIdParser(patterns, 2);
+        String uri = "/tests/ec401d70-54fe-11e6-8857-068f59b32aa9";
+        Assert.assertEquals("tests/ID", parser.convert(uri));
+        Assert.assertEquals("tests/ID", parser.convert(uri));
+        Assert.assertEquals(1, parser.getCacheStats().hitCount());
+        Assert.assertEquals(1, parser.getCacheStats().missCount());
+
+        parser.convert("one");
+        parser.convert("two");
+        parser.convert("three");
+        Assert.assertTrue(parser.getCacheStats().evictionCount() > 0);
+    }
+
+    @Test
+    public void testWithoutCache() {
+        DiffyIdParser parser = new DiffyIdParser(Maps.newLinkedHashMap());
+        Assert.assertEquals("should/be/same", parser.convert("/should/be/same/"));
+        Assert.assertEquals(0, parser.getCacheStats().requestCount());
+    }
+
+    @Test
+    public void testTemplatesBeforePatterns() {
+        Map<Pattern, String> patterns = Maps.newLinkedHashMap();
+        patterns.put(Pattern.compile("^api/"), "");
+        PathTemplateTrie templates = new PathTemplateTrie();
+        templates.add("api/segmentChanges/{SEGMENT_NAME:ident}");
+        DiffyIdParser parser = new DiffyIdParser(patterns, templates, 0);
+        Assert.assertEquals("api/segmentChanges/SEGMENT_NAME", parser.convert("/api/segmentChanges/mySegment/"));
+        // No template matches, so the patterns are used.
+        Assert.assertEquals("splitChanges", parser.convert("/api/splitChanges"));
+    }
 }
@@ -0,0 +1,117 @@
+package io.split.diffyreplayer;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+
+public class DiffyReplayerFeatureTest {
+
+    private DiffyReplayerFeature feature;
+    private DiffyReplayer diffyReplayer;
+    private ResourceInfo resourceInfo;
+    private FeatureContext context;
+
+    @Before
+    public void setUp() {
+        diffyReplayer = Mockito.mock(DiffyReplayer.class);
+        feature = new DiffyReplayerFeature(diffyReplayer);
+        resourceInfo = Mockito.mock(ResourceInfo.class);
+        context = Mockito.mock(FeatureContext.class);
+    }
+
+    @Test
+    public void notAnnotatedEndpointsAreNotFiltered() throws NoSuchMethodException {
+        mockEndpoint(WithoutDiffReplay.class, "withAnnotation");
+
+        feature.configure(resourceInfo, context);
+        Mockito.verify(context, Mockito.never()).register(Mockito.any(Object.class));
+    }
+
+    @Test
+    public void classAnnotationIsUsed() throws NoSuchMethodException {
+        mockEndpoint(WithDiffyReplay.class, "withoutAnnotation");
+
+        Assert.assertTrue(registeredFilter().getCondition() instanceof DiffyAnnotationClass);
+    }
+
+    @Test
+    public void methodAnnotationTakesPrecedence() throws NoSuchMethodException {
+        mockEndpoint(WithDiffyReplay.class, "withAnnotation");
+
+        Assert.assertTrue(registeredFilter().getCondition() instanceof DiffyAnnotationMethod);
+    }
+
+    @Test
+    public void methodAnnotationWithoutClassAnnotation() throws NoSuchMethodException {
+        mockEndpoint(WithoutDiffReplay.class, "withMethodAnnotation");
+
+        Assert.assertTrue(registeredFilter().getCondition() instanceof DiffyAnnotationClass);
+    }
+
+    @Test
+    public void conditionsAreShared() throws NoSuchMethodException {
+        mockEndpoint(WithDiffyReplay.class, "withoutAnnotation");
+        DiffyReplayerFilter first = registeredFilter();
+
+        context = Mockito.mock(FeatureContext.class);
+        mockEndpoint(WithoutDiffReplay.class, "withMethodAnnotation");
+        DiffyReplayerFilter second = registeredFilter();
+
+        Assert.assertNotSame(first, second);
+        Assert.assertSame(first.getCondition(), second.getCondition());
+    }
+
+    @Test
+    public void canonicalResourceIsResolvedOnDeploy() throws NoSuchMethodException {
+        mockEndpoint(WithDiffyReplay.class, "withAnnotation");
+        Mockito.when(diffyReplayer.getCanonicalResource(WithDiffyReplay.class,
+                WithDiffyReplay.class.getMethod("withAnnotation")))
+                .thenReturn("withDiffyReplay/{id}");
+
+        DiffyReplayerFilter filter = registeredFilter();
+        Assert.assertEquals("withDiffyReplay/{id}", filter.getCanonicalResource());
+        Assert.assertEquals("withDiffyReplay/{id}", filter.getEndpoint());
+    }
+
+    @Test
+    public void endpointIsTheResourceMethodWithoutCanonicalResource() throws NoSuchMethodException {
+        mockEndpoint(WithDiffyReplay.class, "withAnnotation");
+
+        Assert.assertEquals(WithDiffyReplay.class.getName() + "#withAnnotation", registeredFilter().getEndpoint());
+    }
+
+    @Test
+    public void groupIsTheEndpointByDefault() throws NoSuchMethodException {
+        mockEndpoint(WithDiffyReplay.class, "withAnnotation");
+
+        Assert.assertEquals(WithDiffyReplay.class.getName() + "#withAnnotation", registeredFilter().getGroup());
+    }
+
+    @Test
+    public void groupOfTheAnnotationIsUsed() throws NoSuchMethodException {
+        mockEndpoint(WithoutDiffReplay.class, "withGroup");
+
+        Assert.assertEquals("changes", registeredFilter().getGroup());
+    }
+
+    private void mockEndpoint(Class<?> resourceClass, String method) throws NoSuchMethodException {
+        Mockito.when(resourceInfo.getResourceClass())
+                .then(invocationOnMock -> resourceClass);
+        Mockito.when(resourceInfo.getResourceMethod())
+                .thenReturn(resourceClass.getMethod(method));
+    }
+
+    private DiffyReplayerFilter registeredFilter() {
+        feature.configure(resourceInfo, context);
+        ArgumentCaptor<Object> filter = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(context, Mockito.times(2)).register(filter.capture());
+        Assert.assertTrue(filter.getAllValues().get(0) instanceof DiffyReplayerFilter);
+        Assert.assertTrue(filter.getAllValues().get(1) instanceof DiffyReplayerLatencyFilter);
+        return (DiffyReplayerFilter) filter.getAllValues().get(0);
+    }
+}
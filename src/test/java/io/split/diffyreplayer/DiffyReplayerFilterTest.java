@@ -1,29 +1,40 @@
 package io.split.diffyreplayer;
 
+import io.split.diffyreplayer.executor.ReplayDropCounter;
+import io.split.diffyreplayer.metrics.ReplayMetrics;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
 import javax.ws.rs.container.ResourceInfo;
 import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.net.URI;
 
 public class DiffyReplayerFilterTest {
 
     private ResourceInfo resourceInfo;
     private DiffyReplayer diffyReplayer;
     private ContainerRequestContext requestContext;
+    private UriInfo uriInfo;
     private MultivaluedHashMap<String, String> headers;
     private DiffyReplayerFilter diffyReplayerFilter;
     private Method replayedMethod;
+    private ReplayMetrics metrics;
 
     @Before
     public void setUp() throws NoSuchMethodException {
         resourceInfo = Mockito.mock(ResourceInfo.class);
         diffyReplayer = Mockito.mock(DiffyReplayer.class);
         requestContext = Mockito.mock(ContainerRequestContext.class);
+        uriInfo = Mockito.mock(UriInfo.class);
         headers = new MultivaluedHashMap<>();
         diffyReplayerFilter = new DiffyReplayerFilter(resourceInfo, diffyReplayer);
 
@@ -31,7 +42,17 @@ public class DiffyReplayerFilterTest {
                 .thenReturn(headers);
         Mockito.when(requestContext.getMethod())
                 .thenReturn("GET");
-
+        Mockito.when(requestContext.getUriInfo())
+                .thenReturn(uriInfo);
+        Mockito.when(uriInfo.getRequestUri())
+                .thenReturn(URI.create("https://sdk.split.io/api/qa/testDiffy?since=1"));
+        Mockito.when(diffyReplayer.isEnabled())
+                .thenReturn(true);
+        Mockito.when(diffyReplayer.admit())
+                .thenReturn(true);
+        metrics = new ReplayMetrics(new ReplayDropCounter(), 10);
+        Mockito.when(diffyReplayer.getMetrics())
+                .thenReturn(metrics);
     }
 
     @Test
@@ -39,7 +60,7 @@ public class DiffyReplayerFilterTest {
         headers.putSingle(DiffyReplay.HEADER, "");
         diffyReplayerFilter
                 .filter(requestContext);
-        Mockito.verify(diffyReplayer, Mockito.never()).replay(Mockito.anyObject(), Mockito.anyObject());
+        Mockito.verify(diffyReplayer, Mockito.never()).replay(Mockito.any(ReplaySnapshot.class), Mockito.anyString());
     }
 
     @Test
@@ -48,20 +69,20 @@ public class DiffyReplayerFilterTest {
                 .thenReturn("POST");
         diffyReplayerFilter
                 .filter(requestContext);
-        Mockito.verify(diffyReplayer, Mockito.never()).replay(Mockito.anyObject(), Mockito.anyObject());
+        Mockito.verify(diffyReplayer, Mockito.never()).replay(Mockito.any(ReplaySnapshot.class), Mockito.anyString());
 
         Mockito.when(requestContext.getMethod())
                 .thenReturn("DELETE");
         diffyReplayerFilter
                 .filter(requestContext);
-        Mockito.verify(diffyReplayer, Mockito.never()).replay(Mockito.anyObject(), Mockito.anyObject());
+        Mockito.verify(diffyReplayer, Mockito.never()).replay(Mockito.any(ReplaySnapshot.class), Mockito.anyString());
 
         Mockito.when(requestContext.getMethod())
                 .thenReturn("PUT");
         diffyReplayerFilter = new DiffyReplayerFilter(resourceInfo, diffyReplayer);
         diffyReplayerFilter
                 .filter(requestContext);
-        Mockito.verify(diffyReplayer, Mockito.never()).replay(Mockito.anyObject(), Mockito.anyObject());
+        Mockito.verify(diffyReplayer, Mockito.never()).replay(Mockito.any(ReplaySnapshot.class), Mockito.anyString());
     }
 
     @Test
@@ -74,7 +95,142 @@ public class DiffyReplayerFilterTest {
 
         diffyReplayerFilter
                 .filter(requestContext);
-        Mockito.verify(diffyReplayer, Mockito.only()).replay(Mockito.anyObject(), Mockito.isA(DiffyAnnotationClass.class));
+        ArgumentCaptor<ReplaySnapshot> snapshot = ArgumentCaptor.forClass(ReplaySnapshot.class);
+        ArgumentCaptor<String> group = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(diffyReplayer).replay(snapshot.capture(), group.capture());
+        Assert.assertEquals("/api/qa/testDiffy?since=1", snapshot.getValue().getPathWithQueryParams());
+        Assert.assertEquals(WithDiffyReplay.class.getName() + "#withoutAnnotation", group.getValue());
+    }
+
+    @Test
+    public void groupOfTheAnnotationIsUsed() throws IOException {
+        Mockito.when(resourceInfo.getResourceClass())
+                .then(invocationOnMock -> WithoutDiffReplay.class);
+        Mockito.when(resourceInfo.getResourceMethod())
+                .then(invocationOnMock -> WithoutDiffReplay.class.getMethod("withGroup"));
+
+        diffyReplayerFilter
+                .filter(requestContext);
+        Mockito.verify(diffyReplayer).replay(Mockito.any(ReplaySnapshot.class), Mockito.eq("changes"));
+    }
+
+    @Test
+    public void methodAnnotationTakesPrecedenceOverClassAnnotation() throws IOException {
+        Mockito.when(resourceInfo.getResourceClass())
+                .then(invocationOnMock -> WithDiffyReplay.class);
+        Mockito.when(resourceInfo.getResourceMethod())
+                .then(invocationOnMock -> WithDiffyReplay.class.getMethod("withAnnotation"));
+
+        diffyReplayerFilter
+                .filter(requestContext);
+        Mockito.verify(diffyReplayer, Mockito.never()).replay(Mockito.any(ReplaySnapshot.class), Mockito.anyString());
+    }
+
+    @Test
+    public void boundFilterUsesItsCondition() throws IOException {
+        diffyReplayerFilter = new DiffyReplayerFilter(diffyReplayer, new DiffyAnnotationClass(), null);
+
+        diffyReplayerFilter
+                .filter(requestContext);
+        Mockito.verify(diffyReplayer).replay(Mockito.any(ReplaySnapshot.class), Mockito.anyString());
+        Assert.assertEquals(1, metrics.snapshot().getSeen());
+        Assert.assertEquals(1, metrics.snapshot().getSampled());
+        Mockito.verifyZeroInteractions(resourceInfo);
+    }
+
+    @Test
+    public void requestIsNotCopiedWhenNotSampled() throws IOException {
+        Mockito.when(resourceInfo.getResourceClass())
+                .then(invocationOnMock -> NotSampled.class);
+
+        diffyReplayerFilter
+                .filter(requestContext);
+        Mockito.verify(diffyReplayer, Mockito.never()).replay(Mockito.any(ReplaySnapshot.class), Mockito.anyString());
+        Mockito.verify(requestContext, Mockito.never()).getUriInfo();
+        Assert.assertEquals(1, metrics.snapshot().getSeen());
+        Assert.assertEquals(0, metrics.snapshot().getSampled());
+    }
+
+    @Test
+    public void requestIsNotCopiedWhenReplayerIsDisabled() throws IOException {
+        Mockito.when(resourceInfo.getResourceClass())
+                .then(invocationOnMock -> WithDiffyReplay.class);
+        Mockito.when(diffyReplayer.isEnabled())
+                .thenReturn(false);
+
+        diffyReplayerFilter
+                .filter(requestContext);
+        Mockito.verify(diffyReplayer, Mockito.never()).replay(Mockito.any(ReplaySnapshot.class), Mockito.anyString());
+    }
+
+    @Test
+    public void requestIsNotCopiedWhenDiffyCanNotKeepUp() throws IOException {
+        Mockito.when(resourceInfo.getResourceClass())
+                .then(invocationOnMock -> WithDiffyReplay.class);
+        Mockito.when(diffyReplayer.admit())
+                .thenReturn(false);
+
+        diffyReplayerFilter
+                .filter(requestContext);
+        Mockito.verify(diffyReplayer, Mockito.never()).replay(Mockito.any(ReplaySnapshot.class), Mockito.anyString());
+        Mockito.verify(requestContext, Mockito.never()).getUriInfo();
+    }
+
+    @Test
+    public void latencyOfReplayedRequestsIsRecorded() throws IOException {
+        Mockito.when(resourceInfo.getResourceClass())
+                .then(invocationOnMock -> WithDiffyReplay.class);
+        Mockito.when(diffyReplayer.replay(Mockito.any(ReplaySnapshot.class), Mockito.anyString()))
+                .thenReturn(true);
+        diffyReplayerFilter
+                .filter(requestContext);
+        ArgumentCaptor<Object> sampledAt = ArgumentCaptor.forClass(Object.class);
+        ArgumentCaptor<Object> snapshot = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(requestContext).setProperty(Mockito.eq(DiffyReplayerFilter.SAMPLED_AT), sampledAt.capture());
+        Mockito.verify(requestContext).setProperty(Mockito.eq(DiffyReplayerFilter.SNAPSHOT), snapshot.capture());
+        Mockito.when(requestContext.getProperty(DiffyReplayerFilter.SAMPLED_AT))
+                .thenReturn(sampledAt.getValue());
+        Mockito.when(requestContext.getProperty(DiffyReplayerFilter.SNAPSHOT))
+                .thenReturn(snapshot.getValue());
+        ContainerResponseContext response = Mockito.mock(ContainerResponseContext.class);
+        Mockito.when(response.getStatusInfo())
+                .thenReturn(Response.Status.OK);
+
+        new DiffyReplayerLatencyFilter(diffyReplayer).filter(requestContext, response);
+        Mockito.verify(diffyReplayer).recordOriginalLatency(Mockito.same((ReplaySnapshot) snapshot.getValue()),
+                Mockito.anyLong());
+
+        Mockito.when(response.getStatusInfo())
+                .thenReturn(Response.Status.INTERNAL_SERVER_ERROR);
+        new DiffyReplayerLatencyFilter(diffyReplayer).filter(requestContext, response);
+        Mockito.verify(diffyReplayer, Mockito.times(1)).recordOriginalLatency(Mockito.any(ReplaySnapshot.class),
+                Mockito.anyLong());
+    }
+
+    @Test
+    public void requestsNotQueuedAreNotMarkedAsReplayed() throws IOException {
+        Mockito.when(resourceInfo.getResourceClass())
+                .then(invocationOnMock -> WithDiffyReplay.class);
+        Mockito.when(diffyReplayer.replay(Mockito.any(ReplaySnapshot.class), Mockito.anyString()))
+                .thenReturn(false);
+
+        diffyReplayerFilter
+                .filter(requestContext);
+        Mockito.verify(requestContext, Mockito.never()).setProperty(Mockito.anyString(), Mockito.any());
+    }
+
+    @Test
+    public void latencyOfRequestsNotReplayedIsNotRecorded() {
+        ContainerResponseContext response = Mockito.mock(ContainerResponseContext.class);
+        Mockito.when(response.getStatusInfo())
+                .thenReturn(Response.Status.OK);
+
+        new DiffyReplayerLatencyFilter(diffyReplayer).filter(requestContext, response);
+        Mockito.verify(diffyReplayer, Mockito.never()).recordOriginalLatency(Mockito.any(ReplaySnapshot.class),
+                Mockito.anyLong());
+    }
+
+    @DiffyReplay(condition = DiffyAnnotationMethod.class)
+    public static class NotSampled {
     }
-    
 }
@@ -1,17 +1,151 @@
 package io.split.diffyreplayer;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.split.diffyreplayer.condition.ConfiguredSampler;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Pattern;
 
 public class DiffyReplayerPropertiesTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testCanParsePatternFile() throws IOException {
         Map<Pattern, String> patterns = DiffyReplayerProperties.getInstance().getPatterns();
         Assert.assertEquals(3, patterns.size());
     }
+
+    @Test
+    public void ratesAreParsedOnce() {
+        DiffyReplayerProperties properties = properties(ImmutableMap.of(
+                DiffyReplayerProperties.DIFFY_LOW_RATE, "0.1",
+                DiffyReplayerProperties.DIFFY_HIGH_RATE, "0.9"));
+
+        DiffyReplayerConfig config = properties.getConfig();
+        Assert.assertEquals(0.1, config.getLowRate(), 0);
+        Assert.assertEquals(0.2, config.getMediumRate(), 0);
+        Assert.assertEquals(0.9, config.getHighRate(), 0);
+        Assert.assertEquals(3, config.getPatterns().size());
+        Assert.assertSame(config, properties.getConfig());
+    }
+
+    @Test
+    public void updatesSwapTheWholeConfig() {
+        DiffyReplayerProperties properties = properties(Collections.emptyMap());
+        List<DiffyReplayerConfig> published = new CopyOnWriteArrayList<>();
+        properties.addListener(published::add);
+        DiffyReplayerConfig before = properties.getConfig();
+
+        DiffyReplayerConfig after = properties.update(ImmutableMap.of(
+                DiffyReplayerProperties.DIFFY_LOW_RATE, "0.5",
+                DiffyReplayerProperties.DIFFY_URL, "http://localhost:8880"));
+
+        Assert.assertSame(after, properties.getConfig());
+        Assert.assertEquals(Collections.singletonList(after), published);
+        Assert.assertEquals(0.5, after.getLowRate(), 0);
+        Assert.assertEquals("http://localhost:8880", after.getDiffyUrl());
+        // The pattern file did not change, the patterns are not read again.
+        Assert.assertSame(before.getPatterns(), after.getPatterns());
+        Assert.assertEquals(0.01, before.getLowRate(), 0);
+    }
+
+    @Test
+    public void invalidUpdatesAreNotPublished() {
+        DiffyReplayerProperties properties = properties(Collections.emptyMap());
+        DiffyReplayerConfig before = properties.getConfig();
+
+        for (Map<String, String> invalid : ImmutableList.<Map<String, String>>of(
+                ImmutableMap.of(DiffyReplayerProperties.DIFFY_LOW_RATE, "a lot"),
+                ImmutableMap.of(DiffyReplayerProperties.DIFFY_MEDIUM_RATE, "2"),
+                ImmutableMap.of(DiffyReplayerProperties.DIFFY_URL, "localhost:8880"))) {
+            try {
+                properties.update(invalid);
+                Assert.fail("Should have failed for " + invalid);
+            } catch (IllegalArgumentException e) {
+                Assert.assertSame(before, properties.getConfig());
+            }
+        }
+    }
+
+    @Test
+    public void malformedPatternFilesAreNotPublished() throws IOException {
+        File patterns = folder.newFile("diffyreplayer.patterns");
+        write(patterns, "^api/,\n^v1/,a,b\n");
+        DiffyReplayerProperties properties = properties(Collections.emptyMap());
+        DiffyReplayerConfig before = properties.getConfig();
+
+        try {
+            properties.update(ImmutableMap.of(DiffyReplayerProperties.PATTERN_FILE, patterns.getAbsolutePath()));
+            Assert.fail("Should have failed for the second line");
+        } catch (IllegalArgumentException e) {
+            Assert.assertSame(before, properties.getConfig());
+            Assert.assertEquals(3, properties.getPatterns().size());
+        }
+    }
+
+    @Test
+    public void samplersFollowTheConfig() {
+        DiffyReplayerProperties properties = properties(Collections.emptyMap());
+        ConfiguredSampler sampler = new ConfiguredSampler(properties, DiffyReplayerConfig::getHighRate);
+        Assert.assertEquals(0.5, sampler.getRate(), 0);
+
+        properties.update(ImmutableMap.of(DiffyReplayerProperties.DIFFY_HIGH_RATE, "1"));
+        Assert.assertEquals(1, sampler.getRate(), 0);
+        Assert.assertTrue(sampler.sample());
+
+        properties.update(ImmutableMap.of(DiffyReplayerProperties.DIFFY_HIGH_RATE, "0"));
+        Assert.assertFalse(sampler.sample());
+    }
+
+    @Test
+    public void configFileIsWatched() throws Exception {
+        File overrides = folder.newFile("diffyreplayer.properties");
+        File patterns = folder.newFile("diffyreplayer.patterns");
+        write(patterns, "^api/,");
+        write(overrides, DiffyReplayerProperties.DIFFY_LOW_RATE + "=0.3");
+        DiffyReplayerProperties properties = properties(ImmutableMap.of(
+                DiffyReplayerProperties.DIFFY_CONFIG_FILE, overrides.getPath(),
+                DiffyReplayerProperties.DIFFY_CONFIG_POLL_MS, "10"));
+        try {
+            Assert.assertEquals(0.3, properties.getLowRate(), 0);
+
+            write(overrides, DiffyReplayerProperties.DIFFY_LOW_RATE + "=0.4\n"
+                    + DiffyReplayerProperties.PATTERN_FILE + "=" + patterns.getAbsolutePath().replace('\\', '/'));
+            overrides.setLastModified(overrides.lastModified() + 2000);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (properties.getLowRate() != 0.4 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(0.4, properties.getLowRate(), 0);
+            Assert.assertEquals(1, properties.getPatterns().size());
+        } finally {
+            properties.stopWatching();
+        }
+    }
+
+    private static DiffyReplayerProperties properties(Map<String, String> values) {
+        Properties properties = new Properties();
+        properties.setProperty("PATTERN_FILE", "diffyreplayer.patterns");
+        properties.putAll(values);
+        return new DiffyReplayerProperties("test", properties);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
 }
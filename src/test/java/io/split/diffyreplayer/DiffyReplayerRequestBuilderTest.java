@@ -1,5 +1,6 @@
 package io.split.diffyreplayer;
 
+import io.split.diffyreplayer.headers.HeaderPolicy;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.junit.Assert;
 import org.junit.Before;
@@ -13,6 +14,7 @@ import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.UriInfo;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
 
 public class DiffyReplayerRequestBuilderTest {
 
@@ -46,7 +48,7 @@ public class DiffyReplayerRequestBuilderTest {
                 .thenReturn(uri);
 
         DiffyReplayerRequestBuilder test = new DiffyReplayerRequestBuilder("https://diffy-server.io");
-        HttpRequestBase requestBase = test.build(requestContext);
+        HttpRequestBase requestBase = test.build(ReplaySnapshot.of(requestContext));
         Assert.assertEquals("https://diffy-server.io/api/qa/testDiffy?from=1234&to=456", requestBase.getURI().toString());
         Assert.assertEquals(4, requestBase.getAllHeaders().length);
         Assert.assertEquals("qa/testDiffy", requestBase.getFirstHeader("Canonical-Resource").getValue());
@@ -55,6 +57,18 @@ public class DiffyReplayerRequestBuilderTest {
         Assert.assertEquals("secondValue", requestBase.getFirstHeader("secondKey").getValue());
     }
 
+    @Test
+    public void resolvedCanonicalResourceIsUsed() throws URISyntaxException {
+        URI uri = new URI("https://sdk-staging.split.io/api/qa/testDiffy");
+        Mockito.when(uriInfo.getRequestUri())
+                .thenReturn(uri);
+
+        DiffyReplayerRequestBuilder test = new DiffyReplayerRequestBuilder("https://diffy-server.io");
+        HttpRequestBase requestBase = test.build(ReplaySnapshot.of(requestContext, "qa/{name}"));
+        Assert.assertEquals("https://diffy-server.io/api/qa/testDiffy", requestBase.getURI().toString());
+        Assert.assertEquals("qa/{name}", requestBase.getFirstHeader("Canonical-Resource").getValue());
+    }
+
     @Test
     public void headersAreCopiedAndRequestIsPointedToServerWithOutQueryParams() throws URISyntaxException {
         URI uri = new URI("https://sdk-staging.split.io/api/qa/testDiffy");
@@ -62,7 +76,7 @@ public class DiffyReplayerRequestBuilderTest {
                 .thenReturn(uri);
 
         DiffyReplayerRequestBuilder test = new DiffyReplayerRequestBuilder("https://diffy-server.io");
-        HttpRequestBase requestBase = test.build(requestContext);
+        HttpRequestBase requestBase = test.build(ReplaySnapshot.of(requestContext));
         Assert.assertEquals("https://diffy-server.io/api/qa/testDiffy", requestBase.getURI().toString());
         Assert.assertEquals(4, requestBase.getAllHeaders().length);
         Assert.assertEquals("qa/testDiffy", requestBase.getFirstHeader("Canonical-Resource").getValue());
@@ -80,8 +94,26 @@ public class DiffyReplayerRequestBuilderTest {
                 .thenReturn("POST");
         DiffyReplayerRequestBuilder test = new DiffyReplayerRequestBuilder("https://diffy-server.io");
         expectedException.expect(IllegalArgumentException.class);
-        test.build(requestContext);
+        test.build(ReplaySnapshot.of(requestContext));
+
+    }
 
+    @Test
+    public void headersGoThroughTheHeaderPolicy() throws URISyntaxException {
+        URI uri = new URI("https://sdk-staging.split.io/api/qa/testDiffy");
+        Mockito.when(uriInfo.getRequestUri())
+                .thenReturn(uri);
+        headers.putSingle("Host", "sdk-staging.split.io");
+        headers.putSingle("Connection", "keep-alive");
+
+        DiffyReplayerRequestBuilder test = new DiffyReplayerRequestBuilder("https://diffy-server.io",
+                new DiffyIdParser(Collections.emptyMap()),
+                new HeaderPolicy(Collections.emptyList(), Collections.singletonList("secondKey"),
+                        Collections.singletonMap("firstKey", "rewritten"), 100, 1000));
+        HttpRequestBase requestBase = test.build(ReplaySnapshot.of(requestContext));
+        Assert.assertEquals(3, requestBase.getAllHeaders().length);
+        Assert.assertEquals("rewritten", requestBase.getFirstHeader("firstKey").getValue());
+        Assert.assertNull(requestBase.getFirstHeader("Host"));
     }
 
     @Test
@@ -93,7 +125,7 @@ public class DiffyReplayerRequestBuilderTest {
                 .thenReturn("DELETE");
         DiffyReplayerRequestBuilder test = new DiffyReplayerRequestBuilder("https://diffy-server.io");
         expectedException.expect(IllegalArgumentException.class);
-        test.build(requestContext);
+        test.build(ReplaySnapshot.of(requestContext));
 
     }
 
@@ -106,7 +138,7 @@ public class DiffyReplayerRequestBuilderTest {
                 .thenReturn("PUT");
         DiffyReplayerRequestBuilder test = new DiffyReplayerRequestBuilder("https://diffy-server.io");
         expectedException.expect(IllegalArgumentException.class);
-        test.build(requestContext);
+        test.build(ReplaySnapshot.of(requestContext));
 
     }
 
@@ -0,0 +1,301 @@
+package io.split.diffyreplayer;
+
+import com.google.common.collect.ImmutableMap;
+import com.sun.net.httpserver.HttpServer;
+import io.split.diffyreplayer.executor.DropReason;
+import io.split.diffyreplayer.metrics.ReplayTimeout;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+public class DiffyReplayerTest {
+
+    @Test
+    public void replaysAreShardedByCanonicalResource() throws Exception {
+        Map<String, Set<Integer>> serversByResource = new ConcurrentHashMap<>();
+        AtomicInteger received = new AtomicInteger();
+        List<HttpServer> servers = new ArrayList<>();
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            int server = i;
+            HttpServer httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            httpServer.createContext("/", exchange -> {
+                serversByResource.computeIfAbsent(exchange.getRequestHeaders().getFirst("Canonical-Resource"),
+                        key -> ConcurrentHashMap.newKeySet()).add(server);
+                exchange.getResponseHeaders().add("Connection", "close");
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                received.incrementAndGet();
+            });
+            httpServer.start();
+            servers.add(httpServer);
+            urls.add("http://127.0.0.1:" + httpServer.getAddress().getPort());
+        }
+        Properties values = new Properties();
+        values.setProperty(DiffyReplayerProperties.DIFFY_THROTTLE_INTERVAL_MS, "0");
+        values.setProperty(DiffyReplayerProperties.DIFFY_URL, String.join(", ", urls));
+        DiffyReplayerProperties properties = new DiffyReplayerProperties("test", values);
+
+        try (DiffyReplayer replayer = new DiffyReplayer(properties)) {
+            Assert.assertEquals(urls, new ArrayList<>(replayer.getCircuitStates().keySet()));
+            for (int i = 0; i < 40; i++) {
+                replayer.replay(ReplaySnapshot.of("GET", "/api/resource" + (i % 8), null, new String[0],
+                        new String[0], "resource" + (i % 8)));
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while (received.get() < 40 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            servers.forEach(server -> server.stop(0));
+        }
+        Assert.assertEquals(40, received.get());
+        Assert.assertEquals(8, serversByResource.size());
+        serversByResource.values().forEach(shards -> Assert.assertEquals(1, shards.size()));
+    }
+
+    @Test
+    public void replaysQueueWhileTheThreadsAreBusy() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger received = new AtomicInteger();
+        HttpServer server = slowServer(release, received);
+        Properties values = new Properties();
+        values.setProperty(DiffyReplayerProperties.DIFFY_THROTTLE_INTERVAL_MS, "0");
+        values.setProperty(DiffyReplayerProperties.DIFFY_URL, url(server));
+        values.setProperty(DiffyReplayerProperties.DIFFY_THREAD_POOL, "2");
+        values.setProperty(DiffyReplayerProperties.DIFFY_QUEUE_CAPACITY, "100");
+
+        try (DiffyReplayer replayer = new DiffyReplayer(new DiffyReplayerProperties("test", values))) {
+            for (int i = 0; i < 10; i++) {
+                // The same checks the filter does before copying the request.
+                Assert.assertTrue(replayer.admit());
+                replayer.replay(ReplaySnapshot.of("GET", "/api/resource" + i, null, new String[0], new String[0]));
+            }
+            Assert.assertTrue(waitFor(() -> received.get() == 2, 5000));
+            Assert.assertEquals(8, replayer.getQueueDepth());
+
+            release.countDown();
+            Assert.assertTrue(waitFor(() -> received.get() == 10, 5000));
+            Assert.assertEquals(0L, replayer.getDroppedReplays().values().stream().mapToLong(Long::longValue).sum());
+        } finally {
+            release.countDown();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void replaysDiscardedByAFullQueueAreNotCountedAsEnqueued() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger received = new AtomicInteger();
+        HttpServer server = slowServer(release, received);
+        Properties values = new Properties();
+        values.setProperty(DiffyReplayerProperties.DIFFY_THROTTLE_INTERVAL_MS, "0");
+        values.setProperty(DiffyReplayerProperties.DIFFY_URL, url(server));
+        values.setProperty(DiffyReplayerProperties.DIFFY_THREAD_POOL, "1");
+        values.setProperty(DiffyReplayerProperties.DIFFY_QUEUE_CAPACITY, "2");
+
+        try (DiffyReplayer replayer = new DiffyReplayer(new DiffyReplayerProperties("test", values))) {
+            Assert.assertTrue(replayer.replay(
+                    ReplaySnapshot.of("GET", "/api/resource0", null, new String[0], new String[0])));
+            Assert.assertTrue(waitFor(() -> received.get() == 1, 5000));
+            for (int i = 1; i < 5; i++) {
+                replayer.replay(ReplaySnapshot.of("GET", "/api/resource" + i, null, new String[0], new String[0]));
+            }
+            Assert.assertEquals(Long.valueOf(2), replayer.getDroppedReplays().get(DropReason.QUEUE_FULL));
+            Assert.assertEquals(3, replayer.getMetricsSnapshot().getEnqueued());
+        } finally {
+            release.countDown();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void staleReplaysAreDiscardedBeforeBeingSent() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger received = new AtomicInteger();
+        HttpServer server = slowServer(release, received);
+        Properties values = new Properties();
+        values.setProperty(DiffyReplayerProperties.DIFFY_THROTTLE_INTERVAL_MS, "0");
+        values.setProperty(DiffyReplayerProperties.DIFFY_URL, url(server));
+        values.setProperty(DiffyReplayerProperties.DIFFY_REPLAY_DEADLINE_MS, "50");
+
+        try (DiffyReplayer replayer = new DiffyReplayer(new DiffyReplayerProperties("test", values))) {
+            ReplaySnapshot snapshot = ReplaySnapshot.of("GET", "/api/resource", null, new String[0], new String[0]);
+            Thread.sleep(100);
+            replayer.replay(snapshot);
+            Assert.assertTrue(waitFor(() -> replayer.getDroppedReplays().get(DropReason.DEADLINE_EXPIRED) == 1, 5000));
+        } finally {
+            release.countDown();
+            server.stop(0);
+        }
+        Assert.assertEquals(0, received.get());
+    }
+
+    @Test
+    public void slowResponsesTimeOut() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        HttpServer server = slowServer(release, new AtomicInteger());
+        Properties values = new Properties();
+        values.setProperty(DiffyReplayerProperties.DIFFY_THROTTLE_INTERVAL_MS, "0");
+        values.setProperty(DiffyReplayerProperties.DIFFY_URL, url(server));
+        values.setProperty(DiffyReplayerProperties.DIFFY_SOCKET_TIMEOUT_MS, "100");
+
+        try (DiffyReplayer replayer = new DiffyReplayer(new DiffyReplayerProperties("test", values))) {
+            replayer.replay(ReplaySnapshot.of("GET", "/api/resource", null, new String[0], new String[0]));
+            Assert.assertTrue(waitFor(() -> replayer.getMetricsSnapshot().getIoFailures() == 1, 5000));
+            Assert.assertEquals(1L, (long) replayer.getMetricsSnapshot().getTimeouts().get(ReplayTimeout.SOCKET));
+        } finally {
+            release.countDown();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void inFlightReplaysAreAbortedAtTheDeadline() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger received = new AtomicInteger();
+        HttpServer server = slowServer(release, received);
+        Properties values = new Properties();
+        values.setProperty(DiffyReplayerProperties.DIFFY_THROTTLE_INTERVAL_MS, "0");
+        values.setProperty(DiffyReplayerProperties.DIFFY_URL, url(server));
+        values.setProperty(DiffyReplayerProperties.DIFFY_REPLAY_DEADLINE_MS, "200");
+
+        try (DiffyReplayer replayer = new DiffyReplayer(new DiffyReplayerProperties("test", values))) {
+            replayer.replay(ReplaySnapshot.of("GET", "/api/resource", null, new String[0], new String[0]));
+            // Way before the socket timeout.
+            Assert.assertTrue(waitFor(() -> replayer.getMetricsSnapshot().getIoFailures() == 1, 3000));
+            Assert.assertEquals(1L, (long) replayer.getMetricsSnapshot().getTimeouts().get(ReplayTimeout.DEADLINE));
+            Assert.assertEquals(1, received.get());
+        } finally {
+            release.countDown();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void removedDiffyUrlsAreClosedOnceTheirReplaysComplete() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger received = new AtomicInteger();
+        HttpServer removed = slowServer(release, received);
+        HttpServer added = slowServer(new CountDownLatch(0), new AtomicInteger());
+        Properties values = new Properties();
+        values.setProperty(DiffyReplayerProperties.DIFFY_THROTTLE_INTERVAL_MS, "0");
+        values.setProperty(DiffyReplayerProperties.DIFFY_URL, url(removed));
+        DiffyReplayerProperties properties = new DiffyReplayerProperties("test", values);
+
+        try (DiffyReplayer replayer = new DiffyReplayer(properties)) {
+            int maxConnections = replayer.getPoolStats().getMax();
+            replayer.replay(ReplaySnapshot.of("GET", "/api/resource", null, new String[0], new String[0]));
+            Assert.assertTrue(waitFor(() -> received.get() == 1, 5000));
+
+            properties.update(ImmutableMap.of(DiffyReplayerProperties.DIFFY_URL, url(added)));
+            Assert.assertEquals(maxConnections, replayer.getPoolStats().getMax());
+
+            // The replay in flight is not cut short.
+            release.countDown();
+            Assert.assertTrue(waitFor(() -> replayer.getMetricsSnapshot().getRoundTrip().getCount() == 1, 5000));
+            Assert.assertEquals(0, replayer.getMetricsSnapshot().getIoFailures());
+        } finally {
+            release.countDown();
+            removed.stop(0);
+            added.stop(0);
+        }
+    }
+
+    @Test
+    public void localDiffKeepsWorkingAfterItsUrlsAreRemovedAndAddedBack() throws Exception {
+        List<HttpServer> servers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            servers.add(slowServer(new CountDownLatch(0), new AtomicInteger()));
+        }
+        Properties values = new Properties();
+        values.setProperty(DiffyReplayerProperties.DIFFY_THROTTLE_INTERVAL_MS, "0");
+        values.setProperty(DiffyReplayerProperties.DIFFY_MODE, "LOCAL_DIFF");
+        values.setProperty(DiffyReplayerProperties.DIFFY_PRIMARY_URL, url(servers.get(0)));
+        values.setProperty(DiffyReplayerProperties.DIFFY_SECONDARY_URL, url(servers.get(1)));
+        values.setProperty(DiffyReplayerProperties.DIFFY_CANDIDATE_URL, url(servers.get(2)));
+        DiffyReplayerProperties properties = new DiffyReplayerProperties("test", values);
+
+        try (DiffyReplayer replayer = new DiffyReplayer(properties)) {
+            properties.update(Collections.singletonMap(DiffyReplayerProperties.DIFFY_CANDIDATE_URL, null));
+            Assert.assertFalse(replayer.isEnabled());
+            // The target of the removed URLs is closed in the background.
+            Thread.sleep(200);
+            properties.update(ImmutableMap.of(DiffyReplayerProperties.DIFFY_CANDIDATE_URL, url(servers.get(2))));
+
+            replayer.replay(ReplaySnapshot.of("GET", "/api/resource", null, new String[0], new String[0]));
+            Assert.assertTrue(waitFor(() -> replayer.getMetricsSnapshot().getRoundTrip().getCount() == 1, 5000));
+            Assert.assertEquals(0, replayer.getMetricsSnapshot().getIoFailures());
+        } finally {
+            servers.forEach(server -> server.stop(0));
+        }
+    }
+
+    @Test
+    public void diffyUrlIsSwappedAtRuntime() throws Exception {
+        Properties values = new Properties();
+        values.setProperty(DiffyReplayerProperties.DIFFY_THROTTLE_INTERVAL_MS, "0");
+        DiffyReplayerProperties properties = new DiffyReplayerProperties("test", values);
+
+        try (DiffyReplayer replayer = new DiffyReplayer(properties)) {
+            Assert.assertFalse(replayer.isEnabled());
+
+            properties.update(ImmutableMap.of(DiffyReplayerProperties.DIFFY_URL, "http://localhost:8880"));
+            Assert.assertTrue(replayer.isEnabled());
+
+            properties.update(Collections.singletonMap(DiffyReplayerProperties.DIFFY_URL, null));
+            Assert.assertFalse(replayer.isEnabled());
+        }
+    }
+
+    /**
+     * Answers once released, or after 10 seconds, many requests at the same time.
+     */
+    private static HttpServer slowServer(CountDownLatch release, AtomicInteger received) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            received.incrementAndGet();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.getResponseHeaders().add("Connection", "close");
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        // Every replay in flight is received, not only the first one.
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        return server;
+    }
+
+    private static String url(HttpServer server) {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static boolean waitFor(BooleanSupplier condition, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
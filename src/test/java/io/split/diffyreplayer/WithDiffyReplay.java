@@ -9,6 +9,7 @@ public class WithDiffyReplay {
 
     }
 
+    @DiffyReplay(condition = DiffyAnnotationMethod.class)
     public void withAnnotation() {
     }
 }
\ No newline at end of file
@@ -7,4 +7,14 @@ public class WithoutDiffReplay {
     public void withAnnotation() {
 
     }
+
+    @DiffyReplay(condition = DiffyAnnotationClass.class)
+    public void withMethodAnnotation() {
+
+    }
+
+    @DiffyReplay(condition = DiffyAnnotationClass.class, group = "changes")
+    public void withGroup() {
+
+    }
 }
@@ -0,0 +1,53 @@
+package io.split.diffyreplayer.cli;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AccessLogParserTest {
+
+    @Test
+    public void commonFormat() {
+        AccessLogEntry entry = AccessLogParser.parse(
+                "127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] \"GET /api/splitChanges?since=1&x=%20 HTTP/1.0\" 200 2326");
+
+        Assert.assertEquals(971211336000L, entry.getTimestampMillis());
+        Assert.assertEquals("GET", entry.getMethod());
+        Assert.assertEquals("/api/splitChanges", entry.getRawPath());
+        Assert.assertEquals("since=1&x=%20", entry.getQuery());
+        Assert.assertNull(entry.getReferer());
+        Assert.assertNull(entry.getUserAgent());
+        Assert.assertEquals(0, entry.toSnapshot().getHeaderCount());
+    }
+
+    @Test
+    public void combinedFormat() {
+        AccessLogEntry entry = AccessLogParser.parse(
+                "10.0.0.1 - - [10/Oct/2000:13:55:36 +0000] \"GET /api/segmentChanges/employees HTTP/1.1\" 304 - "
+                        + "\"-\" \"Mozilla/5.0 \\\"quoted\\\"\"");
+
+        Assert.assertEquals("/api/segmentChanges/employees", entry.getRawPath());
+        Assert.assertNull(entry.getQuery());
+        Assert.assertNull(entry.getReferer());
+        Assert.assertEquals("Mozilla/5.0 \"quoted\"", entry.getUserAgent());
+        Assert.assertEquals("User-Agent", entry.toSnapshot().getHeaderName(0));
+    }
+
+    @Test
+    public void absoluteTargets() {
+        AccessLogEntry entry = AccessLogParser.parse(
+                "10.0.0.1 - - [10/Oct/2000:13:55:36 +0000] \"GET http://sdk.split.io/api/mySegments/key HTTP/1.1\" 200 10");
+
+        Assert.assertEquals("/api/mySegments/key", entry.getRawPath());
+    }
+
+    @Test
+    public void notAccessLogLines() {
+        Assert.assertNull(AccessLogParser.parse(null));
+        Assert.assertNull(AccessLogParser.parse(""));
+        Assert.assertNull(AccessLogParser.parse("Started server on port 8080"));
+        Assert.assertNull(AccessLogParser.parse(
+                "10.0.0.1 - - [not a date] \"GET /api HTTP/1.1\" 200 10"));
+        Assert.assertNull(AccessLogParser.parse(
+                "10.0.0.1 - - [10/Oct/2000:13:55:36 +0000] \"\\x16\\x03\\x01\" 400 10"));
+    }
+}
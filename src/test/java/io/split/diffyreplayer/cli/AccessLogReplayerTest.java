@@ -0,0 +1,206 @@
+package io.split.diffyreplayer.cli;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.sun.net.httpserver.HttpServer;
+import io.split.diffyreplayer.DiffyIdParser;
+import io.split.diffyreplayer.transport.AsyncHttpTransport;
+import io.split.diffyreplayer.transport.ReplayTransport;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+public class AccessLogReplayerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private String baseUrl;
+    private final List<String> received = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            received.add(exchange.getRequestURI() + " " + exchange.getRequestHeaders().getFirst("Canonical-Resource"));
+            exchange.sendResponseHeaders(exchange.getRequestURI().getPath().contains("missing") ? 404 : 200, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void replaysTheGetsOfPlainAndGzippedLogs() throws Exception {
+        File plain = write("access.log", false,
+                "10.0.0.1 - - [10/Oct/2000:13:55:36 +0000] \"GET /api/splitChanges?since=1 HTTP/1.1\" 200 10",
+                "10.0.0.1 - - [10/Oct/2000:13:55:36 +0000] \"POST /api/events HTTP/1.1\" 202 10",
+                "not an access log line");
+        File gzipped = write("access.log.1", true,
+                "10.0.0.1 - - [10/Oct/2000:13:55:37 +0000] \"GET /api/segmentChanges/employees HTTP/1.1\" 200 10",
+                "10.0.0.1 - - [10/Oct/2000:13:55:37 +0000] \"GET /api/missing HTTP/1.1\" 200 10");
+
+        AccessLogReplayer replayer = replay(new ReplayOptions(baseUrl, 0, 2, 0, 0, 5000, null,
+                ImmutableList.of(plain.getPath(), gzipped.getPath())));
+
+        Assert.assertEquals(3, replayer.getSent());
+        Assert.assertEquals(2, replayer.getSkipped());
+        Assert.assertEquals(0, replayer.getFailed());
+        Assert.assertTrue(replayer.summary().contains("non200=1"));
+        Assert.assertTrue(received.contains("/api/splitChanges?since=1 splitChanges"));
+        Assert.assertTrue(received.contains("/api/segmentChanges/employees segmentChanges"));
+    }
+
+    @Test
+    public void originalTimingWithSpeedup() throws Exception {
+        File log = write("access.log", false,
+                "10.0.0.1 - - [10/Oct/2000:13:55:36 +0000] \"GET /api/first HTTP/1.1\" 200 10",
+                "10.0.0.1 - - [10/Oct/2000:13:55:38 +0000] \"GET /api/second HTTP/1.1\" 200 10");
+
+        long start = System.nanoTime();
+        replay(new ReplayOptions(baseUrl, 0, 1, 10, 0, 5000, null, ImmutableList.of(log.getPath())));
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // Two seconds apart, ten times faster.
+        Assert.assertTrue(String.format("took %s ms", elapsedMillis), elapsedMillis >= 190);
+        Assert.assertEquals(2, received.size());
+    }
+
+    @Test
+    public void durationBoundsTheWaitsOfTheCurrentLine() throws Exception {
+        File log = write("access.log", false,
+                "10.0.0.1 - - [10/Oct/2000:13:55:36 +0000] \"GET /api/first HTTP/1.1\" 200 10",
+                "10.0.0.1 - - [10/Oct/2000:14:55:36 +0000] \"GET /api/second HTTP/1.1\" 200 10",
+                "10.0.0.1 - - [10/Oct/2000:14:55:36 +0000] \"GET /api/third HTTP/1.1\" 200 10");
+
+        long start = System.nanoTime();
+        // The second request is due in an hour with the original timing, and in 100 seconds at 0.01 QPS.
+        AccessLogReplayer paced = replay(new ReplayOptions(baseUrl, 0, 1, 1, 1, 5000, null,
+                ImmutableList.of(log.getPath())));
+        AccessLogReplayer limited = replay(new ReplayOptions(baseUrl, 0.01, 1, 0, 1, 5000, null,
+                ImmutableList.of(log.getPath())));
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        Assert.assertTrue(String.format("took %s ms", elapsedMillis), elapsedMillis < 4000);
+        Assert.assertEquals(1, paced.getSent());
+        Assert.assertEquals(1, limited.getSent());
+    }
+
+    @Test
+    public void responsesThatNeverArriveTimeOut() throws Exception {
+        CountDownLatch hang = new CountDownLatch(1);
+        server.createContext("/api/hang", exchange -> {
+            try {
+                hang.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        File log = write("access.log", false,
+                "10.0.0.1 - - [10/Oct/2000:13:55:36 +0000] \"GET /api/hang HTTP/1.1\" 200 10");
+
+        try {
+            AccessLogReplayer replayer = replay(new ReplayOptions(baseUrl, 0, 1, 0, 0, 200, null,
+                    ImmutableList.of(log.getPath())));
+            Assert.assertEquals(replayer.summary(), 1, replayer.getFailed());
+            Assert.assertEquals(0, replayer.getInFlight());
+        } finally {
+            hang.countDown();
+        }
+    }
+
+    @Test
+    public void stopsWaitingForTheLastResponses() throws Exception {
+        File log = write("access.log", false,
+                "10.0.0.1 - - [10/Oct/2000:13:55:36 +0000] \"GET /api/first HTTP/1.1\" 200 10",
+                "10.0.0.1 - - [10/Oct/2000:13:55:36 +0000] \"GET /api/second HTTP/1.1\" 200 10");
+        // Never calls back.
+        ReplayTransport transport = Mockito.mock(ReplayTransport.class);
+
+        AccessLogReplayer replayer = replay(new ReplayOptions(baseUrl, 0, 2, 0, 0, 100, null,
+                ImmutableList.of(log.getPath())), transport);
+        Assert.assertEquals(2, replayer.getSent());
+        Assert.assertEquals(2, replayer.getInFlight());
+        Assert.assertTrue(replayer.summary().contains("inFlight=2"));
+    }
+
+    @Test
+    public void options() {
+        ReplayOptions options = ReplayOptions.parse("--diffy-url", baseUrl, "--qps", "50.5", "--concurrency", "4",
+                "--speedup", "2", "--duration-seconds", "60", "--timeout-ms", "250", "a.log", "b.log.gz");
+
+        Assert.assertEquals(baseUrl, options.getDiffyUrl());
+        Assert.assertEquals(50.5, options.getQps(), 0);
+        Assert.assertEquals(4, options.getConcurrency());
+        Assert.assertEquals(2, options.getSpeedup(), 0);
+        Assert.assertEquals(60, options.getDurationSeconds());
+        Assert.assertEquals(250, options.getTimeoutMillis());
+        Assert.assertEquals(ImmutableList.of("a.log", "b.log.gz"), options.getFiles());
+        Assert.assertEquals(ImmutableList.of("-"), ReplayOptions.parse("--diffy-url", baseUrl).getFiles());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void diffyUrlIsRequired() {
+        ReplayOptions.parse("access.log");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownOptions() {
+        ReplayOptions.parse("--diffy-url", baseUrl, "--fast", "yes");
+    }
+
+    private AccessLogReplayer replay(ReplayOptions options) throws Exception {
+        DiffyIdParser idParser = new DiffyIdParser(Maps.newLinkedHashMap(
+                com.google.common.collect.ImmutableMap.of(Pattern.compile("^api/"), "",
+                        Pattern.compile("/[a-z]+$"), "")));
+        try (AsyncHttpTransport transport = AccessLogReplayer.createTransport(options)) {
+            return replay(options, transport);
+        }
+    }
+
+    private AccessLogReplayer replay(ReplayOptions options, ReplayTransport transport) throws Exception {
+        DiffyIdParser idParser = new DiffyIdParser(Maps.newLinkedHashMap(
+                com.google.common.collect.ImmutableMap.of(Pattern.compile("^api/"), "",
+                        Pattern.compile("/[a-z]+$"), "")));
+        AccessLogReplayer replayer = new AccessLogReplayer(options, idParser, transport);
+        replayer.run();
+        return replayer;
+    }
+
+    private File write(String name, boolean gzip, String... lines) throws IOException {
+        File file = folder.newFile(name);
+        try (Writer writer = new OutputStreamWriter(gzip
+                ? new GZIPOutputStream(new FileOutputStream(file))
+                : new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        return file;
+    }
+}
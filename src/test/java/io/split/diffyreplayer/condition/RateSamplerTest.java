@@ -0,0 +1,58 @@
+package io.split.diffyreplayer.condition;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RateSamplerTest {
+
+    private static final int SAMPLES = 200000;
+
+    @Test
+    public void zeroNeverSamples() {
+        for (SamplerType type : SamplerType.values()) {
+            Assert.assertEquals(0, count(type.create(0)));
+            Assert.assertEquals(0, count(type.create(-1)));
+        }
+    }
+
+    @Test
+    public void oneAlwaysSamples() {
+        for (SamplerType type : SamplerType.values()) {
+            Assert.assertEquals(SAMPLES, count(type.create(1)));
+            Assert.assertEquals(SAMPLES, count(type.create(2)));
+        }
+    }
+
+    @Test
+    public void samplesTheExpectedRate() {
+        for (SamplerType type : SamplerType.values()) {
+            for (double rate : new double[]{0.01, 0.2, 0.5}) {
+                double actual = count(type.create(rate)) / (double) SAMPLES;
+                Assert.assertEquals(type + " " + rate, rate, actual, 0.01);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nanIsNotAllowed() {
+        new FastSampler(Double.NaN);
+    }
+
+    @Test
+    public void percentageConditionDelegatesToTheSampler() {
+        PercentageCondition always = new PercentageCondition(() -> true) { };
+        PercentageCondition never = new PercentageCondition(() -> false) { };
+        Assert.assertTrue(always.replay());
+        Assert.assertFalse(never.replay());
+    }
+
+    private int count(Sampler sampler) {
+        int count = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            if (sampler.sample()) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
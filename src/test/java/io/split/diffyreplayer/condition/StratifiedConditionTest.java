@@ -0,0 +1,66 @@
+package io.split.diffyreplayer.condition;
+
+import io.split.diffyreplayer.health.FakeTicker;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StratifiedConditionTest {
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    @Test
+    public void firstRequestsOfEachIntervalAreReplayed() {
+        StratifiedCondition condition = new StratifiedCondition(3, 60000, 0, 16, ticker);
+
+        Assert.assertEquals(3, replayed(condition, "splitChanges", 100));
+        Assert.assertEquals(3, replayed(condition, "mySegments", 100));
+        ticker.advance(59999);
+        Assert.assertEquals(0, replayed(condition, "splitChanges", 100));
+        ticker.advance(1);
+        Assert.assertEquals(3, replayed(condition, "splitChanges", 100));
+    }
+
+    @Test
+    public void busyEndpointsAreCapped() {
+        StratifiedCondition condition = new StratifiedCondition(2, 60000, 10, 16, ticker);
+
+        // The first ones plus the bucket, that starts empty.
+        Assert.assertEquals(2, replayed(condition, "splitChanges", 100));
+        ticker.advance(1000);
+        Assert.assertEquals(10, replayed(condition, "splitChanges", 100));
+        ticker.advance(100);
+        Assert.assertEquals(1, replayed(condition, "splitChanges", 100));
+        // A rare endpoint still gets its share.
+        Assert.assertTrue(condition.replay("segmentChanges"));
+        Assert.assertTrue(condition.replay("segmentChanges"));
+        Assert.assertFalse(condition.replay("segmentChanges"));
+    }
+
+    @Test
+    public void requestsWithoutEndpointShareTheQuota() {
+        StratifiedCondition condition = new StratifiedCondition(1, 60000, 0, 16, ticker);
+
+        Assert.assertTrue(condition.replay());
+        Assert.assertFalse(condition.replay(null));
+    }
+
+    @Test
+    public void trackedEndpointsAreBounded() {
+        StratifiedCondition condition = new StratifiedCondition(1, 60000, 0, 32, ticker);
+
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(condition.replay("endpoint" + i));
+        }
+        Assert.assertTrue(condition.getTrackedEndpoints() <= 32);
+    }
+
+    private static int replayed(StratifiedCondition condition, String endpoint, int requests) {
+        int replayed = 0;
+        for (int i = 0; i < requests; i++) {
+            if (condition.replay(endpoint)) {
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+}
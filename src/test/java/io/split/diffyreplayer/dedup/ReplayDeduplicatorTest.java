@@ -0,0 +1,84 @@
+package io.split.diffyreplayer.dedup;
+
+import com.google.common.collect.ImmutableList;
+import io.split.diffyreplayer.ReplaySnapshot;
+import io.split.diffyreplayer.health.FakeTicker;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReplayDeduplicatorTest {
+
+    private final FakeTicker ticker = new FakeTicker();
+    private final ReplayDeduplicator deduplicator =
+            new ReplayDeduplicator(1000, 1024, ImmutableList.of("Authorization"), ticker);
+
+    @Test
+    public void identicalRequestsWithinTheWindow() {
+        Assert.assertFalse(deduplicator.isDuplicate(get("/api/segmentChanges/employees", "since=1")));
+        Assert.assertTrue(deduplicator.isDuplicate(get("/api/segmentChanges/employees", "since=1")));
+        ticker.advance(999);
+        Assert.assertTrue(deduplicator.isDuplicate(get("/api/segmentChanges/employees", "since=1")));
+        ticker.advance(1);
+        Assert.assertFalse(deduplicator.isDuplicate(get("/api/segmentChanges/employees", "since=1")));
+    }
+
+    @Test
+    public void equivalentRequestsHaveTheSameKey() {
+        long key = deduplicator.key(get("/api/segmentChanges/employees", "since=1&till=2"));
+
+        Assert.assertEquals(key, deduplicator.key(get("/api//segmentChanges/employees/", "since=1&till=2")));
+        Assert.assertEquals(key, deduplicator.key(get("/api/segmentChanges/employees", "till=2&since=1")));
+        Assert.assertEquals(key, deduplicator.key(ReplaySnapshot.of("GET", "/api/segmentChanges/employees",
+                "till=2&since=1", new String[]{"Accept"}, new String[]{"application/json"})));
+    }
+
+    @Test
+    public void differentRequestsHaveDifferentKeys() {
+        long key = deduplicator.key(get("/api/segmentChanges/employees", "since=1"));
+
+        Assert.assertNotEquals(key, deduplicator.key(get("/api/segmentChanges/employees", "since=2")));
+        Assert.assertNotEquals(key, deduplicator.key(get("/api/segmentChanges/employees", null)));
+        Assert.assertNotEquals(key, deduplicator.key(get("/api/segmentChanges/admins", "since=1")));
+        Assert.assertNotEquals(key, deduplicator.key(ReplaySnapshot.of("HEAD", "/api/segmentChanges/employees",
+                "since=1", new String[0], new String[0])));
+        Assert.assertNotEquals(key, deduplicator.key(ReplaySnapshot.of("GET", "/api/segmentChanges/employees",
+                "since=1", new String[]{"authorization"}, new String[]{"Bearer a"})));
+        Assert.assertNotEquals(
+                deduplicator.key(ReplaySnapshot.of("GET", "/api/segmentChanges/employees",
+                        "since=1", new String[]{"Authorization"}, new String[]{"Bearer a"})),
+                deduplicator.key(ReplaySnapshot.of("GET", "/api/segmentChanges/employees",
+                        "since=1", new String[]{"Authorization"}, new String[]{"Bearer b"})));
+    }
+
+    @Test
+    public void keysSharingASlotOnlyLetDuplicatesThrough() {
+        ReplayDeduplicator oneSlot = new ReplayDeduplicator(1000, 1, ImmutableList.of(), ticker);
+        ReplaySnapshot first = get("/api/splitChanges", null);
+        ReplaySnapshot second = get("/api/mySegments/key", null);
+
+        Assert.assertFalse(oneSlot.isDuplicate(first));
+        Assert.assertFalse(oneSlot.isDuplicate(second));
+        Assert.assertFalse(oneSlot.isDuplicate(first));
+        Assert.assertTrue(oneSlot.isDuplicate(first));
+    }
+
+    @Test
+    public void forgottenRequestsAreNotDuplicates() {
+        ReplayDeduplicator oneSlot = new ReplayDeduplicator(1000, 1, ImmutableList.of(), ticker);
+        ReplaySnapshot first = get("/api/splitChanges", null);
+        ReplaySnapshot second = get("/api/mySegments/key", null);
+
+        Assert.assertFalse(oneSlot.isDuplicate(first));
+        oneSlot.forget(first);
+        Assert.assertFalse(oneSlot.isDuplicate(first));
+
+        // A key that took the slot since is kept.
+        Assert.assertFalse(oneSlot.isDuplicate(second));
+        oneSlot.forget(first);
+        Assert.assertTrue(oneSlot.isDuplicate(second));
+    }
+
+    private static ReplaySnapshot get(String path, String query) {
+        return ReplaySnapshot.of("GET", path, query, new String[0], new String[0]);
+    }
+}
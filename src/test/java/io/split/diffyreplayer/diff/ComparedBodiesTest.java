@@ -0,0 +1,39 @@
+package io.split.diffyreplayer.diff;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+public class ComparedBodiesTest {
+
+    @Test
+    public void onlyBodiesThatDifferAreKept() throws IOException {
+        ComparedBodies compared = ComparedBodies.read(bodies("{\"a\":1}", "{\"a\":1}", "{\"a\":2}"), 1024);
+
+        Assert.assertTrue(compared.same(0, 1));
+        Assert.assertFalse(compared.same(0, 2));
+        Assert.assertEquals("{\"a\":1}", compared.getText(0));
+        Assert.assertEquals("{\"a\":2}", compared.getText(2));
+    }
+
+    @Test
+    public void equalBodiesAreNotKept() throws IOException {
+        ComparedBodies compared = ComparedBodies.read(bodies("{\"a\":1}", "{\"a\":1}", "{\"a\":1}"), 1024);
+
+        Assert.assertTrue(compared.same(0, 2));
+        Assert.assertNull(compared.getText(0));
+        Assert.assertNull(compared.getText(2));
+    }
+
+    private static InputStream[] bodies(String... texts) {
+        InputStream[] bodies = new InputStream[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            bodies[i] = new ByteArrayInputStream(texts[i].getBytes(StandardCharsets.UTF_8));
+        }
+        return bodies;
+    }
+}
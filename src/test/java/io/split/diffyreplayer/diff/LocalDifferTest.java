@@ -0,0 +1,195 @@
+package io.split.diffyreplayer.diff;
+
+import com.google.common.base.Strings;
+import com.sun.net.httpserver.HttpServer;
+import io.split.diffyreplayer.transport.PooledHttpTransport;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class LocalDifferTest {
+
+    private final Map<String, String> primaryBodies = new HashMap<>();
+    private final Map<String, String> secondaryBodies = new HashMap<>();
+    private final Map<String, String> candidateBodies = new HashMap<>();
+    private HttpServer primary;
+    private HttpServer secondary;
+    private HttpServer candidate;
+    private PooledHttpTransport transport;
+    private DiffAggregator aggregator;
+    private LocalDiffer differ;
+
+    @Before
+    public void setUp() throws IOException {
+        primary = server(primaryBodies);
+        secondary = server(secondaryBodies);
+        candidate = server(candidateBodies);
+        transport = new PooledHttpTransport(3, 1, 60000);
+        aggregator = new DiffAggregator(10, 10, 2);
+        differ = new LocalDiffer(aggregator, 1024, 20);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        transport.close();
+        primary.stop(0);
+        secondary.stop(0);
+        candidate.stop(0);
+    }
+
+    @Test
+    public void identicalResponses() throws IOException {
+        respond("/same", "{\"a\":1}", "{\"a\":1}", "{\"a\":1}");
+
+        Assert.assertEquals(200, compare("/same").getStatusCode());
+        ResourceDiffs.Snapshot diffs = aggregator.snapshot().get("/same");
+        Assert.assertEquals(1, diffs.getCompared());
+        Assert.assertEquals(0, diffs.getDifferent());
+        Assert.assertTrue(diffs.getSamples().isEmpty());
+    }
+
+    @Test
+    public void fieldsThatChangeBetweenPrimaryAndSecondaryAreNoise() throws IOException {
+        respond("/splits",
+                "{\"now\":1,\"splits\":[{\"name\":\"a\",\"on\":true},{\"name\":\"b\",\"on\":true}]}",
+                "{\"now\":2,\"splits\":[{\"name\":\"a\",\"on\":true},{\"name\":\"b\",\"on\":true}]}",
+                "{\"splits\":[{\"on\":true,\"name\":\"a\"},{\"name\":\"b\",\"on\":false}],\"now\":3}");
+
+        compare("/splits");
+        ResourceDiffs.Snapshot diffs = aggregator.snapshot().get("/splits");
+        Assert.assertEquals(1, diffs.getDifferent());
+        Assert.assertEquals(Collections.singletonMap("$.splits[].on", 1L), diffs.getDifferencesByPath());
+        Assert.assertEquals(Collections.singletonMap("$.now", 1L), diffs.getNoiseByPath());
+        Difference difference = diffs.getSamples().get(0).getDifferences().get(0);
+        Assert.assertEquals("true", difference.getPrimary());
+        Assert.assertEquals("false", difference.getCandidate());
+        Assert.assertEquals("/splits", diffs.getSamples().get(0).getRequest());
+    }
+
+    @Test
+    public void keyOrderAndNumberFormatAreNotDifferences() throws IOException {
+        respond("/order", "{\"a\":1.0,\"b\":[1,2]}", "{\"a\":1.0,\"b\":[1,2]}", "{ \"b\": [1, 2], \"a\": 1 }");
+
+        compare("/order");
+        Assert.assertEquals(0, aggregator.snapshot().get("/order").getDifferent());
+    }
+
+    @Test
+    public void statusAndBodiesThatAreNotJson() throws IOException {
+        respond("/text", "hello", "hello", "bye");
+        candidate.createContext("/missing", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        respond("/missing", "", "", null);
+
+        compare("/text");
+        Assert.assertEquals(404, compare("/missing").getStatusCode());
+        Map<String, ResourceDiffs.Snapshot> report = aggregator.snapshot();
+        Assert.assertEquals(Collections.singletonMap(Difference.BODY, 1L),
+                report.get("/text").getDifferencesByPath());
+        Assert.assertEquals(Long.valueOf(1), report.get("/missing").getDifferencesByPath().get(Difference.STATUS));
+    }
+
+    @Test
+    public void bodiesTooBigAreComparedByTheirHash() throws IOException {
+        String big = "[\"" + Strings.repeat("x", 20000) + "\"]";
+        respond("/big", big, big, big.replace("[\"x", "[\"y"));
+
+        compare("/big");
+        ResourceDiffs.Snapshot diffs = aggregator.snapshot().get("/big");
+        Assert.assertEquals(Collections.singletonMap(Difference.BODY, 1L), diffs.getDifferencesByPath());
+
+        respond("/bigSame", big, big, big);
+        compare("/bigSame");
+        Assert.assertEquals(0, aggregator.snapshot().get("/bigSame").getDifferent());
+    }
+
+    @Test
+    public void deeplyNestedBodiesAreComparedByTheirHash() throws IOException {
+        String deep = Strings.repeat("[", 100000) + "1" + Strings.repeat("]", 100000);
+        respond("/deep", deep, deep, deep.replace("1", "2"));
+        // Big enough to keep the bodies, so they are parsed.
+        differ = new LocalDiffer(aggregator, 1 << 20, 20);
+
+        compare("/deep");
+        ResourceDiffs.Snapshot diffs = aggregator.snapshot().get("/deep");
+        Assert.assertEquals(Collections.singletonMap(Difference.BODY, 1L), diffs.getDifferencesByPath());
+    }
+
+    @Test
+    public void samplesAreBounded() throws IOException {
+        respond("/changes", "1", "1", "2");
+
+        for (int i = 0; i < 5; i++) {
+            compare("/changes");
+        }
+        ResourceDiffs.Snapshot diffs = aggregator.snapshot().get("/changes");
+        Assert.assertEquals(5, diffs.getDifferent());
+        Assert.assertEquals(2, diffs.getSamples().size());
+    }
+
+    @Test
+    public void onlyTheCandidateIsTimed() throws IOException {
+        respond("/slow", "1", "1", "1");
+        primary.stop(0);
+        primary = server(primaryBodies, 300);
+
+        LocalDiffer.Result result = differ.compare(transport, "/slow", "/slow", new HttpGet(url(primary, "/slow")),
+                new HttpGet(url(secondary, "/slow")), new HttpGet(url(candidate, "/slow")));
+        Assert.assertEquals(200, result.getStatusLine().getStatusCode());
+        Assert.assertTrue(result.getCandidateNanos() < TimeUnit.MILLISECONDS.toNanos(300));
+    }
+
+    private org.apache.http.StatusLine compare(String path) throws IOException {
+        return differ.compare(transport, path, path, new HttpGet(url(primary, path)),
+                new HttpGet(url(secondary, path)), new HttpGet(url(candidate, path))).getStatusLine();
+    }
+
+    private void respond(String path, String primaryBody, String secondaryBody, String candidateBody) {
+        primaryBodies.put(path, primaryBody);
+        secondaryBodies.put(path, secondaryBody);
+        if (candidateBody != null) {
+            candidateBodies.put(path, candidateBody);
+        }
+    }
+
+    private static String url(HttpServer server, String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private static HttpServer server(Map<String, String> bodies) throws IOException {
+        return server(bodies, 0);
+    }
+
+    private static HttpServer server(Map<String, String> bodies, long delayMillis) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = bodies.get(exchange.getRequestURI().getPath()).getBytes(StandardCharsets.UTF_8);
+            // Without keep alive, the client never reuses a connection the server is closing.
+            exchange.getResponseHeaders().add("Connection", "close");
+            exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+}
@@ -0,0 +1,134 @@
+package io.split.diffyreplayer.executor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BoundedReplayExecutorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final AtomicInteger executed = new AtomicInteger();
+    private BoundedReplayExecutor executor;
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void dropNewestDiscardsTheNewReplay() throws InterruptedException {
+        executor = new BoundedReplayExecutor(1, 1, ShedPolicy.DROP_NEWEST, 5000, new ReplayDropCounter());
+        blockTheOnlyThread();
+        executor.execute(executed::incrementAndGet);
+        executor.execute(executed::incrementAndGet);
+        executor.execute(executed::incrementAndGet);
+
+        Assert.assertEquals(1, executor.getQueue().size());
+        Assert.assertEquals(2, executor.getDropCounter().get(DropReason.QUEUE_FULL));
+        Assert.assertEquals(2, executor.getDropCounter().total());
+        drain();
+        Assert.assertEquals(1, executed.get());
+    }
+
+    @Test
+    public void droppedReplaysAreNotified() throws InterruptedException {
+        executor = new BoundedReplayExecutor(1, 1, ShedPolicy.DROP_OLDEST, 5000, new ReplayDropCounter());
+        blockTheOnlyThread();
+        List<DropReason> dropped = new ArrayList<>();
+        DroppableReplay oldest = new DroppableReplay() {
+            @Override
+            public void run() {
+                executed.incrementAndGet();
+            }
+
+            @Override
+            public void dropped(DropReason reason) {
+                dropped.add(reason);
+            }
+        };
+        executor.execute(oldest);
+        executor.execute(executed::incrementAndGet);
+
+        Assert.assertEquals(Collections.singletonList(DropReason.EVICTED_OLDEST), dropped);
+        drain();
+        Assert.assertEquals(1, executed.get());
+    }
+
+    @Test
+    public void dropOldestEvictsTheHeadOfTheQueue() throws InterruptedException {
+        executor = new BoundedReplayExecutor(1, 2, ShedPolicy.DROP_OLDEST, 5000, new ReplayDropCounter());
+        blockTheOnlyThread();
+        executor.execute(() -> executed.addAndGet(1));
+        executor.execute(() -> executed.addAndGet(10));
+        executor.execute(() -> executed.addAndGet(100));
+
+        Assert.assertEquals(2, executor.getQueue().size());
+        Assert.assertEquals(1, executor.getDropCounter().get(DropReason.EVICTED_OLDEST));
+        Assert.assertEquals(0, executor.getDropCounter().get(DropReason.QUEUE_FULL));
+        drain();
+        Assert.assertEquals(110, executed.get());
+    }
+
+    @Test
+    public void dropIfOlderThanDiscardsExpiredReplays() throws InterruptedException {
+        executor = new BoundedReplayExecutor(1, 1, ShedPolicy.DROP_IF_OLDER_THAN, 50, new ReplayDropCounter());
+        blockTheOnlyThread();
+        executor.execute(() -> executed.addAndGet(1));
+        // Not expired yet, so the new one is discarded.
+        executor.execute(() -> executed.addAndGet(10));
+        Assert.assertEquals(1, executor.getDropCounter().get(DropReason.QUEUE_FULL));
+
+        Thread.sleep(100);
+        // The queued one expired, so it makes room for the new one.
+        executor.execute(() -> executed.addAndGet(100));
+        Assert.assertEquals(1, executor.getDropCounter().get(DropReason.EXPIRED_IN_QUEUE));
+        drain();
+        Assert.assertEquals(100, executed.get());
+    }
+
+    @Test
+    public void dropIfOlderThanDiscardsWhenTakenFromTheQueue() throws InterruptedException {
+        executor = new BoundedReplayExecutor(1, 10, ShedPolicy.DROP_IF_OLDER_THAN, 50, new ReplayDropCounter());
+        blockTheOnlyThread();
+        executor.execute(executed::incrementAndGet);
+        Thread.sleep(100);
+        drain();
+        Assert.assertEquals(0, executed.get());
+        Assert.assertEquals(1, executor.getDropCounter().get(DropReason.EXPIRED_IN_QUEUE));
+    }
+
+    @Test
+    public void replaysAfterShutdownAreCounted() {
+        executor = new BoundedReplayExecutor(1, 1, ShedPolicy.DROP_NEWEST, 5000, new ReplayDropCounter());
+        executor.shutdown();
+        executor.execute(executed::incrementAndGet);
+        Assert.assertEquals(1, executor.getDropCounter().get(DropReason.SHUTDOWN));
+    }
+
+    private void blockTheOnlyThread() throws InterruptedException {
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    private void drain() throws InterruptedException {
+        release.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,233 @@
+package io.split.diffyreplayer.executor;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class FairReplayExecutorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+    private FairReplayExecutor executor;
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void groupsAreServedByWeight() throws InterruptedException {
+        executor = new FairReplayExecutor(1, 100, ShedPolicy.DROP_NEWEST, 5000, 10,
+                ImmutableMap.of("a", 3), 1, ImmutableMap.of(), new ReplayDropCounter());
+        blockTheOnlyThread();
+        CountDownLatch done = new CountDownLatch(9);
+        for (int i = 0; i < 6; i++) {
+            executor.execute("a", record("a", done));
+        }
+        for (int i = 0; i < 3; i++) {
+            executor.execute("b", record("b", done));
+        }
+        Assert.assertEquals(9, executor.getQueueDepth());
+        Assert.assertEquals(6, (int) executor.getQueueDepthByGroup().get("a"));
+
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("aaabaaabb", String.join("", executed));
+    }
+
+    @Test
+    public void bulkheadCapsTheReplaysOfAGroup() throws InterruptedException {
+        executor = new FairReplayExecutor(3, 100, ShedPolicy.DROP_NEWEST, 5000, 10,
+                ImmutableMap.of(), 2, ImmutableMap.of("slow", 1), new ReplayDropCounter());
+        CountDownLatch slowStarted = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        executor.execute("slow", () -> {
+            slowStarted.countDown();
+            await(release);
+            record("slow", done).run();
+        });
+        Assert.assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+        executor.execute("slow", record("slow", done));
+        executor.execute("fast", record("fast", done));
+
+        // The fast one runs while the second slow one waits for the first, even with a free thread.
+        Thread.sleep(100);
+        Assert.assertEquals(Collections.singletonList("fast"), executed);
+        Assert.assertEquals(1, executor.getRunning("slow"));
+        Assert.assertEquals(1, (int) executor.getQueueDepthByGroup().get("slow"));
+
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, executed.size());
+    }
+
+    @Test
+    public void fullQueueShedsFromTheLongestGroup() throws InterruptedException {
+        executor = new FairReplayExecutor(1, 3, ShedPolicy.DROP_NEWEST, 5000, 10,
+                ImmutableMap.of(), 1, ImmutableMap.of(), new ReplayDropCounter());
+        blockTheOnlyThread();
+        CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            executor.execute("chatty", record("chatty", done));
+        }
+        executor.execute("quiet", record("quiet", done));
+        Assert.assertEquals(1, executor.getDropCounter().get(DropReason.FAIR_SHARE));
+
+        // Once the chatty group is not the longest, it sheds its own replays.
+        executor.execute("chatty", record("chatty", done));
+        Assert.assertEquals(1, executor.getDropCounter().get(DropReason.QUEUE_FULL));
+
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, Collections.frequency(executed, "chatty"));
+        Assert.assertEquals(1, Collections.frequency(executed, "quiet"));
+    }
+
+    @Test
+    public void groupsPastTheMaxShareAQueue() throws InterruptedException {
+        executor = new FairReplayExecutor(1, 100, ShedPolicy.DROP_NEWEST, 5000, 2,
+                ImmutableMap.of(), 1, ImmutableMap.of(), new ReplayDropCounter());
+        blockTheOnlyThread();
+        CountDownLatch done = new CountDownLatch(3);
+        executor.execute("a", record("a", done));
+        executor.execute("b", record("b", done));
+        executor.execute("c", record("c", done));
+
+        Assert.assertEquals(ImmutableMap.of(FairReplayExecutor.DEFAULT_GROUP, 0, "a", 1,
+                FairReplayExecutor.OTHER_GROUP, 2), executor.getQueueDepthByGroup());
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void expiredReplaysAreDiscardedWhenTakenFromTheQueue() throws InterruptedException {
+        executor = new FairReplayExecutor(1, 100, ShedPolicy.DROP_IF_OLDER_THAN, 50, 10,
+                ImmutableMap.of(), 1, ImmutableMap.of(), new ReplayDropCounter());
+        blockTheOnlyThread();
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute("a", record("a", done));
+        Thread.sleep(100);
+        executor.execute("b", record("b", done));
+
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Collections.singletonList("b"), executed);
+        Assert.assertEquals(1, executor.getDropCounter().get(DropReason.EXPIRED_IN_QUEUE));
+    }
+
+    @Test
+    public void threadsSurviveFailedReplays() throws InterruptedException {
+        executor = new FairReplayExecutor(1, 100, ShedPolicy.DROP_NEWEST, 5000, 10,
+                ImmutableMap.of(), 1, ImmutableMap.of(), new ReplayDropCounter());
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute("a", () -> {
+            throw new StackOverflowError();
+        });
+        executor.execute("a", record("a", done));
+
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void replaysAfterShutdownAreCounted() {
+        executor = new FairReplayExecutor(1, 1, ShedPolicy.DROP_NEWEST, 5000, 10,
+                ImmutableMap.of(), 1, ImmutableMap.of(), new ReplayDropCounter());
+        executor.shutdown();
+        executor.execute("a", () -> executed.add("a"));
+        Assert.assertEquals(1, executor.getDropCounter().get(DropReason.SHUTDOWN));
+    }
+
+    @Test
+    public void queuedReplaysAreDiscardedOnShutdown() throws InterruptedException {
+        executor = new FairReplayExecutor(1, 100, ShedPolicy.DROP_NEWEST, 5000, 10,
+                ImmutableMap.of(), 1, ImmutableMap.of(), new ReplayDropCounter());
+        blockTheOnlyThread();
+        List<DropReason> dropped = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 3; i++) {
+            executor.execute("a", droppable(dropped));
+        }
+
+        executor.shutdown();
+        Assert.assertEquals(0, executor.getQueueDepth());
+        Assert.assertEquals(3, executor.getDropCounter().get(DropReason.SHUTDOWN));
+        Assert.assertEquals(Collections.nCopies(3, DropReason.SHUTDOWN), dropped);
+        release.countDown();
+        Thread.sleep(100);
+        Assert.assertTrue(executed.isEmpty());
+    }
+
+    @Test
+    public void discardedReplaysAreNotifiedOutsideOfTheLock() throws InterruptedException {
+        executor = new FairReplayExecutor(1, 1, ShedPolicy.DROP_NEWEST, 5000, 10,
+                ImmutableMap.of(), 1, ImmutableMap.of(), new ReplayDropCounter());
+        blockTheOnlyThread();
+        executor.execute("a", () -> executed.add("a"));
+        List<Integer> depths = Collections.synchronizedList(new ArrayList<>());
+
+        executor.execute("a", new DroppableReplay() {
+            @Override
+            public void run() {
+                executed.add("b");
+            }
+
+            @Override
+            public void dropped(DropReason reason) {
+                // Another thread, the lock is reentrant.
+                Thread reader = new Thread(() -> depths.add(executor.getQueueDepth()));
+                reader.start();
+                try {
+                    reader.join(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        Assert.assertEquals(Collections.singletonList(1), depths);
+    }
+
+    private DroppableReplay droppable(List<DropReason> dropped) {
+        return new DroppableReplay() {
+            @Override
+            public void run() {
+                executed.add("dropped");
+            }
+
+            @Override
+            public void dropped(DropReason reason) {
+                dropped.add(reason);
+            }
+        };
+    }
+
+    private Runnable record(String group, CountDownLatch done) {
+        return () -> {
+            executed.add(group);
+            done.countDown();
+        };
+    }
+
+    private void blockTheOnlyThread() throws InterruptedException {
+        executor.execute(() -> {
+            started.countDown();
+            await(release);
+        });
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
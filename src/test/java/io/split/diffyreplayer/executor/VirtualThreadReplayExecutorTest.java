@@ -0,0 +1,97 @@
+package io.split.diffyreplayer.executor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs with platform threads, so it also runs on Java 8, the executor does not care which threads it gets.
+ */
+public class VirtualThreadReplayExecutorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final AtomicInteger executed = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        release.countDown();
+    }
+
+    @Test
+    public void concurrencyIsCappedByTheSemaphore() throws InterruptedException {
+        VirtualThreadReplayExecutor executor = new VirtualThreadReplayExecutor(Thread::new, 2, 10,
+                ShedPolicy.DROP_NEWEST, 5000, new ReplayDropCounter());
+        for (int i = 0; i < 6; i++) {
+            executor.execute(this::blockingReplay);
+        }
+        waitFor(() -> executor.getQueueDepth() == 4);
+        Assert.assertEquals(2, running.get());
+
+        release.countDown();
+        waitFor(() -> executed.get() == 6);
+        Assert.assertEquals(2, maxRunning.get());
+        Assert.assertEquals(0, executor.getDropCounter().total());
+    }
+
+    @Test
+    public void replaysOverTheCapacityAreDiscarded() throws InterruptedException {
+        VirtualThreadReplayExecutor executor = new VirtualThreadReplayExecutor(Thread::new, 1, 1,
+                ShedPolicy.DROP_OLDEST, 5000, new ReplayDropCounter());
+        for (int i = 0; i < 5; i++) {
+            executor.execute(this::blockingReplay);
+        }
+        Assert.assertEquals(3, executor.getDropCounter().get(DropReason.QUEUE_FULL));
+
+        release.countDown();
+        waitFor(() -> executed.get() == 2);
+    }
+
+    @Test
+    public void expiredReplaysAreDiscarded() throws InterruptedException {
+        VirtualThreadReplayExecutor executor = new VirtualThreadReplayExecutor(Thread::new, 1, 10,
+                ShedPolicy.DROP_IF_OLDER_THAN, 50, new ReplayDropCounter());
+        executor.execute(this::blockingReplay);
+        executor.execute(this::blockingReplay);
+        Thread.sleep(100);
+
+        release.countDown();
+        waitFor(() -> executor.getDropCounter().get(DropReason.EXPIRED_IN_QUEUE) == 1);
+        Assert.assertEquals(1, executed.get());
+    }
+
+    @Test
+    public void replaysAfterShutdownAreDiscarded() {
+        VirtualThreadReplayExecutor executor = new VirtualThreadReplayExecutor(Thread::new, 1, 1,
+                ShedPolicy.DROP_NEWEST, 5000, new ReplayDropCounter());
+        executor.shutdown();
+        executor.execute(executed::incrementAndGet);
+        Assert.assertEquals(1, executor.getDropCounter().get(DropReason.SHUTDOWN));
+    }
+
+    private void blockingReplay() {
+        int now = running.incrementAndGet();
+        maxRunning.accumulateAndGet(now, Math::max);
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        running.decrementAndGet();
+        executed.incrementAndGet();
+    }
+
+    private void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.split.diffyreplayer.headers;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.split.diffyreplayer.ReplaySnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class HeaderPolicyTest {
+
+    private static final ReplaySnapshot SNAPSHOT = ReplaySnapshot.of("GET", "/api/splitChanges", null,
+            new String[]{"Host", "Connection", "Accept", "authorization", "Cookie", "X-Trace", "X-Trace",
+                    "Canonical-Resource", "transfer-encoding"},
+            new String[]{"sdk.split.io", "keep-alive", "application/json", "Bearer user", "session=abc", "1", "2",
+                    "fake", "chunked"});
+
+    @Test
+    public void hopByHopHeadersAreStripped() {
+        Assert.assertEquals(ImmutableList.of("Accept: application/json", "authorization: Bearer user",
+                "Cookie: session=abc", "X-Trace: 1", "X-Trace: 2"), apply(HeaderPolicy.DEFAULT));
+    }
+
+    @Test
+    public void denyList() {
+        HeaderPolicy policy = new HeaderPolicy(ImmutableList.of(), ImmutableList.of("cookie", "X-TRACE"),
+                ImmutableMap.of(), 100, 1000);
+
+        Assert.assertEquals(ImmutableList.of("Accept: application/json", "authorization: Bearer user"),
+                apply(policy));
+    }
+
+    @Test
+    public void allowListAndRewrites() {
+        HeaderPolicy policy = new HeaderPolicy(ImmutableList.of("Accept", "Host"), ImmutableList.of(),
+                ImmutableMap.of("Authorization", "Bearer test"), 100, 1000);
+
+        // Host is never sent, even if allowed.
+        Assert.assertEquals(ImmutableList.of("Accept: application/json", "authorization: Bearer test"),
+                apply(policy));
+    }
+
+    @Test
+    public void caps() {
+        HeaderPolicy perHeader = new HeaderPolicy(ImmutableList.of(), ImmutableList.of(), ImmutableMap.of(), 11, 1000);
+        Assert.assertEquals(ImmutableList.of("authorization: Bearer user", "Cookie: session=abc", "X-Trace: 1",
+                "X-Trace: 2"), apply(perHeader));
+        Assert.assertEquals(1, perHeader.getCappedHeaders());
+
+        HeaderPolicy total = new HeaderPolicy(ImmutableList.of(), ImmutableList.of(), ImmutableMap.of(), 100, 40);
+        Assert.assertEquals(ImmutableList.of("Accept: application/json"), apply(total));
+        // Canonical-Resource and transfer-encoding come after the cap, but they are never sent anyway.
+        Assert.assertEquals(4, total.getCappedHeaders());
+    }
+
+    @Test
+    public void headersListedByConnectionAreStripped() {
+        ReplaySnapshot snapshot = ReplaySnapshot.of("GET", "/api/splitChanges", null,
+                new String[]{"Connection", "X-Hop", "Accept", "x-other-hop", "X-Hop-Not"},
+                new String[]{"keep-alive, X-Hop ,X-OTHER-HOP", "1", "application/json", "2", "3"});
+        List<String> sent = new ArrayList<>();
+
+        HeaderPolicy.DEFAULT.apply(snapshot, (name, value) -> sent.add(name + ": " + value));
+        Assert.assertEquals(ImmutableList.of("Accept: application/json", "X-Hop-Not: 3"), sent);
+    }
+
+    private static List<String> apply(HeaderPolicy policy) {
+        List<String> sent = new ArrayList<>();
+        policy.apply(SNAPSHOT, (name, value) -> sent.add(name + ": " + value));
+        return sent;
+    }
+}
@@ -0,0 +1,89 @@
+package io.split.diffyreplayer.health;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class AimdConcurrencyLimitTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private FakeTicker ticker;
+    private AimdConcurrencyLimit limit;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        limit = new AimdConcurrencyLimit(1, 8, 0.5, 100, ticker);
+    }
+
+    @Test
+    public void acquireUpToTheLimit() {
+        for (int i = 0; i < 8; i++) {
+            Assert.assertTrue(limit.tryAcquire());
+        }
+        Assert.assertFalse(limit.tryAcquire());
+
+        limit.release();
+        Assert.assertEquals(7, limit.getInFlight());
+        Assert.assertTrue(limit.tryAcquire());
+    }
+
+    @Test
+    public void multiplicativeDecreaseOncePerLatencyTarget() {
+        acquire(3);
+        limit.onOverload();
+        Assert.assertEquals(4, limit.getLimit());
+        // Failures of the same round only count once.
+        limit.onOverload();
+        Assert.assertEquals(4, limit.getLimit());
+
+        ticker.advance(100);
+        limit.onSuccess(SLOW);
+        Assert.assertEquals(2, limit.getLimit());
+        Assert.assertEquals(0, limit.getInFlight());
+    }
+
+    @Test
+    public void neverBelowTheMinimum() {
+        for (int i = 0; i < 10; i++) {
+            acquire(1);
+            limit.onOverload();
+            ticker.advance(100);
+        }
+        Assert.assertEquals(1, limit.getLimit());
+        Assert.assertTrue(limit.tryAcquire());
+    }
+
+    @Test
+    public void additiveIncrease() {
+        acquire(1);
+        limit.onOverload();
+        Assert.assertEquals(4, limit.getLimit());
+
+        // About one more every limit successes.
+        acquire(4);
+        for (int i = 0; i < 4; i++) {
+            limit.onSuccess(FAST);
+        }
+        Assert.assertEquals(4, limit.getLimit());
+        acquire(1);
+        limit.onSuccess(FAST);
+        Assert.assertEquals(5, limit.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            acquire(1);
+            limit.onSuccess(FAST);
+        }
+        Assert.assertEquals(8, limit.getLimit());
+    }
+
+    private void acquire(int times) {
+        for (int i = 0; i < times; i++) {
+            Assert.assertTrue(limit.tryAcquire());
+        }
+    }
+}
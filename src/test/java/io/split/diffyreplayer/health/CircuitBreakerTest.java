@@ -0,0 +1,101 @@
+package io.split.diffyreplayer.health;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private FakeTicker ticker;
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        breaker = new CircuitBreaker(3, 0.5, 10, 1000, 500, 2, ticker);
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+        Assert.assertEquals(CircuitState.CLOSED, breaker.getState());
+
+        breaker.onFailure();
+        Assert.assertEquals(CircuitState.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.allowsRequests());
+        Assert.assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void opensWithHighErrorRate() {
+        for (int i = 0; i < 5; i++) {
+            breaker.onSuccess();
+            breaker.onFailure();
+        }
+        Assert.assertEquals(CircuitState.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void errorRateIsPerWindow() {
+        for (int i = 0; i < 4; i++) {
+            breaker.onSuccess();
+            breaker.onFailure();
+        }
+        ticker.advance(1000);
+        breaker.onSuccess();
+        breaker.onFailure();
+        Assert.assertEquals(CircuitState.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void closesAfterSuccessfulProbes() {
+        open();
+        ticker.advance(500);
+        Assert.assertTrue(breaker.allowsRequests());
+
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertEquals(CircuitState.HALF_OPEN, breaker.getState());
+        // One probe at a time.
+        Assert.assertFalse(breaker.tryAcquire());
+        breaker.onSuccess();
+        Assert.assertEquals(CircuitState.HALF_OPEN, breaker.getState());
+
+        Assert.assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        Assert.assertEquals(CircuitState.CLOSED, breaker.getState());
+        Assert.assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void failedProbeOpensAgain() {
+        open();
+        ticker.advance(500);
+
+        Assert.assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        Assert.assertEquals(CircuitState.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void lostProbeDoesNotStallTheCircuit() {
+        open();
+        ticker.advance(500);
+
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertFalse(breaker.tryAcquire());
+        ticker.advance(500);
+        Assert.assertTrue(breaker.tryAcquire());
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure();
+        }
+        Assert.assertEquals(CircuitState.OPEN, breaker.getState());
+    }
+}
@@ -0,0 +1,21 @@
+package io.split.diffyreplayer.health;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Used by Unit Tests, time only moves when told to.
+ */
+public class FakeTicker extends Ticker {
+    private long nanos;
+
+    @Override
+    public long read() {
+        return nanos;
+    }
+
+    public void advance(long millis) {
+        nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,69 @@
+package io.split.diffyreplayer.health;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JvmPressureThrottleTest {
+
+    private final JvmPressureThrottle throttle = new JvmPressureThrottle(
+            new PressureThreshold(0.05, 0.25),
+            new PressureThreshold(0.75, 0.95),
+            new PressureThreshold(0.8, 0.95),
+            0.25);
+
+    @Test
+    public void noPressure() {
+        throttle.update(0.01, 0.5, 0.3);
+
+        Assert.assertEquals(1, throttle.getFactor(), 0);
+        Assert.assertTrue(throttle.tryPass());
+    }
+
+    @Test
+    public void theHighestPressureWins() {
+        throttle.update(0.15, 0.80, 0.3);
+        Assert.assertEquals(0.5, throttle.getFactor(), 1e-9);
+
+        throttle.update(0.01, 0.5, 0.95);
+        Assert.assertEquals(0, throttle.getFactor(), 0);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertFalse(throttle.tryPass());
+        }
+    }
+
+    @Test
+    public void dropsAtOnceAndRecoversGradually() {
+        throttle.update(0.5, 0.5, 0.3);
+        Assert.assertEquals(0, throttle.getFactor(), 0);
+
+        throttle.update(0.01, 0.5, 0.3);
+        Assert.assertEquals(0.25, throttle.getFactor(), 1e-9);
+        throttle.update(0.01, 0.5, 0.3);
+        Assert.assertEquals(0.5, throttle.getFactor(), 1e-9);
+        // Pressure is back, the factor drops right away.
+        throttle.update(0.01, 0.91, 0.3);
+        Assert.assertEquals(0.2, throttle.getFactor(), 1e-9);
+        throttle.update(0.01, 0.5, 0.3);
+        throttle.update(0.01, 0.5, 0.3);
+        throttle.update(0.01, 0.5, 0.3);
+        throttle.update(0.01, 0.5, 0.3);
+        Assert.assertEquals(1, throttle.getFactor(), 0);
+    }
+
+    @Test
+    public void watchesThePlatformMXBeans() throws Exception {
+        throttle.start(10);
+        try {
+            System.gc();
+            Thread.sleep(100);
+            Assert.assertTrue(throttle.getFactor() >= 0 && throttle.getFactor() <= 1);
+        } finally {
+            throttle.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void highMustBeOverLow() {
+        new PressureThreshold(0.5, 0.5);
+    }
+}
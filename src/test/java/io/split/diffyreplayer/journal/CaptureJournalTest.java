@@ -0,0 +1,120 @@
+package io.split.diffyreplayer.journal;
+
+import io.split.diffyreplayer.ReplaySnapshot;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CaptureJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void requestsAreReadBack() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        ReplaySnapshot first = ReplaySnapshot.of("GET", "/api/splitChanges", "since=1",
+                new String[]{"Accept", "Accept", "Authorization"},
+                new String[]{"application/json", "text/plain", "Bearer \u00f1and\u00fa \ud83d\ude00"});
+        ReplaySnapshot second = ReplaySnapshot.of("GET", "/api/segmentChanges/employees", null,
+                new String[]{"Authorization"}, new String[]{"Bearer 1234"}, "segmentChanges/{name}");
+
+        try (CaptureJournal journal = new CaptureJournal(directory, 4096, 4)) {
+            Assert.assertTrue(journal.append(1000L, first));
+            Assert.assertTrue(journal.append(2000L, second));
+            Assert.assertEquals(2, journal.getWritten());
+        }
+
+        try (JournalReader reader = new JournalReader(directory)) {
+            JournalRecord record = reader.next();
+            Assert.assertEquals(1000L, record.getTimestamp());
+            Assert.assertEquals("GET", record.getMethod());
+            Assert.assertEquals("/api/splitChanges", record.getRawPath());
+            Assert.assertEquals("since=1", record.getQuery());
+            Assert.assertNull(record.getCanonicalResource());
+            Assert.assertEquals(3, record.getHeaderCount());
+            Assert.assertEquals("Accept", record.getHeaderName(1));
+            Assert.assertEquals("text/plain", record.getHeaderValue(1));
+            Assert.assertEquals("Bearer \u00f1and\u00fa \ud83d\ude00", record.getHeaderValue(2));
+
+            ReplaySnapshot snapshot = reader.next().toSnapshot();
+            Assert.assertEquals("/api/segmentChanges/employees", snapshot.getPathWithQueryParams());
+            Assert.assertEquals("segmentChanges/{name}", snapshot.getCanonicalResource());
+            Assert.assertEquals("Authorization", snapshot.getHeaderName(0));
+            Assert.assertEquals("Bearer 1234", snapshot.getHeaderValue(0));
+
+            Assert.assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void segmentsRollAndTheOldestAreDeleted() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (CaptureJournal journal = new CaptureJournal(directory, 256, 3)) {
+            for (int i = 0; i < 20; i++) {
+                Assert.assertTrue(journal.append(i, request(i)));
+            }
+        }
+        Assert.assertEquals(3, JournalReader.listSegments(directory).size());
+
+        List<Long> timestamps = new ArrayList<>();
+        try (JournalReader reader = new JournalReader(directory)) {
+            reader.forEach(record -> {
+                timestamps.add(record.getTimestamp());
+                // Every segment has its own dictionary.
+                Assert.assertEquals("X-Request-Id", record.getHeaderName(0));
+                Assert.assertEquals("id-" + record.getTimestamp(), record.getHeaderValue(0));
+            });
+        }
+        Assert.assertFalse(timestamps.isEmpty());
+        Assert.assertEquals(Long.valueOf(19), timestamps.get(timestamps.size() - 1));
+        for (int i = 1; i < timestamps.size(); i++) {
+            Assert.assertEquals(timestamps.get(i - 1) + 1, (long) timestamps.get(i));
+        }
+    }
+
+    @Test
+    public void newJournalsContinueAfterTheExistingSegments() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (CaptureJournal journal = new CaptureJournal(directory, 4096, 4)) {
+            journal.append(1, request(1));
+        }
+        try (CaptureJournal journal = new CaptureJournal(directory, 4096, 4)) {
+            journal.append(2, request(2));
+        }
+
+        List<Long> timestamps = new ArrayList<>();
+        try (JournalReader reader = new JournalReader(directory)) {
+            reader.forEach(record -> timestamps.add(record.getTimestamp()));
+        }
+        Assert.assertEquals(2, timestamps.size());
+    }
+
+    @Test
+    public void requestsLargerThanASegmentAreRejected() throws IOException {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            value.append('x');
+        }
+        try (CaptureJournal journal = new CaptureJournal(folder.getRoot().toPath(), 256, 3)) {
+            Assert.assertTrue(journal.append(1, request(1)));
+            Assert.assertFalse(journal.append(2, ReplaySnapshot.of("GET", "/api", null,
+                    new String[]{"Cookie"}, new String[]{value.toString()})));
+            Assert.assertEquals(1, journal.getRejected());
+            Assert.assertTrue(journal.append(3, request(3)));
+        }
+        // The rejected request did not roll the segment.
+        Assert.assertEquals(1, JournalReader.listSegments(folder.getRoot().toPath()).size());
+    }
+
+    private static ReplaySnapshot request(int i) {
+        return ReplaySnapshot.of("GET", "/api/splitChanges", "since=" + i,
+                new String[]{"X-Request-Id"}, new String[]{"id-" + i});
+    }
+}
@@ -0,0 +1,50 @@
+package io.split.diffyreplayer.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsAreContiguous() {
+        long previousUpperBound = -1;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            long upperBound = LatencyHistogram.upperBound(i);
+            Assert.assertEquals(i, LatencyHistogram.index(previousUpperBound + 1));
+            Assert.assertEquals(i, LatencyHistogram.index(upperBound));
+            previousUpperBound = upperBound;
+        }
+        Assert.assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.index(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesAreWithinTheBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        HistogramSnapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(1000, snapshot.getCount());
+        Assert.assertEquals(500_500, snapshot.getMean(), 1);
+        Assert.assertEquals(1_000_000, snapshot.getMax());
+        assertWithin(500_000, snapshot.getPercentile(50));
+        assertWithin(990_000, snapshot.getPercentile(99));
+        Assert.assertEquals(1_000_000, snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void empty() {
+        HistogramSnapshot snapshot = new LatencyHistogram().snapshot();
+        Assert.assertEquals(0, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getMean(), 0);
+        Assert.assertEquals(0, snapshot.getPercentile(99));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assert.assertTrue(String.format("%s is not within 25%% of %s", actual, expected),
+                actual >= expected && actual <= expected * 1.25);
+    }
+}
@@ -0,0 +1,131 @@
+package io.split.diffyreplayer.metrics;
+
+import io.split.diffyreplayer.executor.DropReason;
+import io.split.diffyreplayer.executor.ReplayDropCounter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+public class ReplayMetricsTest {
+
+    private ReplayDropCounter dropCounter;
+    private ReplayMetrics metrics;
+
+    @Before
+    public void setUp() {
+        dropCounter = new ReplayDropCounter();
+        metrics = new ReplayMetrics(dropCounter, 2);
+    }
+
+    @Test
+    public void countsByResource() {
+        metrics.recordSeen();
+        metrics.recordSampled();
+        metrics.recordEnqueued();
+        dropCounter.record(DropReason.QUEUE_FULL);
+        metrics.recordSent("splitChanges");
+        metrics.recordSent("splitChanges");
+        metrics.recordSent("segmentChanges");
+        metrics.recordResponse("splitChanges", 200, 1000);
+        metrics.recordResponse("splitChanges", 500, 1000);
+        metrics.recordFailure("segmentChanges", 1000);
+
+        ReplayMetricsSnapshot snapshot = metrics.snapshot();
+        Assert.assertEquals(1, snapshot.getSeen());
+        Assert.assertEquals(1, snapshot.getSampled());
+        Assert.assertEquals(1, snapshot.getEnqueued());
+        Assert.assertEquals(Long.valueOf(1), snapshot.getDropped().get(DropReason.QUEUE_FULL));
+        Assert.assertEquals(3, snapshot.getSent());
+        Assert.assertEquals(1, snapshot.getNon200());
+        Assert.assertEquals(1, snapshot.getIoFailures());
+        Assert.assertEquals(3, snapshot.getRoundTrip().getCount());
+
+        ResourceMetrics.Snapshot splitChanges = snapshot.getResources().get("splitChanges");
+        Assert.assertEquals(2, splitChanges.getSent());
+        Assert.assertEquals(1, splitChanges.getNon200());
+        Assert.assertEquals(0, splitChanges.getIoFailures());
+        Assert.assertEquals(1, snapshot.getResources().get("segmentChanges").getIoFailures());
+        Assert.assertFalse(snapshot.getResources().containsKey(ReplayMetrics.OTHER_RESOURCES));
+    }
+
+    @Test
+    public void resourcesOverTheMaxAreCountedTogether() {
+        metrics.recordSent("first");
+        metrics.recordSent("second");
+        metrics.recordSent("third");
+        metrics.recordSent("fourth");
+        metrics.recordSent(null);
+
+        ReplayMetricsSnapshot snapshot = metrics.snapshot();
+        Assert.assertEquals(3, snapshot.getResources().size());
+        Assert.assertEquals(3, snapshot.getResources().get(ReplayMetrics.OTHER_RESOURCES).getSent());
+    }
+
+    @Test
+    public void latencyComparisons() {
+        for (int i = 0; i < 10; i++) {
+            metrics.recordOriginal("splitChanges", 1_000_000);
+            metrics.recordResponse("splitChanges", 200, 5_000_000);
+            metrics.recordOriginal("segmentChanges", 2_000_000);
+            metrics.recordResponse("segmentChanges", 200, 2_000_000);
+        }
+        metrics.recordOriginal(null, 1_000_000);
+
+        List<LatencyComparison> comparisons = metrics.snapshot().getLatencyComparisons(10);
+        Assert.assertEquals(2, comparisons.size());
+        LatencyComparison slowest = comparisons.get(0);
+        Assert.assertEquals("splitChanges", slowest.getCanonicalResource());
+        Assert.assertEquals(10, slowest.getSamples());
+        Assert.assertTrue(slowest.getP50Delta() > 3_000);
+        Assert.assertTrue(slowest.getP99Delta() > 3_000);
+        Assert.assertEquals("segmentChanges", comparisons.get(1).getCanonicalResource());
+        Assert.assertEquals(0, comparisons.get(1).getP99Delta());
+
+        // Not enough samples, and the originals without a replay are not compared.
+        Assert.assertTrue(metrics.snapshot().getLatencyComparisons(11).isEmpty());
+        Assert.assertEquals(1, metrics.snapshot().getResources().get(ReplayMetrics.OTHER_RESOURCES)
+                .getOriginal().getCount());
+    }
+
+    @Test
+    public void gauges() {
+        metrics.registerGauge("queueDepth", () -> 7);
+
+        Assert.assertEquals(7, metrics.snapshot().getGauges().get("queueDepth"), 0);
+    }
+
+    @Test
+    public void jmx() throws Exception {
+        metrics.recordSent("splitChanges");
+        metrics.registerGauge("queueDepth", () -> 3);
+        ObjectName name = new ObjectName(ReplayMetricsJmx.OBJECT_NAME);
+
+        try (ReplayMetricsJmx jmx = new ReplayMetricsJmx(metrics)) {
+            jmx.register();
+            Assert.assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ReplaysSent"));
+            Assert.assertEquals(1L, (long) jmx.getReplaysSentByResource().get("splitChanges"));
+            Assert.assertEquals(3, jmx.getGauges().get("queueDepth"), 0);
+        }
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test
+    public void closingAReplacedMBeanKeepsTheNewOne() throws Exception {
+        ReplayMetrics newer = new ReplayMetrics(new ReplayDropCounter(), 2);
+        newer.recordSent("splitChanges");
+        ObjectName name = new ObjectName(ReplayMetricsJmx.OBJECT_NAME);
+
+        try (ReplayMetricsJmx newerJmx = new ReplayMetricsJmx(newer)) {
+            ReplayMetricsJmx olderJmx = new ReplayMetricsJmx(metrics);
+            olderJmx.register();
+            newerJmx.register();
+            olderJmx.close();
+            Assert.assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ReplaysSent"));
+        }
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
@@ -0,0 +1,71 @@
+package io.split.diffyreplayer.shard;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+public class ConsistentHashRingTest {
+
+    private static final ImmutableList<String> NODES = ImmutableList.of("http://diffy-1", "http://diffy-2",
+            "http://diffy-3");
+
+    @Test
+    public void keysAlwaysLandOnTheSameNode() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(NODES, Function.identity(), 128);
+        ConsistentHashRing<String> reordered = new ConsistentHashRing<>(NODES.reverse(), Function.identity(), 128);
+
+        for (int i = 0; i < 100; i++) {
+            String key = "resource" + i;
+            Assert.assertEquals(ring.owner(key), ring.route(key, node -> true));
+            Assert.assertEquals(ring.owner(key), reordered.owner(key));
+        }
+    }
+
+    @Test
+    public void keysAreSpreadAcrossTheNodes() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(NODES, Function.identity(), 128);
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            counts.merge(ring.owner("resource" + i), 1, Integer::sum);
+        }
+        Assert.assertEquals(3, counts.size());
+        counts.values().forEach(count -> Assert.assertTrue(String.valueOf(counts), count > 600 && count < 1400));
+    }
+
+    @Test
+    public void onlyTheKeysOfAnUnavailableNodeMove() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(NODES, Function.identity(), 128);
+        String down = "http://diffy-2";
+
+        int moved = 0;
+        for (int i = 0; i < 1000; i++) {
+            String key = "resource" + i;
+            String owner = ring.owner(key);
+            String routed = ring.route(key, node -> !node.equals(down));
+            if (owner.equals(down)) {
+                Assert.assertNotEquals(down, routed);
+                moved++;
+            } else {
+                Assert.assertEquals(owner, routed);
+            }
+        }
+        Assert.assertTrue(moved > 0);
+    }
+
+    @Test
+    public void ownerWhenNoNodeIsAvailable() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(NODES, Function.identity(), 16);
+
+        Assert.assertEquals(ring.owner("splitChanges"), ring.route("splitChanges", node -> false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void atLeastOneNode() {
+        new ConsistentHashRing<>(ImmutableList.<String>of(), Function.identity(), 16);
+    }
+}
@@ -0,0 +1,71 @@
+package io.split.diffyreplayer.template;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.UUID;
+
+public class PathTemplateTrieTest {
+
+    @Test
+    public void matchesTypedPlaceholders() {
+        PathTemplateTrie trie = new PathTemplateTrie();
+        trie.add("/segmentChanges/{SEGMENT_NAME:ident}");
+        trie.add("organization/{ORG:uuid}/environment/{ENV:uuid}/splits/{N:int}");
+
+        Assert.assertEquals("segmentChanges/SEGMENT_NAME", trie.match("segmentChanges/my_segment-1"));
+        Assert.assertEquals("organization/ORG/environment/ENV/splits/N",
+                trie.match("organization/" + UUID.randomUUID() + "/environment/" + UUID.randomUUID() + "/splits/42"));
+        Assert.assertEquals(2, trie.size());
+    }
+
+    @Test
+    public void doesNotMatchWrongTypesOrLengths() {
+        PathTemplateTrie trie = new PathTemplateTrie();
+        trie.add("segmentChanges/{SEGMENT_NAME:ident}");
+        trie.add("splits/{N:int}");
+        trie.add("tests/{ID:uuid}");
+
+        Assert.assertNull(trie.match("segmentChanges/1segment"));
+        Assert.assertNull(trie.match("segmentChanges"));
+        Assert.assertNull(trie.match("segmentChanges/one/two"));
+        Assert.assertNull(trie.match("splits/4a"));
+        Assert.assertNull(trie.match("tests/ec401d70-54fe-11e6-8857-068f59b32aa"));
+        Assert.assertNull(trie.match("other"));
+    }
+
+    @Test
+    public void literalsTakePrecedenceAndBacktrack() {
+        PathTemplateTrie trie = new PathTemplateTrie();
+        trie.add("splits/{NAME:ident}/definition");
+        trie.add("splits/active/count");
+        trie.add("splits/{ID:int}");
+        trie.add("splits/{ANYTHING}");
+
+        Assert.assertEquals("splits/active/count", trie.match("splits/active/count"));
+        // The literal "active" does not lead to a match, so the placeholder is tried.
+        Assert.assertEquals("splits/NAME/definition", trie.match("splits/active/definition"));
+        Assert.assertEquals("splits/ID", trie.match("splits/123"));
+        Assert.assertEquals("splits/ANYTHING", trie.match("splits/some@thing"));
+    }
+
+    @Test
+    public void firstTemplateWins() {
+        PathTemplateTrie trie = new PathTemplateTrie();
+        trie.add("a/{FIRST:int}");
+        trie.add("a/{SECOND:int}");
+
+        Assert.assertEquals("a/FIRST", trie.match("a/1"));
+        Assert.assertEquals(1, trie.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownTypeIsNotAllowed() {
+        new PathTemplateTrie().add("a/{N:long}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unclosedPlaceholderIsNotAllowed() {
+        new PathTemplateTrie().add("a/{N:int");
+    }
+}
@@ -0,0 +1,162 @@
+package io.split.diffyreplayer.transport;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ReplayTransportTest {
+
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ok", exchange -> {
+            byte[] body = new byte[64 * 1024];
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/fail", exchange -> {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void blockingTransportReusesConnections() throws Exception {
+        try (PooledHttpTransport transport = new PooledHttpTransport(2, 2, 30000)) {
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals(200, send(transport, "/ok").getStatusCode());
+            }
+            Assert.assertEquals(500, send(transport, "/fail").getStatusCode());
+            // Responses are drained, so nothing stays leased.
+            Assert.assertEquals(0, transport.getPoolStats().getLeased());
+            Assert.assertEquals(1, transport.getPoolStats().getAvailable());
+        }
+    }
+
+    @Test
+    public void asyncTransportCompletesAllReplays() throws Exception {
+        try (AsyncHttpTransport transport = new AsyncHttpTransport(1, 4, 30000)) {
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals(200, send(transport, "/ok").getStatusCode());
+            }
+            Assert.assertEquals(500, send(transport, "/fail").getStatusCode());
+            Assert.assertEquals(0, transport.getInFlight());
+            Assert.assertEquals(0, transport.getPoolStats().getLeased());
+        }
+    }
+
+    @Test
+    public void asyncTransportRetriesOnConnectionsClosedByTheServer() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        try (ServerSocket closing = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+             AsyncHttpTransport transport = new AsyncHttpTransport(1, 1, 30000)) {
+            Thread acceptor = new Thread(() -> answerOnceThenClose(closing, connections));
+            acceptor.setDaemon(true);
+            acceptor.start();
+            baseUrl = "http://127.0.0.1:" + closing.getLocalPort();
+
+            // The second replay reuses the kept alive connection, which is closed without an answer.
+            Assert.assertEquals(200, send(transport, "/ok").getStatusCode());
+            Assert.assertEquals(200, send(transport, "/ok").getStatusCode());
+            Assert.assertEquals(2, connections.get());
+            Assert.assertEquals(0, transport.getInFlight());
+        }
+    }
+
+    @Test
+    public void failuresAreReported() throws Exception {
+        server.stop(0);
+        try (PooledHttpTransport blocking = new PooledHttpTransport(1, 1, 30000);
+             AsyncHttpTransport async = new AsyncHttpTransport(1, 1, 30000)) {
+            for (ReplayTransport transport : new ReplayTransport[]{blocking, async}) {
+                CompletableFuture<StatusLine> result = sendAsync(transport, "/ok");
+                try {
+                    result.get(10, TimeUnit.SECONDS);
+                    Assert.fail("Should have failed");
+                } catch (ExecutionException e) {
+                    // Nothing listens on the port anymore.
+                    Assert.assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof ConnectException);
+                }
+            }
+            Assert.assertEquals(0, async.getInFlight());
+        }
+    }
+
+    /**
+     * Answers the first request of every connection keeping it alive, and closes it on the second one.
+     */
+    private static void answerOnceThenClose(ServerSocket server, AtomicInteger connections) {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                connections.incrementAndGet();
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                        StandardCharsets.US_ASCII));
+                readRequest(in);
+                OutputStream out = socket.getOutputStream();
+                out.write("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                readRequest(in);
+            } catch (IOException e) {
+                // Closed at the end of the test.
+            }
+        }
+    }
+
+    private static void readRequest(BufferedReader in) throws IOException {
+        String line;
+        do {
+            line = in.readLine();
+        } while (line != null && !line.isEmpty());
+    }
+
+    private StatusLine send(ReplayTransport transport, String path) throws Exception {
+        return sendAsync(transport, path).get(10, TimeUnit.SECONDS);
+    }
+
+    private CompletableFuture<StatusLine> sendAsync(ReplayTransport transport, String path) {
+        CompletableFuture<StatusLine> result = new CompletableFuture<>();
+        transport.send(new HttpGet(baseUrl + path), new ReplayCallback() {
+            @Override
+            public void completed(StatusLine statusLine) {
+                result.complete(statusLine);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,70 @@
+package io.split.diffyreplayer.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.ws.rs.Path;
+
+public class ResourcePathUtilTest {
+
+    @Path("/api/")
+    public static class Resource {
+        @Path("segmentChanges/{segmentName}")
+        public void segment() {
+        }
+
+        @Path("/splitChanges/{id: [0-9]{1,4}}/{ key : [a-z]+ }/")
+        public void regex() {
+        }
+
+        public void noPath() {
+        }
+    }
+
+    public interface AnnotatedInterface {
+        @Path("/{name}")
+        void inherited();
+    }
+
+    @Path("base")
+    public static class Implementation implements AnnotatedInterface {
+        @Override
+        public void inherited() {
+        }
+    }
+
+    public static class NotAnnotated {
+        public void method() {
+        }
+    }
+
+    @Test
+    public void classAndMethodAreJoined() throws NoSuchMethodException {
+        Assert.assertEquals("api/segmentChanges/{segmentName}",
+                ResourcePathUtil.getPathTemplate(Resource.class, Resource.class.getMethod("segment")));
+    }
+
+    @Test
+    public void regexesAreRemoved() throws NoSuchMethodException {
+        Assert.assertEquals("api/splitChanges/{id}/{key}",
+                ResourcePathUtil.getPathTemplate(Resource.class, Resource.class.getMethod("regex")));
+    }
+
+    @Test
+    public void onlyClassPath() throws NoSuchMethodException {
+        Assert.assertEquals("api",
+                ResourcePathUtil.getPathTemplate(Resource.class, Resource.class.getMethod("noPath")));
+    }
+
+    @Test
+    public void inheritedPaths() throws NoSuchMethodException {
+        Assert.assertEquals("base/{name}",
+                ResourcePathUtil.getPathTemplate(Implementation.class, Implementation.class.getMethod("inherited")));
+    }
+
+    @Test
+    public void withoutPath() throws NoSuchMethodException {
+        Assert.assertNull(ResourcePathUtil.getPathTemplate(NotAnnotated.class, NotAnnotated.class.getMethod("method")));
+        Assert.assertNull(ResourcePathUtil.getPathTemplate(null, null));
+    }
+}